@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.benchmarks;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.expedia.www.haystack.client.dispatchers.queues.RingBufferQueue;
+import com.expedia.www.haystack.client.dispatchers.queues.WaitStrategy;
+
+/**
+ * Request threads offering to the dispatcher's accept queue while a
+ * single sender drains it, at 1, 8 and 32 producers.  An offer that
+ * finds the queue full still returns promptly, just as the dispatcher
+ * rejects the span, so the <code>offer</code> scores are the cost the
+ * request threads pay.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AcceptQueueBenchmark {
+    private static final Object SPAN = new Object();
+
+    @Param({"array", "ring-spin", "ring-yield", "ring-park"})
+    public String queueType;
+
+    @Param({"1024"})
+    public int capacity;
+
+    private BlockingQueue<Object> queue;
+
+    @Setup
+    public void setUp() {
+        switch (queueType) {
+        case "array":
+            queue = new ArrayBlockingQueue<>(capacity);
+            break;
+        case "ring-spin":
+            queue = new RingBufferQueue<>(capacity, WaitStrategy.busySpin());
+            break;
+        case "ring-yield":
+            queue = new RingBufferQueue<>(capacity, WaitStrategy.yielding());
+            break;
+        default:
+            queue = new RingBufferQueue<>(capacity, WaitStrategy.parking());
+            break;
+        }
+    }
+
+    private boolean offer() {
+        return queue.offer(SPAN);
+    }
+
+    private Object poll() throws InterruptedException {
+        return queue.poll(100, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    @Group("producers1")
+    @GroupThreads(1)
+    public boolean offer1() {
+        return offer();
+    }
+
+    @Benchmark
+    @Group("producers1")
+    @GroupThreads(1)
+    public Object poll1() throws InterruptedException {
+        return poll();
+    }
+
+    @Benchmark
+    @Group("producers8")
+    @GroupThreads(8)
+    public boolean offer8() {
+        return offer();
+    }
+
+    @Benchmark
+    @Group("producers8")
+    @GroupThreads(1)
+    public Object poll8() throws InterruptedException {
+        return poll();
+    }
+
+    @Benchmark
+    @Group("producers32")
+    @GroupThreads(32)
+    public boolean offer32() {
+        return offer();
+    }
+
+    @Benchmark
+    @Group("producers32")
+    @GroupThreads(1)
+    public Object poll32() throws InterruptedException {
+        return poll();
+    }
+}
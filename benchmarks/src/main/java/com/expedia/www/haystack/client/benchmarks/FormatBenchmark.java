@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.Tracer;
+import com.expedia.www.haystack.client.dispatchers.NoopDispatcher;
+import com.expedia.www.haystack.client.dispatchers.formats.ColumnarBatchFormat;
+import com.expedia.www.haystack.client.dispatchers.formats.DirectProtoBufFormat;
+import com.expedia.www.haystack.client.dispatchers.formats.ProtoBufFormat;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+
+/**
+ * Cost of encoding a typical request span for the agent by building the
+ * generated message and serializing it, against writing the same bytes
+ * directly; run with <code>-prof gc</code> to compare the allocation per
+ * span.  The columnar batch format is measured per span of a batch of
+ * the same span.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class FormatBenchmark {
+    private static final int BATCH_SIZE = 100;
+
+    private final ProtoBufFormat message = new ProtoBufFormat();
+    private final DirectProtoBufFormat direct = new DirectProtoBufFormat();
+    private final ColumnarBatchFormat columnar = new ColumnarBatchFormat();
+    private final Span span;
+    private final List<Span> batch;
+
+    public FormatBenchmark() {
+        final Tracer tracer = new Tracer.Builder(new NoopMetricsRegistry(), "benchmark", new NoopDispatcher()).build();
+        span = tracer.buildSpan("request")
+            .ignoreActiveSpan()
+            .withTag("span.kind", "server")
+            .start();
+        span.setTag("http.method", "GET");
+        span.setTag("http.url", "/v1/benchmark/resource?id=12345");
+        span.setTag("http.status_code", 200);
+        span.setTag("error", false);
+        span.log("handled");
+        span.finish();
+
+        batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(span);
+        }
+    }
+
+    @Benchmark
+    public byte[] messageToByteArray() {
+        return message.format(span).toByteArray();
+    }
+
+    @Benchmark
+    public byte[] direct() {
+        return direct.format(span);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public byte[] columnarBatch() {
+        return columnar.format(batch);
+    }
+}
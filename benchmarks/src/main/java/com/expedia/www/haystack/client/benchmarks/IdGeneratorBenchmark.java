@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.benchmarks;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.expedia.www.haystack.client.idgenerators.IdGenerator;
+import com.expedia.www.haystack.client.idgenerators.SecureRandomIdGenerator;
+import com.expedia.www.haystack.client.idgenerators.ThreadLocalRandomIdGenerator;
+
+/**
+ * Compares id generation under contention; the secure generator shares
+ * a single <code>SecureRandom</code> across all threads just like
+ * <code>UUID.randomUUID()</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(32)
+public class IdGeneratorBenchmark {
+    private final IdGenerator threadLocal = new ThreadLocalRandomIdGenerator();
+    private final IdGenerator secure = new SecureRandomIdGenerator();
+
+    @Benchmark
+    public void threadLocalRandom(Blackhole blackhole) {
+        blackhole.consume(threadLocal.nextMostSignificantBits());
+        blackhole.consume(threadLocal.nextLeastSignificantBits());
+    }
+
+    @Benchmark
+    public void secureRandom(Blackhole blackhole) {
+        blackhole.consume(secure.nextMostSignificantBits());
+        blackhole.consume(secure.nextLeastSignificantBits());
+    }
+
+    @Benchmark
+    public UUID randomUUID() {
+        return UUID.randomUUID();
+    }
+}
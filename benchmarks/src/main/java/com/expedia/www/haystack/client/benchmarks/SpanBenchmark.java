@@ -0,0 +1,81 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.Tracer;
+import com.expedia.www.haystack.client.dispatchers.NoopDispatcher;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.expedia.www.haystack.client.samplers.AlwaysSampler;
+import com.expedia.www.haystack.client.samplers.NeverSampler;
+
+/**
+ * Cost of a typical instrumented request span when it is recorded and
+ * when the trace was not sampled; run with <code>-prof gc</code> to see
+ * the allocation difference.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class SpanBenchmark {
+    private final Tracer recording = new Tracer.Builder(new NoopMetricsRegistry(), "benchmark", new NoopDispatcher())
+        .withSampler(new AlwaysSampler())
+        .build();
+    private final Tracer unsampled = new Tracer.Builder(new NoopMetricsRegistry(), "benchmark", new NoopDispatcher())
+        .withSampler(new NeverSampler())
+        .build();
+
+    private static Span request(Tracer tracer) {
+        final Span span = tracer.buildSpan("request")
+            .ignoreActiveSpan()
+            .withTag("span.kind", "server")
+            .start();
+        span.setTag("http.method", "GET");
+        span.setTag("http.status_code", 200);
+        span.setTag("error", false);
+        span.log("handled");
+        span.finish();
+        return span;
+    }
+
+    @Benchmark
+    public Span recordedSpan() {
+        return request(recording);
+    }
+
+    @Benchmark
+    public Span unsampledSpan() {
+        return request(unsampled);
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client;
+
+import java.util.UUID;
+
+/**
+ * Helpers to convert 128 bit ids, kept as a pair of <code>long</code>s, to
+ * and from the canonical 36 character UUID string form
+ * (<code>xxxxxxxx-xxxx-xxxx-xxxx-xxxxxxxxxxxx</code>) without going through
+ * <code>java.util.UUID</code>.
+ */
+public final class Ids {
+    /** Length of the canonical string form of an id */
+    public static final int LENGTH = 36;
+
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        for (int i = 0; i < VALUES.length; i++) {
+            VALUES[i] = -1;
+        }
+        for (int i = 0; i < 10; i++) {
+            VALUES['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            VALUES['a' + i] = (byte) (10 + i);
+            VALUES['A' + i] = (byte) (10 + i);
+        }
+    }
+
+    private Ids() {
+    }
+
+    /**
+     * Formats an id exactly as <code>new UUID(msb, lsb).toString()</code> would.
+     *
+     * @param msb The most significant bits of the id
+     * @param lsb The least significant bits of the id
+     * @return The canonical string form of the id
+     */
+    public static String toString(long msb, long lsb) {
+        final char[] chars = new char[LENGTH];
+        writeChars(msb, lsb, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * Writes the canonical form of an id into a character buffer.
+     *
+     * @param msb The most significant bits of the id
+     * @param lsb The least significant bits of the id
+     * @param dest Buffer with at least <code>LENGTH</code> characters free after <code>offset</code>
+     * @param offset Position to start writing at
+     */
+    public static void writeChars(long msb, long lsb, char[] dest, int offset) {
+        hex(msb >>> 32, 8, dest, offset);
+        dest[offset + 8] = '-';
+        hex(msb >>> 16, 4, dest, offset + 9);
+        dest[offset + 13] = '-';
+        hex(msb, 4, dest, offset + 14);
+        dest[offset + 18] = '-';
+        hex(lsb >>> 48, 4, dest, offset + 19);
+        dest[offset + 23] = '-';
+        hex(lsb, 12, dest, offset + 24);
+    }
+
+    /**
+     * Writes the canonical form of an id as ASCII (and so UTF-8) bytes.
+     *
+     * @param msb The most significant bits of the id
+     * @param lsb The least significant bits of the id
+     * @param dest Buffer with at least <code>LENGTH</code> bytes free after <code>offset</code>
+     * @param offset Position to start writing at
+     */
+    public static void writeAscii(long msb, long lsb, byte[] dest, int offset) {
+        hex(msb >>> 32, 8, dest, offset);
+        dest[offset + 8] = '-';
+        hex(msb >>> 16, 4, dest, offset + 9);
+        dest[offset + 13] = '-';
+        hex(msb, 4, dest, offset + 14);
+        dest[offset + 18] = '-';
+        hex(lsb >>> 48, 4, dest, offset + 19);
+        dest[offset + 23] = '-';
+        hex(lsb, 12, dest, offset + 24);
+    }
+
+    private static void hex(long value, int digits, char[] dest, int offset) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            dest[i] = DIGITS[(int) (value & 0xf)];
+            value >>>= 4;
+        }
+    }
+
+    private static void hex(long value, int digits, byte[] dest, int offset) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            dest[i] = (byte) DIGITS[(int) (value & 0xf)];
+            value >>>= 4;
+        }
+    }
+
+    /**
+     * Parses the most significant bits of an id from its string form.
+     *
+     * @param value The string form of the id
+     * @return The most significant bits of the id
+     * @throws IllegalArgumentException if the value is not a valid id
+     */
+    public static long parseMostSignificantBits(CharSequence value) {
+        if (!isCanonical(value)) {
+            return UUID.fromString(value.toString()).getMostSignificantBits();
+        }
+        return (parseHex(value, 0, 8) << 32) | (parseHex(value, 9, 13) << 16) | parseHex(value, 14, 18);
+    }
+
+    /**
+     * Parses the least significant bits of an id from its string form.
+     *
+     * @param value The string form of the id
+     * @return The least significant bits of the id
+     * @throws IllegalArgumentException if the value is not a valid id
+     */
+    public static long parseLeastSignificantBits(CharSequence value) {
+        if (!isCanonical(value)) {
+            return UUID.fromString(value.toString()).getLeastSignificantBits();
+        }
+        return (parseHex(value, 19, 23) << 48) | parseHex(value, 24, 36);
+    }
+
+    private static boolean isCanonical(CharSequence value) {
+        return value.length() == LENGTH
+            && value.charAt(8) == '-'
+            && value.charAt(13) == '-'
+            && value.charAt(18) == '-'
+            && value.charAt(23) == '-';
+    }
+
+    private static long parseHex(CharSequence value, int start, int end) {
+        long result = 0;
+        for (int i = start; i < end; i++) {
+            final char c = value.charAt(i);
+            final int digit = (c < VALUES.length ? VALUES[c] : -1);
+            if (digit < 0) {
+                throw new IllegalArgumentException(String.format("Invalid id: %s", value));
+            }
+            result = (result << 4) | digit;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client;
+
+import java.util.Map;
+
+/**
+ * Span handed out for traces that were not sampled.
+ *
+ * It carries a context, so the trace and any baggage still propagate to
+ * downstream services, but tags, logs and timings are dropped on the
+ * floor without allocating.  Finishing it never raises an error and is
+ * only counted by the tracer; nothing is dispatched.
+ */
+public class NonRecordingSpan extends Span {
+
+    NonRecordingSpan(Tracer tracer, Clock clock, String operationName, SpanContext context) {
+        super(tracer, clock, operationName, context, 0l, null, null);
+    }
+
+    @Override
+    public boolean isRecording() {
+        return false;
+    }
+
+    @Override
+    protected void finishTrace(long finishMicros) {
+        getTracer().dispatch(this);
+    }
+
+    @Override
+    public Span setOperationName(String operationName) {
+        return this;
+    }
+
+    @Override
+    protected Span addTag(String key, Object value) {
+        return this;
+    }
+
+    @Override
+    public Span setTag(String key, Number value) {
+        return this;
+    }
+
+    @Override
+    public Span setTag(String key, boolean value) {
+        return this;
+    }
+
+    @Override
+    public Span setTag(String key, String value) {
+        return this;
+    }
+
+    @Override
+    public Span log(long timestampMicroseconds, Map<String, ?> fields) {
+        return this;
+    }
+
+    @Override
+    public Span log(Map<String, ?> fields) {
+        return this;
+    }
+
+    @Override
+    public Span log(long timestampMicroseconds, String event) {
+        return this;
+    }
+
+    @Override
+    public Span log(String event) {
+        return this;
+    }
+}
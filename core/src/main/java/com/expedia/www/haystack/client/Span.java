@@ -22,33 +22,48 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import org.apache.commons.lang3.builder.RecursiveToStringStyle;
 import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
 
+/**
+ * A span is mutated almost exclusively by the thread that started it, so
+ * tags and logs live in plain collections.  Access is guarded by a single
+ * state word: every mutation moves it from <code>ACTIVE</code> to
+ * <code>MUTATING</code> and back with a CAS and a volatile write, which
+ * keeps the rare cross-thread access safe without taking a monitor.
+ * <code>finish()</code> moves it to <code>FINISHED</code>, after which the
+ * span is read-only.
+ */
 public class Span implements io.opentracing.Span {
+    private static final int ACTIVE = 0;
+    private static final int MUTATING = 1;
+    private static final int FINISHED = 2;
+
+    private static final AtomicIntegerFieldUpdater<Span> STATE =
+        AtomicIntegerFieldUpdater.newUpdater(Span.class, "state");
+
     private final Tracer tracer;
     private final Clock clock;
-    private final AtomicReference<SpanContext> context = new AtomicReference<>();
-    private final AtomicReference<String> operationName = new AtomicReference<>();
-    private final Map<String, Object> tags;
-    private final List<LogData> logs;
+    private volatile int state = ACTIVE;
+    private volatile SpanContext context;
+    private volatile String operationName;
+    private Map<String, Object> tags;
+    private List<LogData> logs;
     private final List<Reference> references;
-    private final AtomicReference<Long> duration = new AtomicReference<>();
-    private final AtomicReference<Long> endTime = new AtomicReference<>();
-    private final AtomicReference<Long> startTime = new AtomicReference<>();
+    private final long startTime;
+    private long endTime;
+    private long duration;
 
-    private final AtomicReference<Boolean> finished = new AtomicReference<>(false);
-    private final List<RuntimeException> errors;
+    private List<RuntimeException> errors;
 
     public Span(Tracer tracer, Clock clock, String operationName, SpanContext context, long startTime, Map<String, Object> tags, List<Reference> references) {
         this.tracer = tracer;
         this.clock = clock;
-        this.operationName.compareAndSet(null, operationName);
-        this.context.compareAndSet(null, context);
-        this.startTime.compareAndSet(null, startTime);
-        this.tags = new HashMap<>();
+        this.operationName = operationName;
+        this.context = context;
+        this.startTime = startTime;
 
         if (references == null) {
             this.references = Collections.emptyList();
@@ -56,12 +71,8 @@ public class Span implements io.opentracing.Span {
             this.references = Collections.unmodifiableList(references);
         }
 
-        this.logs = new ArrayList<>();
-
-        this.errors = new ArrayList<>();
-
-        for (Map.Entry<String, Object> entry : tags.entrySet()) {
-            this.tags.put(entry.getKey(), entry.getValue());
+        if (tags != null && !tags.isEmpty()) {
+            this.tags = new HashMap<>(tags);
         }
     }
 
@@ -72,6 +83,27 @@ public class Span implements io.opentracing.Span {
             .toString();
     }
 
+    /**
+     * Claims the span for a mutation; must be paired with
+     * <code>endMutation()</code>.  Spins in the rare case another thread
+     * is mutating the span at the same moment.
+     *
+     * @return <code>true</code> if claimed, <code>false</code> if the span is finished
+     */
+    private boolean beginMutation() {
+        while (!STATE.compareAndSet(this, ACTIVE, MUTATING)) {
+            if (state == FINISHED) {
+                return false;
+            }
+            Thread.yield();
+        }
+        return true;
+    }
+
+    private void endMutation() {
+        state = ACTIVE;
+    }
+
     /**
      * Helper to record illegal access to span internals after <code>finish()</code>
      * has been called.
@@ -80,12 +112,21 @@ public class Span implements io.opentracing.Span {
      * @param args Any arguments needed to populate the supplied format
      *
      */
-    protected synchronized void finishedCheck(String format, Object... args) {
-        if (finished.get()) {
-            RuntimeException e = new IllegalStateException(String.format(format, args));
+    protected void finishedCheck(String format, Object... args) {
+        if (state == FINISHED) {
+            throw finishedError(format, args);
+        }
+    }
+
+    private RuntimeException finishedError(String format, Object... args) {
+        RuntimeException e = new IllegalStateException(String.format(format, args));
+        synchronized (this) {
+            if (errors == null) {
+                errors = new ArrayList<>(1);
+            }
             errors.add(e);
-            throw e;
         }
+        return e;
     }
 
     /**
@@ -95,7 +136,12 @@ public class Span implements io.opentracing.Span {
      * @return A collection of <code>RuntimeException</code>s generated by this span
      */
     public Collection<RuntimeException> getErrors() {
-        return Collections.unmodifiableCollection(errors);
+        synchronized (this) {
+            if (errors == null) {
+                return Collections.emptyList();
+            }
+            return Collections.unmodifiableCollection(new ArrayList<>(errors));
+        }
     }
 
     @Override
@@ -108,14 +154,31 @@ public class Span implements io.opentracing.Span {
         finishTrace(finishMicros);
     }
 
-    protected synchronized void finishTrace(long finishMicros) {
-        finishedCheck("Finishing a prior finished span");
-        this.endTime.compareAndSet(null, finishMicros);
-        this.duration.compareAndSet(null, endTime.get() - startTime.get());
-        finished.compareAndSet(false, true);
+    protected void finishTrace(long finishMicros) {
+        if (!beginMutation()) {
+            throw finishedError("Finishing a prior finished span");
+        }
+        this.endTime = finishMicros;
+        this.duration = finishMicros - startTime;
+        // publishes the final state of the span to whichever thread dispatches it
+        state = FINISHED;
         tracer.dispatch(this);
     }
 
+    /**
+     * @return <code>false</code> if tags, logs and timings set on this span are discarded
+     */
+    public boolean isRecording() {
+        return true;
+    }
+
+    /**
+     * @return <code>true</code> once the span has been finished
+     */
+    public boolean isFinished() {
+        return state == FINISHED;
+    }
+
     /**
      * @return the references
      */
@@ -124,24 +187,30 @@ public class Span implements io.opentracing.Span {
     }
 
     /**
-     * @return the duration
+     * @return the duration, or <code>null</code> if the span isn't finished
      */
     public Long getDuration() {
-        return duration.get();
+        if (state != FINISHED) {
+            return null;
+        }
+        return duration;
     }
 
     /**
-     * @return the endTime
+     * @return the endTime, or <code>null</code> if the span isn't finished
      */
     public Long getEndTime() {
-        return endTime.get();
+        if (state != FINISHED) {
+            return null;
+        }
+        return endTime;
     }
 
     /**
-     * @return the endTime
+     * @return the startTime
      */
     public Long getStartTime() {
-        return startTime.get();
+        return startTime;
     }
 
     /**
@@ -153,7 +222,7 @@ public class Span implements io.opentracing.Span {
 
     @Override
     public SpanContext context() {
-        return this.context.get();
+        return this.context;
     }
 
     public String getServiceName() {
@@ -165,13 +234,19 @@ public class Span implements io.opentracing.Span {
      * @return the operatioName
      */
     public String getOperatioName() {
-        return this.operationName.get();
+        return this.operationName;
     }
 
     @Override
     public Span setOperationName(String operationName) {
-        finishedCheck("Setting operation name (%s) to a finished span", operationName);
-        this.operationName.compareAndSet(this.getOperatioName(), operationName);
+        if (!beginMutation()) {
+            throw finishedError("Setting operation name (%s) to a finished span", operationName);
+        }
+        try {
+            this.operationName = operationName;
+        } finally {
+            endMutation();
+        }
         return this;
     }
 
@@ -180,18 +255,24 @@ public class Span implements io.opentracing.Span {
         if (key == null) {
             return this;
         }
-        finishedCheck("Setting baggage (%s:%s) on a finished span", key, value);
-        this.context.compareAndSet(this.context.get(), this.context.get().addBaggage(key, value));
+        if (!beginMutation()) {
+            throw finishedError("Setting baggage (%s:%s) on a finished span", key, value);
+        }
+        try {
+            this.context = this.context.addBaggage(key, value);
+        } finally {
+            endMutation();
+        }
         return this;
     }
 
     @Override
     public String getBaggageItem(String key) {
-        return this.context.get().getBaggageItem(key);
+        return this.context.getBaggageItem(key);
     }
 
     public Map<String, String> getBaggageItems() {
-        return context.get().getBaggage();
+        return context.getBaggage();
     }
 
     @Override
@@ -214,13 +295,46 @@ public class Span implements io.opentracing.Span {
             return this;
         }
 
-        finishedCheck("Setting a tag (%s:%s) on a finished span", key, value);
-        tags.put(key, value);
+        if (!beginMutation()) {
+            throw finishedError("Setting a tag (%s:%s) on a finished span", key, value);
+        }
+        try {
+            if (tags == null) {
+                tags = new HashMap<>();
+            }
+            tags.put(key, value);
+        } finally {
+            endMutation();
+        }
         return this;
     }
 
+    /**
+     * Tags should only be read by the thread mutating the span or after
+     * the span has been finished.
+     *
+     * @return the tags
+     */
     public Map<String, Object> getTags() {
-        return Collections.unmodifiableMap(tags);
+        final Map<String, Object> current = tags;
+        if (current == null) {
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(current);
+    }
+
+    private void addLog(LogData log, String format, Object value) {
+        if (!beginMutation()) {
+            throw finishedError(format, log.getTimestamp(), value);
+        }
+        try {
+            if (logs == null) {
+                logs = new ArrayList<>();
+            }
+            logs.add(log);
+        } finally {
+            endMutation();
+        }
     }
 
     @Override
@@ -228,8 +342,7 @@ public class Span implements io.opentracing.Span {
         if (fields == null || fields.isEmpty()) {
             return this;
         }
-        finishedCheck("Setting a log event (%s:%s) on a finished span", timestampMicroseconds, fields);
-        logs.add(new LogData(timestampMicroseconds, fields));
+        addLog(new LogData(timestampMicroseconds, fields), "Setting a log event (%s:%s) on a finished span", fields);
         return this;
     }
 
@@ -243,8 +356,7 @@ public class Span implements io.opentracing.Span {
         if (event == null) {
             return this;
         }
-        finishedCheck("Setting a log event (%s:%s) on a finished span", timestampMicroseconds, event);
-        logs.add(new LogData(timestampMicroseconds, event));
+        addLog(new LogData(timestampMicroseconds, event), "Setting a log event (%s:%s) on a finished span", event);
         return this;
     }
 
@@ -253,7 +365,17 @@ public class Span implements io.opentracing.Span {
         return log(System.nanoTime(), event);
     }
 
+    /**
+     * Logs should only be read by the thread mutating the span or after
+     * the span has been finished.
+     *
+     * @return the logs
+     */
     public List<LogData> getLogs() {
-        return Collections.unmodifiableList(logs);
+        final List<LogData> current = logs;
+        if (current == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(current);
     }
 }
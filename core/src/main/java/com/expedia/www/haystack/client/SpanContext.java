@@ -29,28 +29,62 @@ import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
 public class SpanContext implements io.opentracing.SpanContext {
 
     private final Map<String, String> baggage;
-    private final UUID traceId;
-    private final UUID spanId;
-    private final UUID parentId;
+    private final long traceIdHigh;
+    private final long traceIdLow;
+    private final long spanIdHigh;
+    private final long spanIdLow;
+    private final long parentIdHigh;
+    private final long parentIdLow;
+    private final boolean sampled;
+    // where the context came from rather than what it identifies; left out of equals and hashCode
+    private final boolean remote;
 
     public SpanContext(UUID traceId, UUID spanId, UUID parentId) {
         this(traceId, spanId, parentId, Collections.<String, String>emptyMap());
     }
 
     SpanContext(UUID traceId, UUID spanId, UUID parentId, Map<String, String> baggage) {
+        this(traceId.getMostSignificantBits(), traceId.getLeastSignificantBits(),
+             spanId.getMostSignificantBits(), spanId.getLeastSignificantBits(),
+             parentId.getMostSignificantBits(), parentId.getLeastSignificantBits(),
+             baggage);
+    }
+
+    public SpanContext(long traceIdHigh, long traceIdLow, long spanIdHigh, long spanIdLow, long parentIdHigh, long parentIdLow) {
+        this(traceIdHigh, traceIdLow, spanIdHigh, spanIdLow, parentIdHigh, parentIdLow, Collections.<String, String>emptyMap());
+    }
+
+    SpanContext(long traceIdHigh, long traceIdLow, long spanIdHigh, long spanIdLow, long parentIdHigh, long parentIdLow, Map<String, String> baggage) {
+        this(traceIdHigh, traceIdLow, spanIdHigh, spanIdLow, parentIdHigh, parentIdLow, baggage, true);
+    }
+
+    public SpanContext(long traceIdHigh, long traceIdLow, long spanIdHigh, long spanIdLow, long parentIdHigh, long parentIdLow, boolean sampled) {
+        this(traceIdHigh, traceIdLow, spanIdHigh, spanIdLow, parentIdHigh, parentIdLow, Collections.<String, String>emptyMap(), sampled);
+    }
+
+    SpanContext(long traceIdHigh, long traceIdLow, long spanIdHigh, long spanIdLow, long parentIdHigh, long parentIdLow, Map<String, String> baggage, boolean sampled) {
+        this(traceIdHigh, traceIdLow, spanIdHigh, spanIdLow, parentIdHigh, parentIdLow, baggage, sampled, false);
+    }
+
+    private SpanContext(long traceIdHigh, long traceIdLow, long spanIdHigh, long spanIdLow, long parentIdHigh, long parentIdLow, Map<String, String> baggage, boolean sampled, boolean remote) {
         if (baggage == null) {
             throw new NullPointerException();
         }
 
-        this.traceId = traceId;
-        this.spanId = spanId;
-        this.parentId = parentId;
+        this.traceIdHigh = traceIdHigh;
+        this.traceIdLow = traceIdLow;
+        this.spanIdHigh = spanIdHigh;
+        this.spanIdLow = spanIdLow;
+        this.parentIdHigh = parentIdHigh;
+        this.parentIdLow = parentIdLow;
+        this.sampled = sampled;
+        this.remote = remote;
         this.baggage = Collections.unmodifiableMap(baggage);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(traceId, spanId, parentId, baggage);
+        return Objects.hash(traceIdHigh, traceIdLow, spanIdHigh, spanIdLow, parentIdHigh, parentIdLow, sampled, baggage);
     }
 
     @Override
@@ -58,9 +92,13 @@ public class SpanContext implements io.opentracing.SpanContext {
         if (this == obj) return true;
         if (obj == null || getClass() != obj.getClass()) return false;
         SpanContext context = (SpanContext) obj;
-        return Objects.equals(traceId, context.getTraceId())
-            && Objects.equals(spanId, context.getSpanId())
-            && Objects.equals(parentId, context.getParentId())
+        return traceIdHigh == context.traceIdHigh
+            && traceIdLow == context.traceIdLow
+            && spanIdHigh == context.spanIdHigh
+            && spanIdLow == context.spanIdLow
+            && parentIdHigh == context.parentIdHigh
+            && parentIdLow == context.parentIdLow
+            && sampled == context.sampled
             && Objects.equals(baggage, context.getBaggage());
     }
 
@@ -71,13 +109,20 @@ public class SpanContext implements io.opentracing.SpanContext {
     }
 
     public SpanContext addBaggage(Map<String, String> newBaggage) {
-        return new SpanContext(traceId, spanId, parentId, newBaggage);
+        return new SpanContext(traceIdHigh, traceIdLow, spanIdHigh, spanIdLow, parentIdHigh, parentIdLow, newBaggage, sampled, remote);
     }
 
     public SpanContext addBaggage(String key, String value) {
         Map<String, String> newBaggage = new HashMap<>(this.baggage);
         newBaggage.put(key, value);
-        return new SpanContext(traceId, spanId, parentId, newBaggage);
+        return new SpanContext(traceIdHigh, traceIdLow, spanIdHigh, spanIdLow, parentIdHigh, parentIdLow, newBaggage, sampled, remote);
+    }
+
+    /**
+     * @return a copy of this context marked as extracted from another process
+     */
+    public SpanContext asRemote() {
+        return new SpanContext(traceIdHigh, traceIdLow, spanIdHigh, spanIdLow, parentIdHigh, parentIdLow, baggage, sampled, true);
     }
 
     @Override
@@ -95,24 +140,80 @@ public class SpanContext implements io.opentracing.SpanContext {
 
 
 
+    /**
+     * @return <code>true</code> if spans in this trace should be recorded and dispatched
+     */
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    /**
+     * @return <code>true</code> if this context was extracted from a carrier, i.e. its span lives in another process
+     */
+    public boolean isRemote() {
+        return remote;
+    }
+
     /**
      * @return the traceId
      */
     public UUID getTraceId() {
-        return traceId;
+        return new UUID(traceIdHigh, traceIdLow);
     }
 
     /**
      * @return the spanId
      */
     public UUID getSpanId() {
-        return spanId;
+        return new UUID(spanIdHigh, spanIdLow);
     }
 
     /**
      * @return the parentId
      */
     public UUID getParentId() {
-        return parentId;
+        return new UUID(parentIdHigh, parentIdLow);
+    }
+
+    /**
+     * @return the most significant bits of the traceId
+     */
+    public long getTraceIdHigh() {
+        return traceIdHigh;
+    }
+
+    /**
+     * @return the least significant bits of the traceId
+     */
+    public long getTraceIdLow() {
+        return traceIdLow;
+    }
+
+    /**
+     * @return the most significant bits of the spanId
+     */
+    public long getSpanIdHigh() {
+        return spanIdHigh;
+    }
+
+    /**
+     * @return the least significant bits of the spanId
+     */
+    public long getSpanIdLow() {
+        return spanIdLow;
+    }
+
+    /**
+     * @return the most significant bits of the parentId
+     */
+    public long getParentIdHigh() {
+        return parentIdHigh;
+    }
+
+    /**
+     * @return the least significant bits of the parentId
+     */
+    public long getParentIdLow() {
+        return parentIdLow;
     }
 }
@@ -28,6 +28,8 @@ import org.apache.commons.lang3.builder.RecursiveToStringStyle;
 import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
 
 import com.expedia.www.haystack.client.dispatchers.Dispatcher;
+import com.expedia.www.haystack.client.idgenerators.IdGenerator;
+import com.expedia.www.haystack.client.idgenerators.ThreadLocalRandomIdGenerator;
 import com.expedia.www.haystack.client.metrics.Counter;
 import com.expedia.www.haystack.client.metrics.Metrics;
 import com.expedia.www.haystack.client.metrics.MetricsRegistry;
@@ -38,6 +40,8 @@ import com.expedia.www.haystack.client.propagation.Extractor;
 import com.expedia.www.haystack.client.propagation.Injector;
 import com.expedia.www.haystack.client.propagation.PropagationRegistry;
 import com.expedia.www.haystack.client.propagation.TextMapPropagator;
+import com.expedia.www.haystack.client.samplers.AlwaysSampler;
+import com.expedia.www.haystack.client.samplers.Sampler;
 
 import io.opentracing.References;
 import io.opentracing.Scope;
@@ -51,10 +55,13 @@ public class Tracer implements io.opentracing.Tracer {
     private final Dispatcher dispatcher;
     protected final Clock clock;
     protected final PropagationRegistry registry;
+    protected final IdGenerator idGenerator;
+    protected final Sampler sampler;
     private final String serviceName;
     private final ScopeManager scopeManager;
 
     private final Counter spansCreatedCounter;
+    private final Counter spansUnsampledCounter;
 
     private final Timer dispatchTimer;
 
@@ -71,11 +78,17 @@ public class Tracer implements io.opentracing.Tracer {
     private final Counter extractFailureCounter;
 
     public Tracer(String serviceName, ScopeManager scopeManager, Clock clock, Dispatcher dispatcher, PropagationRegistry registry, Metrics metrics) {
+        this(serviceName, scopeManager, clock, dispatcher, registry, metrics, new ThreadLocalRandomIdGenerator(), new AlwaysSampler());
+    }
+
+    public Tracer(String serviceName, ScopeManager scopeManager, Clock clock, Dispatcher dispatcher, PropagationRegistry registry, Metrics metrics, IdGenerator idGenerator, Sampler sampler) {
         this.serviceName = serviceName;
         this.scopeManager = scopeManager;
         this.clock = clock;
         this.dispatcher = dispatcher;
         this.registry = registry;
+        this.idGenerator = idGenerator;
+        this.sampler = sampler;
 
         this.dispatchTimer = Timer.builder("dispatch").register(metrics);
         this.closeTimer = Timer.builder("close").register(metrics);
@@ -84,6 +97,7 @@ public class Tracer implements io.opentracing.Tracer {
         this.flushExceptionCounter = Counter.builder("flush").tag(new Tag("state", "exception")).register(metrics);
 
         this.spansCreatedCounter = Counter.builder("spans").register(metrics);
+        this.spansUnsampledCounter = Counter.builder("spans").tag(new Tag("state", "unsampled")).register(metrics);
 
         this.injectTimer = Timer.builder("inject").register(metrics);
         this.injectFailureCounter = Counter.builder("inject").tag(new Tag("state", "exception")).register(metrics);
@@ -94,7 +108,7 @@ public class Tracer implements io.opentracing.Tracer {
     @Override
     public String toString() {
         return new ReflectionToStringBuilder(this, RecursiveToStringStyle.JSON_STYLE)
-            .setExcludeFieldNames("clock", "activeSource")
+            .setExcludeFieldNames("clock", "activeSource", "idGenerator", "sampler")
             .toString();
     }
 
@@ -117,6 +131,11 @@ public class Tracer implements io.opentracing.Tracer {
     }
 
     void dispatch(com.expedia.www.haystack.client.Span span) {
+        if (!span.context().isSampled()) {
+            // never leaves the process
+            spansUnsampledCounter.increment();
+            return;
+        }
         try (Sample timer = dispatchTimer.start()) {
             dispatcher.dispatch(span);
         }
@@ -129,6 +148,13 @@ public class Tracer implements io.opentracing.Tracer {
         return dispatcher;
     }
 
+    /**
+     * @return the sampler
+     */
+    public Sampler getSampler() {
+        return sampler;
+    }
+
     /**
      * @return the serviceName
      */
@@ -167,7 +193,8 @@ public class Tracer implements io.opentracing.Tracer {
                 extractFailureCounter.increment();
                 throw new IllegalArgumentException(String.format("Unsupported format: %s", format));
             }
-            return extractor.extract(carrier);
+            final SpanContext context = extractor.extract(carrier);
+            return (context == null ? null : context.asRemote());
         }
     }
 
@@ -266,15 +293,27 @@ public class Tracer implements io.opentracing.Tracer {
         }
 
         protected SpanContext createNewContext() {
-            UUID randomId = UUID.randomUUID();
-            UUID zero = new UUID(0l, 0l);
-            return createContext(randomId, randomId, zero, Collections.<String, String>emptyMap());
+            final long idHigh = tracer.idGenerator.nextMostSignificantBits();
+            final long idLow = tracer.idGenerator.nextLeastSignificantBits();
+            final boolean sampled = tracer.sampler.sample(operationName, idHigh, idLow);
+            return createContext(idHigh, idLow, idHigh, idLow, 0l, 0l, Collections.<String, String>emptyMap(), sampled);
         }
 
+        /**
+         * @deprecated No longer called when building a span; ids are kept as
+         * <code>long</code> pairs, so override
+         * {@link #createContext(long, long, long, long, long, long, Map, boolean)} instead.
+         */
+        @Deprecated
         protected SpanContext createContext(UUID traceId, UUID spanId, UUID parentId, Map<String, String> baggage) {
             return new SpanContext(traceId, spanId, parentId, baggage);
         }
 
+        protected SpanContext createContext(long traceIdHigh, long traceIdLow, long spanIdHigh, long spanIdLow,
+                                            long parentIdHigh, long parentIdLow, Map<String, String> baggage, boolean sampled) {
+            return new SpanContext(traceIdHigh, traceIdLow, spanIdHigh, spanIdLow, parentIdHigh, parentIdLow, baggage, sampled);
+        }
+
         protected SpanContext createDependentContext() {
             Reference parent = references.get(0);
             for (Reference reference : references) {
@@ -290,10 +329,16 @@ public class Tracer implements io.opentracing.Tracer {
                 baggage.putAll(reference.getContext().getBaggage());
             }
 
-            return createContext(parent.getContext().getTraceId(),
-                                 UUID.randomUUID(),
-                                 parent.getContext().getSpanId(),
-                                 baggage);
+            final SpanContext parentContext = parent.getContext();
+            return createContext(parentContext.getTraceIdHigh(),
+                                 parentContext.getTraceIdLow(),
+                                 tracer.idGenerator.nextMostSignificantBits(),
+                                 tracer.idGenerator.nextLeastSignificantBits(),
+                                 parentContext.getSpanIdHigh(),
+                                 parentContext.getSpanIdLow(),
+                                 baggage,
+                                 // the decision made at the root of the trace is honored
+                                 parentContext.isSampled());
         }
 
         protected SpanContext createContext() {
@@ -323,7 +368,11 @@ public class Tracer implements io.opentracing.Tracer {
 
         @Override
         public com.expedia.www.haystack.client.Span start() {
-            return new com.expedia.www.haystack.client.Span(tracer, clock, operationName, createContext(), calculateStartTime(), tags, references);
+            final SpanContext context = createContext();
+            if (!context.isSampled()) {
+                return new NonRecordingSpan(tracer, clock, operationName, context);
+            }
+            return new com.expedia.www.haystack.client.Span(tracer, clock, operationName, context, calculateStartTime(), tags, references);
         }
     }
 
@@ -335,6 +384,8 @@ public class Tracer implements io.opentracing.Tracer {
         protected Dispatcher dispatcher;
         protected PropagationRegistry registry = new PropagationRegistry();
         protected Metrics metrics;
+        protected IdGenerator idGenerator = new ThreadLocalRandomIdGenerator();
+        protected Sampler sampler = new AlwaysSampler();
 
         public Builder(MetricsRegistry registry, String serviceName, Dispatcher dispatcher) {
             this(new Metrics(registry, Tracer.class.getName(), Collections.emptyList()), serviceName, dispatcher);
@@ -365,6 +416,32 @@ public class Tracer implements io.opentracing.Tracer {
             return this;
         }
 
+        /**
+         * Replaces the source of trace and span ids; defaults to a
+         * non-blocking <code>ThreadLocalRandomIdGenerator</code>.  Use a
+         * <code>SecureRandomIdGenerator</code> if ids must be unpredictable.
+         *
+         * @param idGenerator The generator to use for new ids
+         * @return this builder
+         */
+        public Builder withIdGenerator(IdGenerator idGenerator) {
+            this.idGenerator = idGenerator;
+            return this;
+        }
+
+        /**
+         * Sets the sampler used to decide if a new trace is recorded;
+         * defaults to sampling everything.  Spans with a parent inherit
+         * the parent's decision.
+         *
+         * @param sampler The sampler to use for new traces
+         * @return this builder
+         */
+        public Builder withSampler(Sampler sampler) {
+            this.sampler = sampler;
+            return this;
+        }
+
         public <T> Builder withFormat(Format<T> format, Injector<T> injector) {
             registry.register(format, injector);
             return this;
@@ -387,7 +464,7 @@ public class Tracer implements io.opentracing.Tracer {
         }
 
         public Tracer build() {
-            return new Tracer(serviceName, scopeManager, clock, dispatcher, registry, metrics);
+            return new Tracer(serviceName, scopeManager, clock, dispatcher, registry, metrics, idGenerator, sampler);
         }
 
     }
@@ -18,35 +18,203 @@ package com.expedia.www.haystack.client.dispatchers;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang3.builder.RecursiveToStringStyle;
 import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.metrics.Counter;
+import com.expedia.www.haystack.client.metrics.Gauge;
+import com.expedia.www.haystack.client.metrics.Metrics;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.expedia.www.haystack.client.metrics.Tag;
 
+/**
+ * Dispatches every span to each of a list of dispatchers.
+ *
+ * By default the dispatchers are called in turn on the thread finishing
+ * the span.  In fan-out mode each dispatcher instead gets its own
+ * bounded queue and thread, so a slow one can't hold up
+ * <code>Span#finish</code> or the others; when its queue is full spans
+ * for that dispatcher alone are dropped.  Dispatchers whose clients
+ * share a {@link com.expedia.www.haystack.client.dispatchers.formats.SharedFormat}
+ * encode each span once between them.
+ */
 public class ChainedDispatcher implements Dispatcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChainedDispatcher.class);
+
     private final List<Dispatcher> dispatchers;
+    private final List<Branch> branches;
+    private final long flushTimeoutMillis;
+
+    private final Counter droppedCounter;
+    private final Counter exceptionCounter;
+    private final Counter flushTimeoutCounter;
 
     public ChainedDispatcher(List<Dispatcher> dispatchers) {
-        this.dispatchers = Collections.unmodifiableList(dispatchers);
+        this(new Metrics(new NoopMetricsRegistry()), dispatchers, 0, 0);
     }
 
     public ChainedDispatcher(Dispatcher... dispatchers) {
-        final ArrayList<Dispatcher> holder = new ArrayList<>();
-        Collections.addAll(holder, dispatchers);
-        this.dispatchers = Collections.unmodifiableList(holder);
+        this(Arrays.asList(dispatchers));
+    }
+
+    /**
+     * @param metrics Where to report fan-out metrics
+     * @param dispatchers The dispatchers to send every span to
+     * @param fanOutQueueSize Spans queued for each dispatcher in fan-out mode, <code>0</code> to dispatch on the caller's thread
+     * @param flushTimeoutMillis How long a flush waits for each dispatcher's queue to drain
+     */
+    public ChainedDispatcher(Metrics metrics, List<Dispatcher> dispatchers, int fanOutQueueSize, long flushTimeoutMillis) {
+        this.dispatchers = Collections.unmodifiableList(new ArrayList<>(dispatchers));
+        this.flushTimeoutMillis = flushTimeoutMillis;
+
+        this.droppedCounter = Counter.builder("fanout").tag(new Tag("state", "dropped")).register(metrics);
+        this.exceptionCounter = Counter.builder("fanout").tag(new Tag("state", "exception")).register(metrics);
+        this.flushTimeoutCounter = Counter.builder("fanout").tag(new Tag("state", "flushtimeout")).register(metrics);
+
+        if (fanOutQueueSize > 0) {
+            final List<Branch> started = new ArrayList<>();
+            for (int i = 0; i < this.dispatchers.size(); i++) {
+                final Branch branch = new Branch(this.dispatchers.get(i), fanOutQueueSize);
+                final Thread thread = new Thread(branch, "haystack-fanout-" + i);
+                thread.setDaemon(true);
+                branch.thread = thread;
+                thread.start();
+                started.add(branch);
+                // held in the registry; but we don't need a local reference
+                Gauge.builder("fanoutQueue", branch.queue, BlockingQueue::size)
+                    .tag(new Tag("dispatcher", String.valueOf(i)))
+                    .register(metrics);
+            }
+            this.branches = Collections.unmodifiableList(started);
+        } else {
+            this.branches = null;
+        }
     }
 
     @Override
     public String toString() {
         return new ReflectionToStringBuilder(this, RecursiveToStringStyle.JSON_STYLE)
+            .setExcludeFieldNames("branches")
             .toString();
     }
 
+    /**
+     * One dispatcher's queue and the thread draining it.
+     */
+    private final class Branch implements Runnable {
+        private final Dispatcher dispatcher;
+        private final BlockingQueue<Span> queue;
+        private final AtomicLong accepted = new AtomicLong();
+        private final AtomicLong processed = new AtomicLong();
+        private final AtomicInteger flushing = new AtomicInteger();
+        private volatile boolean running = true;
+        private Thread thread;
+
+        Branch(Dispatcher dispatcher, int queueSize) {
+            this.dispatcher = dispatcher;
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+        }
+
+        void offer(Span span) {
+            if (queue.offer(span)) {
+                accepted.incrementAndGet();
+            } else {
+                droppedCounter.increment();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running || !queue.isEmpty()) {
+                final Span span;
+                try {
+                    span = queue.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (span == null) {
+                    continue;
+                }
+                try {
+                    dispatcher.dispatch(span);
+                } catch (RuntimeException e) {
+                    exceptionCounter.increment();
+                    LOGGER.warn("Dispatcher failed to accept a span", e);
+                }
+                processed.incrementAndGet();
+                // a flush only waits for the spans accepted before it, which
+                // may be done long before the queue empties
+                if (flushing.get() > 0) {
+                    synchronized (this) {
+                        notifyAll();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Waits until every span accepted before the call has been handed
+         * to the dispatcher.
+         *
+         * @return <code>true</code> if they were before the deadline
+         */
+        boolean awaitDrained(long deadlineNanos) throws InterruptedException {
+            final long target = accepted.get();
+            synchronized (this) {
+                flushing.incrementAndGet();
+                try {
+                    while (processed.get() < target) {
+                        final long remaining = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+                        if (remaining <= 0) {
+                            return false;
+                        }
+                        wait(remaining);
+                    }
+                } finally {
+                    flushing.decrementAndGet();
+                }
+            }
+            return true;
+        }
+
+        void stop(long deadlineNanos) throws InterruptedException {
+            running = false;
+            thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime())));
+            if (thread.isAlive()) {
+                thread.interrupt();
+            }
+            // whatever is still queued will never reach the dispatcher
+            final List<Span> abandoned = new ArrayList<>();
+            queue.drainTo(abandoned);
+            if (!abandoned.isEmpty()) {
+                droppedCounter.increment(abandoned.size());
+                LOGGER.warn("Dropped {} queued spans on close", abandoned.size());
+            }
+        }
+    }
+
     @Override
     public void dispatch(Span span) {
+        if (branches != null) {
+            for (Branch branch : branches) {
+                branch.offer(span);
+            }
+            return;
+        }
         for (Dispatcher dispatcher : dispatchers) {
             dispatcher.dispatch(span);
         }
@@ -56,6 +224,17 @@ public class ChainedDispatcher implements Dispatcher {
     public void close() throws IOException {
         List<IOException> exceptions = new ArrayList<>();
 
+        if (branches != null) {
+            // hand over what is queued before closing the dispatchers
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushTimeoutMillis);
+            try {
+                for (Branch branch : branches) {
+                    branch.stop(deadline);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
         for (Dispatcher dispatcher : dispatchers) {
             try {
                 dispatcher.close();
@@ -73,6 +252,18 @@ public class ChainedDispatcher implements Dispatcher {
     public void flush() throws IOException {
         List<IOException> exceptions = new ArrayList<>();
 
+        if (branches != null) {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushTimeoutMillis);
+            try {
+                for (Branch branch : branches) {
+                    if (!branch.awaitDrained(deadline)) {
+                        flushTimeoutCounter.increment();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
         for (Dispatcher dispatcher : dispatchers) {
             try {
                 dispatcher.flush();
@@ -87,15 +278,51 @@ public class ChainedDispatcher implements Dispatcher {
     }
 
     public static class Builder {
-        private List<Dispatcher> dispatchers = new ArrayList<>();;
+        private Metrics metrics;
+        private List<Dispatcher> dispatchers = new ArrayList<>();
+        private int fanOutQueueSize = 0;
+        private long flushTimeoutMillis = TimeUnit.SECONDS.toMillis(30);
+
+        public Builder() {
+            this(new NoopMetricsRegistry());
+        }
+
+        public Builder(MetricsRegistry registry) {
+            this(new Metrics(registry, Dispatcher.class.getName(), Arrays.asList(new Tag("type", "chained"))));
+        }
+
+        public Builder(Metrics metrics) {
+            this.metrics = metrics;
+        }
 
         public Builder withDispatcher(Dispatcher dispatcher) {
             dispatchers.add(dispatcher);
             return this;
         }
 
+        /**
+         * Gives each dispatcher its own queue and thread instead of
+         * calling them in turn on the thread finishing the span.
+         *
+         * @param queueSize Spans queued for each dispatcher before spans for it are dropped
+         * @return this builder
+         */
+        public Builder withFanOut(int queueSize) {
+            this.fanOutQueueSize = queueSize;
+            return this;
+        }
+
+        /**
+         * @param flushTimeoutMillis How long flush and close wait for the fan-out queues to drain
+         * @return this builder
+         */
+        public Builder withFlushTimeoutMillis(long flushTimeoutMillis) {
+            this.flushTimeoutMillis = flushTimeoutMillis;
+            return this;
+        }
+
         public ChainedDispatcher build() {
-            return new ChainedDispatcher(dispatchers);
+            return new ChainedDispatcher(metrics, dispatchers, fanOutQueueSize, flushTimeoutMillis);
         }
     }
 }
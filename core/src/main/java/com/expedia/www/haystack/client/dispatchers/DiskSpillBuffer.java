@@ -0,0 +1,515 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.apache.commons.lang3.builder.RecursiveToStringStyle;
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.expedia.www.haystack.client.metrics.Counter;
+import com.expedia.www.haystack.client.metrics.Gauge;
+import com.expedia.www.haystack.client.metrics.Metrics;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.Tag;
+
+/**
+ * A FIFO of encoded spans kept in memory-mapped segment files on local
+ * disk, so a dispatcher can hold a backlog without holding it on the
+ * heap.
+ *
+ * Each segment starts with a header holding a magic number and the
+ * position of the next unread record, followed by records of a length,
+ * a CRC32 of the data and the data itself.  The length is written last
+ * so a record only exists once it is complete.  Segments are mapped for
+ * their full size when created and deleted once fully read; their total
+ * is capped at <code>maxBytes</code>, beyond which new records are
+ * rejected.
+ *
+ * Opening a directory that holds segments from an earlier process
+ * recovers them: records are checked against their checksums and
+ * replayed from the last committed position, so a crash may replay a
+ * record that was sent but not yet committed, but loses nothing that
+ * was written.  Writes are only forced to the device on
+ * <code>force()</code> and <code>close()</code>; until then they survive
+ * the process crashing but not the host.
+ *
+ * Any thread may append; a single thread should read with
+ * <code>peek()</code> and <code>commit()</code>, leaving the buffer
+ * unlocked while it sends the record.
+ */
+public class DiskSpillBuffer implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DiskSpillBuffer.class);
+
+    static final int MAGIC = 0x48535031;
+    static final int HEADER_BYTES = 16;
+    static final int READ_POSITION_OFFSET = 8;
+    static final int RECORD_HEADER_BYTES = 8;
+
+    private static final String SEGMENT_PREFIX = "spill-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final File directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+
+    private final Deque<Segment> segments;
+    private Segment writeSegment;
+    private long nextSequence;
+    private boolean closed;
+
+    private volatile long backlogBytes;
+    private volatile long backlogRecords;
+
+    private final Counter appendedCounter;
+    private final Counter replayedCounter;
+    private final Counter rejectedCounter;
+    private final Counter corruptCounter;
+    private final Counter writtenBytesCounter;
+    private final Counter replayedBytesCounter;
+
+    public DiskSpillBuffer(Metrics metrics, File directory, int segmentBytes, long maxBytes) throws IOException {
+        if (segmentBytes <= HEADER_BYTES + RECORD_HEADER_BYTES) {
+            throw new IllegalArgumentException(String.format("Invalid segment size: %s", segmentBytes));
+        }
+        if (maxBytes < segmentBytes) {
+            throw new IllegalArgumentException(String.format("Invalid size cap %s; must hold at least one segment of %s", maxBytes, segmentBytes));
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException(String.format("Unable to create spill directory %s", directory));
+        }
+
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = (int) Math.min(Integer.MAX_VALUE, maxBytes / segmentBytes);
+        this.segments = new ArrayDeque<>();
+
+        this.appendedCounter = Counter.builder("spill").tag(new Tag("state", "appended")).register(metrics);
+        this.replayedCounter = Counter.builder("spill").tag(new Tag("state", "replayed")).register(metrics);
+        this.rejectedCounter = Counter.builder("spill").tag(new Tag("state", "rejected")).register(metrics);
+        this.corruptCounter = Counter.builder("spill").tag(new Tag("state", "corrupt")).register(metrics);
+        this.writtenBytesCounter = Counter.builder("spillBytes").tag(new Tag("state", "written")).register(metrics);
+        this.replayedBytesCounter = Counter.builder("spillBytes").tag(new Tag("state", "replayed")).register(metrics);
+
+        recover();
+
+        // held in the registry; but we don't need a local reference
+        Gauge.builder("spillBacklogBytes", this, DiskSpillBuffer::getBacklogBytes).register(metrics);
+        Gauge.builder("spillBacklogRecords", this, DiskSpillBuffer::getBacklogRecords).register(metrics);
+        Gauge.builder("spillSegments", this, DiskSpillBuffer::getSegmentCount).register(metrics);
+    }
+
+    /**
+     * One mapped segment file.  Sealed once a record doesn't fit, or
+     * when recovered from an earlier process; the
+     * buffer is released to the garbage collector when the segment is
+     * deleted, as there is no supported way to unmap it sooner.
+     */
+    private static final class Segment {
+        private final long sequence;
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private int writePosition;
+        private int readPosition;
+        private int records;
+        private boolean sealed;
+
+        Segment(long sequence, File file, MappedByteBuffer buffer) {
+            this.sequence = sequence;
+            this.file = file;
+            this.buffer = buffer;
+            this.writePosition = HEADER_BYTES;
+            this.readPosition = HEADER_BYTES;
+        }
+
+        int unreadBytes() {
+            return writePosition - readPosition;
+        }
+
+        boolean fits(int length) {
+            return buffer.capacity() - writePosition >= RECORD_HEADER_BYTES + length;
+        }
+
+        void append(byte[] data) {
+            final int position = writePosition;
+            final ByteBuffer view = buffer.duplicate();
+            view.position(position + RECORD_HEADER_BYTES);
+            view.put(data);
+            buffer.putInt(position + 4, checksum(data));
+            buffer.putInt(position, data.length);
+            writePosition = position + RECORD_HEADER_BYTES + data.length;
+            records++;
+        }
+
+        /**
+         * @return the record at <code>position</code>, or <code>null</code>
+         *         if there is no complete record with a valid checksum
+         */
+        byte[] read(int position) {
+            if (buffer.capacity() - position < RECORD_HEADER_BYTES) {
+                return null;
+            }
+            final int length = buffer.getInt(position);
+            if (length <= 0 || length > buffer.capacity() - position - RECORD_HEADER_BYTES) {
+                return null;
+            }
+            final byte[] data = new byte[length];
+            final ByteBuffer view = buffer.duplicate();
+            view.position(position + RECORD_HEADER_BYTES);
+            view.get(data);
+            if (buffer.getInt(position + 4) != checksum(data)) {
+                return null;
+            }
+            return data;
+        }
+
+        void advance(int length) {
+            readPosition += RECORD_HEADER_BYTES + length;
+            buffer.putLong(READ_POSITION_OFFSET, readPosition);
+            records--;
+        }
+    }
+
+    private static int checksum(byte[] data) {
+        final CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return (int) crc.getValue();
+    }
+
+    private static MappedByteBuffer map(File file, long size) throws IOException {
+        // the mapping stays valid once the channel is closed
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private void recover() throws IOException {
+        final File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) {
+            throw new IOException(String.format("Unable to list spill directory %s", directory));
+        }
+        final List<Segment> recovered = new ArrayList<>();
+        for (File file : files) {
+            final long sequence;
+            try {
+                sequence = Long.parseLong(file.getName().substring(SEGMENT_PREFIX.length(), file.getName().length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            nextSequence = Math.max(nextSequence, sequence + 1);
+            final Segment segment = recover(sequence, file);
+            if (segment != null && segment.unreadBytes() > 0) {
+                recovered.add(segment);
+            } else if (!file.delete()) {
+                LOGGER.warn("Unable to delete spill segment {}", file);
+            }
+        }
+        recovered.sort((a, b) -> Long.compare(a.sequence, b.sequence));
+        for (Segment segment : recovered) {
+            segments.addLast(segment);
+            backlogBytes += segment.unreadBytes();
+            backlogRecords += segment.records;
+        }
+        if (!recovered.isEmpty()) {
+            LOGGER.info("Recovered {} spilled spans in {} segments from {}", backlogRecords, recovered.size(), directory);
+        }
+    }
+
+    /**
+     * Scans a segment left by an earlier process.  It is never written
+     * to again, so a torn record at its end is simply ignored.
+     */
+    private Segment recover(long sequence, File file) throws IOException {
+        final long length = file.length();
+        if (length < HEADER_BYTES || length > Integer.MAX_VALUE) {
+            corruptCounter.increment();
+            return null;
+        }
+        final Segment segment = new Segment(sequence, file, map(file, length));
+        if (segment.buffer.getInt(0) != MAGIC) {
+            corruptCounter.increment();
+            return null;
+        }
+
+        final long committed = segment.buffer.getLong(READ_POSITION_OFFSET);
+        boolean aligned = (committed == HEADER_BYTES);
+        int records = 0;
+        int committedRecords = 0;
+        int position = HEADER_BYTES;
+        while (true) {
+            final byte[] record = segment.read(position);
+            if (record == null) {
+                if (position + RECORD_HEADER_BYTES <= length && segment.buffer.getInt(position) != 0) {
+                    // a torn or damaged record; nothing after it can be trusted
+                    corruptCounter.increment();
+                    LOGGER.warn("Spill segment {} is corrupt after {} bytes", file, position);
+                }
+                break;
+            }
+            position += RECORD_HEADER_BYTES + record.length;
+            records++;
+            if (position == committed) {
+                aligned = true;
+                committedRecords = records;
+            }
+        }
+        segment.writePosition = position;
+        segment.sealed = true;
+        if (aligned) {
+            segment.readPosition = (int) committed;
+            segment.records = records - committedRecords;
+        } else {
+            // the committed position is damaged; replaying twice beats losing spans
+            corruptCounter.increment();
+            segment.records = records;
+        }
+        return segment;
+    }
+
+    private Segment createSegment() throws IOException {
+        final long sequence = nextSequence++;
+        final File file = new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+        final Segment segment = new Segment(sequence, file, map(file, segmentBytes));
+        segment.buffer.putLong(READ_POSITION_OFFSET, HEADER_BYTES);
+        segment.buffer.putInt(0, MAGIC);
+        return segment;
+    }
+
+    private void delete(Segment segment) {
+        if (!segment.file.delete()) {
+            LOGGER.warn("Unable to delete spill segment {}", segment.file);
+        }
+    }
+
+    /**
+     * Deletes fully read segments from the head; the segment being
+     * written to is kept until it is sealed.
+     */
+    private void reclaim() {
+        while (!segments.isEmpty()) {
+            final Segment head = segments.peekFirst();
+            if (head.unreadBytes() > 0 || !head.sealed) {
+                return;
+            }
+            segments.removeFirst();
+            delete(head);
+        }
+    }
+
+    /**
+     * Appends a record to the tail of the buffer.
+     *
+     * @param record The encoded span
+     * @return <code>true</code> if it was written, <code>false</code> if the
+     *         buffer is full, closed or the record can't fit in a segment
+     */
+    public synchronized boolean append(byte[] record) {
+        if (closed || record.length == 0 || record.length > segmentBytes - HEADER_BYTES - RECORD_HEADER_BYTES) {
+            rejectedCounter.increment();
+            return false;
+        }
+        if (writeSegment == null || !writeSegment.fits(record.length)) {
+            if (writeSegment != null) {
+                writeSegment.sealed = true;
+                writeSegment = null;
+            }
+            reclaim();
+            if (segments.size() >= maxSegments) {
+                rejectedCounter.increment();
+                return false;
+            }
+            try {
+                writeSegment = createSegment();
+            } catch (IOException e) {
+                rejectedCounter.increment();
+                LOGGER.error("Unable to create a spill segment in {}", directory, e);
+                return false;
+            }
+            segments.addLast(writeSegment);
+        }
+        writeSegment.append(record);
+        backlogBytes += RECORD_HEADER_BYTES + record.length;
+        backlogRecords++;
+        appendedCounter.increment();
+        writtenBytesCounter.increment(record.length);
+        return true;
+    }
+
+    /**
+     * @return a copy of the oldest unread record, or <code>null</code> if
+     *         there is none; the same record is returned until it is
+     *         <code>commit()</code>ed
+     */
+    public synchronized byte[] peek() {
+        while (!closed && !segments.isEmpty()) {
+            final Segment head = segments.peekFirst();
+            if (head.unreadBytes() > 0) {
+                final byte[] record = head.read(head.readPosition);
+                if (record != null) {
+                    return record;
+                }
+                // checked on recovery, so only damage since then lands here
+                corruptCounter.increment();
+                LOGGER.warn("Spill segment {} is corrupt after {} bytes; skipping the rest of it", head.file, head.readPosition);
+                backlogBytes -= head.unreadBytes();
+                backlogRecords -= head.records;
+                head.readPosition = head.writePosition;
+                head.records = 0;
+                head.sealed = true;
+                if (head == writeSegment) {
+                    writeSegment = null;
+                }
+            }
+            if (!head.sealed) {
+                return null;
+            }
+            segments.removeFirst();
+            delete(head);
+        }
+        return null;
+    }
+
+    /**
+     * Marks the record last returned by <code>peek()</code> as read.
+     */
+    public synchronized void commit() {
+        final Segment head = segments.peekFirst();
+        if (closed || head == null || head.unreadBytes() <= 0) {
+            return;
+        }
+        final int length = head.buffer.getInt(head.readPosition);
+        head.advance(length);
+        backlogBytes -= RECORD_HEADER_BYTES + length;
+        backlogRecords--;
+        replayedCounter.increment();
+        replayedBytesCounter.increment(length);
+        reclaim();
+    }
+
+    /**
+     * Forces the segments with unread records to the storage device.
+     */
+    public synchronized void force() {
+        if (closed) {
+            return;
+        }
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+    }
+
+    /**
+     * Forces what is left to the storage device; it will be recovered
+     * by the next buffer opened on the same directory.
+     */
+    @Override
+    public synchronized void close() {
+        force();
+        closed = true;
+        segments.clear();
+        writeSegment = null;
+    }
+
+    @Override
+    public String toString() {
+        return new ReflectionToStringBuilder(this, RecursiveToStringStyle.JSON_STYLE)
+            .setExcludeFieldNames("segments", "writeSegment")
+            .toString();
+    }
+
+    /**
+     * @return <code>true</code> if there is nothing left to replay
+     */
+    public boolean isEmpty() {
+        return backlogRecords == 0;
+    }
+
+    /**
+     * @return the bytes of records, with their headers, waiting to be replayed
+     */
+    public long getBacklogBytes() {
+        return backlogBytes;
+    }
+
+    /**
+     * @return the number of records waiting to be replayed
+     */
+    public long getBacklogRecords() {
+        return backlogRecords;
+    }
+
+    /**
+     * @return the number of segment files in use
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    public static final class Builder {
+        private Metrics metrics;
+        private File directory;
+        private int segmentBytes;
+        private long maxBytes;
+
+        public Builder(MetricsRegistry registry, File directory) {
+            this(new Metrics(registry, Dispatcher.class.getName(), Arrays.asList(new Tag("type", "spill"))), directory);
+        }
+
+        public Builder(Metrics metrics, File directory) {
+            this.metrics = metrics;
+            this.directory = directory;
+            this.segmentBytes = 16 * 1024 * 1024;
+            this.maxBytes = 256L * 1024 * 1024;
+        }
+
+        /**
+         * @param segmentBytes The size of each segment file; the largest record is a little smaller
+         * @return this builder
+         */
+        public Builder withSegmentBytes(int segmentBytes) {
+            this.segmentBytes = segmentBytes;
+            return this;
+        }
+
+        /**
+         * @param maxBytes The most disk space the segment files may use
+         * @return this builder
+         */
+        public Builder withMaxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        public DiskSpillBuffer build() throws IOException {
+            return new DiskSpillBuffer(metrics, directory, segmentBytes, maxBytes);
+        }
+    }
+}
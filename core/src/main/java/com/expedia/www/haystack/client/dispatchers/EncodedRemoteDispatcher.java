@@ -0,0 +1,752 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.builder.RecursiveToStringStyle;
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.dispatchers.clients.Client;
+import com.expedia.www.haystack.client.dispatchers.clients.ClientException;
+import com.expedia.www.haystack.client.dispatchers.formats.DirectProtoBufFormat;
+import com.expedia.www.haystack.client.dispatchers.formats.Format;
+import com.expedia.www.haystack.client.dispatchers.queues.DirectBufferRing;
+import com.expedia.www.haystack.client.dispatchers.queues.WaitStrategy;
+import com.expedia.www.haystack.client.metrics.Counter;
+import com.expedia.www.haystack.client.metrics.Gauge;
+import com.expedia.www.haystack.client.metrics.Metrics;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.Tag;
+import com.expedia.www.haystack.client.metrics.Timer;
+import com.expedia.www.haystack.client.metrics.Timer.Sample;
+
+/**
+ * A remote dispatcher that encodes each span when it is dispatched, i.e.
+ * inside <code>Span#finish</code>, and queues only the encoded bytes.
+ *
+ * A queued <code>Span</code> keeps its tags, logs, references and
+ * tracer reachable until it is sent; a queued span here is a single
+ * array, so a deep queue retains a fraction of the heap and the
+ * byte budget counts exactly what is held.  Encoding costs the
+ * dispatching thread; with an encode pool the span is handed to it
+ * instead and released once encoded.  Spans are sent with
+ * <code>Client.sendEncoded</code>, so the client and the encoder must
+ * agree on the wire format.
+ *
+ * When the queue, or its byte budget, is full new spans are dropped,
+ * or written to the spill buffer when there is one.
+ *
+ * With a {@link DirectBufferRing} the queue is off the heap instead:
+ * spans are encoded straight into its slots, when the encoder is a
+ * {@link DirectProtoBufFormat}, and handed to the client as read-only
+ * views with <code>Client.sendEncoded(ByteBuffer)</code>.  The ring's
+ * arena replaces the byte budget; a span larger than a slot is
+ * dropped, or spilled.
+ */
+public class EncodedRemoteDispatcher implements Dispatcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EncodedRemoteDispatcher.class);
+
+    /** How long the sender waits on an empty queue before re-checking if it should shutdown */
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    /** The least time between two warnings summarizing dropped spans */
+    private static final long DROP_LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /** How long a replayed span may go unacknowledged before replay gives up until its next run */
+    private static final long REPLAY_ACK_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /** How long a timed out close waits for the interrupted sender to return from the client */
+    private static final long CANCEL_GRACE_MILLIS = 1000;
+
+    private final Client client;
+    private final Format<byte[]> encoder;
+    private final BlockingQueue<byte[]> acceptQueue;
+    private final DirectBufferRing ring;
+    private final long maxQueueBytes;
+    private final ExecutorService encodeExecutor;
+    private final ScheduledExecutorService executor;
+    private final long shutdownTimeoutMillis;
+    private final DiskSpillBuffer spillBuffer;
+
+    private final Future flushTask;
+    private final Future spillReplayTask;
+    private final Future<?> senderTask;
+    private final CountDownLatch senderExited;
+
+    private final AtomicBoolean running;
+    private final AtomicBoolean cancelled;
+    private final AtomicLong queuedBytes;
+    private final AtomicLong droppedSinceLog;
+    private final AtomicLong nextDropLogNanos;
+
+    private final Timer dispatchTimer;
+    private final Timer encodeTimer;
+    private final Counter encodeExceptionCounter;
+    private final Counter droppedNewestCounter;
+    private final Counter droppedBudgetCounter;
+    private final Counter droppedEncodeCounter;
+    private final Counter droppedShutdownCounter;
+    private final Counter droppedOversizeCounter;
+    private final Counter droppedSendCounter;
+    private final Counter spilledCounter;
+    private final Timer sendTimer;
+    private final Counter sendInterruptedCounter;
+    private final Counter sendExceptionCounter;
+    private final Timer replayTimer;
+    private final Counter replayExceptionCounter;
+    private final Counter replayUnacknowledgedCounter;
+    private final Timer closeTimer;
+    private final Counter closeTimeoutCounter;
+    private final Counter closeInterruptedCounter;
+    private final Counter closeExceptionCounter;
+    private final Timer flushTimer;
+
+    public EncodedRemoteDispatcher(Metrics metrics, Client client, Format<byte[]> encoder, BlockingQueue<byte[]> queue, long maxQueueBytes,
+                                   ExecutorService encodeExecutor, long flushInterval, long shutdownTimeout, ScheduledExecutorService executor,
+                                   DiskSpillBuffer spillBuffer, long spillReplayIntervalMillis) {
+        this(metrics, client, encoder, queue, maxQueueBytes, encodeExecutor, flushInterval, shutdownTimeout, executor,
+             spillBuffer, spillReplayIntervalMillis, null);
+    }
+
+    public EncodedRemoteDispatcher(Metrics metrics, Client client, Format<byte[]> encoder, BlockingQueue<byte[]> queue, long maxQueueBytes,
+                                   ExecutorService encodeExecutor, long flushInterval, long shutdownTimeout, ScheduledExecutorService executor,
+                                   DiskSpillBuffer spillBuffer, long spillReplayIntervalMillis, DirectBufferRing ring) {
+        this.client = client;
+        this.encoder = encoder;
+        this.acceptQueue = queue;
+        this.ring = ring;
+        this.maxQueueBytes = maxQueueBytes;
+        this.encodeExecutor = encodeExecutor;
+        this.executor = executor;
+        this.shutdownTimeoutMillis = shutdownTimeout;
+        this.spillBuffer = spillBuffer;
+
+        this.running = new AtomicBoolean(true);
+        this.cancelled = new AtomicBoolean(false);
+        this.queuedBytes = new AtomicLong();
+        this.droppedSinceLog = new AtomicLong();
+        this.nextDropLogNanos = new AtomicLong(System.nanoTime());
+
+        this.dispatchTimer = Timer.builder("dispatch").register(metrics);
+        this.encodeTimer = Timer.builder("encode").register(metrics);
+        this.encodeExceptionCounter = Counter.builder("encode").tag(new Tag("state", "exception")).register(metrics);
+        this.droppedNewestCounter = Counter.builder("dropped").tag(new Tag("state", "newest")).register(metrics);
+        this.droppedBudgetCounter = Counter.builder("dropped").tag(new Tag("state", "budget")).register(metrics);
+        this.droppedEncodeCounter = Counter.builder("dropped").tag(new Tag("state", "encode")).register(metrics);
+        this.droppedShutdownCounter = Counter.builder("dropped").tag(new Tag("state", "shutdown")).register(metrics);
+        this.droppedOversizeCounter = Counter.builder("dropped").tag(new Tag("state", "oversize")).register(metrics);
+        this.droppedSendCounter = Counter.builder("dropped").tag(new Tag("state", "send")).register(metrics);
+        this.spilledCounter = Counter.builder("spilled").register(metrics);
+        this.sendTimer = Timer.builder("send").register(metrics);
+        this.sendInterruptedCounter = Counter.builder("send").tag(new Tag("state", "interrupted")).register(metrics);
+        this.sendExceptionCounter = Counter.builder("send").tag(new Tag("state", "exception")).register(metrics);
+        this.replayTimer = Timer.builder("replay").register(metrics);
+        this.replayExceptionCounter = Counter.builder("replay").tag(new Tag("state", "exception")).register(metrics);
+        this.replayUnacknowledgedCounter = Counter.builder("replay").tag(new Tag("state", "unacknowledged")).register(metrics);
+        this.closeTimer = Timer.builder("close").register(metrics);
+        this.closeTimeoutCounter = Counter.builder("close").tag(new Tag("state", "timeout")).register(metrics);
+        this.closeInterruptedCounter = Counter.builder("close").tag(new Tag("state", "interrupted")).register(metrics);
+        this.closeExceptionCounter = Counter.builder("close").tag(new Tag("state", "exception")).register(metrics);
+        this.flushTimer = Timer.builder("flush").register(metrics);
+
+        // held in the registry; but we don't need a local reference
+        if (ring != null) {
+            Gauge.builder("acceptQueue", ring, DirectBufferRing::size).register(metrics);
+            Gauge.builder("offHeapArenaBytes", ring, DirectBufferRing::getArenaBytes).register(metrics);
+        } else {
+            Gauge.builder("acceptQueue", acceptQueue, Collection::size).register(metrics);
+        }
+        Gauge.builder("acceptQueueBytes", queuedBytes, AtomicLong::get).register(metrics);
+        Gauge.builder("running", running, (running) -> (running.get() ? 1 : 0)).register(metrics);
+
+        if (executor instanceof ScheduledThreadPoolExecutor) {
+            // the sender holds a thread for its lifetime; leave one for the flush and replay tasks
+            final ScheduledThreadPoolExecutor pool = (ScheduledThreadPoolExecutor) executor;
+            final int threads = (spillBuffer != null ? 3 : 2);
+            if (pool.getCorePoolSize() < threads) {
+                pool.setCorePoolSize(threads);
+            }
+        }
+
+        this.flushTask = executor.scheduleAtFixedRate(() -> {
+                try {
+                    flush();
+                } catch (ClientException e) {
+                    // do nothing; will retry next inverval
+                }
+            }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        this.senderExited = new CountDownLatch(1);
+        this.senderTask = executor.submit(this::sendLoop);
+        if (spillBuffer != null) {
+            this.spillReplayTask = executor.scheduleWithFixedDelay(this::replaySpilled, spillReplayIntervalMillis, spillReplayIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.spillReplayTask = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new ReflectionToStringBuilder(this, RecursiveToStringStyle.JSON_STYLE)
+            .setExcludeFieldNames("acceptQueue", "ring", "executor", "encodeExecutor", "flushTask", "senderTask", "senderExited", "spillReplayTask")
+            .toString();
+    }
+
+    @Override
+    public void dispatch(Span span) {
+        try (Sample timer = dispatchTimer.start()) {
+            if (!running.get()) {
+                dropped(droppedShutdownCounter, "Dispatcher is shutting down and rejecting new spans");
+                return;
+            }
+            if (encodeExecutor == null) {
+                accept(span);
+                return;
+            }
+            try {
+                encodeExecutor.execute(() -> accept(span));
+            } catch (RejectedExecutionException e) {
+                if (encodeExecutor.isShutdown()) {
+                    dropped(droppedShutdownCounter, "Dispatcher is shutting down and rejecting new spans");
+                } else {
+                    dropped(droppedEncodeCounter, "Encode queue is full and rejecting new spans");
+                }
+            }
+        }
+    }
+
+    private void accept(Span span) {
+        if (ring == null) {
+            enqueue(encode(span));
+        } else {
+            write(span);
+        }
+    }
+
+    /**
+     * Encodes a span into a slot of the ring, in place when the encoder
+     * can write to a buffer.
+     */
+    private void write(Span span) {
+        final long position = ring.claim();
+        if (position < 0) {
+            overflow(span, droppedNewestCounter, "Send ring is full and rejecting new spans");
+            return;
+        }
+
+        int length = -1;
+        try (Sample timer = encodeTimer.start()) {
+            final ByteBuffer slot = ring.writable(position);
+            if (encoder instanceof DirectProtoBufFormat) {
+                length = ((DirectProtoBufFormat) encoder).format(span, slot);
+            } else {
+                final byte[] encoded = encoder.format(span);
+                if (encoded.length <= slot.remaining()) {
+                    slot.put(encoded);
+                    length = encoded.length;
+                }
+            }
+        } catch (RuntimeException e) {
+            ring.abandon(position);
+            encodeExceptionCounter.increment();
+            LOGGER.warn("Failed to encode a span; dropping it", e);
+            return;
+        }
+
+        if (length < 0) {
+            ring.abandon(position);
+            overflow(span, droppedOversizeCounter, "Span is larger than a ring slot and was rejected");
+        } else {
+            ring.publish(position, length);
+        }
+    }
+
+    private void overflow(Span span, Counter counter, String reason) {
+        if (spillBuffer == null) {
+            dropped(counter, reason);
+            return;
+        }
+        final byte[] encoded = encode(span);
+        if (encoded != null) {
+            overflow(encoded, counter, reason);
+        }
+    }
+
+    private byte[] encode(Span span) {
+        try (Sample timer = encodeTimer.start()) {
+            return encoder.format(span);
+        } catch (RuntimeException e) {
+            encodeExceptionCounter.increment();
+            LOGGER.warn("Failed to encode a span; dropping it", e);
+            return null;
+        }
+    }
+
+    private void enqueue(byte[] encoded) {
+        if (encoded == null) {
+            return;
+        }
+        if (!reserve(encoded.length)) {
+            overflow(encoded, droppedBudgetCounter, "Send queue is over its byte budget and rejecting new spans");
+            return;
+        }
+        if (!acceptQueue.offer(encoded)) {
+            release(encoded);
+            overflow(encoded, droppedNewestCounter, "Send queue is full and rejecting new spans");
+        }
+    }
+
+    private boolean reserve(long size) {
+        while (true) {
+            final long current = queuedBytes.get();
+            // an empty queue admits a single span larger than the budget
+            if (maxQueueBytes > 0 && current > 0 && current + size > maxQueueBytes) {
+                return false;
+            }
+            if (queuedBytes.compareAndSet(current, current + size)) {
+                return true;
+            }
+        }
+    }
+
+    private void release(byte[] encoded) {
+        queuedBytes.addAndGet(-encoded.length);
+    }
+
+    private void overflow(byte[] encoded, Counter counter, String reason) {
+        if (!spill(encoded)) {
+            dropped(counter, reason);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the span was written to the spill buffer
+     */
+    private boolean spill(byte[] encoded) {
+        if (spillBuffer != null && spillBuffer.append(encoded)) {
+            spilledCounter.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Counts a dropped span and logs a summary at most once per interval.
+     */
+    private void dropped(Counter counter, String reason) {
+        counter.increment();
+
+        final long dropped = droppedSinceLog.incrementAndGet();
+        final long now = System.nanoTime();
+        final long next = nextDropLogNanos.get();
+        if (now - next >= 0 && nextDropLogNanos.compareAndSet(next, now + DROP_LOG_INTERVAL_NANOS)) {
+            droppedSinceLog.addAndGet(-dropped);
+            LOGGER.warn("{}; dropped {} spans since the last report", reason, dropped);
+        }
+    }
+
+    /**
+     * Drains the accept queue until the dispatcher is closed and the
+     * queue is empty, or the close times out.
+     */
+    private void sendLoop() {
+        try {
+            if (ring != null) {
+                sendRingLoop();
+            } else {
+                sendQueueLoop();
+            }
+        } finally {
+            senderExited.countDown();
+        }
+    }
+
+    private void sendQueueLoop() {
+        while (!cancelled.get() && (running.get() || !acceptQueue.isEmpty())) {
+            final byte[] encoded;
+            try {
+                encoded = acceptQueue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // do nothing; will retry next interation
+                sendInterruptedCounter.increment();
+                continue;
+            }
+            if (encoded == null) {
+                continue;
+            }
+            release(encoded);
+            if (spillBuffer != null) {
+                sendAcknowledged(encoded);
+                continue;
+            }
+
+            try (Sample timer = sendTimer.start()) {
+                client.sendEncoded(encoded);
+            } catch (ClientException e) {
+                sendExceptionCounter.increment();
+                LOGGER.error("Client reported a failure:", e);
+                overflow(encoded, droppedSendCounter, "Client failed to send spans");
+            }
+        }
+    }
+
+    /**
+     * Drains the ring, sending each span from its slot, until the
+     * dispatcher is closed and the ring is empty.
+     */
+    private void sendRingLoop() {
+        while (!cancelled.get() && (running.get() || !ring.isEmpty())) {
+            final long position;
+            try {
+                position = ring.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // do nothing; will retry next interation
+                sendInterruptedCounter.increment();
+                continue;
+            }
+            if (position < 0) {
+                continue;
+            }
+
+            if (spillBuffer != null) {
+                // kept until acknowledged, so it can't stay in the slot
+                final byte[] encoded = copy(ring.readable(position));
+                ring.release(position);
+                sendAcknowledged(encoded);
+                continue;
+            }
+
+            final ByteBuffer encoded = ring.readable(position);
+            try (Sample timer = sendTimer.start()) {
+                client.sendEncoded(encoded);
+            } catch (ClientException e) {
+                sendExceptionCounter.increment();
+                LOGGER.error("Client reported a failure:", e);
+                overflow(copy(ring.readable(position)), droppedSendCounter, "Client failed to send spans");
+            } finally {
+                ring.release(position);
+            }
+        }
+    }
+
+    /**
+     * Sends a span and spills it if the client doesn't acknowledge it;
+     * see <code>RemoteDispatcher</code>.
+     */
+    private void sendAcknowledged(byte[] encoded) {
+        try (Sample timer = sendTimer.start()) {
+            client.sendEncodedAcknowledged(encoded).whenComplete((acknowledged, error) -> {
+                    if (error != null || !acknowledged) {
+                        sendExceptionCounter.increment();
+                        overflow(encoded, droppedSendCounter, "Client failed to send spans");
+                    }
+                });
+        }
+    }
+
+    private static byte[] copy(ByteBuffer encoded) {
+        final byte[] copy = new byte[encoded.remaining()];
+        encoded.get(copy);
+        return copy;
+    }
+
+    /**
+     * Sends spilled spans, oldest first, until the buffer is empty or
+     * a span goes unacknowledged; what is left waits for the next run.
+     * A span is only removed from the buffer once the client acknowledged
+     * it.
+     */
+    private void replaySpilled() {
+        byte[] record;
+        while (running.get() && (record = spillBuffer.peek()) != null) {
+            try (Sample timer = replayTimer.start()) {
+                if (!client.sendEncodedAcknowledged(record).get(REPLAY_ACK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    replayUnacknowledgedCounter.increment();
+                    return;
+                }
+            } catch (ExecutionException | TimeoutException e) {
+                replayExceptionCounter.increment();
+                LOGGER.debug("Client is still failing; will retry replaying spilled spans", e);
+                return;
+            } catch (InterruptedException e) {
+                // the dispatcher is closing
+                Thread.currentThread().interrupt();
+                return;
+            }
+            spillBuffer.commit();
+        }
+    }
+
+    @Override
+    public void close() {
+        try (Sample timer = closeTimer.start()) {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shutdownTimeoutMillis);
+            try {
+                if (encodeExecutor != null) {
+                    // let spans handed to the pool reach the queue before the sender stops
+                    encodeExecutor.shutdown();
+                    if (!encodeExecutor.awaitTermination(shutdownTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                        closeTimeoutCounter.increment();
+                        encodeExecutor.shutdownNow();
+                    }
+                }
+                running.set(false);
+                senderTask.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                closeTimeoutCounter.increment();
+                LOGGER.warn("Timeout attempting to fully empty the queue before shutting down");
+                cancelSender();
+            } catch (InterruptedException e) {
+                LOGGER.warn("Interrupted attempting to shutting down");
+                closeInterruptedCounter.increment();
+                cancelSender();
+            } catch (ExecutionException e) {
+                closeExceptionCounter.increment();
+                LOGGER.warn("Sender task exited abnormally while shutting down", e);
+            } finally {
+                running.set(false);
+                final List<byte[]> remaining = new ArrayList<>();
+                acceptQueue.drainTo(remaining);
+                for (byte[] encoded : remaining) {
+                    release(encoded);
+                    overflow(encoded, droppedShutdownCounter, "Dispatcher closed with spans it could not send");
+                }
+                if (ring != null) {
+                    long position;
+                    while ((position = ring.poll()) >= 0) {
+                        overflow(copy(ring.readable(position)), droppedShutdownCounter, "Dispatcher closed with spans it could not send");
+                        ring.release(position);
+                    }
+                }
+                if (spillBuffer != null) {
+                    spillReplayTask.cancel(true);
+                }
+                // spans the client gives up on while closing are still spilled
+                client.close();
+                if (spillBuffer != null) {
+                    spillBuffer.close();
+                }
+                flushTask.cancel(true);
+
+                try {
+                    executor.shutdown();
+                } catch (SecurityException e) {
+                    closeExceptionCounter.increment();
+                    LOGGER.warn("Executor pool failed to close", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the sender taking more spans and interrupts it if blocked in
+     * the client, then waits briefly for it to return so the queue can
+     * be emptied and the client closed under it.
+     */
+    private void cancelSender() {
+        cancelled.set(true);
+        senderTask.cancel(true);
+        try {
+            if (!senderExited.await(CANCEL_GRACE_MILLIS, TimeUnit.MILLISECONDS)) {
+                LOGGER.warn("Sender task ignored the interrupt; closing the client under it");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void flush() {
+        try (Sample timer = flushTimer.start()) {
+            client.flush();
+        }
+        if (spillBuffer != null) {
+            spillBuffer.force();
+        }
+    }
+
+    /**
+     * @return the bytes held by queued spans
+     */
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    public static final class Builder {
+        private Metrics metrics;
+        private Client client;
+        private Format<byte[]> encoder;
+        private BlockingQueue<byte[]> acceptQueue;
+        private long maxQueueBytes;
+        private int encodeThreads;
+        private int encodeQueueSize;
+        private long flushInterval;
+        private long shutdownTimeout;
+        private ScheduledExecutorService executor;
+        private DiskSpillBuffer spillBuffer;
+        private long spillReplayIntervalMillis;
+        private int ringSlots;
+        private int ringSlotBytes;
+
+        public Builder(MetricsRegistry registry, Client client) {
+            this(new Metrics(registry, Dispatcher.class.getName(), Arrays.asList(new Tag("type", "encoded"))), client);
+        }
+
+        public Builder(Metrics metrics, Client client) {
+            this.metrics = metrics;
+            this.client = client;
+            encoder = new DirectProtoBufFormat();
+            acceptQueue = new ArrayBlockingQueue<>(1000);
+            maxQueueBytes = 0;
+            encodeThreads = 0;
+            flushInterval = TimeUnit.MINUTES.toMillis(1);
+            shutdownTimeout = TimeUnit.MINUTES.toMillis(1);
+            executor = Executors.newScheduledThreadPool(2);
+            spillReplayIntervalMillis = TimeUnit.SECONDS.toMillis(1);
+        }
+
+        /**
+         * @param encoder How spans are encoded; must produce what the client's <code>sendEncoded</code> expects
+         * @return this builder
+         */
+        public Builder withEncoder(Format<byte[]> encoder) {
+            this.encoder = encoder;
+            return this;
+        }
+
+        public Builder withBlockingQueueLimit(int limit) {
+            this.acceptQueue = new ArrayBlockingQueue<>(limit);
+            return this;
+        }
+
+        /**
+         * Limits the queue by the encoded bytes it holds as well as by
+         * count.
+         *
+         * @param maxQueueBytes The byte budget, <code>0</code> disables it
+         * @return this builder
+         */
+        public Builder withMaxQueueBytes(long maxQueueBytes) {
+            this.maxQueueBytes = maxQueueBytes;
+            return this;
+        }
+
+        /**
+         * Moves encoding off the dispatching thread onto a pool; spans
+         * waiting for it keep their full object graph until encoded.
+         *
+         * @param threads The encoding threads, <code>0</code> to encode on the dispatching thread
+         * @param queueSize Spans waiting to be encoded before new spans are dropped
+         * @return this builder
+         */
+        public Builder withEncodeThreads(int threads, int queueSize) {
+            this.encodeThreads = threads;
+            this.encodeQueueSize = queueSize;
+            return this;
+        }
+
+        public Builder withFlushIntervalMillis(long flushInterval) {
+            this.flushInterval = flushInterval;
+            return this;
+        }
+
+        public Builder withShutdownTimeoutMillis(long shutdownTimeout) {
+            this.shutdownTimeout = shutdownTimeout;
+            return this;
+        }
+
+        public Builder withExecutor(ScheduledExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Spills spans to disk instead of dropping them; see
+         * {@link RemoteDispatcher.Builder#withSpillBuffer(DiskSpillBuffer)}.
+         *
+         * @param spillBuffer The buffer to spill to
+         * @return this builder
+         */
+        public Builder withSpillBuffer(DiskSpillBuffer spillBuffer) {
+            this.spillBuffer = spillBuffer;
+            return this;
+        }
+
+        public Builder withSpillReplayIntervalMillis(long spillReplayIntervalMillis) {
+            this.spillReplayIntervalMillis = spillReplayIntervalMillis;
+            return this;
+        }
+
+        /**
+         * Queues spans off the heap, in a {@link DirectBufferRing} of
+         * <code>slots * slotBytes</code> bytes allocated when built,
+         * instead of the blocking queue and its byte budget.
+         *
+         * @param slots The spans the ring holds, rounded up to a power of two
+         * @param slotBytes The largest encoded span it holds
+         * @return this builder
+         */
+        public Builder withDirectBufferRing(int slots, int slotBytes) {
+            this.ringSlots = slots;
+            this.ringSlotBytes = slotBytes;
+            return this;
+        }
+
+        public EncodedRemoteDispatcher build() {
+            ExecutorService encodeExecutor = null;
+            if (encodeThreads > 0) {
+                final AtomicInteger threadCount = new AtomicInteger();
+                encodeExecutor = new ThreadPoolExecutor(encodeThreads, encodeThreads, 0, TimeUnit.MILLISECONDS,
+                                                        new ArrayBlockingQueue<>(encodeQueueSize),
+                                                        (runnable) -> {
+                                                            final Thread thread = new Thread(runnable, "haystack-encode-" + threadCount.getAndIncrement());
+                                                            thread.setDaemon(true);
+                                                            return thread;
+                                                        });
+            }
+            DirectBufferRing ring = null;
+            if (ringSlots > 0) {
+                ring = new DirectBufferRing(ringSlots, ringSlotBytes, WaitStrategy.parking());
+            }
+            return new EncodedRemoteDispatcher(metrics, client, encoder, acceptQueue, maxQueueBytes, encodeExecutor,
+                                               flushInterval, shutdownTimeout, executor, spillBuffer, spillReplayIntervalMillis, ring);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers;
+
+/**
+ * What a <code>RemoteDispatcher</code> does with a span when its accept
+ * queue is full.
+ */
+public enum OverflowPolicy {
+    /** Drop the span being dispatched; the default. */
+    DROP_NEWEST,
+
+    /** Drop the oldest queued span to make room for the new one. */
+    DROP_OLDEST,
+
+    /** Block the dispatching thread for up to the block timeout, then drop the new span. */
+    BLOCK,
+
+    /**
+     * Drop the new span unless it is tagged as an error, in which case
+     * the oldest queued span not tagged as an error makes room for it;
+     * when every queued span is an error the new one is dropped.
+     */
+    PRIORITY
+}
@@ -16,19 +16,26 @@
  */
 package com.expedia.www.haystack.client.dispatchers;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.commons.lang3.builder.RecursiveToStringStyle;
 import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
@@ -38,6 +45,10 @@ import org.slf4j.LoggerFactory;
 import com.expedia.www.haystack.client.Span;
 import com.expedia.www.haystack.client.dispatchers.clients.Client;
 import com.expedia.www.haystack.client.dispatchers.clients.ClientException;
+import com.expedia.www.haystack.client.dispatchers.clients.PartialSendException;
+import com.expedia.www.haystack.client.dispatchers.policies.ErrorTracePolicy;
+import com.expedia.www.haystack.client.dispatchers.queues.RingBufferQueue;
+import com.expedia.www.haystack.client.dispatchers.queues.WaitStrategy;
 import com.expedia.www.haystack.client.metrics.Counter;
 import com.expedia.www.haystack.client.metrics.Gauge;
 import com.expedia.www.haystack.client.metrics.Metrics;
@@ -49,21 +60,59 @@ import com.expedia.www.haystack.client.metrics.Timer.Sample;
 public class RemoteDispatcher implements Dispatcher {
     private static final Logger LOGGER = LoggerFactory.getLogger(RemoteDispatcher.class);
 
+    /** How long the sender waits on an empty queue before re-checking if it should shutdown */
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    /** How long a blocked dispatch waits between checks for room in the byte budget */
+    private static final long BUDGET_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /** How long a replayed span may go unacknowledged before replay gives up until its next run */
+    private static final long REPLAY_ACK_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /** How long a timed out close waits for interrupted senders to return from the client */
+    private static final long CANCEL_GRACE_MILLIS = 1000;
+
     private final BlockingQueue<Span> acceptQueue;
     private final ScheduledExecutorService executor;
     private final Client client;
     private final long shutdownTimeoutMillis;
+    private final int maxBatchSize;
+    private final long batchLingerMillis;
+    private final int senderCount;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutMillis;
+    private final long dropLogIntervalNanos;
+    private final long maxQueueBytes;
+    private final DiskSpillBuffer spillBuffer;
 
     private final Future flushTask;
-    private final CompletableFuture<Void> senderTask;
+    private final Future spillReplayTask;
+    private final List<Future<?>> senderTasks;
+    private final CountDownLatch sendersExited;
 
     private final AtomicBoolean running;
+    private final AtomicBoolean cancelled;
+    private final AtomicLong rejectedCount;
+    private final AtomicLong droppedSinceLog;
+    private final AtomicLong nextDropLogNanos;
+    private final AtomicLong queuedBytes;
+    // what each queued span reserved of the byte budget; spans compare by identity
+    private final Map<Span, Long> reservedSizes;
 
     private final Timer sendTimer;
     private final Counter sendInterruptedCounter;
     private final Counter sendExceptionCounter;
+    private final Counter sendBatchCounter;
     private final Timer dispatchTimer;
     private final Counter dispatchRejectedCounter;
+    private final Counter droppedNewestCounter;
+    private final Counter droppedOldestCounter;
+    private final Counter droppedShutdownCounter;
+    private final Counter droppedBudgetCounter;
+    private final Counter spilledCounter;
+    private final Timer replayTimer;
+    private final Counter replayExceptionCounter;
+    private final Counter replayUnacknowledgedCounter;
     private final Timer closeTimer;
     private final Counter closeTimeoutCounter;
     private final Counter closeInterruptedCounter;
@@ -71,12 +120,60 @@ public class RemoteDispatcher implements Dispatcher {
     private final Timer flushTimer;
 
     public RemoteDispatcher(Metrics metrics, Client client, BlockingQueue<Span> queue, long flushInterval, long shutdownTimeout, ScheduledExecutorService executor) {
+        this(metrics, client, queue, flushInterval, shutdownTimeout, executor, 1, 0);
+    }
+
+    public RemoteDispatcher(Metrics metrics, Client client, BlockingQueue<Span> queue, long flushInterval, long shutdownTimeout, ScheduledExecutorService executor, int maxBatchSize, long batchLingerMillis) {
+        this(metrics, client, queue, flushInterval, shutdownTimeout, executor, maxBatchSize, batchLingerMillis, 1);
+    }
+
+    public RemoteDispatcher(Metrics metrics, Client client, BlockingQueue<Span> queue, long flushInterval, long shutdownTimeout, ScheduledExecutorService executor, int maxBatchSize, long batchLingerMillis, int senderCount) {
+        this(metrics, client, queue, flushInterval, shutdownTimeout, executor, maxBatchSize, batchLingerMillis, senderCount,
+             OverflowPolicy.DROP_NEWEST, 0, TimeUnit.SECONDS.toMillis(10));
+    }
+
+    public RemoteDispatcher(Metrics metrics, Client client, BlockingQueue<Span> queue, long flushInterval, long shutdownTimeout, ScheduledExecutorService executor, int maxBatchSize, long batchLingerMillis, int senderCount,
+                            OverflowPolicy overflowPolicy, long blockTimeoutMillis, long dropLogIntervalMillis) {
+        this(metrics, client, queue, flushInterval, shutdownTimeout, executor, maxBatchSize, batchLingerMillis, senderCount,
+             overflowPolicy, blockTimeoutMillis, dropLogIntervalMillis, 0);
+    }
+
+    public RemoteDispatcher(Metrics metrics, Client client, BlockingQueue<Span> queue, long flushInterval, long shutdownTimeout, ScheduledExecutorService executor, int maxBatchSize, long batchLingerMillis, int senderCount,
+                            OverflowPolicy overflowPolicy, long blockTimeoutMillis, long dropLogIntervalMillis, long maxQueueBytes) {
+        this(metrics, client, queue, flushInterval, shutdownTimeout, executor, maxBatchSize, batchLingerMillis, senderCount,
+             overflowPolicy, blockTimeoutMillis, dropLogIntervalMillis, maxQueueBytes, null, 0);
+    }
+
+    public RemoteDispatcher(Metrics metrics, Client client, BlockingQueue<Span> queue, long flushInterval, long shutdownTimeout, ScheduledExecutorService executor, int maxBatchSize, long batchLingerMillis, int senderCount,
+                            OverflowPolicy overflowPolicy, long blockTimeoutMillis, long dropLogIntervalMillis, long maxQueueBytes,
+                            DiskSpillBuffer spillBuffer, long spillReplayIntervalMillis) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException(String.format("Invalid batch size: %s", maxBatchSize));
+        }
+        if (senderCount < 1) {
+            throw new IllegalArgumentException(String.format("Invalid sender count: %s", senderCount));
+        }
+
         this.client = client;
         this.acceptQueue = queue;
         this.executor = executor;
         this.shutdownTimeoutMillis = shutdownTimeout;
+        this.maxBatchSize = maxBatchSize;
+        this.batchLingerMillis = batchLingerMillis;
+        this.senderCount = senderCount;
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+        this.dropLogIntervalNanos = TimeUnit.MILLISECONDS.toNanos(dropLogIntervalMillis);
+        this.maxQueueBytes = maxQueueBytes;
+        this.spillBuffer = spillBuffer;
 
         this.running = new AtomicBoolean(true);
+        this.cancelled = new AtomicBoolean(false);
+        this.rejectedCount = new AtomicLong();
+        this.droppedSinceLog = new AtomicLong();
+        this.nextDropLogNanos = new AtomicLong(System.nanoTime());
+        this.queuedBytes = new AtomicLong();
+        this.reservedSizes = new ConcurrentHashMap<>();
 
         this.flushTask = executor.scheduleAtFixedRate(new Runnable() {
                 @Override
@@ -92,33 +189,44 @@ public class RemoteDispatcher implements Dispatcher {
         this.sendTimer = Timer.builder("send").register(metrics);
         this.sendInterruptedCounter = Counter.builder("send").tag(new Tag("state", "interrupted")).register(metrics);
         this.sendExceptionCounter = Counter.builder("send").tag(new Tag("state", "exception")).register(metrics);
+        this.sendBatchCounter = Counter.builder("send").tag(new Tag("state", "batch")).register(metrics);
+
+        if (executor instanceof ScheduledThreadPoolExecutor) {
+            // every sender holds a thread for its lifetime; leave one for the flush and replay tasks
+            final ScheduledThreadPoolExecutor pool = (ScheduledThreadPoolExecutor) executor;
+            final int threads = senderCount + (spillBuffer != null ? 2 : 1);
+            if (pool.getCorePoolSize() < threads) {
+                pool.setCorePoolSize(threads);
+            }
+        }
 
-        this.senderTask = CompletableFuture.runAsync(() -> {
-                while(running.get() || !(acceptQueue.isEmpty())) {
-
-                    try (Sample timer = sendTimer.start()) {
-                        Span span = acceptQueue.take();
-                        try {
-                            client.send(span);
-                        } catch (ClientException e) {
-                            sendExceptionCounter.increment();
-                            LOGGER.error("Client reported a failure:", e);
-                        }
-                    } catch (InterruptedException e) {
-                        // do nothing; will retry next interation
-                        sendInterruptedCounter.increment();
-                    }
-                }
-            }, executor);
+        this.sendersExited = new CountDownLatch(senderCount);
+        final List<Future<?>> tasks = new ArrayList<>(senderCount);
+        for (int worker = 0; worker < senderCount; worker++) {
+            final Sender sender = new Sender(metrics, worker);
+            tasks.add(executor.submit(sender::sendLoop));
+        }
+        this.senderTasks = tasks;
 
         // held in the registry; but we don't need a local reference
         Gauge.builder("acceptQueue", acceptQueue, Collection::size)
             .register(metrics);
         Gauge.builder("running", running, (running) -> (running.get() ? 1 : 0))
             .register(metrics);
+        Gauge.builder("acceptQueueBytes", queuedBytes, AtomicLong::get)
+            .register(metrics);
 
         this.dispatchTimer = Timer.builder("dispatch").register(metrics);
         this.dispatchRejectedCounter = Counter.builder("dispatch").tag(new Tag("state", "rejected")).register(metrics);
+        final Tag policyTag = new Tag("policy", overflowPolicy.name().toLowerCase());
+        this.droppedNewestCounter = Counter.builder("dropped").tag(policyTag).tag(new Tag("state", "newest")).register(metrics);
+        this.droppedOldestCounter = Counter.builder("dropped").tag(policyTag).tag(new Tag("state", "oldest")).register(metrics);
+        this.droppedShutdownCounter = Counter.builder("dropped").tag(policyTag).tag(new Tag("state", "shutdown")).register(metrics);
+        this.droppedBudgetCounter = Counter.builder("dropped").tag(policyTag).tag(new Tag("state", "budget")).register(metrics);
+        this.spilledCounter = Counter.builder("spilled").register(metrics);
+        this.replayTimer = Timer.builder("replay").register(metrics);
+        this.replayExceptionCounter = Counter.builder("replay").tag(new Tag("state", "exception")).register(metrics);
+        this.replayUnacknowledgedCounter = Counter.builder("replay").tag(new Tag("state", "unacknowledged")).register(metrics);
 
         this.closeTimer = Timer.builder("close").register(metrics);
         this.closeTimeoutCounter = Counter.builder("close").tag(new Tag("state", "timeout")).register(metrics);
@@ -126,53 +234,457 @@ public class RemoteDispatcher implements Dispatcher {
         this.closeExceptionCounter = Counter.builder("close").tag(new Tag("state", "exception")).register(metrics);
 
         this.flushTimer = Timer.builder("flush").register(metrics);
+
+        if (spillBuffer != null) {
+            this.spillReplayTask = executor.scheduleWithFixedDelay(this::replaySpilled, spillReplayIntervalMillis, spillReplayIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.spillReplayTask = null;
+        }
+    }
+
+    /**
+     * One of <code>senderCount</code> workers draining the accept queue.
+     * Each worker builds its own batches and makes its own calls to the
+     * client, so a slow round trip only holds up that worker.
+     */
+    private final class Sender {
+        private final Timer workerSendTimer;
+        private final Counter workerSpansCounter;
+
+        Sender(Metrics metrics, int worker) {
+            final Tag workerTag = new Tag("worker", String.valueOf(worker));
+            this.workerSendTimer = Timer.builder("worker").tag(workerTag).register(metrics);
+            this.workerSpansCounter = Counter.builder("worker").tag(workerTag).tag(new Tag("state", "sent")).register(metrics);
+        }
+
+        /**
+         * Drains the accept queue until the dispatcher is closed and the
+         * queue is empty, or the close times out.  Each pass waits for a first span and then
+         * collects up to <code>maxBatchSize</code> spans, lingering for up to
+         * <code>batchLingerMillis</code> for the batch to fill, before handing
+         * them to the client in a single call.
+         */
+        void sendLoop() {
+            final List<Span> batch = new ArrayList<>(maxBatchSize);
+
+            try {
+                while (!cancelled.get() && (running.get() || !(acceptQueue.isEmpty()))) {
+                    try {
+                        final Span head = acceptQueue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                        if (head == null) {
+                            continue;
+                        }
+                        batch.add(head);
+                        fillBatch(batch);
+                        send(batch);
+                    } catch (InterruptedException e) {
+                        // do nothing; will retry next interation
+                        sendInterruptedCounter.increment();
+                        send(batch);
+                    } finally {
+                        batch.clear();
+                    }
+                }
+            } finally {
+                sendersExited.countDown();
+            }
+        }
+
+        private void fillBatch(List<Span> batch) throws InterruptedException {
+            if (maxBatchSize == 1) {
+                return;
+            }
+
+            acceptQueue.drainTo(batch, maxBatchSize - batch.size());
+
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchLingerMillis);
+            while (batch.size() < maxBatchSize && running.get()) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                final Span span = acceptQueue.poll(remaining, TimeUnit.NANOSECONDS);
+                if (span == null) {
+                    break;
+                }
+                batch.add(span);
+                acceptQueue.drainTo(batch, maxBatchSize - batch.size());
+            }
+        }
+
+        private void send(List<Span> batch) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            for (Span span : batch) {
+                release(span);
+            }
+            if (spillBuffer != null) {
+                sendAcknowledged(batch);
+                return;
+            }
+
+            try (Sample timer = sendTimer.start(); Sample workerTimer = workerSendTimer.start()) {
+                if (batch.size() == 1) {
+                    client.send(batch.get(0));
+                } else {
+                    sendBatchCounter.increment();
+                    client.send(batch);
+                }
+                workerSpansCounter.increment(batch.size());
+            } catch (PartialSendException e) {
+                sendExceptionCounter.increment();
+                LOGGER.error("Client reported a failure:", e);
+                // the spans ahead of the failure were sent; spilling them too would send them twice
+                workerSpansCounter.increment(batch.size() - e.getUnsentSpans().size());
+                for (Span span : e.getUnsentSpans()) {
+                    spill(span);
+                }
+            } catch (ClientException e) {
+                sendExceptionCounter.increment();
+                LOGGER.error("Client reported a failure:", e);
+                for (Span span : batch) {
+                    spill(span);
+                }
+            }
+        }
+
+        /**
+         * Sends the batch and spills each span the client doesn't
+         * acknowledge.  A client like the agent client only learns of a
+         * failure after the call returned, so the spill happens on the
+         * thread completing the acknowledgement, e.g. a gRPC callback.
+         */
+        private void sendAcknowledged(List<Span> batch) {
+            try (Sample timer = sendTimer.start(); Sample workerTimer = workerSendTimer.start()) {
+                if (batch.size() > 1) {
+                    sendBatchCounter.increment();
+                }
+                final List<CompletableFuture<Boolean>> acks = client.sendAcknowledged(batch);
+                for (int i = 0; i < batch.size(); i++) {
+                    final Span span = batch.get(i);
+                    acks.get(i).whenComplete((acknowledged, error) -> {
+                            if (error != null || !acknowledged) {
+                                sendExceptionCounter.increment();
+                                spill(span);
+                            }
+                        });
+                }
+                workerSpansCounter.increment(batch.size());
+            }
+        }
     }
 
     @Override
     public String toString() {
         return new ReflectionToStringBuilder(this, RecursiveToStringStyle.JSON_STYLE)
-            .setExcludeFieldNames("acceptQueue", "executor", "flushTask", "senderTask")
+            .setExcludeFieldNames("acceptQueue", "executor", "flushTask", "senderTasks", "sendersExited", "spillReplayTask", "reservedSizes")
             .toString();
     }
 
     @Override
     public void dispatch(Span span) {
         try (Sample timer = dispatchTimer.start()) {
-            if (running.get()) {
-                final boolean accepted = acceptQueue.offer(span);
-                if (!accepted) {
-                    dispatchRejectedCounter.increment();
-                    LOGGER.warn("Send queue is rejecting new spans");
+            if (!running.get()) {
+                if (spill(span)) {
+                    return;
+                }
+                dropped(droppedShutdownCounter, "Dispatcher is shutting down and queue is now rejecting new spans");
+                return;
+            }
+            final long size = (maxQueueBytes > 0 ? SpanSizeEstimator.estimate(span) : 0);
+            if (admit(span, size)) {
+                return;
+            }
+
+            switch (overflowPolicy) {
+            case DROP_OLDEST:
+                offerReplacingOldest(span, size);
+                break;
+            case BLOCK:
+                offerBlocking(span, size);
+                break;
+            case PRIORITY:
+                if (ErrorTracePolicy.isError(span)) {
+                    offerReplacingNonError(span, size);
+                } else {
+                    droppedNewest(span);
                 }
-            } else {
-                dispatchRejectedCounter.increment();
-                LOGGER.warn("Dispatcher is shutting down and queue is now rejecting new spans");
+                break;
+            default:
+                droppedNewest(span);
             }
         }
     }
 
+    /**
+     * Reserves room for the span in the byte budget, when there is one,
+     * and offers it to the queue.
+     */
+    private boolean admit(Span span, long size) {
+        if (!reserve(span, size)) {
+            return false;
+        }
+        if (acceptQueue.offer(span)) {
+            return true;
+        }
+        unreserve(span, size);
+        return false;
+    }
+
+    /**
+     * Reserves room for the span in the byte budget and records how much,
+     * before it is queued, so a sender taking it can release exactly that.
+     */
+    private boolean reserve(Span span, long size) {
+        if (maxQueueBytes <= 0) {
+            return true;
+        }
+        while (true) {
+            final long current = queuedBytes.get();
+            // an empty queue admits a single span larger than the budget
+            if (current > 0 && current + size > maxQueueBytes) {
+                return false;
+            }
+            if (queuedBytes.compareAndSet(current, current + size)) {
+                reservedSizes.put(span, size);
+                return true;
+            }
+        }
+    }
+
+    private void unreserve(Span span, long size) {
+        if (maxQueueBytes > 0) {
+            reservedSizes.remove(span);
+            queuedBytes.addAndGet(-size);
+        }
+    }
+
+    /**
+     * Returns a span's share of the byte budget once it leaves the queue;
+     * the size reserved when it was admitted, not a new estimate, as the
+     * span may have changed since.
+     */
+    private void release(Span span) {
+        if (maxQueueBytes > 0) {
+            final Long size = reservedSizes.remove(span);
+            if (size != null) {
+                queuedBytes.addAndGet(-size);
+            }
+        }
+    }
+
+    private boolean overBudget() {
+        return maxQueueBytes > 0 && queuedBytes.get() >= maxQueueBytes;
+    }
+
+    private void droppedNewest(Span span) {
+        if (spill(span)) {
+            return;
+        }
+        if (overBudget()) {
+            dropped(droppedBudgetCounter, "Send queue is over its byte budget and rejecting new spans");
+        } else {
+            dropped(droppedNewestCounter, "Send queue is full and rejecting new spans");
+        }
+    }
+
+    private void offerReplacingOldest(Span span, long size) {
+        // bounded, the senders may free space or refill it between attempts
+        for (int attempt = 0; attempt < 3; attempt++) {
+            final Span oldest = acceptQueue.poll();
+            if (oldest != null) {
+                release(oldest);
+                if (!spill(oldest)) {
+                    dropped(droppedOldestCounter, "Send queue is full and dropping the oldest spans");
+                }
+            }
+            if (admit(span, size)) {
+                return;
+            }
+        }
+        droppedNewest(span);
+    }
+
+    private void offerReplacingNonError(Span span, long size) {
+        for (int attempt = 0; attempt < 3; attempt++) {
+            final Span victim = oldestNonError();
+            if (victim == null) {
+                // every queued span is an error; keep them rather than trade one for another
+                break;
+            }
+            final Span evicted = evict(victim);
+            if (evicted != null) {
+                release(evicted);
+                if (!spill(evicted)) {
+                    dropped(droppedOldestCounter, "Send queue is full and dropping spans not tagged error");
+                }
+            }
+            if (admit(span, size)) {
+                return;
+            }
+        }
+        droppedNewest(span);
+    }
+
+    private Span oldestNonError() {
+        for (Span queued : acceptQueue) {
+            if (!ErrorTracePolicy.isError(queued)) {
+                return queued;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Takes a span out of the queue, wherever it is.  A queue that can
+     * only give up its head, like the ring buffer, gives it up only once
+     * it is at the head.
+     *
+     * @return the span taken out, or <code>null</code> if none was
+     */
+    private Span evict(Span victim) {
+        try {
+            return (acceptQueue.remove(victim) ? victim : null);
+        } catch (UnsupportedOperationException e) {
+            if (acceptQueue.peek() != victim) {
+                return null;
+            }
+            final Span head = acceptQueue.poll();
+            if (head == null || !ErrorTracePolicy.isError(head)) {
+                return head;
+            }
+            // a sender took the victim first; queue the error span again, behind the rest
+            return (acceptQueue.offer(head) ? null : head);
+        }
+    }
+
+    private void offerBlocking(Span span, long size) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+        try {
+            while (true) {
+                final long remaining = deadline - System.nanoTime();
+                if (reserve(span, size)) {
+                    if (acceptQueue.offer(span, Math.max(0, remaining), TimeUnit.NANOSECONDS)) {
+                        return;
+                    }
+                    unreserve(span, size);
+                } else if (remaining > 0) {
+                    // the budget frees up as the senders drain; there is no signal to wait on
+                    LockSupport.parkNanos(Math.min(remaining, BUDGET_WAIT_NANOS));
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                    continue;
+                }
+                if (deadline - System.nanoTime() <= 0) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        droppedNewest(span);
+    }
+
+    /**
+     * Writes a span that would otherwise be dropped to the spill buffer,
+     * if there is one, encoded by the client as it would send it.
+     *
+     * @return <code>true</code> if the span was spilled
+     */
+    private boolean spill(Span span) {
+        if (spillBuffer == null) {
+            return false;
+        }
+        if (spillBuffer.append(client.encode(span))) {
+            spilledCounter.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sends spilled spans, oldest first, until the buffer is empty or
+     * a span goes unacknowledged; what is left waits for the next run.
+     * A span is only removed from the buffer once the client acknowledged
+     * it, and one at a time, so replay pauses as soon as the agent or the
+     * circuit breaker turns it away.  Runs alongside the senders, so
+     * replayed spans interleave with new ones.
+     */
+    private void replaySpilled() {
+        byte[] record;
+        while (running.get() && (record = spillBuffer.peek()) != null) {
+            try (Sample timer = replayTimer.start()) {
+                if (!client.sendEncodedAcknowledged(record).get(REPLAY_ACK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    replayUnacknowledgedCounter.increment();
+                    return;
+                }
+            } catch (ExecutionException | TimeoutException e) {
+                replayExceptionCounter.increment();
+                LOGGER.debug("Client is still failing; will retry replaying spilled spans", e);
+                return;
+            } catch (InterruptedException e) {
+                // the dispatcher is closing
+                Thread.currentThread().interrupt();
+                return;
+            }
+            spillBuffer.commit();
+        }
+    }
+
+    /**
+     * Counts a dropped span and logs a summary at most once per drop log
+     * interval; a WARN per span would only add to an overload.
+     */
+    private void dropped(Counter counter, String reason) {
+        counter.increment();
+        rejectedCount.incrementAndGet();
+        dispatchRejectedCounter.increment();
+
+        final long dropped = droppedSinceLog.incrementAndGet();
+        final long now = System.nanoTime();
+        final long next = nextDropLogNanos.get();
+        if (now - next >= 0 && nextDropLogNanos.compareAndSet(next, now + dropLogIntervalNanos)) {
+            droppedSinceLog.addAndGet(-dropped);
+            LOGGER.warn("{}; dropped {} spans since the last report (overflow policy {})", reason, dropped, overflowPolicy);
+        }
+    }
+
     @Override
     public void close() {
         try (Sample timer = closeTimer.start()) {
             running.set(false);
 
             try {
-                senderTask.get(shutdownTimeoutMillis, TimeUnit.MILLISECONDS);
+                awaitSenders();
             } catch (TimeoutException e) {
                 // failed to fully flush the queue so force canceling
                 closeTimeoutCounter.increment();
                 LOGGER.warn("Timeout attempting to fully empty the queue before shutting down");
-                senderTask.cancel(true);
+                cancelSenders();
             } catch (InterruptedException e) {
                 LOGGER.warn("Interrupted attempting to shutting down");
                 closeInterruptedCounter.increment();
-                senderTask.cancel(true);
-            } catch (CancellationException | ExecutionException e) {
-                // do nothing, task was cancelled or finished with an exception
-                closeExceptionCounter.increment();
-                LOGGER.warn("Sender task exited abnormally while shutting down", e);
+                cancelSenders();
             } finally {
+                if (spillBuffer != null) {
+                    spillReplayTask.cancel(true);
+                }
+                // whatever the senders couldn't send in time is kept for the next process, or counted as lost
+                final List<Span> remaining = new ArrayList<>();
+                acceptQueue.drainTo(remaining);
+                for (Span span : remaining) {
+                    release(span);
+                    if (!spill(span)) {
+                        dropped(droppedShutdownCounter, "Dispatcher closed with spans it could not send");
+                    }
+                }
+                // spans the client gives up on while closing are still spilled
                 client.close();
+                if (spillBuffer != null) {
+                    spillBuffer.close();
+                }
                 flushTask.cancel(true);
 
                 try {
@@ -185,11 +697,78 @@ public class RemoteDispatcher implements Dispatcher {
         }
     }
 
+    /**
+     * Waits, up to the shutdown timeout overall, for every sender to
+     * drain the queue and exit.
+     */
+    private void awaitSenders() throws InterruptedException, TimeoutException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shutdownTimeoutMillis);
+        for (Future<?> task : senderTasks) {
+            try {
+                task.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (ExecutionException e) {
+                // do nothing, the task finished with an exception; wait on the others
+                closeExceptionCounter.increment();
+                LOGGER.warn("Sender task exited abnormally while shutting down", e);
+            }
+        }
+    }
+
+    /**
+     * Stops the senders taking more spans and interrupts any blocked in
+     * the client, then waits briefly for them to return so the queue
+     * can be emptied and the client closed under them.
+     */
+    private void cancelSenders() {
+        cancelled.set(true);
+        for (Future<?> task : senderTasks) {
+            task.cancel(true);
+        }
+        try {
+            if (!sendersExited.await(CANCEL_GRACE_MILLIS, TimeUnit.MILLISECONDS)) {
+                LOGGER.warn("Sender tasks ignored the interrupt; closing the client under them");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     @Override
     public void flush() {
         try (Sample timer = flushTimer.start()) {
             client.flush();
         }
+        if (spillBuffer != null) {
+            spillBuffer.force();
+        }
+    }
+
+    /**
+     * @return the fraction, between 0 and 1, of the accept queue in use; by count, or by bytes when that is fuller
+     */
+    public double getQueueFillRatio() {
+        final int size = acceptQueue.size();
+        final long capacity = (long) size + acceptQueue.remainingCapacity();
+        double fill = (capacity <= 0 ? 0.0 : (double) size / capacity);
+        if (maxQueueBytes > 0) {
+            // a queue short on bytes rejects spans however few it holds
+            fill = Math.max(fill, (double) queuedBytes.get() / maxQueueBytes);
+        }
+        return Math.min(1.0, fill);
+    }
+
+    /**
+     * @return the estimated bytes retained by queued spans; only tracked with a byte budget
+     */
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    /**
+     * @return the total number of spans rejected since the dispatcher was created
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
     }
 
     public static final class Builder {
@@ -199,6 +778,15 @@ public class RemoteDispatcher implements Dispatcher {
         private long flushInterval;
         private long shutdownTimeout;
         private ScheduledExecutorService executor;
+        private int maxBatchSize;
+        private long batchLingerMillis;
+        private int senderCount;
+        private OverflowPolicy overflowPolicy;
+        private long blockTimeoutMillis;
+        private long dropLogIntervalMillis;
+        private long maxQueueBytes;
+        private DiskSpillBuffer spillBuffer;
+        private long spillReplayIntervalMillis;
 
         public Builder(MetricsRegistry registry, Client client) {
             this(new Metrics(registry, Dispatcher.class.getName(), Arrays.asList(new Tag("type", "remote"))), client);
@@ -211,6 +799,14 @@ public class RemoteDispatcher implements Dispatcher {
             flushInterval = TimeUnit.MINUTES.toMillis(1);
             shutdownTimeout = TimeUnit.MINUTES.toMillis(1);
             executor = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors());
+            maxBatchSize = 1;
+            batchLingerMillis = 0;
+            senderCount = 1;
+            overflowPolicy = OverflowPolicy.DROP_NEWEST;
+            blockTimeoutMillis = 0;
+            dropLogIntervalMillis = TimeUnit.SECONDS.toMillis(10);
+            maxQueueBytes = 0;
+            spillReplayIntervalMillis = TimeUnit.SECONDS.toMillis(1);
         }
 
         public Builder withExecutor(ScheduledExecutorService executor) {
@@ -233,6 +829,20 @@ public class RemoteDispatcher implements Dispatcher {
             return this;
         }
 
+        /**
+         * Replaces the default <code>ArrayBlockingQueue</code> with a
+         * lock-free <code>RingBufferQueue</code>, so request threads
+         * dispatching spans never contend on a lock.
+         *
+         * @param limit The queue size; rounded up to a power of two
+         * @param waitStrategy How the sender waits for spans when the queue is empty
+         * @return this builder
+         */
+        public Builder withRingBufferQueue(int limit, WaitStrategy waitStrategy) {
+            this.acceptQueue = new RingBufferQueue<>(limit, waitStrategy);
+            return this;
+        }
+
         public Builder withFlushIntervalMillis(long flushInterval) {
             this.flushInterval = flushInterval;
             return this;
@@ -243,8 +853,127 @@ public class RemoteDispatcher implements Dispatcher {
             return this;
         }
 
+        /**
+         * Enables batching; the sender will hand up to <code>maxBatchSize</code>
+         * spans to the client in a single call.  Whether that saves round
+         * trips depends on the client, e.g. the agent client only batches
+         * on the wire when streaming.
+         *
+         * @param maxBatchSize The largest batch to send, <code>1</code> disables batching
+         * @return this builder
+         */
+        public Builder withMaxBatchSize(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * How long the sender will wait for a batch to fill before sending
+         * what it has.  Only applies when batching is enabled.
+         *
+         * @param batchLingerMillis Time to wait for a partial batch to fill
+         * @return this builder
+         */
+        public Builder withBatchLingerMillis(long batchLingerMillis) {
+            this.batchLingerMillis = batchLingerMillis;
+            return this;
+        }
+
+        /**
+         * Number of workers draining the queue and calling the client in
+         * parallel; the client must be safe to call concurrently.  Each
+         * worker holds an executor thread until the dispatcher is closed.
+         *
+         * @param senderCount The number of sender workers
+         * @return this builder
+         */
+        public Builder withSenderCount(int senderCount) {
+            this.senderCount = senderCount;
+            return this;
+        }
+
+        /**
+         * What to do with spans when the accept queue is full.
+         *
+         * @param overflowPolicy The policy to apply
+         * @return this builder
+         */
+        public Builder withOverflowPolicy(OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        /**
+         * How long a dispatching thread may block waiting for room in the
+         * queue; only used by <code>OverflowPolicy.BLOCK</code>.
+         *
+         * @param blockTimeoutMillis Time to block before dropping the span
+         * @return this builder
+         */
+        public Builder withBlockTimeoutMillis(long blockTimeoutMillis) {
+            this.blockTimeoutMillis = blockTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * @param dropLogIntervalMillis The least time between two warnings summarizing dropped spans
+         * @return this builder
+         */
+        public Builder withDropLogIntervalMillis(long dropLogIntervalMillis) {
+            this.dropLogIntervalMillis = dropLogIntervalMillis;
+            return this;
+        }
+
+        /**
+         * Limits the queue by the estimated heap its spans retain as well
+         * as by count; a span is admitted only while the total stays within
+         * the budget.  The overflow policy applies as if the queue were full.
+         *
+         * @param maxQueueBytes The byte budget, <code>0</code> disables it
+         * @return this builder
+         * @see SpanSizeEstimator
+         */
+        public Builder withMaxQueueBytes(long maxQueueBytes) {
+            this.maxQueueBytes = maxQueueBytes;
+            return this;
+        }
+
+        /**
+         * Spills spans to disk instead of dropping them: spans the overflow
+         * policy would drop, spans the client didn't acknowledge and spans
+         * still queued when a <code>close()</code> times out.  Spilled spans
+         * are replayed, in order, through <code>Client.sendEncodedAcknowledged</code>
+         * and only removed once acknowledged.  The dispatcher closes the
+         * buffer when it is closed.
+         *
+         * A spill is encoded with <code>Client.encode</code> and appended
+         * to a memory mapped segment under the buffer's lock, on the thread
+         * that gave up on the span: a request thread finishing a span when
+         * the queue overflows, or the client's callback thread when the
+         * agent fails a span.  That is a copy and no disk write, but every
+         * spilling thread takes the same lock and each new segment creates
+         * a file.
+         *
+         * @param spillBuffer The buffer to spill to
+         * @return this builder
+         */
+        public Builder withSpillBuffer(DiskSpillBuffer spillBuffer) {
+            this.spillBuffer = spillBuffer;
+            return this;
+        }
+
+        /**
+         * @param spillReplayIntervalMillis How long to wait before retrying to replay spilled spans after a failure
+         * @return this builder
+         */
+        public Builder withSpillReplayIntervalMillis(long spillReplayIntervalMillis) {
+            this.spillReplayIntervalMillis = spillReplayIntervalMillis;
+            return this;
+        }
+
         public RemoteDispatcher build() {
-            return new RemoteDispatcher(metrics, client, acceptQueue, flushInterval, shutdownTimeout, executor);
+            return new RemoteDispatcher(metrics, client, acceptQueue, flushInterval, shutdownTimeout, executor, maxBatchSize, batchLingerMillis, senderCount,
+                                        overflowPolicy, blockTimeoutMillis, dropLogIntervalMillis, maxQueueBytes, spillBuffer, spillReplayIntervalMillis);
         }
     }
 
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers;
+
+import java.util.Map;
+
+import com.expedia.www.haystack.client.LogData;
+import com.expedia.www.haystack.client.Span;
+
+/**
+ * Rough estimate of the heap a finished span retains, for admitting
+ * spans against a byte budget.
+ *
+ * The figures assume a 64 bit JVM with compressed references and strings
+ * stored as UTF-16; they err on the generous side rather than walking the
+ * object graph.  Only what is owned by the span is counted: the service
+ * name and the referenced contexts are shared and left out.  A finished
+ * span doesn't change, so estimating it again later gives the same size.
+ */
+public final class SpanSizeEstimator {
+    private static final long SPAN = 96;
+    private static final long CONTEXT = 72;
+    private static final long MAP = 64;
+    private static final long MAP_ENTRY = 40;
+    private static final long LIST = 40;
+    private static final long LIST_ELEMENT = 4;
+    private static final long REFERENCE = 24;
+    private static final long LOG = 32;
+    private static final long STRING = 40;
+    private static final long BOXED = 24;
+
+    private SpanSizeEstimator() { }
+
+    /**
+     * @param span The finished span to estimate
+     * @return the estimated retained size, in bytes
+     */
+    public static long estimate(Span span) {
+        long size = SPAN + CONTEXT;
+        size += string(span.getOperatioName());
+        size += map(span.getTags());
+        size += map(span.context().getBaggage());
+
+        if (!span.getLogs().isEmpty()) {
+            size += LIST;
+            for (LogData log : span.getLogs()) {
+                size += LIST_ELEMENT + LOG + BOXED + map(log.getFields());
+            }
+        }
+
+        if (!span.getReferences().isEmpty()) {
+            size += LIST + span.getReferences().size() * (LIST_ELEMENT + REFERENCE);
+        }
+        return size;
+    }
+
+    private static long map(Map<String, ?> map) {
+        if (map == null || map.isEmpty()) {
+            return 0;
+        }
+        long size = MAP;
+        for (Map.Entry<String, ?> entry : map.entrySet()) {
+            size += MAP_ENTRY + string(entry.getKey()) + value(entry.getValue());
+        }
+        return size;
+    }
+
+    private static long value(Object value) {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof String) {
+            return string((String) value);
+        } else if (value instanceof Number || value instanceof Boolean) {
+            return BOXED;
+        } else if (value instanceof byte[]) {
+            return 16 + align(((byte[]) value).length);
+        }
+        // unknown objects are charged for their string form
+        return string(value.toString());
+    }
+
+    private static long string(String value) {
+        if (value == null) {
+            return 0;
+        }
+        return STRING + align(2l * value.length());
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7l;
+    }
+}
@@ -0,0 +1,459 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.builder.RecursiveToStringStyle;
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.expedia.www.haystack.client.Clock;
+import com.expedia.www.haystack.client.Reference;
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.SpanContext;
+import com.expedia.www.haystack.client.SystemClock;
+import com.expedia.www.haystack.client.dispatchers.policies.TracePolicy;
+import com.expedia.www.haystack.client.metrics.Counter;
+import com.expedia.www.haystack.client.metrics.Gauge;
+import com.expedia.www.haystack.client.metrics.Metrics;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.Tag;
+import com.expedia.www.haystack.client.metrics.Timer;
+import com.expedia.www.haystack.client.metrics.Timer.Sample;
+
+/**
+ * Buffers finished spans by trace and decides once per trace whether to
+ * forward all of them to a delegate dispatcher.
+ *
+ * A trace is decided when its local root finishes, the root of the
+ * trace or the first span of it in this process, when it has waited
+ * <code>decisionWaitMillis</code> since its first span, or early when the
+ * buffer exceeds its trace or span limits, oldest trace first.  It is
+ * kept if any of the policies keeps it.  Decisions are remembered for a
+ * bounded number of recent traces so spans finishing after the decision
+ * follow it.
+ */
+public class TailSamplingDispatcher implements Dispatcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TailSamplingDispatcher.class);
+
+    private final Dispatcher delegate;
+    private final List<TracePolicy> policies;
+    private final Clock clock;
+    private final ScheduledExecutorService executor;
+    private final boolean ownsExecutor;
+    private final long decisionWaitNanos;
+    private final int maxTraces;
+    private final int maxSpans;
+
+    private final Object lock = new Object();
+    private final LinkedHashMap<TraceKey, PendingTrace> pending;
+    private final LinkedHashMap<TraceKey, Boolean> decisions;
+    private final AtomicInteger bufferedTraces;
+    private final AtomicInteger bufferedSpans;
+    private final AtomicBoolean running;
+    private final Future evictionTask;
+
+    private final Timer dispatchTimer;
+    private final Counter keptCounter;
+    private final Counter droppedCounter;
+    private final Counter evictedCounter;
+    private final Counter lateKeptCounter;
+    private final Counter lateDroppedCounter;
+    private final Counter dispatchRejectedCounter;
+
+    public TailSamplingDispatcher(Metrics metrics, Dispatcher delegate, List<TracePolicy> policies, Clock clock,
+                                  ScheduledExecutorService executor, long decisionWaitMillis, long evictionIntervalMillis,
+                                  int maxTraces, int maxSpans) {
+        this(metrics, delegate, policies, clock, executor, false, decisionWaitMillis, evictionIntervalMillis, maxTraces, maxSpans);
+    }
+
+    /**
+     * @param ownsExecutor <code>true</code> if the executor was created for this dispatcher and is shut down with it
+     */
+    public TailSamplingDispatcher(Metrics metrics, Dispatcher delegate, List<TracePolicy> policies, Clock clock,
+                                  ScheduledExecutorService executor, boolean ownsExecutor, long decisionWaitMillis, long evictionIntervalMillis,
+                                  int maxTraces, int maxSpans) {
+        if (maxTraces < 1 || maxSpans < 1) {
+            throw new IllegalArgumentException(String.format("Invalid buffer limits: %s traces, %s spans", maxTraces, maxSpans));
+        }
+
+        this.delegate = delegate;
+        this.policies = Collections.unmodifiableList(new ArrayList<>(policies));
+        this.clock = clock;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.decisionWaitNanos = TimeUnit.MILLISECONDS.toNanos(decisionWaitMillis);
+        this.maxTraces = maxTraces;
+        this.maxSpans = maxSpans;
+
+        this.pending = new LinkedHashMap<>();
+        this.decisions = new LinkedHashMap<TraceKey, Boolean>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<TraceKey, Boolean> eldest) {
+                    return size() > TailSamplingDispatcher.this.maxTraces;
+                }
+            };
+        this.bufferedTraces = new AtomicInteger();
+        this.bufferedSpans = new AtomicInteger();
+        this.running = new AtomicBoolean(true);
+
+        this.dispatchTimer = Timer.builder("dispatch").register(metrics);
+        this.keptCounter = Counter.builder("traces").tag(new Tag("state", "kept")).register(metrics);
+        this.droppedCounter = Counter.builder("traces").tag(new Tag("state", "dropped")).register(metrics);
+        this.evictedCounter = Counter.builder("traces").tag(new Tag("state", "evicted")).register(metrics);
+        this.lateKeptCounter = Counter.builder("late").tag(new Tag("state", "kept")).register(metrics);
+        this.lateDroppedCounter = Counter.builder("late").tag(new Tag("state", "dropped")).register(metrics);
+        this.dispatchRejectedCounter = Counter.builder("dispatch").tag(new Tag("state", "rejected")).register(metrics);
+
+        // held in the registry; but we don't need a local reference
+        Gauge.builder("bufferedTraces", bufferedTraces, AtomicInteger::get).register(metrics);
+        Gauge.builder("bufferedSpans", bufferedSpans, AtomicInteger::get).register(metrics);
+
+        this.evictionTask = executor.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        forward(expire());
+                    } catch (RuntimeException e) {
+                        LOGGER.error("Failed deciding expired traces", e);
+                    }
+                }
+            }, evictionIntervalMillis, evictionIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return new ReflectionToStringBuilder(this, RecursiveToStringStyle.JSON_STYLE)
+            .setExcludeFieldNames("clock", "executor", "lock", "pending", "decisions", "evictionTask")
+            .toString();
+    }
+
+    @Override
+    public void dispatch(Span span) {
+        try (Sample timer = dispatchTimer.start()) {
+            if (!running.get()) {
+                dispatchRejectedCounter.increment();
+                LOGGER.warn("Dispatcher is shutting down and is now rejecting new spans");
+                return;
+            }
+
+            final SpanContext context = span.context();
+            final TraceKey key = new TraceKey(context.getTraceIdHigh(), context.getTraceIdLow());
+            final List<Span> kept = new ArrayList<>();
+
+            synchronized (lock) {
+                final Boolean decision = decisions.get(key);
+                if (decision != null) {
+                    if (decision) {
+                        lateKeptCounter.increment();
+                        kept.add(span);
+                    } else {
+                        lateDroppedCounter.increment();
+                    }
+                } else {
+                    PendingTrace trace = pending.get(key);
+                    if (trace == null) {
+                        trace = new PendingTrace(key, clock.nanoTime());
+                        pending.put(key, trace);
+                    }
+                    trace.spans.add(span);
+                    bufferedSpans.incrementAndGet();
+
+                    if (isLocalRoot(span)) {
+                        // the local root finishes last; this process has nothing more to add to the trace
+                        pending.remove(key);
+                        decide(trace, kept);
+                    }
+
+                    final Iterator<PendingTrace> oldest = pending.values().iterator();
+                    while ((pending.size() > maxTraces || bufferedSpans.get() > maxSpans) && oldest.hasNext()) {
+                        final PendingTrace evicted = oldest.next();
+                        oldest.remove();
+                        evictedCounter.increment();
+                        decide(evicted, kept);
+                    }
+                    bufferedTraces.set(pending.size());
+                }
+            }
+
+            forward(kept);
+        }
+    }
+
+    /**
+     * A span is the local root of its trace if it has no parent, or its
+     * parent was extracted from another process.  A parent it doesn't
+     * reference was never a span in this process either.
+     */
+    static boolean isLocalRoot(Span span) {
+        final SpanContext context = span.context();
+        if (context.getParentIdHigh() == 0l && context.getParentIdLow() == 0l) {
+            return true;
+        }
+        for (Reference reference : span.getReferences()) {
+            final SpanContext parent = reference.getContext();
+            if (parent.getSpanIdHigh() == context.getParentIdHigh() && parent.getSpanIdLow() == context.getParentIdLow()) {
+                return parent.isRemote();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decides every trace that has waited long enough; traces are held in
+     * arrival order so the scan stops at the first one still waiting.
+     */
+    private List<Span> expire() {
+        final List<Span> kept = new ArrayList<>();
+        final long now = clock.nanoTime();
+        synchronized (lock) {
+            final Iterator<PendingTrace> oldest = pending.values().iterator();
+            while (oldest.hasNext()) {
+                final PendingTrace trace = oldest.next();
+                if (now - trace.firstSeenNanos < decisionWaitNanos) {
+                    break;
+                }
+                oldest.remove();
+                decide(trace, kept);
+            }
+            bufferedTraces.set(pending.size());
+        }
+        return kept;
+    }
+
+    private List<Span> decideAll() {
+        final List<Span> kept = new ArrayList<>();
+        synchronized (lock) {
+            for (PendingTrace trace : pending.values()) {
+                decide(trace, kept);
+            }
+            pending.clear();
+            bufferedTraces.set(0);
+        }
+        return kept;
+    }
+
+    /**
+     * Must be called holding the lock after the trace is removed from the
+     * pending buffer.
+     */
+    private void decide(PendingTrace trace, List<Span> kept) {
+        bufferedSpans.addAndGet(-trace.spans.size());
+
+        boolean keep = false;
+        for (TracePolicy policy : policies) {
+            if (policy.keep(trace.spans)) {
+                keep = true;
+                break;
+            }
+        }
+
+        decisions.put(trace.key, keep);
+        if (keep) {
+            keptCounter.increment();
+            kept.addAll(trace.spans);
+        } else {
+            droppedCounter.increment();
+        }
+    }
+
+    private void forward(List<Span> spans) {
+        for (Span span : spans) {
+            delegate.dispatch(span);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        delegate.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running.set(false);
+        evictionTask.cancel(false);
+        try {
+            forward(decideAll());
+        } finally {
+            if (ownsExecutor) {
+                try {
+                    executor.shutdown();
+                } catch (SecurityException e) {
+                    LOGGER.warn("Executor pool failed to close", e);
+                }
+            }
+            delegate.close();
+        }
+    }
+
+    /**
+     * @return the delegate
+     */
+    public Dispatcher getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * @return the policies
+     */
+    public List<TracePolicy> getPolicies() {
+        return policies;
+    }
+
+    private static final class TraceKey {
+        private final long high;
+        private final long low;
+
+        TraceKey(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(high) * 31 + Long.hashCode(low);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof TraceKey)) {
+                return false;
+            }
+            final TraceKey other = (TraceKey) obj;
+            return high == other.high && low == other.low;
+        }
+    }
+
+    private static final class PendingTrace {
+        private final TraceKey key;
+        private final long firstSeenNanos;
+        private final List<Span> spans = new ArrayList<>(4);
+
+        PendingTrace(TraceKey key, long firstSeenNanos) {
+            this.key = key;
+            this.firstSeenNanos = firstSeenNanos;
+        }
+    }
+
+    public static final class Builder {
+        private Metrics metrics;
+        private Dispatcher delegate;
+        private List<TracePolicy> policies;
+        private Clock clock;
+        private ScheduledExecutorService executor;
+        private long decisionWaitMillis;
+        private long evictionIntervalMillis;
+        private int maxTraces;
+        private int maxSpans;
+
+        public Builder(MetricsRegistry registry, Dispatcher delegate) {
+            this(new Metrics(registry, Dispatcher.class.getName(), Arrays.asList(new Tag("type", "tailsampling"))), delegate);
+        }
+
+        public Builder(Metrics metrics, Dispatcher delegate) {
+            this.metrics = metrics;
+            this.delegate = delegate;
+            this.policies = new ArrayList<>();
+            this.clock = new SystemClock();
+            this.decisionWaitMillis = TimeUnit.SECONDS.toMillis(10);
+            this.evictionIntervalMillis = TimeUnit.SECONDS.toMillis(1);
+            this.maxTraces = 10000;
+            this.maxSpans = 100000;
+        }
+
+        /**
+         * Adds a policy; a trace is kept if any policy keeps it and
+         * dropped if there are none.
+         *
+         * @param policy The policy to add
+         * @return this builder
+         */
+        public Builder withPolicy(TracePolicy policy) {
+            this.policies.add(policy);
+            return this;
+        }
+
+        public Builder withClock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * Runs the eviction task on the given executor; it is left
+         * running when the dispatcher is closed.
+         *
+         * @param executor The executor to use
+         * @return this builder
+         */
+        public Builder withExecutor(ScheduledExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * How long to wait after the first span of a trace is seen before
+         * deciding on it without its root span.
+         *
+         * @param decisionWaitMillis Time to buffer a trace
+         * @return this builder
+         */
+        public Builder withDecisionWaitMillis(long decisionWaitMillis) {
+            this.decisionWaitMillis = decisionWaitMillis;
+            return this;
+        }
+
+        public Builder withEvictionIntervalMillis(long evictionIntervalMillis) {
+            this.evictionIntervalMillis = evictionIntervalMillis;
+            return this;
+        }
+
+        public Builder withMaxTraces(int maxTraces) {
+            this.maxTraces = maxTraces;
+            return this;
+        }
+
+        public Builder withMaxSpans(int maxSpans) {
+            this.maxSpans = maxSpans;
+            return this;
+        }
+
+        public TailSamplingDispatcher build() {
+            final boolean ownsExecutor = (executor == null);
+            final ScheduledExecutorService evictionExecutor = (ownsExecutor ? Executors.newSingleThreadScheduledExecutor() : executor);
+            return new TailSamplingDispatcher(metrics, delegate, policies, clock, evictionExecutor, ownsExecutor, decisionWaitMillis,
+                                              evictionIntervalMillis, maxTraces, maxSpans);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.clients;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+import io.grpc.Drainable;
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor;
+
+/**
+ * Passes already encoded messages to gRPC as they are.  The stream it
+ * hands the transport knows its length and drains the array in one
+ * write, so a span is never copied or re-encoded on its way out.
+ */
+public class ByteArrayMarshaller implements MethodDescriptor.Marshaller<byte[]> {
+    public static final ByteArrayMarshaller INSTANCE = new ByteArrayMarshaller();
+
+    @Override
+    public InputStream stream(byte[] value) {
+        return new EncodedStream(value);
+    }
+
+    @Override
+    public byte[] parse(InputStream stream) {
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static final class EncodedStream extends ByteArrayInputStream implements KnownLength, Drainable {
+        EncodedStream(byte[] value) {
+            super(value);
+        }
+
+        @Override
+        public synchronized int drainTo(OutputStream target) throws IOException {
+            final int drained = count - pos;
+            target.write(buf, pos, drained);
+            pos = count;
+            return drained;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.clients;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.lang3.builder.RecursiveToStringStyle;
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+
+import com.expedia.www.haystack.client.Clock;
+
+/**
+ * Stops calls to an endpoint that keeps failing.
+ *
+ * The breaker opens after <code>failureThreshold</code> consecutive
+ * failures and rejects calls for <code>openMillis</code>.  It then lets
+ * a single probe through; a success closes it again and a failure opens
+ * it for another period.  A probe that never reports back is replaced
+ * by another once the period has passed again.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, HALF_OPEN, OPEN
+    }
+
+    private final Clock clock;
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private final AtomicReference<State> state;
+    private final AtomicInteger failures;
+    private final AtomicLong openedAt;
+
+    /**
+     * @param clock The clock to time the open period with
+     * @param failureThreshold Consecutive failures that open the breaker
+     * @param openMillis How long the breaker stays open before probing
+     */
+    public CircuitBreaker(Clock clock, int failureThreshold, long openMillis) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException(String.format("Invalid failure threshold: %s", failureThreshold));
+        }
+        this.clock = clock;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.state = new AtomicReference<>(State.CLOSED);
+        this.failures = new AtomicInteger();
+        this.openedAt = new AtomicLong();
+    }
+
+    /**
+     * @return <code>true</code> if a call may be made now
+     */
+    public boolean allowRequest() {
+        if (state.get() == State.CLOSED) {
+            return true;
+        }
+        final long now = clock.nanoTime();
+        final long opened = openedAt.get();
+        if (now - opened >= openNanos && openedAt.compareAndSet(opened, now)) {
+            state.set(State.HALF_OPEN);
+            return true;
+        }
+        return false;
+    }
+
+    public void onSuccess() {
+        failures.set(0);
+        state.set(State.CLOSED);
+    }
+
+    /**
+     * @return <code>true</code> if this failure opened the breaker
+     */
+    public boolean onFailure() {
+        if (state.get() == State.HALF_OPEN || failures.incrementAndGet() >= failureThreshold) {
+            openedAt.set(clock.nanoTime());
+            failures.set(0);
+            return state.getAndSet(State.OPEN) != State.OPEN;
+        }
+        return false;
+    }
+
+    /**
+     * @return the current state
+     */
+    public State getState() {
+        return state.get();
+    }
+
+    @Override
+    public String toString() {
+        return new ReflectionToStringBuilder(this, RecursiveToStringStyle.JSON_STYLE)
+            .setExcludeFieldNames("clock")
+            .toString();
+    }
+}
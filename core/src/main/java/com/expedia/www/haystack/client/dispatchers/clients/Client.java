@@ -18,11 +18,21 @@ package com.expedia.www.haystack.client.dispatchers.clients;
 
 import java.io.Closeable;
 import java.io.Flushable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.dispatchers.formats.ProtoBufFormat;
 
 /**
  * A Client is how a RemoteDispatcher sends it's finished spans to a remote endpoint
+ *
+ * A dispatcher with several senders calls <code>send</code> from each of
+ * them at once, and <code>flush</code> from its flush task, so clients
+ * must be safe to use from multiple threads.
  */
 public interface Client extends Closeable, Flushable {
 
@@ -42,4 +52,118 @@ public interface Client extends Closeable, Flushable {
      * @throws ClientException throws a <code>ClientException</code> if an exception occured
      */
     boolean send(Span span) throws ClientException;
+
+    /**
+     * Send a batch of spans in a single operation.  Clients should
+     * override this with a native implementation where the endpoint
+     * allows amortizing the per call cost; the default simply sends
+     * each span in turn.
+     *
+     * @param spans Spans to send off to the endpoint
+     * @return Returns <code>true</code> if the whole batch was sent successfully,
+     *         <code>false</code> if any part of it was unsuccessful
+     * @throws PartialSendException throws a <code>PartialSendException</code>, listing the spans
+     *         not sent, if an exception occured
+     */
+    default boolean send(Collection<Span> spans) throws ClientException {
+        boolean success = true;
+        int sent = 0;
+        try {
+            for (Span span : spans) {
+                success &= send(span);
+                sent++;
+            }
+        } catch (ClientException e) {
+            throw new PartialSendException(e.getMessage(), e, spans, sent);
+        }
+        return success;
+    }
+
+    /**
+     * Send a span already encoded as an agent protobuf <code>Span</code>,
+     * e.g. one replayed from a <code>DiskSpillBuffer</code>.  Clients
+     * that can only send <code>Span</code> objects don't support it.
+     *
+     * @param span The encoded span to send off to the endpoint
+     * @return Returns <code>true</code> if the operation was successful,
+     *         <code>false</code> if it was unsuccessful
+     * @throws ClientException throws a <code>ClientException</code> if an exception occured
+     */
+    default boolean sendEncoded(byte[] span) throws ClientException {
+        throw new ClientException(String.format("%s does not support sending encoded spans", getClass().getSimpleName()));
+    }
+
+    /**
+     * Send an encoded span read in place from a buffer, e.g. an
+     * off-heap slot.  The buffer is only valid until this returns, so a
+     * client that keeps the span, to retry it or to send it later, must
+     * copy it; the default copies it into an array for
+     * {@link #sendEncoded(byte[])}.
+     *
+     * @param span The encoded span, from its position to its limit
+     * @return Returns <code>true</code> if the operation was successful,
+     *         <code>false</code> if it was unsuccessful
+     * @throws ClientException throws a <code>ClientException</code> if an exception occured
+     */
+    default boolean sendEncoded(ByteBuffer span) throws ClientException {
+        final byte[] copy = new byte[span.remaining()];
+        span.duplicate().get(copy);
+        return sendEncoded(copy);
+    }
+
+    /**
+     * Send a batch of spans and learn, span by span, whether the endpoint
+     * accepted them.  Clients that send asynchronously only learn of a
+     * failure after <code>send</code> has returned, so a caller that keeps
+     * what wasn't delivered, e.g. by spilling it to disk, has to wait on
+     * these.  A span not acknowledged is the caller's; the client doesn't
+     * divert it anywhere else.  The default sends each span in turn.
+     *
+     * @param spans Spans to send off to the endpoint
+     * @return one future per span, in batch order, completing with <code>true</code> once the
+     *         span was accepted, <code>false</code> or exceptionally if it was not
+     */
+    default List<CompletableFuture<Boolean>> sendAcknowledged(Collection<Span> spans) {
+        final List<CompletableFuture<Boolean>> acks = new ArrayList<>(spans.size());
+        for (Span span : spans) {
+            final CompletableFuture<Boolean> acked = new CompletableFuture<>();
+            try {
+                acked.complete(send(span));
+            } catch (ClientException e) {
+                acked.completeExceptionally(e);
+            }
+            acks.add(acked);
+        }
+        return acks;
+    }
+
+    /**
+     * Send an encoded span and learn whether the endpoint accepted it; see
+     * {@link #sendAcknowledged(Collection)}.
+     *
+     * @param span The encoded span to send off to the endpoint
+     * @return a future completing with <code>true</code> once the span was accepted,
+     *         <code>false</code> or exceptionally if it was not
+     */
+    default CompletableFuture<Boolean> sendEncodedAcknowledged(byte[] span) {
+        final CompletableFuture<Boolean> acked = new CompletableFuture<>();
+        try {
+            acked.complete(sendEncoded(span));
+        } catch (ClientException e) {
+            acked.completeExceptionally(e);
+        }
+        return acked;
+    }
+
+    /**
+     * Encode a span the way the client sends it, so it can be kept and
+     * later sent with <code>sendEncoded</code>.  The default encodes it
+     * as an agent protobuf <code>Span</code>.
+     *
+     * @param span The span to encode
+     * @return the encoded span
+     */
+    default byte[] encode(Span span) {
+        return new ProtoBufFormat().format(span).toByteArray();
+    }
 }
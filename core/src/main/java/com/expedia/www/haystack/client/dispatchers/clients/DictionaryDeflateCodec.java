@@ -0,0 +1,154 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.clients;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+import com.expedia.www.haystack.client.dispatchers.formats.EncodedStrings;
+
+import io.grpc.Codec;
+
+/**
+ * A gRPC codec compressing messages with deflate primed with a preset
+ * dictionary of strings spans repeat: tag keys, common values and
+ * whatever the application adds, e.g. its service and operation names.
+ * A single span is too small for deflate to find much repetition on
+ * its own; with the dictionary even the first occurrence of a key is
+ * a back reference.
+ *
+ * The receiver must register a codec with the same encoding name and
+ * dictionary; the zlib header carries the dictionary's checksum so a
+ * mismatch fails to decompress rather than producing garbage.  Agents
+ * that only know <code>gzip</code> reject the encoding, so this is for
+ * a relay, or agent, that registers it.
+ */
+public class DictionaryDeflateCodec implements Codec {
+    public static final String DEFAULT_ENCODING = "haystack-deflate-v1";
+
+    /** Values common in spans; deflate favours matches near the end of the dictionary */
+    public static final List<String> COMMON_VALUES = Collections.unmodifiableList(Arrays.asList(
+        "true", "false", "0", "200", "GET", "POST", "PUT", "DELETE", "client", "server", "producer", "consumer"));
+
+    private final String encoding;
+    private final byte[] dictionary;
+    private final int level;
+
+    public DictionaryDeflateCodec() {
+        this(DEFAULT_ENCODING, dictionary(EncodedStrings.COMMON_KEYS, COMMON_VALUES), Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param encoding The message encoding sent to the receiver; change it with the dictionary
+     * @param dictionary The preset dictionary, at most 32KB are used
+     * @param level The deflate level, <code>1</code> to <code>9</code> or <code>-1</code> for the default
+     */
+    public DictionaryDeflateCodec(String encoding, byte[] dictionary, int level) {
+        this.encoding = encoding;
+        this.dictionary = dictionary.clone();
+        this.level = level;
+    }
+
+    /**
+     * Concatenates strings into a dictionary, the later ones closer to
+     * its end.
+     *
+     * @param strings The strings, each group in increasing order of how often they repeat
+     * @return the dictionary
+     */
+    @SafeVarargs
+    public static byte[] dictionary(List<String>... strings) {
+        final List<byte[]> encoded = new ArrayList<>();
+        int size = 0;
+        for (List<String> group : strings) {
+            for (String value : group) {
+                final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                encoded.add(bytes);
+                size += bytes.length;
+            }
+        }
+        final byte[] dictionary = new byte[size];
+        int offset = 0;
+        for (byte[] bytes : encoded) {
+            System.arraycopy(bytes, 0, dictionary, offset, bytes.length);
+            offset += bytes.length;
+        }
+        return dictionary;
+    }
+
+    @Override
+    public String getMessageEncoding() {
+        return encoding;
+    }
+
+    @Override
+    public OutputStream compress(OutputStream os) throws IOException {
+        final Deflater deflater = new Deflater(level);
+        deflater.setDictionary(dictionary);
+        return new DeflaterOutputStream(os, deflater) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    // not ended by the stream as we created it
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    @Override
+    public InputStream decompress(InputStream is) throws IOException {
+        final Inflater inflater = new Inflater();
+        return new InflaterInputStream(is, inflater) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                if (read == -1 && inflater.needsDictionary()) {
+                    try {
+                        inflater.setDictionary(dictionary);
+                    } catch (IllegalArgumentException e) {
+                        throw new ZipException("Message was compressed with a different dictionary");
+                    }
+                    read = super.read(b, off, len);
+                }
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+}
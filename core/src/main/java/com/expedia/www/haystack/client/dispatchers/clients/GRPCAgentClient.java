@@ -16,8 +16,21 @@
  */
 package com.expedia.www.haystack.client.dispatchers.clients;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,29 +38,69 @@ import org.slf4j.LoggerFactory;
 import com.expedia.open.tracing.agent.api.DispatchResult;
 import com.expedia.open.tracing.agent.api.SpanAgentGrpc;
 import com.expedia.open.tracing.agent.api.SpanAgentGrpc.SpanAgentStub;
+import com.expedia.www.haystack.client.Clock;
 import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.SystemClock;
+import com.expedia.www.haystack.client.dispatchers.formats.DirectProtoBufFormat;
 import com.expedia.www.haystack.client.dispatchers.formats.Format;
-import com.expedia.www.haystack.client.dispatchers.formats.ProtoBufFormat;
 import com.expedia.www.haystack.client.metrics.Counter;
+import com.expedia.www.haystack.client.metrics.Gauge;
 import com.expedia.www.haystack.client.metrics.Metrics;
 import com.expedia.www.haystack.client.metrics.MetricsRegistry;
 import com.expedia.www.haystack.client.metrics.Tag;
 import com.expedia.www.haystack.client.metrics.Timer;
 import com.expedia.www.haystack.client.metrics.Timer.Sample;
 
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.Codec;
+import io.grpc.Compressor;
+import io.grpc.CompressorRegistry;
+import io.grpc.ForwardingClientCall;
 import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.MethodDescriptor.MethodType;
+import io.grpc.Status;
 import io.grpc.netty.NegotiationType;
 import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.ClientResponseObserver;
 import io.grpc.stub.StreamObserver;
 
 public class GRPCAgentClient implements Client {
     private static final Logger LOGGER = LoggerFactory.getLogger(GRPCAgentClient.class);
 
-    private final Format<com.expedia.open.tracing.Span> format;
+    private final Format<byte[]> encoder;
     private final ManagedChannel channel;
     private final SpanAgentStub stub;
     private final long shutdownTimeoutMS;
     private final StreamObserver<DispatchResult> observer;
+    private final MethodDescriptor<byte[], DispatchResult> dispatchMethod;
+    private final MethodDescriptor<byte[], DispatchResult> streamingMethod;
+    private final long streamReadyTimeoutMS;
+
+    private final RetryPolicy retryPolicy;
+    private final CircuitBreaker circuitBreaker;
+    private final Client fallback;
+    private final ScheduledExecutorService retryExecutor;
+    private final AtomicInteger pendingRetries;
+    // calls waiting on the retry executor, to retry or divert; true for retries
+    private final ConcurrentHashMap<DispatchCall, Boolean> parkedCalls;
+    private final int maxInFlight;
+    private final Semaphore inFlightPermits;
+    private final long inFlightTimeoutMS;
+    private final long callDeadlineMS;
+    private final AtomicInteger inFlight;
+    private final String compression;
+    private final int minCompressBytes;
+    private final int maxStreamSpans;
+    private final long maxStreamAgeNanos;
+
+    // senders write under the lock; gRPC callbacks only ever clear the stream, with a CAS
+    private final Object streamLock = new Object();
+    private final AtomicReference<SpanStream> stream = new AtomicReference<>();
 
     private final Timer sendTimer;
     private final Counter sendExceptionCounter;
@@ -56,13 +109,88 @@ public class GRPCAgentClient implements Client {
     private final Counter closeInterruptedCounter;
     private final Counter closeExceptionCounter;
     private final Counter flushCounter;
+    private final Counter streamOpenedCounter;
+    private final Counter streamBrokenCounter;
+    private final Counter streamNotReadyCounter;
+    private final Counter streamRotatedCounter;
+    private final Counter streamLostCounter;
+    private final Counter retryScheduledCounter;
+    private final Counter retryExhaustedCounter;
+    private final Counter retryRejectedCounter;
+    private final Counter retryAbandonedCounter;
+    private final Counter breakerOpenedCounter;
+    private final Counter fallbackSentCounter;
+    private final Counter fallbackDroppedCounter;
+    private final Counter fallbackExceptionCounter;
+    private final Timer ackTimer;
+    private final Counter inFlightRejectedCounter;
+    private final Counter deadlineExceededCounter;
+    private final Counter compressionSkippedCounter;
 
     public GRPCAgentClient(Metrics metrics, Format<com.expedia.open.tracing.Span> format, ManagedChannel channel, SpanAgentStub stub, StreamObserver<DispatchResult> observer, long shutdownTimeoutMS) {
-        this.format = format;
+        this(metrics, format, channel, stub, observer, shutdownTimeoutMS, null, 0);
+    }
+
+    public GRPCAgentClient(Metrics metrics, Format<com.expedia.open.tracing.Span> format, ManagedChannel channel, SpanAgentStub stub, StreamObserver<DispatchResult> observer, long shutdownTimeoutMS,
+                           MethodDescriptor<com.expedia.open.tracing.Span, DispatchResult> streamingMethod, long streamReadyTimeoutMS) {
+        this(metrics, format, channel, stub, observer, shutdownTimeoutMS, streamingMethod, streamReadyTimeoutMS, null, null, null, null);
+    }
+
+    public GRPCAgentClient(Metrics metrics, Format<com.expedia.open.tracing.Span> format, ManagedChannel channel, SpanAgentStub stub, StreamObserver<DispatchResult> observer, long shutdownTimeoutMS,
+                           MethodDescriptor<com.expedia.open.tracing.Span, DispatchResult> streamingMethod, long streamReadyTimeoutMS,
+                           RetryPolicy retryPolicy, CircuitBreaker circuitBreaker, Client fallback, ScheduledExecutorService retryExecutor) {
+        this(metrics, encoding(format), channel, stub, observer, shutdownTimeoutMS, encoded(streamingMethod), streamReadyTimeoutMS,
+             retryPolicy, circuitBreaker, fallback, retryExecutor, 0, 0, 0);
+    }
+
+    public GRPCAgentClient(Metrics metrics, Format<byte[]> encoder, ManagedChannel channel, SpanAgentStub stub, StreamObserver<DispatchResult> observer, long shutdownTimeoutMS,
+                           MethodDescriptor<byte[], DispatchResult> streamingMethod, long streamReadyTimeoutMS,
+                           RetryPolicy retryPolicy, CircuitBreaker circuitBreaker, Client fallback, ScheduledExecutorService retryExecutor,
+                           int maxInFlight, long inFlightTimeoutMS, long callDeadlineMS) {
+        this(metrics, encoder, channel, stub, observer, shutdownTimeoutMS, streamingMethod, streamReadyTimeoutMS,
+             retryPolicy, circuitBreaker, fallback, retryExecutor, maxInFlight, inFlightTimeoutMS, callDeadlineMS, null, 0);
+    }
+
+    public GRPCAgentClient(Metrics metrics, Format<byte[]> encoder, ManagedChannel channel, SpanAgentStub stub, StreamObserver<DispatchResult> observer, long shutdownTimeoutMS,
+                           MethodDescriptor<byte[], DispatchResult> streamingMethod, long streamReadyTimeoutMS,
+                           RetryPolicy retryPolicy, CircuitBreaker circuitBreaker, Client fallback, ScheduledExecutorService retryExecutor,
+                           int maxInFlight, long inFlightTimeoutMS, long callDeadlineMS, String compression, int minCompressBytes) {
+        this(metrics, encoder, channel, stub, observer, shutdownTimeoutMS, streamingMethod, streamReadyTimeoutMS,
+             retryPolicy, circuitBreaker, fallback, retryExecutor, maxInFlight, inFlightTimeoutMS, callDeadlineMS,
+             compression, minCompressBytes, 0, 0);
+    }
+
+    public GRPCAgentClient(Metrics metrics, Format<byte[]> encoder, ManagedChannel channel, SpanAgentStub stub, StreamObserver<DispatchResult> observer, long shutdownTimeoutMS,
+                           MethodDescriptor<byte[], DispatchResult> streamingMethod, long streamReadyTimeoutMS,
+                           RetryPolicy retryPolicy, CircuitBreaker circuitBreaker, Client fallback, ScheduledExecutorService retryExecutor,
+                           int maxInFlight, long inFlightTimeoutMS, long callDeadlineMS, String compression, int minCompressBytes,
+                           int maxStreamSpans, long maxStreamAgeMS) {
+        if (retryPolicy != null && retryPolicy.getMaxRetries() > 0 && retryExecutor == null) {
+            throw new IllegalArgumentException("An executor is required to retry failed calls");
+        }
+        this.encoder = encoder;
         this.channel = channel;
         this.stub = stub;
         this.shutdownTimeoutMS = shutdownTimeoutMS;
         this.observer = observer;
+        this.dispatchMethod = encoded(SpanAgentGrpc.METHOD_DISPATCH);
+        this.streamingMethod = streamingMethod;
+        this.streamReadyTimeoutMS = streamReadyTimeoutMS;
+        this.retryPolicy = retryPolicy;
+        this.circuitBreaker = circuitBreaker;
+        this.fallback = fallback;
+        this.retryExecutor = retryExecutor;
+        this.pendingRetries = new AtomicInteger();
+        this.parkedCalls = new ConcurrentHashMap<>();
+        this.maxInFlight = maxInFlight;
+        this.inFlightPermits = (maxInFlight > 0 ? new Semaphore(maxInFlight) : null);
+        this.inFlightTimeoutMS = inFlightTimeoutMS;
+        this.callDeadlineMS = callDeadlineMS;
+        this.inFlight = new AtomicInteger();
+        this.compression = compression;
+        this.minCompressBytes = minCompressBytes;
+        this.maxStreamSpans = maxStreamSpans;
+        this.maxStreamAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxStreamAgeMS);
 
         this.sendTimer = Timer.builder("send").register(metrics);
         this.sendExceptionCounter = Counter.builder("send").tag(new Tag("state", "exception")).register(metrics);
@@ -71,7 +199,530 @@ public class GRPCAgentClient implements Client {
         this.closeInterruptedCounter = Counter.builder("close").tag(new Tag("state", "interrupted")).register(metrics);
         this.closeExceptionCounter = Counter.builder("close").tag(new Tag("state", "exception")).register(metrics);
         this.flushCounter = Counter.builder("flush").register(metrics);
+        this.streamOpenedCounter = Counter.builder("stream").tag(new Tag("state", "opened")).register(metrics);
+        this.streamBrokenCounter = Counter.builder("stream").tag(new Tag("state", "broken")).register(metrics);
+        this.streamNotReadyCounter = Counter.builder("stream").tag(new Tag("state", "notready")).register(metrics);
+        this.streamRotatedCounter = Counter.builder("stream").tag(new Tag("state", "rotated")).register(metrics);
+        this.streamLostCounter = Counter.builder("stream").tag(new Tag("state", "lost")).register(metrics);
+        this.retryScheduledCounter = Counter.builder("retry").tag(new Tag("state", "scheduled")).register(metrics);
+        this.retryExhaustedCounter = Counter.builder("retry").tag(new Tag("state", "exhausted")).register(metrics);
+        this.retryRejectedCounter = Counter.builder("retry").tag(new Tag("state", "rejected")).register(metrics);
+        this.retryAbandonedCounter = Counter.builder("retry").tag(new Tag("state", "abandoned")).register(metrics);
+        this.breakerOpenedCounter = Counter.builder("circuitBreaker").tag(new Tag("state", "opened")).register(metrics);
+        this.fallbackSentCounter = Counter.builder("fallback").tag(new Tag("state", "sent")).register(metrics);
+        this.fallbackDroppedCounter = Counter.builder("fallback").tag(new Tag("state", "dropped")).register(metrics);
+        this.fallbackExceptionCounter = Counter.builder("fallback").tag(new Tag("state", "exception")).register(metrics);
+        this.ackTimer = Timer.builder("ack").register(metrics);
+        this.inFlightRejectedCounter = Counter.builder("inFlight").tag(new Tag("state", "rejected")).register(metrics);
+        this.deadlineExceededCounter = Counter.builder("deadline").tag(new Tag("state", "exceeded")).register(metrics);
+        this.compressionSkippedCounter = Counter.builder("compression").tag(new Tag("state", "skipped")).register(metrics);
+
+        // held in the registry; but we don't need a local reference
+        Gauge.builder("streaming", this, (client) -> (client.stream.get() != null ? 1 : 0)).register(metrics);
+        Gauge.builder("pendingRetries", pendingRetries, AtomicInteger::get).register(metrics);
+        Gauge.builder("inFlight", inFlight, AtomicInteger::get).register(metrics);
+        if (circuitBreaker != null) {
+            // 0 closed, 1 half open, 2 open
+            Gauge.builder("circuitBreakerState", circuitBreaker, (breaker) -> breaker.getState().ordinal()).register(metrics);
+        }
+    }
+
+    /**
+     * Adapts a format producing the generated message to one producing
+     * its encoded bytes.
+     */
+    private static Format<byte[]> encoding(Format<com.expedia.open.tracing.Span> format) {
+        return (span) -> format.format(span).toByteArray();
+    }
+
+    /**
+     * Copies a method so its requests are spans already encoded to
+     * bytes; the agent sees the same wire format either way.
+     */
+    private static MethodDescriptor<byte[], DispatchResult> encoded(MethodDescriptor<com.expedia.open.tracing.Span, DispatchResult> method) {
+        if (method == null) {
+            return null;
+        }
+        return method.toBuilder(ByteArrayMarshaller.INSTANCE, method.getResponseMarshaller()).build();
+    }
+
+    /**
+     * A single long lived client-streaming call to the agent.  Spans are
+     * written to it as they are sent and the call is half-closed on
+     * <code>flush()</code> or <code>close()</code>, or once it holds
+     * <code>maxStreamSpans</code> spans or is <code>maxStreamAgeNanos</code>
+     * old, at which point the agent acknowledges the whole stream with one
+     * result.  If the call breaks the stream is discarded, the spans
+     * written to it are counted as lost, and the next send opens a new one.
+     * Spans sent acknowledged learn the stream's result once it arrives.
+     */
+    private final class SpanStream implements ClientResponseObserver<byte[], DispatchResult> {
+        private final Object readyLock = new Object();
+        private final long openedNanos = System.nanoTime();
+        private final ConcurrentLinkedQueue<CompletableFuture<Boolean>> acks = new ConcurrentLinkedQueue<>();
+        private volatile ClientCallStreamObserver<byte[]> requestStream;
+        private volatile boolean broken = false;
+        private volatile Boolean result;
+        // only written under the stream lock
+        private volatile int written = 0;
+
+        @Override
+        public void beforeStart(ClientCallStreamObserver<byte[]> requestStream) {
+            this.requestStream = requestStream;
+            requestStream.setOnReadyHandler(() -> {
+                    synchronized (readyLock) {
+                        readyLock.notifyAll();
+                    }
+                });
+        }
+
+        @Override
+        public void onNext(DispatchResult value) {
+            observer.onNext(value);
+            if (value.getCode() == DispatchResult.ResultCode.SUCCESS) {
+                recordSuccess();
+                settle(true);
+            } else {
+                recordFailure();
+                streamLostCounter.increment(written);
+                settle(false);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            recordFailure();
+            broken = true;
+            // release any sender waiting on this stream before anything else
+            wakeUp();
+            streamBrokenCounter.increment();
+            streamLostCounter.increment(written);
+            settle(false);
+            discardStream(this);
+            observer.onError(t);
+        }
+
+        @Override
+        public void onCompleted() {
+            if (result == null) {
+                settle(false);
+            }
+            discardStream(this);
+            observer.onCompleted();
+        }
+
+        /**
+         * Completes the acknowledgements of the spans written so far, and
+         * of any written later, with the stream's result.
+         */
+        private void settle(boolean acknowledged) {
+            result = acknowledged;
+            CompletableFuture<Boolean> acked;
+            while ((acked = acks.poll()) != null) {
+                acked.complete(acknowledged);
+            }
+        }
+
+        private void wakeUp() {
+            synchronized (readyLock) {
+                readyLock.notifyAll();
+            }
+        }
+
+        /**
+         * Waits for the transport to signal it can accept more data
+         * without excessive buffering.
+         *
+         * @return <code>true</code> if the stream is ready for writes
+         */
+        boolean awaitReady(long timeoutMS) throws InterruptedException {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMS);
+            synchronized (readyLock) {
+                while (!broken && !requestStream.isReady()) {
+                    final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    readyLock.wait(remaining);
+                }
+            }
+            return !broken;
+        }
+
+        boolean isBroken() {
+            return broken;
+        }
+
+        void write(byte[] span, CompletableFuture<Boolean> acked) {
+            if (compression != null) {
+                // messages on one stream are compressed, or not, one by one
+                requestStream.setMessageCompression(!skipCompression(span));
+            }
+            requestStream.onNext(span);
+            written++;
+            if (acked != null) {
+                acks.add(acked);
+                // the stream may have ended while writing
+                final Boolean ended = result;
+                if (ended != null) {
+                    settle(ended);
+                }
+            }
+        }
+
+        /**
+         * @return <code>true</code> once the stream holds as many spans, or is as old, as a stream may be
+         */
+        boolean isFull() {
+            return (maxStreamSpans > 0 && written >= maxStreamSpans)
+                || (maxStreamAgeNanos > 0 && System.nanoTime() - openedNanos >= maxStreamAgeNanos);
+        }
+
+        void complete() {
+            if (!broken) {
+                requestStream.onCompleted();
+            }
+        }
+    }
+
+    private void discardStream(SpanStream broken) {
+        // never takes the stream lock; a sender may hold it while waiting on a new stream
+        stream.compareAndSet(broken, null);
+    }
+
+    private SpanStream openStream() {
+        final SpanStream opened = new SpanStream();
+        final CallOptions options = (compression != null ? CallOptions.DEFAULT.withCompression(compression) : CallOptions.DEFAULT);
+        ClientCalls.asyncClientStreamingCall(channel.newCall(streamingMethod, options), opened);
+        streamOpenedCounter.increment();
+        return opened;
+    }
+
+    private void streamSpan(byte[] span, CompletableFuture<Boolean> acked) throws InterruptedException {
+        SpanStream current = stream.get();
+        if (current == null || current.isBroken()) {
+            current = openStream();
+            stream.set(current);
+        }
+        if (!current.awaitReady(streamReadyTimeoutMS)) {
+            if (!current.isBroken()) {
+                streamNotReadyCounter.increment();
+                throw new ClientException("Agent stream was not ready to accept spans");
+            }
+            // the stream broke while waiting; reconnect once before giving up
+            current = openStream();
+            stream.set(current);
+            if (!current.awaitReady(streamReadyTimeoutMS)) {
+                streamNotReadyCounter.increment();
+                throw new ClientException("Agent stream could not be re-established");
+            }
+        }
+        current.write(span, acked);
+        if (current.isFull() && stream.compareAndSet(current, null)) {
+            // bounds the spans lost if the stream breaks before the agent acknowledges them
+            streamRotatedCounter.increment();
+            current.complete();
+        }
+    }
+
+    private void completeStream() {
+        synchronized (streamLock) {
+            final SpanStream current = stream.getAndSet(null);
+            if (current != null) {
+                current.complete();
+            }
+        }
+    }
+
+    /**
+     * Observes a single unary <code>dispatch</code> call.  Besides passing
+     * the outcome on to the shared observer it feeds the circuit breaker,
+     * retries, or diverts, a span the agent failed or throttled, and
+     * frees the call's place in the in-flight window once it ends.  A
+     * span sent acknowledged is never diverted; its future completes
+     * <code>false</code> instead once the retries are spent.
+     */
+    private final class DispatchCall implements StreamObserver<DispatchResult> {
+        private final byte[] span;
+        private final Span original;
+        // only moved on by the retry executor, when a retry can't be sent
+        private int retry;
+        private final CompletableFuture<Boolean> acked;
+        private final Sample ack;
+        private final AtomicBoolean finished;
+        private boolean acknowledged;
+
+        DispatchCall(byte[] span, Span original, int retry, CompletableFuture<Boolean> acked) {
+            this.span = span;
+            this.original = original;
+            this.retry = retry;
+            this.acked = acked;
+            this.ack = ackTimer.start();
+            this.finished = new AtomicBoolean();
+        }
+
+        private void acknowledged() {
+            if (!acknowledged) {
+                acknowledged = true;
+                ack.stop();
+            }
+        }
+
+        void finished() {
+            if (finished.compareAndSet(false, true)) {
+                releaseInFlight();
+            }
+        }
+
+        @Override
+        public void onNext(DispatchResult value) {
+            acknowledged();
+            observer.onNext(value);
+            if (value.getCode() == DispatchResult.ResultCode.SUCCESS) {
+                recordSuccess();
+                if (acked != null) {
+                    acked.complete(true);
+                }
+            } else {
+                failed(this);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            finished();
+            if (Status.fromThrowable(t).getCode() == Status.Code.DEADLINE_EXCEEDED) {
+                deadlineExceededCounter.increment();
+            }
+            observer.onError(t);
+            failed(this);
+        }
+
+        @Override
+        public void onCompleted() {
+            acknowledged();
+            finished();
+            observer.onCompleted();
+        }
+    }
+
+    private void dispatch(byte[] span, Span original, int retry, long inFlightWaitMS, CompletableFuture<Boolean> acked) throws InterruptedException {
+        if (circuitBreaker != null && !circuitBreaker.allowRequest()) {
+            divert(span, original, acked);
+            return;
+        }
+        acquireInFlight(inFlightWaitMS);
+        final DispatchCall call = new DispatchCall(span, original, retry, acked);
+        try {
+            CallOptions options = stub.getCallOptions();
+            if (callDeadlineMS > 0) {
+                options = options.withDeadlineAfter(callDeadlineMS, TimeUnit.MILLISECONDS);
+            }
+            if (compression != null) {
+                options = options.withCompression(compression);
+            }
+            ClientCall<byte[], DispatchResult> clientCall = stub.getChannel().newCall(dispatchMethod, options);
+            if (compression != null && skipCompression(span)) {
+                clientCall = new UncompressedCall(clientCall);
+            }
+            ClientCalls.asyncUnaryCall(clientCall, span, call);
+        } catch (RuntimeException e) {
+            call.finished();
+            throw e;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the span is too small to be worth compressing
+     */
+    private boolean skipCompression(byte[] span) {
+        if (span.length < minCompressBytes) {
+            compressionSkippedCounter.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * A unary call whose message is sent uncompressed though the call
+     * has a compressor; it can only be switched off once started.
+     */
+    private static final class UncompressedCall extends ForwardingClientCall.SimpleForwardingClientCall<byte[], DispatchResult> {
+        UncompressedCall(ClientCall<byte[], DispatchResult> delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void start(Listener<DispatchResult> responseListener, Metadata headers) {
+            super.start(responseListener, headers);
+            setMessageCompression(false);
+        }
+    }
+
+    /**
+     * Thrown when the in-flight window stays full.  The agent is slow
+     * rather than failing, so it is counted as rejected but never as a
+     * circuit breaker failure.
+     */
+    private static final class InFlightRejectedException extends ClientException {
+        InFlightRejectedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Takes a place in the in-flight window, waiting up to
+     * <code>waitMS</code> for one to free up.
+     */
+    private void acquireInFlight(long waitMS) throws InterruptedException {
+        if (inFlightPermits != null && !inFlightPermits.tryAcquire(waitMS, TimeUnit.MILLISECONDS)) {
+            inFlightRejectedCounter.increment();
+            throw new InFlightRejectedException(String.format("Too many calls in flight to the agent: %s", maxInFlight));
+        }
+        inFlight.incrementAndGet();
+    }
+
+    private void releaseInFlight() {
+        inFlight.decrementAndGet();
+        if (inFlightPermits != null) {
+            inFlightPermits.release();
+        }
+    }
+
+    /**
+     * Retries a failed call after its backoff, or diverts it; both on
+     * the retry executor, as this runs on a gRPC callback thread.
+     */
+    private void failed(DispatchCall call) {
+        recordFailure();
+        retryOrDivert(call);
+    }
+
+    private void retryOrDivert(DispatchCall call) {
+        if (retryPolicy != null && call.retry < retryPolicy.getMaxRetries()) {
+            if (pendingRetries.incrementAndGet() <= retryPolicy.getMaxPendingRetries()) {
+                parkedCalls.put(call, Boolean.TRUE);
+                try {
+                    retryExecutor.schedule(() -> {
+                            if (parkedCalls.remove(call) != null) {
+                                pendingRetries.decrementAndGet();
+                                retry(call);
+                            }
+                        }, retryPolicy.backoffMillis(call.retry), TimeUnit.MILLISECONDS);
+                    retryScheduledCounter.increment();
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // the client is closing
+                    parkedCalls.remove(call);
+                }
+            }
+            pendingRetries.decrementAndGet();
+            retryRejectedCounter.increment();
+        } else if (retryPolicy != null) {
+            retryExhaustedCounter.increment();
+        }
+        divertLater(call);
+    }
 
+    /**
+     * Diverts a failed call from the retry executor, so a slow fallback
+     * never holds up the thread delivering gRPC callbacks.  Without an
+     * executor, or once it is shut down, the call is diverted in place.
+     */
+    private void divertLater(DispatchCall call) {
+        if (retryExecutor != null && call.acked == null && fallback != null) {
+            parkedCalls.put(call, Boolean.FALSE);
+            try {
+                retryExecutor.execute(() -> {
+                        if (parkedCalls.remove(call) != null) {
+                            divert(call.span, call.original, call.acked);
+                        }
+                    });
+                return;
+            } catch (RejectedExecutionException e) {
+                // the client is closing
+                if (parkedCalls.remove(call) == null) {
+                    return;
+                }
+            }
+        }
+        divert(call.span, call.original, call.acked);
+    }
+
+    /**
+     * Diverts every call still waiting on the retry executor once it has
+     * been shut down, rather than losing them with its queue.
+     */
+    private void divertParkedCalls() {
+        for (DispatchCall call : parkedCalls.keySet()) {
+            final Boolean retrying = parkedCalls.remove(call);
+            if (retrying == null) {
+                continue;
+            }
+            if (retrying) {
+                pendingRetries.decrementAndGet();
+                retryAbandonedCounter.increment();
+            }
+            divert(call.span, call.original, call.acked);
+        }
+    }
+
+    private void retry(DispatchCall call) {
+        call.retry++;
+        try {
+            // never waits on the window; one retry thread serves every call, a full window backs off without counting as a failure
+            dispatch(call.span, call.original, call.retry, 0, call.acked);
+        } catch (InFlightRejectedException e) {
+            retryOrDivert(call);
+        } catch (Exception e) {
+            sendExceptionCounter.increment();
+            // the call was not sent again, so it backs off or diverts as this retry
+            failed(call);
+        }
+    }
+
+    /**
+     * Hands a span that could not be sent to the fallback client, or
+     * drops it when there is none.  A span sent acknowledged is handed
+     * back to the caller instead.
+     */
+    private void divert(byte[] span, Span original, CompletableFuture<Boolean> acked) {
+        if (acked != null) {
+            acked.complete(false);
+            return;
+        }
+        if (fallback == null) {
+            fallbackDroppedCounter.increment();
+            return;
+        }
+        try {
+            if (original != null) {
+                fallback.send(original);
+            } else {
+                fallback.sendEncoded(span);
+            }
+            fallbackSentCounter.increment();
+        } catch (ClientException e) {
+            fallbackExceptionCounter.increment();
+            LOGGER.warn("Fallback client failed to send a diverted span", e);
+        }
+    }
+
+    private boolean allowStreaming() {
+        return circuitBreaker == null || circuitBreaker.allowRequest();
+    }
+
+    private void recordSuccess() {
+        if (circuitBreaker != null) {
+            circuitBreaker.onSuccess();
+        }
+    }
+
+    private void recordFailure() {
+        if (circuitBreaker != null && circuitBreaker.onFailure()) {
+            breakerOpenedCounter.increment();
+            LOGGER.warn("Agent calls keep failing; circuit breaker opened");
+        }
     }
 
     public static class GRPCAgentClientStreamObserver implements StreamObserver<DispatchResult> {
@@ -125,18 +776,162 @@ public class GRPCAgentClient implements Client {
     @Override
     public boolean send(Span span) throws ClientException {
         try (Sample timer = sendTimer.start()) {
-            stub.dispatch(format.format(span), observer);
+            if (streamingMethod == null) {
+                dispatch(encoder.format(span), span, 0, inFlightTimeoutMS, null);
+            } else if (allowStreaming()) {
+                synchronized (streamLock) {
+                    streamSpan(encoder.format(span), null);
+                }
+            } else {
+                divert(encoder.format(span), span, null);
+            }
         } catch (Exception e) {
-            sendExceptionCounter.increment();
-            throw new ClientException(e.getMessage(), e);
+            throw sendFailed(e);
         }
         // always true
         return true;
     }
 
+    /**
+     * Sends a batch of spans.  Only streaming export batches on the wire,
+     * writing the whole batch to the open stream under one lock; the
+     * agent has no batched unary method, so without a streaming method
+     * this is still one <code>dispatch</code> call per span and the
+     * batch only saves the per send overhead on this side.  A failure
+     * part way through, e.g. the in-flight window staying full, reports
+     * the spans not yet sent so only those are sent again.
+     */
+    @Override
+    public boolean send(Collection<Span> spans) throws ClientException {
+        int sent = 0;
+        try (Sample timer = sendTimer.start()) {
+            if (streamingMethod == null) {
+                for (Span span : spans) {
+                    dispatch(encoder.format(span), span, 0, inFlightTimeoutMS, null);
+                    sent++;
+                }
+            } else if (allowStreaming()) {
+                synchronized (streamLock) {
+                    for (Span span : spans) {
+                        streamSpan(encoder.format(span), null);
+                        sent++;
+                    }
+                }
+            } else {
+                for (Span span : spans) {
+                    divert(encoder.format(span), span, null);
+                    sent++;
+                }
+            }
+        } catch (Exception e) {
+            sendFailed(e);
+            throw new PartialSendException(e.getMessage(), e, spans, sent);
+        }
+        // always true
+        return true;
+    }
+
+    @Override
+    public boolean sendEncoded(byte[] span) throws ClientException {
+        try (Sample timer = sendTimer.start()) {
+            if (streamingMethod == null) {
+                dispatch(span, null, 0, inFlightTimeoutMS, null);
+            } else if (allowStreaming()) {
+                synchronized (streamLock) {
+                    streamSpan(span, null);
+                }
+            } else {
+                divert(span, null, null);
+            }
+        } catch (Exception e) {
+            throw sendFailed(e);
+        }
+        // always true
+        return true;
+    }
+
+    /**
+     * Sends the batch like <code>send</code>, streaming it when a
+     * streaming method is set, so an acknowledgement arrives once the
+     * agent has answered the stream.  Spans the open circuit breaker
+     * holds back, or a failure leaves unsent, are not acknowledged.
+     */
+    @Override
+    public List<CompletableFuture<Boolean>> sendAcknowledged(Collection<Span> spans) {
+        final List<CompletableFuture<Boolean>> acks = new ArrayList<>(spans.size());
+        for (int i = 0; i < spans.size(); i++) {
+            acks.add(new CompletableFuture<>());
+        }
+        int sent = 0;
+        try (Sample timer = sendTimer.start()) {
+            if (streamingMethod == null) {
+                for (Span span : spans) {
+                    dispatch(encoder.format(span), span, 0, inFlightTimeoutMS, acks.get(sent));
+                    sent++;
+                }
+            } else if (allowStreaming()) {
+                synchronized (streamLock) {
+                    for (Span span : spans) {
+                        streamSpan(encoder.format(span), acks.get(sent));
+                        sent++;
+                    }
+                }
+            } else {
+                for (CompletableFuture<Boolean> acked : acks) {
+                    acked.complete(false);
+                }
+            }
+        } catch (Exception e) {
+            final ClientException failure = sendFailed(e);
+            for (CompletableFuture<Boolean> acked : acks.subList(sent, acks.size())) {
+                acked.completeExceptionally(failure);
+            }
+        }
+        return acks;
+    }
+
+    /**
+     * Always sends the span with its own <code>dispatch</code> call, even
+     * when streaming, so the acknowledgement doesn't wait for a stream
+     * to be completed.
+     */
+    @Override
+    public CompletableFuture<Boolean> sendEncodedAcknowledged(byte[] span) {
+        final CompletableFuture<Boolean> acked = new CompletableFuture<>();
+        try (Sample timer = sendTimer.start()) {
+            dispatch(span, null, 0, inFlightTimeoutMS, acked);
+        } catch (Exception e) {
+            acked.completeExceptionally(sendFailed(e));
+        }
+        return acked;
+    }
+
+    /**
+     * Counts a failed send, unless the in-flight window was full; that
+     * is only counted as rejected.
+     */
+    private ClientException sendFailed(Exception e) {
+        if (e instanceof InFlightRejectedException) {
+            return (ClientException) e;
+        }
+        sendExceptionCounter.increment();
+        recordFailure();
+        return (e instanceof ClientException ? (ClientException) e : new ClientException(e.getMessage(), e));
+    }
+
+    @Override
+    public byte[] encode(Span span) {
+        return encoder.format(span);
+    }
+
     @Override
     public void close() {
         try (Sample timer = closeTimer.start()) {
+            completeStream();
+            if (retryExecutor != null) {
+                retryExecutor.shutdownNow();
+                divertParkedCalls();
+            }
             channel.shutdown();
             try {
                 if (!channel.awaitTermination(shutdownTimeoutMS, TimeUnit.SECONDS)) {
@@ -152,6 +947,9 @@ public class GRPCAgentClient implements Client {
                 closeInterruptedCounter.increment();
                 LOGGER.error("Unable to close the channel.", e);
             }
+            if (fallback != null) {
+                fallback.close();
+            }
         } catch (Exception e) {
             closeExceptionCounter.increment();
             LOGGER.error("Unexpected exception caught on client shutdown.", e);
@@ -162,10 +960,15 @@ public class GRPCAgentClient implements Client {
     @Override
     public void flush() {
         flushCounter.increment();
+        // half-close the stream so the agent acknowledges what it has received
+        completeStream();
+        if (fallback != null) {
+            fallback.flush();
+        }
     }
 
     public static final class Builder {
-        private Format<com.expedia.open.tracing.Span> format;
+        private Format<byte[]> encoder;
 
         private StreamObserver<DispatchResult> observer;
 
@@ -184,12 +987,38 @@ public class GRPCAgentClient implements Client {
 
         private long shutdownTimeoutMS = TimeUnit.SECONDS.toMillis(30);
 
+        // streaming is only enabled when a method to stream to is provided
+        private String streamingMethodName;
+        private long streamReadyTimeoutMS = TimeUnit.SECONDS.toMillis(1);
+        private int maxStreamSpans = 1000;
+        private long maxStreamAgeMS = TimeUnit.SECONDS.toMillis(5);
+
+        // retries and the circuit breaker are only enabled when configured
+        private int maxRetries = 0;
+        private long initialBackoffMS = 100;
+        private long maxBackoffMS = TimeUnit.SECONDS.toMillis(10);
+        private int maxPendingRetries = 1000;
+        private int failureThreshold = 0;
+        private long breakerOpenMS = TimeUnit.SECONDS.toMillis(30);
+        private Client fallback;
+        private Clock clock = new SystemClock();
+
+        // the window and deadlines only apply to unary calls
+        private int maxInFlight = 0;
+        private long inFlightTimeoutMS = 0;
+        private long callDeadlineMS = 0;
+
+        // messages are only compressed when an encoding is configured
+        private String compression;
+        private int minCompressBytes = 0;
+        private final List<Compressor> compressors = new ArrayList<>();
+
         private Builder(MetricsRegistry registry) {
             this(new Metrics(registry, Client.class.getName(), Arrays.asList(new Tag("type", "grpc"))));
         }
 
         private Builder(Metrics metrics) {
-            this.format = new ProtoBufFormat();
+            this.encoder = new DirectProtoBufFormat();
             this.observer = new GRPCAgentClientStreamObserver(metrics);
             this.metrics = metrics;
 
@@ -218,7 +1047,20 @@ public class GRPCAgentClient implements Client {
         }
 
         public Builder withFormat(Format<com.expedia.open.tracing.Span> format) {
-            this.format = format;
+            this.encoder = encoding(format);
+            return this;
+        }
+
+        /**
+         * Sets how spans are encoded for the agent; the bytes must be a
+         * serialized <code>Span</code> message.  Defaults to
+         * {@link DirectProtoBufFormat}.
+         *
+         * @param encoder The format to encode spans with
+         * @return this builder
+         */
+        public Builder withEncoder(Format<byte[]> encoder) {
+            this.encoder = encoder;
             return this;
         }
 
@@ -252,22 +1094,232 @@ public class GRPCAgentClient implements Client {
             return this;
         }
 
+        /**
+         * Enables streaming export; spans are written to one long lived
+         * client-streaming call to the given method instead of making a
+         * unary <code>dispatch</code> call per span.  The agent must expose
+         * a client-streaming method that accepts <code>Span</code>
+         * messages and returns a single <code>DispatchResult</code>.
+         *
+         * @param streamingMethodName Full method name, i.e. <code>service/method</code>
+         * @return this builder
+         */
+        public Builder withStreamingMethodName(String streamingMethodName) {
+            this.streamingMethodName = streamingMethodName;
+            return this;
+        }
+
+        /**
+         * How long to wait for a stream to signal it is ready before
+         * failing a send; only used when streaming.
+         *
+         * @param streamReadyTimeoutMS Time to wait for flow control to allow a write
+         * @return this builder
+         */
+        public Builder withStreamReadyTimeoutMS(long streamReadyTimeoutMS) {
+            this.streamReadyTimeoutMS = streamReadyTimeoutMS;
+            return this;
+        }
+
+        /**
+         * Bounds the spans at risk on one stream; a stream is half-closed,
+         * so the agent acknowledges it, and replaced once it holds
+         * <code>maxStreamSpans</code> spans or is <code>maxStreamAgeMS</code>
+         * old.  The age is checked as spans are written; an idle stream is
+         * only half-closed by the next <code>flush()</code>.  Only used
+         * when streaming.
+         *
+         * @param maxStreamSpans The most spans written to one stream, <code>0</code> for no limit
+         * @param maxStreamAgeMS The longest a stream is written to, <code>0</code> for no limit
+         * @return this builder
+         */
+        public Builder withStreamRotation(int maxStreamSpans, long maxStreamAgeMS) {
+            this.maxStreamSpans = maxStreamSpans;
+            this.maxStreamAgeMS = maxStreamAgeMS;
+            return this;
+        }
+
+        /**
+         * Retries spans the agent failed or rate limited, waiting a
+         * jittered backoff that doubles with each retry.
+         *
+         * @param maxRetries The most retries for one span, <code>0</code> disables retries
+         * @param initialBackoffMS The largest wait before the first retry
+         * @param maxBackoffMS The largest wait before any retry
+         * @return this builder
+         * @see RetryPolicy
+         */
+        public Builder withRetries(int maxRetries, long initialBackoffMS, long maxBackoffMS) {
+            this.maxRetries = maxRetries;
+            this.initialBackoffMS = initialBackoffMS;
+            this.maxBackoffMS = maxBackoffMS;
+            return this;
+        }
+
+        /**
+         * @param maxPendingRetries The most spans waiting to be retried at once; further failures are diverted
+         * @return this builder
+         */
+        public Builder withMaxPendingRetries(int maxPendingRetries) {
+            this.maxPendingRetries = maxPendingRetries;
+            return this;
+        }
+
+        /**
+         * Stops calling the agent after <code>failureThreshold</code>
+         * consecutive failures, diverting spans to the fallback until a
+         * probe after <code>openMS</code> succeeds.
+         *
+         * @param failureThreshold Consecutive failures to open the breaker, <code>0</code> disables it
+         * @param openMS How long to stay open before probing the agent
+         * @return this builder
+         * @see CircuitBreaker
+         */
+        public Builder withCircuitBreaker(int failureThreshold, long openMS) {
+            this.failureThreshold = failureThreshold;
+            this.breakerOpenMS = openMS;
+            return this;
+        }
+
+        /**
+         * Where spans go when the circuit breaker is open or their retries
+         * are used up; without one they are dropped.  Spans the agent
+         * failed are handed over on the retry thread, and those still
+         * waiting to be retried when this client is closed are handed over
+         * then.  The fallback is flushed and closed with this client.
+         *
+         * @param fallback The client to divert spans to
+         * @return this builder
+         */
+        public Builder withFallback(Client fallback) {
+            this.fallback = fallback;
+            return this;
+        }
+
+        /**
+         * Bounds the unary calls awaiting a result from the agent.  Once
+         * the window is full a send waits up to <code>inFlightTimeoutMS</code>
+         * for a call to end, then fails with a <code>ClientException</code>.
+         *
+         * @param maxInFlight The most calls in flight, <code>0</code> for no limit
+         * @param inFlightTimeoutMS How long a send may wait, <code>0</code> to fail fast
+         * @return this builder
+         */
+        public Builder withMaxInFlight(int maxInFlight, long inFlightTimeoutMS) {
+            this.maxInFlight = maxInFlight;
+            this.inFlightTimeoutMS = inFlightTimeoutMS;
+            return this;
+        }
+
+        /**
+         * @param callDeadlineMS How long a unary call may take before it fails, <code>0</code> for no deadline
+         * @return this builder
+         */
+        public Builder withCallDeadlineMS(long callDeadlineMS) {
+            this.callDeadlineMS = callDeadlineMS;
+            return this;
+        }
+
+        /**
+         * Compresses spans with one of the channel's compressors, e.g.
+         * <code>gzip</code>.  Spans smaller than <code>minCompressBytes</code>
+         * are sent uncompressed as the saving would not pay for the CPU.
+         * On a channel built by this builder the compression time and
+         * ratio are recorded as <code>compress</code> and
+         * <code>compressionRatio</code>.
+         *
+         * @param encoding The message encoding, <code>null</code> to send spans uncompressed
+         * @param minCompressBytes The smallest encoded span to compress
+         * @return this builder
+         */
+        public Builder withCompression(String encoding, int minCompressBytes) {
+            this.compression = encoding;
+            this.minCompressBytes = minCompressBytes;
+            return this;
+        }
+
+        /**
+         * Compresses spans with a compressor the agent doesn't know by
+         * default, e.g. a {@link DictionaryDeflateCodec}; the agent must
+         * register a decompressor for it.  It is registered with the
+         * channel built by this builder, a channel passed in must already
+         * know it.
+         *
+         * @param compressor The compressor to use
+         * @param minCompressBytes The smallest encoded span to compress
+         * @return this builder
+         */
+        public Builder withCompressor(Compressor compressor, int minCompressBytes) {
+            this.compressors.add(compressor);
+            return withCompression(compressor.getMessageEncoding(), minCompressBytes);
+        }
+
+        public Builder withClock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
         public GRPCAgentClient build() {
 
             ManagedChannel managedChannel = channel;
 
             if (managedChannel == null) {
-                managedChannel = NettyChannelBuilder.forAddress(host, port)
+                NettyChannelBuilder channelBuilder = NettyChannelBuilder.forAddress(host, port)
                     .keepAliveTime(keepAliveTimeMS, TimeUnit.MILLISECONDS)
                     .keepAliveTimeout(keepAliveTimeoutMS, TimeUnit.MILLISECONDS)
                     .keepAliveWithoutCalls(keepAliveWithoutCalls)
-                    .negotiationType(negotiationType)
-                    .build();
+                    .negotiationType(negotiationType);
+                if (compression != null) {
+                    channelBuilder = channelBuilder.compressorRegistry(compressorRegistry());
+                }
+                managedChannel = channelBuilder.build();
             }
 
             SpanAgentStub stub = SpanAgentGrpc.newStub(managedChannel);
 
-            return new GRPCAgentClient(metrics, format, managedChannel, stub, observer, shutdownTimeoutMS);
+            MethodDescriptor<byte[], DispatchResult> streamingMethod = null;
+            if (streamingMethodName != null) {
+                streamingMethod = encoded(SpanAgentGrpc.METHOD_DISPATCH).toBuilder()
+                    .setType(MethodType.CLIENT_STREAMING)
+                    .setFullMethodName(streamingMethodName)
+                    .build();
+            }
+
+            RetryPolicy retryPolicy = null;
+            if (maxRetries > 0) {
+                retryPolicy = new RetryPolicy(maxRetries, initialBackoffMS, maxBackoffMS, maxPendingRetries);
+            }
+            ScheduledExecutorService retryExecutor = null;
+            if (maxRetries > 0 || fallback != null) {
+                // retries and diverted spans both wait here, off the gRPC callback threads
+                retryExecutor = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+                        final Thread thread = new Thread(runnable, "haystack-agent-retry");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            }
+
+            CircuitBreaker circuitBreaker = null;
+            if (failureThreshold > 0) {
+                circuitBreaker = new CircuitBreaker(clock, failureThreshold, breakerOpenMS);
+            }
+
+            return new GRPCAgentClient(metrics, encoder, managedChannel, stub, observer, shutdownTimeoutMS, streamingMethod, streamReadyTimeoutMS,
+                                       retryPolicy, circuitBreaker, fallback, retryExecutor, maxInFlight, inFlightTimeoutMS, callDeadlineMS,
+                                       compression, minCompressBytes, maxStreamSpans, maxStreamAgeMS);
+        }
+
+        /**
+         * @return the compressors gRPC knows by default and those added, each measured
+         */
+        private CompressorRegistry compressorRegistry() {
+            final CompressorRegistry registry = CompressorRegistry.newEmptyInstance();
+            registry.register(Codec.Identity.NONE);
+            registry.register(new MeasuredCompressor(metrics, new Codec.Gzip()));
+            for (Compressor compressor : compressors) {
+                registry.register(new MeasuredCompressor(metrics, compressor));
+            }
+            return registry;
         }
     }
 }
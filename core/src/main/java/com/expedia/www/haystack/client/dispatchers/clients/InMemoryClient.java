@@ -42,6 +42,7 @@ public class InMemoryClient implements Client {
     private List<Span> total;
     private List<Span> received;
     private List<Span> flushed;
+    private List<byte[]> encoded;
 
     private final Timer sendTimer;
     private final Counter sendExceptionCounter;
@@ -53,6 +54,7 @@ public class InMemoryClient implements Client {
         total = new ArrayList<>();
         received = new ArrayList<>();
         flushed = new ArrayList<>();
+        encoded = new ArrayList<>();
 
         this.sendTimer = Timer.builder("send").register(metrics);
         this.sendExceptionCounter = Counter.builder("send").tag(new Tag("state", "exception")).register(metrics);
@@ -63,6 +65,7 @@ public class InMemoryClient implements Client {
         Gauge.builder("total", total, Collection::size).register(metrics);
         Gauge.builder("received", received, Collection::size).register(metrics);
         Gauge.builder("flushed", flushed, Collection::size).register(metrics);
+        Gauge.builder("encoded", encoded, Collection::size).register(metrics);
     }
 
     @Override
@@ -70,8 +73,41 @@ public class InMemoryClient implements Client {
         LOGGER.info("Span sent to client: " + span);
         try (Sample timer = sendTimer.start()) {
             limiter.acquire();
-            total.add(span);
-            received.add(span);
+            synchronized (this) {
+                total.add(span);
+                received.add(span);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            sendExceptionCounter.increment();
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public boolean send(Collection<Span> spans) {
+        LOGGER.info("Spans sent to client: " + spans.size());
+        try (Sample timer = sendTimer.start()) {
+            limiter.acquire(spans.size());
+            synchronized (this) {
+                total.addAll(spans);
+                received.addAll(spans);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            sendExceptionCounter.increment();
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public boolean sendEncoded(byte[] span) {
+        LOGGER.info("Encoded span sent to client: " + span.length + " bytes");
+        try (Sample timer = sendTimer.start()) {
+            limiter.acquire();
+            synchronized (this) {
+                encoded.add(span);
+            }
             return true;
         } catch (InterruptedException e) {
             sendExceptionCounter.increment();
@@ -91,8 +127,10 @@ public class InMemoryClient implements Client {
     public void flush() {
         try (Sample timer = flushTimer.start()) {
             LOGGER.info("Client flushed");
-            flushed.addAll(received);
-            received.clear();
+            synchronized (this) {
+                flushed.addAll(received);
+                received.clear();
+            }
         }
     }
 
@@ -108,6 +146,10 @@ public class InMemoryClient implements Client {
         return Collections.unmodifiableList(received);
     }
 
+    public List<byte[]> getEncodedSpans() {
+        return Collections.unmodifiableList(encoded);
+    }
+
     public static final class Builder {
         private final Metrics metrics;
         private int limit;
@@ -17,6 +17,7 @@
 package com.expedia.www.haystack.client.dispatchers.clients;
 
 import java.util.Arrays;
+import java.util.Collection;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,6 +30,7 @@ import com.expedia.www.haystack.client.metrics.MetricsRegistry;
 import com.expedia.www.haystack.client.metrics.Tag;
 import com.expedia.www.haystack.client.metrics.Timer;
 import com.expedia.www.haystack.client.metrics.Timer.Sample;
+import com.google.protobuf.InvalidProtocolBufferException;
 
 public class LoggerClient implements Client {
     private final Format<?> format;
@@ -61,6 +63,26 @@ public class LoggerClient implements Client {
         }
     }
 
+    @Override
+    public boolean send(Collection<Span> spans) {
+        try (Sample timer = sendTimer.start()) {
+            for (Span span : spans) {
+                logger.info("{}", format.format(span));
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public boolean sendEncoded(byte[] span) throws ClientException {
+        try (Sample timer = sendTimer.start()) {
+            logger.info("{}", com.expedia.open.tracing.Span.parseFrom(span));
+            return true;
+        } catch (InvalidProtocolBufferException e) {
+            throw new ClientException(e.getMessage(), e);
+        }
+    }
+
     @Override
     public void close() {
         closeCounter.increment();
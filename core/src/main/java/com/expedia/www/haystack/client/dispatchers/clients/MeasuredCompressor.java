@@ -0,0 +1,130 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.clients;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.expedia.www.haystack.client.metrics.Counter;
+import com.expedia.www.haystack.client.metrics.Gauge;
+import com.expedia.www.haystack.client.metrics.Metrics;
+import com.expedia.www.haystack.client.metrics.Tag;
+import com.expedia.www.haystack.client.metrics.Timer;
+import com.expedia.www.haystack.client.metrics.Timer.Sample;
+
+import io.grpc.Compressor;
+
+/**
+ * Records how much a gRPC compressor shrinks the messages it is given
+ * and how long it takes; gRPC calls it once per message and closes the
+ * stream it returns when the message is written.
+ *
+ * The bytes in and out are counted as <code>compressedBytes</code>
+ * and the gauge <code>compressionRatio</code> is the compressed size
+ * over the original size of everything compressed so far.
+ */
+public class MeasuredCompressor implements Compressor {
+    private final Compressor delegate;
+    private final AtomicLong uncompressedBytes;
+    private final AtomicLong compressedBytes;
+
+    private final Timer compressTimer;
+    private final Counter uncompressedBytesCounter;
+    private final Counter compressedBytesCounter;
+
+    public MeasuredCompressor(Metrics metrics, Compressor delegate) {
+        this.delegate = delegate;
+        this.uncompressedBytes = new AtomicLong();
+        this.compressedBytes = new AtomicLong();
+
+        final Tag encoding = new Tag("encoding", delegate.getMessageEncoding());
+        this.compressTimer = Timer.builder("compress").tag(encoding).register(metrics);
+        this.uncompressedBytesCounter = Counter.builder("compressedBytes").tag(encoding).tag(new Tag("state", "in")).register(metrics);
+        this.compressedBytesCounter = Counter.builder("compressedBytes").tag(encoding).tag(new Tag("state", "out")).register(metrics);
+
+        // held in the registry; but we don't need a local reference
+        Gauge.builder("compressionRatio", this, MeasuredCompressor::getRatio).tag(encoding).register(metrics);
+    }
+
+    @Override
+    public String getMessageEncoding() {
+        return delegate.getMessageEncoding();
+    }
+
+    @Override
+    public OutputStream compress(OutputStream os) throws IOException {
+        final Sample timer = compressTimer.start();
+        final CountingOutputStream compressed = new CountingOutputStream(os);
+        return new CountingOutputStream(delegate.compress(compressed)) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (!closed) {
+                        closed = true;
+                        timer.stop();
+                        record(getCount(), compressed.getCount());
+                    }
+                }
+            }
+        };
+    }
+
+    private void record(long in, long out) {
+        uncompressedBytes.addAndGet(in);
+        compressedBytes.addAndGet(out);
+        uncompressedBytesCounter.increment(in);
+        compressedBytesCounter.increment(out);
+    }
+
+    /**
+     * @return the compressed size over the original size, <code>0</code> before anything was compressed
+     */
+    public double getRatio() {
+        final long in = uncompressedBytes.get();
+        return (in > 0 ? (double) compressedBytes.get() / in : 0);
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}
@@ -16,6 +16,9 @@
  */
 package com.expedia.www.haystack.client.dispatchers.clients;
 
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
 import com.expedia.www.haystack.client.Span;
 
 public class NoopClient implements Client {
@@ -39,4 +42,22 @@ public class NoopClient implements Client {
         return true;
     }
 
+    @Override
+    public boolean send(Collection<Span> spans) {
+        // does nothing
+        return true;
+    }
+
+    @Override
+    public boolean sendEncoded(byte[] span) {
+        // does nothing
+        return true;
+    }
+
+    @Override
+    public boolean sendEncoded(ByteBuffer span) {
+        // does nothing
+        return true;
+    }
+
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.clients;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import com.expedia.www.haystack.client.Span;
+
+/**
+ * A failure part way through sending a batch; the spans before the
+ * failure were already handed to the endpoint, so only the ones listed
+ * here need to be sent again.
+ */
+public class PartialSendException extends ClientException {
+    private final List<Span> unsentSpans;
+
+    /**
+     * @param message The failure message
+     * @param cause The failure
+     * @param batch The batch being sent, in the order it was sent
+     * @param sent How many spans from the start of the batch were sent
+     */
+    public PartialSendException(String message, Throwable cause, Collection<Span> batch, int sent) {
+        super(message, cause);
+        final List<Span> unsent = new ArrayList<>(Math.max(0, batch.size() - sent));
+        int index = 0;
+        for (Span span : batch) {
+            if (index++ >= sent) {
+                unsent.add(span);
+            }
+        }
+        this.unsentSpans = Collections.unmodifiableList(unsent);
+    }
+
+    /**
+     * @return the spans of the batch that were not sent, in batch order
+     */
+    public List<Span> getUnsentSpans() {
+        return unsentSpans;
+    }
+}
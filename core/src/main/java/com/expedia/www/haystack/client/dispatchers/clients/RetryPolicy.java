@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.clients;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.commons.lang3.builder.RecursiveToStringStyle;
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+
+/**
+ * How a client retries a failed call: up to <code>maxRetries</code> times
+ * per span, waiting a jittered, exponentially growing delay before each
+ * retry, with at most <code>maxPendingRetries</code> retries waiting at
+ * once across all spans.
+ *
+ * The delay before retry <code>n</code> is drawn uniformly between zero and
+ * <code>min(maxBackoffMillis, initialBackoffMillis * 2^n)</code> ("full
+ * jitter"), so clients that failed together don't retry together.
+ */
+public class RetryPolicy {
+    private final int maxRetries;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final int maxPendingRetries;
+
+    public RetryPolicy(int maxRetries, long initialBackoffMillis, long maxBackoffMillis, int maxPendingRetries) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException(String.format("Invalid max retries: %s", maxRetries));
+        }
+        if (initialBackoffMillis < 1 || maxBackoffMillis < initialBackoffMillis) {
+            throw new IllegalArgumentException(String.format("Invalid backoff: %s to %s", initialBackoffMillis, maxBackoffMillis));
+        }
+        this.maxRetries = maxRetries;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.maxPendingRetries = maxPendingRetries;
+    }
+
+    /**
+     * @param retry The retry about to be made, starting at <code>0</code>
+     * @return the time to wait before making it
+     */
+    public long backoffMillis(int retry) {
+        // keep the shift from overflowing into the sign bit
+        final int shift = Math.min(retry, Long.numberOfLeadingZeros(initialBackoffMillis) - 1);
+        final long ceiling = Math.min(maxBackoffMillis, initialBackoffMillis << shift);
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * @return the most retries made for a single span
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @return the most retries allowed to wait at once
+     */
+    public int getMaxPendingRetries() {
+        return maxPendingRetries;
+    }
+
+    @Override
+    public String toString() {
+        return new ReflectionToStringBuilder(this, RecursiveToStringStyle.JSON_STYLE).toString();
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.formats;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import com.expedia.www.haystack.client.Span;
+
+/**
+ * A format that encodes a batch of spans as a whole, so what they have
+ * in common is written once per batch rather than once per span.
+ */
+public interface BatchFormat<R> extends Format<R> {
+
+    R format(Collection<Span> spans);
+
+    /**
+     * @param span The span to encode
+     * @return a batch of one
+     */
+    @Override
+    default R format(Span span) {
+        return format(Collections.singletonList(span));
+    }
+}
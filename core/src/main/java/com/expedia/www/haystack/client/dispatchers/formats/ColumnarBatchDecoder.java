@@ -0,0 +1,151 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.formats;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.expedia.open.tracing.Log;
+import com.expedia.open.tracing.Span;
+import com.expedia.open.tracing.Tag;
+import com.expedia.open.tracing.Tag.TagType;
+import com.expedia.www.haystack.client.Ids;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+
+/**
+ * Reads a batch written by {@link ColumnarBatchFormat} back into the
+ * agent's spans, e.g. for a relay forwarding them to the agent.  Each
+ * span equals the one {@link ProtoBufFormat} builds from the original.
+ */
+public class ColumnarBatchDecoder {
+
+    /**
+     * @param batch A batch encoded by <code>ColumnarBatchFormat</code>
+     * @return its spans, in the order they were encoded
+     * @throws IOException if the batch is truncated, malformed or of an unknown version
+     */
+    public List<Span> decode(byte[] batch) throws IOException {
+        final CodedInputStream in = CodedInputStream.newInstance(batch);
+        final int version = in.readUInt32();
+        if (version != ColumnarBatchFormat.VERSION) {
+            throw new IOException(String.format("Unsupported batch version: %s", version));
+        }
+        // every span takes at least its three ids, every string a byte
+        final int count = checkedCount(in.readUInt32(), batch.length / 48);
+        final long base = in.readInt64();
+        final String[] dictionary = new String[checkedCount(in.readUInt32(), batch.length)];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = in.readString();
+        }
+
+        final List<Span.Builder> builders = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            builders.add(Span.newBuilder().setTraceId(Ids.toString(in.readFixed64(), in.readFixed64())));
+        }
+        for (Span.Builder builder : builders) {
+            builder.setSpanId(Ids.toString(in.readFixed64(), in.readFixed64()));
+        }
+        for (Span.Builder builder : builders) {
+            builder.setParentSpanId(Ids.toString(in.readFixed64(), in.readFixed64()));
+        }
+        for (Span.Builder builder : builders) {
+            builder.setServiceName(string(dictionary, in.readUInt32()));
+        }
+        for (Span.Builder builder : builders) {
+            builder.setOperationName(string(dictionary, in.readUInt32()));
+        }
+        for (Span.Builder builder : builders) {
+            builder.setStartTime(base + in.readSInt64());
+        }
+        for (Span.Builder builder : builders) {
+            builder.setDuration(in.readSInt64());
+        }
+
+        final int[] tagCounts = new int[count];
+        for (int i = 0; i < count; i++) {
+            tagCounts[i] = checkedCount(in.readUInt32(), batch.length);
+        }
+        final int[] logCounts = new int[count];
+        for (int i = 0; i < count; i++) {
+            logCounts[i] = checkedCount(in.readUInt32(), batch.length);
+        }
+
+        for (int i = 0; i < count; i++) {
+            for (int t = 0; t < tagCounts[i]; t++) {
+                builders.get(i).addTags(readTag(in, dictionary));
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            for (int l = 0; l < logCounts[i]; l++) {
+                final Log.Builder log = Log.newBuilder().setTimestamp(base + in.readSInt64());
+                final int fields = checkedCount(in.readUInt32(), batch.length);
+                for (int f = 0; f < fields; f++) {
+                    log.addFields(readTag(in, dictionary));
+                }
+                builders.get(i).addLogs(log.build());
+            }
+        }
+        if (!in.isAtEnd()) {
+            throw new IOException("Unexpected bytes after the last column");
+        }
+
+        final List<Span> spans = new ArrayList<>(count);
+        for (Span.Builder builder : builders) {
+            spans.add(builder.build());
+        }
+        return spans;
+    }
+
+    private static Tag readTag(CodedInputStream in, String[] dictionary) throws IOException {
+        final Tag.Builder builder = Tag.newBuilder().setKey(string(dictionary, in.readUInt32()));
+        final byte type = in.readRawByte();
+        switch (type) {
+        case ColumnarBatchFormat.TYPE_STRING:
+            return builder.setType(TagType.STRING).setVStr(string(dictionary, in.readUInt32())).build();
+        case ColumnarBatchFormat.TYPE_DOUBLE:
+            return builder.setType(TagType.DOUBLE).setVDouble(in.readDouble()).build();
+        case ColumnarBatchFormat.TYPE_BOOL:
+            return builder.setType(TagType.BOOL).setVBool(in.readBool()).build();
+        case ColumnarBatchFormat.TYPE_LONG:
+            return builder.setType(TagType.LONG).setVLong(in.readSInt64()).build();
+        case ColumnarBatchFormat.TYPE_BINARY:
+            return builder.setType(TagType.BINARY).setVBytes(ByteString.copyFrom(in.readByteArray())).build();
+        default:
+            throw new IOException(String.format("Unknown tag type: %s", type));
+        }
+    }
+
+    private static String string(String[] dictionary, int index) throws IOException {
+        if (index < 0 || index >= dictionary.length) {
+            throw new IOException(String.format("Dictionary index out of range: %s", index));
+        }
+        return dictionary[index];
+    }
+
+    /**
+     * Rejects a count larger than the batch could hold before anything
+     * is allocated for it.
+     */
+    private static int checkedCount(int count, int limit) throws IOException {
+        if (count < 0 || count > limit) {
+            throw new IOException(String.format("Invalid count: %s", count));
+        }
+        return count;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.formats;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.expedia.www.haystack.client.LogData;
+import com.expedia.www.haystack.client.Span;
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * Encodes a batch of spans column by column: every span's ids, then
+ * every service name, every operation name, and so on.
+ *
+ * Strings, the service and operation names, tag and log keys and
+ * string tag values, are written once per batch to a dictionary and
+ * referred to by their index in it.  Timestamps are varints relative
+ * to the earliest start time in the batch and ids are two fixed 64 bit
+ * words.  The layout, every number a protobuf varint unless noted, is
+ *
+ * <pre>
+ * version, span count, base timestamp
+ * dictionary size, then each string length delimited UTF-8
+ * trace ids, span ids, parent ids    2 x fixed64 per span, each column
+ * service names, operation names     dictionary index per span, each column
+ * start times                        zigzag delta from the base per span
+ * durations                          zigzag per span
+ * tag counts, log counts             per span, each column
+ * tags                               every span's tags then its baggage
+ * logs                               every span's logs
+ * </pre>
+ *
+ * A tag is its key's index, a type byte and the value: a dictionary
+ * index, a zigzag long, a little endian double, a bool or length
+ * delimited bytes.  A log is its zigzag delta timestamp, a field count
+ * and the fields as tags.  Tag values are typed by
+ * {@link TagEncoders#typed(Object)}; {@link ColumnarBatchDecoder} turns a batch
+ * back into the agent's spans.
+ */
+public class ColumnarBatchFormat implements BatchFormat<byte[]> {
+    static final int VERSION = 1;
+
+    // the numbers of com.expedia.open.tracing.Tag.TagType
+    static final byte TYPE_STRING = 0;
+    static final byte TYPE_DOUBLE = 1;
+    static final byte TYPE_BOOL = 2;
+    static final byte TYPE_LONG = 3;
+    static final byte TYPE_BINARY = 4;
+
+    private static final int INITIAL_BUFFER_BYTES = 4096;
+
+    private final EncodedStrings strings;
+    private final TagEncoders encoders;
+
+    public ColumnarBatchFormat() {
+        this(new EncodedStrings());
+    }
+
+    public ColumnarBatchFormat(EncodedStrings strings) {
+        this(strings, TagEncoders.defaults());
+    }
+
+    public ColumnarBatchFormat(EncodedStrings strings, TagEncoders encoders) {
+        this.strings = strings;
+        this.encoders = encoders;
+    }
+
+    @Override
+    public byte[] format(Collection<Span> spans) {
+        try {
+            final Dictionary dictionary = new Dictionary();
+            final ByteArrayOutputStream columns = new ByteArrayOutputStream(INITIAL_BUFFER_BYTES);
+            final CodedOutputStream body = CodedOutputStream.newInstance(columns);
+            final long base = base(spans);
+            writeColumns(body, spans, base, dictionary);
+            body.flush();
+
+            final ByteArrayOutputStream batch = new ByteArrayOutputStream(columns.size() + INITIAL_BUFFER_BYTES);
+            final CodedOutputStream header = CodedOutputStream.newInstance(batch);
+            header.writeUInt32NoTag(VERSION);
+            header.writeUInt32NoTag(spans.size());
+            header.writeInt64NoTag(base);
+            header.writeUInt32NoTag(dictionary.entries.size());
+            for (String entry : dictionary.entries) {
+                header.writeByteArrayNoTag(strings.encode(entry));
+            }
+            header.flush();
+            columns.writeTo(batch);
+            return batch.toByteArray();
+        } catch (IOException e) {
+            // writing to memory doesn't fail
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long base(Collection<Span> spans) {
+        long base = Long.MAX_VALUE;
+        for (Span span : spans) {
+            base = Math.min(base, span.getStartTime());
+        }
+        return (spans.isEmpty() ? 0 : base);
+    }
+
+    private void writeColumns(CodedOutputStream out, Collection<Span> spans, long base, Dictionary dictionary) throws IOException {
+        for (Span span : spans) {
+            out.writeFixed64NoTag(span.context().getTraceIdHigh());
+            out.writeFixed64NoTag(span.context().getTraceIdLow());
+        }
+        for (Span span : spans) {
+            out.writeFixed64NoTag(span.context().getSpanIdHigh());
+            out.writeFixed64NoTag(span.context().getSpanIdLow());
+        }
+        for (Span span : spans) {
+            out.writeFixed64NoTag(span.context().getParentIdHigh());
+            out.writeFixed64NoTag(span.context().getParentIdLow());
+        }
+        for (Span span : spans) {
+            out.writeUInt32NoTag(dictionary.indexOf(span.getServiceName()));
+        }
+        for (Span span : spans) {
+            out.writeUInt32NoTag(dictionary.indexOf(span.getOperatioName()));
+        }
+        for (Span span : spans) {
+            out.writeSInt64NoTag(span.getStartTime() - base);
+        }
+        for (Span span : spans) {
+            final Long duration = span.getDuration();
+            out.writeSInt64NoTag(duration != null ? duration : 0);
+        }
+
+        // spans are finished, so the counts match what is written below
+        for (Span span : spans) {
+            out.writeUInt32NoTag(span.getTags().size() + span.context().getBaggage().size());
+        }
+        for (Span span : spans) {
+            out.writeUInt32NoTag(span.getLogs().size());
+        }
+
+        for (Span span : spans) {
+            for (Map.Entry<String, Object> tag : span.getTags().entrySet()) {
+                writeTag(out, tag.getKey(), tag.getValue(), dictionary);
+            }
+            // add the baggage items as tags for now
+            for (Map.Entry<String, String> item : span.context().getBaggage().entrySet()) {
+                writeTag(out, item.getKey(), item.getValue(), dictionary);
+            }
+        }
+        for (Span span : spans) {
+            for (LogData log : span.getLogs()) {
+                out.writeSInt64NoTag(log.getTimestamp() - base);
+                final Map<String, ?> fields = log.getFields();
+                out.writeUInt32NoTag(fields != null ? fields.size() : 0);
+                if (fields != null) {
+                    for (Map.Entry<String, ?> field : fields.entrySet()) {
+                        writeTag(out, field.getKey(), field.getValue(), dictionary);
+                    }
+                }
+            }
+        }
+    }
+
+    private void writeTag(CodedOutputStream out, String key, Object value, Dictionary dictionary) throws IOException {
+        out.writeUInt32NoTag(dictionary.indexOf(key));
+        final Object typed = encoders.typed(value);
+        if (typed instanceof String) {
+            out.writeRawByte(TYPE_STRING);
+            out.writeUInt32NoTag(dictionary.indexOf((String) typed));
+        } else if (typed instanceof Double) {
+            out.writeRawByte(TYPE_DOUBLE);
+            out.writeDoubleNoTag((Double) typed);
+        } else if (typed instanceof Long) {
+            out.writeRawByte(TYPE_LONG);
+            out.writeSInt64NoTag((Long) typed);
+        } else if (typed instanceof Boolean) {
+            out.writeRawByte(TYPE_BOOL);
+            out.writeBoolNoTag((Boolean) typed);
+        } else {
+            out.writeRawByte(TYPE_BINARY);
+            out.writeByteArrayNoTag((byte[]) typed);
+        }
+    }
+
+    /**
+     * The strings of one batch in the order they were first written.
+     */
+    private static final class Dictionary {
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<String> entries = new ArrayList<>();
+
+        int indexOf(String value) {
+            final String entry = (value != null ? value : "");
+            Integer index = indexes.get(entry);
+            if (index == null) {
+                index = entries.size();
+                indexes.put(entry, index);
+                entries.add(entry);
+            }
+            return index;
+        }
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.formats;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+import com.expedia.open.tracing.Tag.TagType;
+import com.expedia.www.haystack.client.Ids;
+import com.expedia.www.haystack.client.LogData;
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.SpanContext;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Encodes spans in the agent's protobuf <code>Span</code> wire format
+ * straight from our <code>Span</code>, without building the generated
+ * message, its <code>Tag</code> and <code>Log</code> messages or their
+ * builders first.
+ *
+ * The bytes are identical to serializing the message built by
+ * {@link ProtoBufFormat}: fields are written in field number order,
+ * proto3 defaults are skipped except for the members of the tag value
+ * <code>oneof</code>, and tag values are typed by the same
+ * {@link TagEncoders#typed(Object)}.
+ * Spans are encoded into a per thread buffer and copied out at their
+ * exact size.  The service name, operation names, tag keys and log
+ * field keys are copied from an {@link EncodedStrings} cache rather
+ * than encoded again for every span.  Every tag and log field is typed,
+ * and its key looked up, once; a log's fields are held in a per thread
+ * scratch between sizing the log and writing it.
+ */
+public class DirectProtoBufFormat implements Format<byte[]> {
+    private static final int INITIAL_BUFFER_BYTES = 1024;
+    /** Larger buffers are used once rather than pinned to the thread */
+    private static final int MAX_POOLED_BUFFER_BYTES = 64 * 1024;
+
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[INITIAL_BUFFER_BYTES]);
+    private static final ThreadLocal<TypedFields> FIELDS = ThreadLocal.withInitial(TypedFields::new);
+
+    // com.expedia.open.tracing.Span
+    private static final int TRACE_ID = 1;
+    private static final int SPAN_ID = 2;
+    private static final int PARENT_SPAN_ID = 3;
+    private static final int SERVICE_NAME = 4;
+    private static final int OPERATION_NAME = 5;
+    private static final int START_TIME = 6;
+    private static final int DURATION = 7;
+    private static final int LOGS = 8;
+    private static final int TAGS = 9;
+
+    // com.expedia.open.tracing.Log
+    private static final int LOG_TIMESTAMP = 1;
+    private static final int LOG_FIELDS = 2;
+
+    // com.expedia.open.tracing.Tag
+    private static final int TAG_KEY = 1;
+    private static final int TAG_TYPE = 2;
+    private static final int TAG_VSTR = 3;
+    private static final int TAG_VLONG = 4;
+    private static final int TAG_VDOUBLE = 5;
+    private static final int TAG_VBOOL = 6;
+    private static final int TAG_VBYTES = 7;
+
+    private final EncodedStrings strings;
+    private final TagEncoders encoders;
+
+    public DirectProtoBufFormat() {
+        this(new EncodedStrings());
+    }
+
+    public DirectProtoBufFormat(EncodedStrings strings) {
+        this(strings, TagEncoders.defaults());
+    }
+
+    public DirectProtoBufFormat(EncodedStrings strings, TagEncoders encoders) {
+        this.strings = strings;
+        this.encoders = encoders;
+    }
+
+    @Override
+    public byte[] format(Span span) {
+        byte[] buffer = BUFFER.get();
+        while (true) {
+            try {
+                final CodedOutputStream out = CodedOutputStream.newInstance(buffer);
+                writeTo(span, out);
+                return Arrays.copyOf(buffer, out.getTotalBytesWritten());
+            } catch (CodedOutputStream.OutOfSpaceException e) {
+                buffer = new byte[buffer.length * 2];
+                if (buffer.length <= MAX_POOLED_BUFFER_BYTES) {
+                    BUFFER.set(buffer);
+                }
+            } catch (IOException e) {
+                // only running out of space can fail writing to an array
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Encodes the span in place into <code>target</code>, from its
+     * position, e.g. straight into an off-heap slot.
+     *
+     * @param span The span to encode
+     * @param target Where to write it
+     * @return the bytes written, or <code>-1</code> if the span doesn't fit, leaving the position unchanged
+     */
+    public int format(Span span, ByteBuffer target) {
+        final int start = target.position();
+        try {
+            final CodedOutputStream out = CodedOutputStream.newInstance(target);
+            writeTo(span, out);
+            out.flush();
+            return out.getTotalBytesWritten();
+        } catch (CodedOutputStream.OutOfSpaceException e) {
+            target.position(start);
+            return -1;
+        } catch (IOException e) {
+            // only running out of space can fail writing to a buffer
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes the encoded span to <code>out</code>; the caller flushes it.
+     *
+     * @param span The span to encode
+     * @param out Where to write it
+     * @throws IOException if <code>out</code> fails
+     */
+    public void writeTo(Span span, CodedOutputStream out) throws IOException {
+        final SpanContext context = span.context();
+        writeString(out, TRACE_ID, Ids.toString(context.getTraceIdHigh(), context.getTraceIdLow()));
+        writeString(out, SPAN_ID, Ids.toString(context.getSpanIdHigh(), context.getSpanIdLow()));
+        writeString(out, PARENT_SPAN_ID, Ids.toString(context.getParentIdHigh(), context.getParentIdLow()));
+        writeEncoded(out, SERVICE_NAME, span.getServiceName());
+        writeEncoded(out, OPERATION_NAME, span.getOperatioName());
+        writeInt64(out, START_TIME, span.getStartTime());
+        writeInt64(out, DURATION, span.getDuration());
+
+        if (!span.getLogs().isEmpty()) {
+            final TypedFields fields = FIELDS.get();
+            for (LogData log : span.getLogs()) {
+                try {
+                    writeLog(out, log, fields);
+                } finally {
+                    fields.clear();
+                }
+            }
+        }
+
+        for (Map.Entry<String, Object> tag : span.getTags().entrySet()) {
+            writeTag(out, TAGS, tag.getKey(), tag.getValue());
+        }
+        // add the baggage items as tags for now
+        for (Map.Entry<String, String> item : context.getBaggage().entrySet()) {
+            writeTag(out, TAGS, item.getKey(), item.getValue());
+        }
+    }
+
+    private static void writeString(CodedOutputStream out, int field, String value) throws IOException {
+        if (value != null && !value.isEmpty()) {
+            out.writeString(field, value);
+        }
+    }
+
+    private static void writeInt64(CodedOutputStream out, int field, Long value) throws IOException {
+        if (value != null && value != 0) {
+            out.writeInt64(field, value);
+        }
+    }
+
+    private void writeEncoded(CodedOutputStream out, int field, String value) throws IOException {
+        if (value != null && !value.isEmpty()) {
+            // a length delimited field; the same bytes as writeString
+            out.writeByteArray(field, strings.encode(value));
+        }
+    }
+
+    private static int int64Size(int field, Long value) {
+        return (value != null && value != 0 ? CodedOutputStream.computeInt64Size(field, value) : 0);
+    }
+
+    private static int messageSize(int field, int size) {
+        return CodedOutputStream.computeTagSize(field) + CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+    }
+
+    /**
+     * Writes a log; its fields are typed and sized into
+     * <code>fields</code> first, as the log's size precedes them.
+     */
+    private void writeLog(CodedOutputStream out, LogData log, TypedFields fields) throws IOException {
+        int size = int64Size(LOG_TIMESTAMP, log.getTimestamp());
+        if (log.getFields() != null) {
+            for (Map.Entry<String, ?> field : log.getFields().entrySet()) {
+                final byte[] key = encodedKey(field.getKey());
+                final Object typed = encoders.typed(field.getValue());
+                final int fieldSize = tagSize(key, typed);
+                fields.add(key, typed, fieldSize);
+                size += messageSize(LOG_FIELDS, fieldSize);
+            }
+        }
+
+        out.writeTag(LOGS, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        out.writeUInt32NoTag(size);
+        writeInt64(out, LOG_TIMESTAMP, log.getTimestamp());
+        for (int i = 0; i < fields.count; i++) {
+            writeTag(out, LOG_FIELDS, fields.keys[i], fields.values[i], fields.sizes[i]);
+        }
+    }
+
+    private void writeTag(CodedOutputStream out, int field, String key, Object value) throws IOException {
+        final byte[] encodedKey = encodedKey(key);
+        final Object typed = encoders.typed(value);
+        writeTag(out, field, encodedKey, typed, tagSize(encodedKey, typed));
+    }
+
+    /**
+     * @return the cached encoding of a tag key, or <code>null</code> for an empty key, which isn't written
+     */
+    private byte[] encodedKey(String key) {
+        return (key != null && !key.isEmpty() ? strings.encode(key) : null);
+    }
+
+    private static void writeTag(CodedOutputStream out, int field, byte[] key, Object typed, int size) throws IOException {
+        out.writeTag(field, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        out.writeUInt32NoTag(size);
+
+        if (key != null) {
+            // a length delimited field; the same bytes as writeString
+            out.writeByteArray(TAG_KEY, key);
+        }
+        final TagType type = typeOf(typed);
+        if (type != TagType.STRING) {
+            out.writeEnum(TAG_TYPE, type.getNumber());
+        }
+        // members of the value oneof are written even when they hold the default
+        switch (type) {
+        case DOUBLE:
+            out.writeDouble(TAG_VDOUBLE, (Double) typed);
+            break;
+        case LONG:
+            out.writeInt64(TAG_VLONG, (Long) typed);
+            break;
+        case BOOL:
+            out.writeBool(TAG_VBOOL, (Boolean) typed);
+            break;
+        case BINARY:
+            out.writeByteArray(TAG_VBYTES, (byte[]) typed);
+            break;
+        default:
+            out.writeString(TAG_VSTR, (String) typed);
+        }
+    }
+
+    private static int tagSize(byte[] key, Object typed) {
+        int size = (key != null ? CodedOutputStream.computeByteArraySize(TAG_KEY, key) : 0);
+        final TagType type = typeOf(typed);
+        if (type != TagType.STRING) {
+            size += CodedOutputStream.computeEnumSize(TAG_TYPE, type.getNumber());
+        }
+        switch (type) {
+        case DOUBLE:
+            return size + CodedOutputStream.computeDoubleSize(TAG_VDOUBLE, (Double) typed);
+        case LONG:
+            return size + CodedOutputStream.computeInt64Size(TAG_VLONG, (Long) typed);
+        case BOOL:
+            return size + CodedOutputStream.computeBoolSize(TAG_VBOOL, (Boolean) typed);
+        case BINARY:
+            return size + CodedOutputStream.computeByteArraySize(TAG_VBYTES, (byte[]) typed);
+        default:
+            return size + CodedOutputStream.computeStringSize(TAG_VSTR, (String) typed);
+        }
+    }
+
+    private static TagType typeOf(Object typed) {
+        if (typed instanceof String) {
+            return TagType.STRING;
+        } else if (typed instanceof Double) {
+            return TagType.DOUBLE;
+        } else if (typed instanceof Long) {
+            return TagType.LONG;
+        } else if (typed instanceof Boolean) {
+            return TagType.BOOL;
+        }
+        return TagType.BINARY;
+    }
+
+    /**
+     * The fields of the log being written, each with its encoded key,
+     * typed value and size.  Reused by a thread for all of its logs and
+     * cleared after each, so it doesn't keep values reachable.
+     */
+    private static final class TypedFields {
+        private byte[][] keys = new byte[8][];
+        private Object[] values = new Object[8];
+        private int[] sizes = new int[8];
+        private int count;
+
+        void add(byte[] key, Object value, int size) {
+            if (count == values.length) {
+                keys = Arrays.copyOf(keys, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+                sizes = Arrays.copyOf(sizes, count * 2);
+            }
+            keys[count] = key;
+            values[count] = value;
+            sizes[count] = size;
+            count++;
+        }
+
+        void clear() {
+            Arrays.fill(keys, 0, count, null);
+            Arrays.fill(values, 0, count, null);
+            count = 0;
+        }
+    }
+}
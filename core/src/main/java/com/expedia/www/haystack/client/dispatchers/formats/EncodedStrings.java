@@ -0,0 +1,159 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.formats;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang3.builder.RecursiveToStringStyle;
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+
+import com.expedia.www.haystack.client.metrics.Counter;
+import com.expedia.www.haystack.client.metrics.Gauge;
+import com.expedia.www.haystack.client.metrics.Metrics;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.expedia.www.haystack.client.metrics.Tag;
+
+import io.opentracing.tag.Tags;
+
+/**
+ * UTF-8 forms of the strings every exported span repeats: the service
+ * name, operation names, tag keys and log event names.  Encoders copy
+ * these bytes instead of encoding the same characters for every span.
+ *
+ * Pre-encoded strings are kept for the life of the cache.  Any other
+ * string no longer than <code>maxLength</code> is cached the first time
+ * it is encoded; once <code>maxEntries</code> strings are cached adding
+ * one evicts another, so a tag key or operation name with runaway
+ * cardinality costs an encode per span rather than unbounded memory.
+ * Lookups never take a lock.
+ */
+public class EncodedStrings {
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+    public static final int DEFAULT_MAX_LENGTH = 256;
+
+    /** Keys most instrumentation sets on most spans */
+    public static final List<String> COMMON_KEYS = Collections.unmodifiableList(Arrays.asList(
+            Tags.SPAN_KIND.getKey(),
+            Tags.ERROR.getKey(),
+            Tags.COMPONENT.getKey(),
+            Tags.HTTP_METHOD.getKey(),
+            Tags.HTTP_STATUS.getKey(),
+            Tags.HTTP_URL.getKey(),
+            Tags.PEER_HOSTNAME.getKey(),
+            Tags.PEER_SERVICE.getKey(),
+            Tags.DB_TYPE.getKey(),
+            Tags.DB_STATEMENT.getKey()));
+
+    private final int maxEntries;
+    private final int maxLength;
+    private final Map<String, byte[]> preEncoded;
+    private final ConcurrentMap<String, byte[]> cache;
+
+    private final Counter missCounter;
+    private final Counter evictedCounter;
+
+    public EncodedStrings() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_LENGTH, COMMON_KEYS);
+    }
+
+    public EncodedStrings(int maxEntries, int maxLength, Collection<String> preEncoded) {
+        this(new Metrics(new NoopMetricsRegistry()), maxEntries, maxLength, preEncoded);
+    }
+
+    public EncodedStrings(Metrics metrics, int maxEntries, int maxLength, Collection<String> preEncoded) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException(String.format("Invalid cache size: %s", maxEntries));
+        }
+
+        this.maxEntries = maxEntries;
+        this.maxLength = maxLength;
+        final Map<String, byte[]> encoded = new HashMap<>();
+        for (String value : preEncoded) {
+            encoded.put(value, value.getBytes(StandardCharsets.UTF_8));
+        }
+        this.preEncoded = Collections.unmodifiableMap(encoded);
+        this.cache = new ConcurrentHashMap<>();
+
+        this.missCounter = Counter.builder("encodedStrings").tag(new Tag("state", "miss")).register(metrics);
+        this.evictedCounter = Counter.builder("encodedStrings").tag(new Tag("state", "evicted")).register(metrics);
+
+        // held in the registry; but we don't need a local reference
+        Gauge.builder("encodedStrings", cache, Map::size).register(metrics);
+    }
+
+    @Override
+    public String toString() {
+        return new ReflectionToStringBuilder(this, RecursiveToStringStyle.JSON_STYLE)
+            .setExcludeFieldNames("preEncoded", "cache")
+            .toString();
+    }
+
+    /**
+     * Callers must not modify the returned array.
+     *
+     * @param value The string to encode
+     * @return the UTF-8 bytes of <code>value</code>
+     */
+    public byte[] encode(String value) {
+        byte[] encoded = preEncoded.get(value);
+        if (encoded == null) {
+            encoded = cache.get(value);
+        }
+        if (encoded != null) {
+            return encoded;
+        }
+
+        missCounter.increment();
+        encoded = value.getBytes(StandardCharsets.UTF_8);
+        if (value.length() <= maxLength && maxEntries > 0) {
+            if (cache.size() >= maxEntries) {
+                evict();
+            }
+            cache.put(value, encoded);
+        }
+        return encoded;
+    }
+
+    /**
+     * Removes whichever entry iteration reaches first; that is decided
+     * by hash, so no string stays cached because it was added early.
+     */
+    private void evict() {
+        final Iterator<String> keys = cache.keySet().iterator();
+        if (keys.hasNext()) {
+            keys.next();
+            keys.remove();
+            evictedCounter.increment();
+        }
+    }
+
+    /**
+     * @return the number of strings cached on demand, excluding the pre-encoded ones
+     */
+    public int size() {
+        return cache.size();
+    }
+}
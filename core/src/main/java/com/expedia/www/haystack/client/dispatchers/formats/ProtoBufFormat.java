@@ -16,33 +16,39 @@
  */
 package com.expedia.www.haystack.client.dispatchers.formats;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.util.stream.Collectors;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 import com.expedia.open.tracing.Log;
 import com.expedia.open.tracing.Tag;
 import com.expedia.open.tracing.Tag.TagType;
+import com.expedia.www.haystack.client.Ids;
 import com.expedia.www.haystack.client.LogData;
 import com.expedia.www.haystack.client.Span;
 import com.expedia.www.haystack.client.SpanContext;
 import com.google.protobuf.ByteString;
 
 public class ProtoBufFormat implements Format<com.expedia.open.tracing.Span> {
-    private static final Logger LOGGER = LoggerFactory.getLogger(ProtoBufFormat.class);
+    private final TagEncoders encoders;
+
+    public ProtoBufFormat() {
+        this(TagEncoders.defaults());
+    }
+
+    /**
+     * @param encoders How to encode tag values that aren't strings, numbers or booleans
+     */
+    public ProtoBufFormat(TagEncoders encoders) {
+        this.encoders = encoders;
+    }
 
     @Override
     public com.expedia.open.tracing.Span format(Span span) {
         com.expedia.open.tracing.Span.Builder builder = com.expedia.open.tracing.Span.newBuilder();
 
         SpanContext context = span.context();
-        builder.setTraceId(context.getTraceId().toString())
-            .setSpanId(context.getSpanId().toString())
-            .setParentSpanId(context.getParentId().toString());
+        builder.setTraceId(Ids.toString(context.getTraceIdHigh(), context.getTraceIdLow()))
+            .setSpanId(Ids.toString(context.getSpanIdHigh(), context.getSpanIdLow()))
+            .setParentSpanId(Ids.toString(context.getParentIdHigh(), context.getParentIdLow()));
 
         builder.setServiceName(span.getServiceName())
             .setOperationName(span.getOperatioName());
@@ -84,35 +90,22 @@ public class ProtoBufFormat implements Format<com.expedia.open.tracing.Span> {
     protected Tag buildTag(String key, Object value) {
         Tag.Builder builder = Tag.newBuilder().setKey(key);
 
-        if (value == null) {
-            // just a message collected; adding an empty payload
-            builder.setType(TagType.STRING);
-            builder.setVStr(new String());
-        } else if (value instanceof String) {
+        final Object typed = encoders.typed(value);
+        if (typed instanceof String) {
             builder.setType(TagType.STRING);
-            builder.setVStr((String) value);
-        } else if (value instanceof Double || value instanceof Float) {
+            builder.setVStr((String) typed);
+        } else if (typed instanceof Double) {
             builder.setType(TagType.DOUBLE);
-            builder.setVDouble(((Number) value).doubleValue());
-        } else if (value instanceof Long || value instanceof Integer || value instanceof Short) {
+            builder.setVDouble((Double) typed);
+        } else if (typed instanceof Long) {
             builder.setType(TagType.LONG);
-            builder.setVLong(((Number) value).longValue());
-        } else if (value instanceof Boolean) {
+            builder.setVLong((Long) typed);
+        } else if (typed instanceof Boolean) {
             builder.setType(TagType.BOOL);
-            builder.setVBool((Boolean) value);
+            builder.setVBool((Boolean) typed);
         } else {
             builder.setType(TagType.BINARY);
-
-            try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-                try (ObjectOutputStream os = new ObjectOutputStream(out)) {
-                    os.writeObject(value);
-                    builder.setVBytes(ByteString.copyFrom(out.toByteArray()));
-                }
-            } catch (IOException e) {
-                LOGGER.warn("Conversion of tag to binary failed with exception: {}", e);
-                // can't do much so set it to an EMPTY payload
-                builder.setVBytes(ByteString.EMPTY);
-            }
+            builder.setVBytes(ByteString.copyFrom((byte[]) typed));
         }
 
         return builder.build();
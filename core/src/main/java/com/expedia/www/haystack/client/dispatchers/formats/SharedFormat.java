@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.formats;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.expedia.www.haystack.client.Span;
+
+/**
+ * Formats each span once for every client that shares this instance.
+ *
+ * The first client to format a span stores the result against it and
+ * the others reuse it while the span is still referenced, e.g. queued
+ * in another dispatcher.  Entries are held weakly so they go away with
+ * their span.  Results are shared between threads and must be treated
+ * as immutable.
+ *
+ * @param <R> The formatted type
+ */
+public class SharedFormat<R> implements Format<R> {
+    private final Format<R> delegate;
+    private final Map<Span, R> formatted;
+
+    public SharedFormat(Format<R> delegate) {
+        this.delegate = delegate;
+        this.formatted = new WeakHashMap<>();
+    }
+
+    @Override
+    public R format(Span span) {
+        synchronized (formatted) {
+            final R existing = formatted.get(span);
+            if (existing != null) {
+                return existing;
+            }
+        }
+        // format outside the lock; a concurrent caller may do the same work once
+        final R result = delegate.format(span);
+        synchronized (formatted) {
+            final R existing = formatted.putIfAbsent(span, result);
+            return (existing != null ? existing : result);
+        }
+    }
+
+    /**
+     * @return the format doing the work
+     */
+    public Format<R> getDelegate() {
+        return delegate;
+    }
+}
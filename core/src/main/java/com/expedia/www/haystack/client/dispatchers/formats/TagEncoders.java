@@ -0,0 +1,316 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.formats;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * Encoders for tag values that are not strings, numbers the agent
+ * knows, or booleans; the bytes are sent as a <code>BINARY</code> tag.
+ *
+ * Encoders are looked up by the value's class; when none is registered
+ * for the class itself the most recently registered encoder for one of
+ * its supertypes is used, and the choice is remembered per class.  A
+ * value nothing can encode is sent as a string tag holding its
+ * <code>toString()</code>.  Java serialization is only used when it
+ * was asked for with {@link Builder#withJavaSerialization()}.
+ *
+ * The defaults write <code>byte[]</code> and <code>ByteBuffer</code>
+ * as they are, enums as their UTF-8 name, <code>BigDecimal</code> as
+ * its UTF-8 string and <code>BigInteger</code> as its two's complement
+ * bytes.  Primitive arrays, and collections whose elements are all of
+ * one primitive kind, are written as packed protobuf values: zigzag
+ * varints for integral numbers, little endian doubles for floating
+ * point, a byte per boolean and length prefixed UTF-8 for strings.
+ */
+public class TagEncoders {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TagEncoders.class);
+
+    private static final Encoder<Object> UNSUPPORTED = (value) -> null;
+
+    @FunctionalInterface
+    public interface Encoder<T> {
+        /**
+         * @param value The tag value
+         * @return the encoded value, or <code>null</code> if it can't be encoded
+         * @throws IOException if encoding fails
+         */
+        byte[] encode(T value) throws IOException;
+    }
+
+    private final List<Map.Entry<Class<?>, Encoder<?>>> encoders;
+    private final ConcurrentMap<Class<?>, Encoder<Object>> resolved;
+
+    private TagEncoders(List<Map.Entry<Class<?>, Encoder<?>>> encoders) {
+        this.encoders = encoders;
+        this.resolved = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return the default encoders, without Java serialization
+     */
+    public static TagEncoders defaults() {
+        return new Builder().build();
+    }
+
+    /**
+     * @param value The tag value
+     * @return the encoded value, or <code>null</code> when no encoder can encode it
+     */
+    public byte[] encode(Object value) {
+        final Encoder<Object> encoder = resolved.computeIfAbsent(value.getClass(), this::resolve);
+        try {
+            return encoder.encode(value);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Conversion of tag to binary failed with exception: {}", e);
+            // can't do much so set it to an EMPTY payload
+            return new byte[0];
+        }
+    }
+
+    /**
+     * Converts a tag value to the Java type of the field it is sent in:
+     * a <code>String</code>, <code>Double</code>, <code>Long</code> or
+     * <code>Boolean</code>, or the <code>byte[]</code> of a binary tag.
+     * <code>null</code> is an empty string and a value no encoder can
+     * encode is its <code>toString()</code>.  Every format types tags
+     * with this, so they agree on the wire.
+     *
+     * @param value The tag value
+     * @return the typed value
+     */
+    public Object typed(Object value) {
+        if (value == null) {
+            // just a message collected; adding an empty payload
+            return "";
+        } else if (value instanceof String || value instanceof Double || value instanceof Long || value instanceof Boolean) {
+            return value;
+        } else if (value instanceof Float) {
+            return ((Number) value).doubleValue();
+        } else if (value instanceof Integer || value instanceof Short) {
+            return ((Number) value).longValue();
+        }
+
+        final byte[] encoded = encode(value);
+        return (encoded != null ? encoded : String.valueOf(value));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Encoder<Object> resolve(Class<?> type) {
+        for (Map.Entry<Class<?>, Encoder<?>> entry : encoders) {
+            if (entry.getKey() == type) {
+                return (Encoder<Object>) entry.getValue();
+            }
+        }
+        // the latest registration wins among supertypes
+        for (int i = encoders.size() - 1; i >= 0; i--) {
+            final Map.Entry<Class<?>, Encoder<?>> entry = encoders.get(i);
+            if (entry.getKey().isAssignableFrom(type)) {
+                return (Encoder<Object>) entry.getValue();
+            }
+        }
+        return UNSUPPORTED;
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(ByteBuffer value) {
+        final byte[] bytes = new byte[value.remaining()];
+        // leave the caller's position alone
+        value.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private interface PackedWriter {
+        void write(CodedOutputStream out) throws IOException;
+    }
+
+    private static byte[] packed(PackedWriter writer) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        writer.write(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] collection(Collection<?> values) throws IOException {
+        if (values.isEmpty()) {
+            return new byte[0];
+        }
+        final Class<?> kind = kindOf(values.iterator().next());
+        for (Object value : values) {
+            if (value == null || kindOf(value) != kind) {
+                // mixed or unknown elements; sent as a string
+                return null;
+            }
+        }
+        if (kind == Long.class) {
+            return packed((out) -> {
+                    for (Object value : values) {
+                        out.writeSInt64NoTag(((Number) value).longValue());
+                    }
+                });
+        } else if (kind == Double.class) {
+            return packed((out) -> {
+                    for (Object value : values) {
+                        out.writeDoubleNoTag(((Number) value).doubleValue());
+                    }
+                });
+        } else if (kind == Boolean.class) {
+            return packed((out) -> {
+                    for (Object value : values) {
+                        out.writeBoolNoTag((Boolean) value);
+                    }
+                });
+        } else if (kind == String.class) {
+            return packed((out) -> {
+                    for (Object value : values) {
+                        out.writeStringNoTag((String) value);
+                    }
+                });
+        }
+        return null;
+    }
+
+    private static Class<?> kindOf(Object value) {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return Long.class;
+        } else if (value instanceof Double || value instanceof Float) {
+            return Double.class;
+        } else if (value instanceof Boolean) {
+            return Boolean.class;
+        } else if (value instanceof String) {
+            return String.class;
+        }
+        return null;
+    }
+
+    private static byte[] serialized(Serializable value) throws IOException {
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            try (ObjectOutputStream os = new ObjectOutputStream(out)) {
+                os.writeObject(value);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    public static final class Builder {
+        private final Map<Class<?>, Encoder<?>> encoders = new LinkedHashMap<>();
+        private boolean javaSerialization = false;
+
+        public Builder() {
+            withEncoder(byte[].class, (value) -> value);
+            withEncoder(ByteBuffer.class, TagEncoders::bytes);
+            withEncoder(Enum.class, (value) -> utf8(value.name()));
+            withEncoder(BigDecimal.class, (value) -> utf8(value.toString()));
+            withEncoder(BigInteger.class, BigInteger::toByteArray);
+            withEncoder(Collection.class, TagEncoders::collection);
+            withEncoder(long[].class, (values) -> packed((out) -> {
+                        for (long value : values) {
+                            out.writeSInt64NoTag(value);
+                        }
+                    }));
+            withEncoder(int[].class, (values) -> packed((out) -> {
+                        for (int value : values) {
+                            out.writeSInt64NoTag(value);
+                        }
+                    }));
+            withEncoder(short[].class, (values) -> packed((out) -> {
+                        for (short value : values) {
+                            out.writeSInt64NoTag(value);
+                        }
+                    }));
+            withEncoder(double[].class, (values) -> packed((out) -> {
+                        for (double value : values) {
+                            out.writeDoubleNoTag(value);
+                        }
+                    }));
+            withEncoder(float[].class, (values) -> packed((out) -> {
+                        for (float value : values) {
+                            out.writeDoubleNoTag(value);
+                        }
+                    }));
+            withEncoder(boolean[].class, (values) -> packed((out) -> {
+                        for (boolean value : values) {
+                            out.writeBoolNoTag(value);
+                        }
+                    }));
+        }
+
+        /**
+         * Registers an encoder for a type and its subtypes, replacing any
+         * registered for the same type.
+         *
+         * @param type The type of tag value to encode
+         * @param encoder How to encode it
+         * @return this builder
+         */
+        public <T> Builder withEncoder(Class<T> type, Encoder<? super T> encoder) {
+            // re-registering moves the type to the end so it takes precedence
+            encoders.remove(type);
+            encoders.put(type, encoder);
+            return this;
+        }
+
+        /**
+         * Falls back to Java serialization for <code>Serializable</code>
+         * values no other encoder handles.  This is slow and the output
+         * is large; prefer registering an encoder for the type.
+         *
+         * @return this builder
+         */
+        public Builder withJavaSerialization() {
+            this.javaSerialization = true;
+            return this;
+        }
+
+        public TagEncoders build() {
+            final List<Map.Entry<Class<?>, Encoder<?>>> registered = new ArrayList<>();
+            if (javaSerialization) {
+                // registered first so every other encoder takes precedence
+                registered.add(new SimpleImmutableEntry<>(Serializable.class, (Encoder<Serializable>) TagEncoders::serialized));
+            }
+            for (Map.Entry<Class<?>, Encoder<?>> entry : encoders.entrySet()) {
+                registered.add(new SimpleImmutableEntry<>(entry));
+            }
+            return new TagEncoders(Collections.unmodifiableList(registered));
+        }
+    }
+}
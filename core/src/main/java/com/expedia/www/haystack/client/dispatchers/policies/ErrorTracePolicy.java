@@ -0,0 +1,53 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.policies;
+
+import java.util.List;
+
+import com.expedia.www.haystack.client.Span;
+
+import io.opentracing.tag.Tags;
+
+/**
+ * Keeps any trace with a span tagged as an error.
+ */
+public class ErrorTracePolicy implements TracePolicy {
+
+    @Override
+    public boolean keep(List<Span> spans) {
+        for (Span span : spans) {
+            if (isError(span)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param span The span to check
+     * @return <code>true</code> if the span has the error tag set to true
+     */
+    public static boolean isError(Span span) {
+        final Object error = span.getTags().get(Tags.ERROR.getKey());
+        return Boolean.TRUE.equals(error) || "true".equals(error);
+    }
+
+    @Override
+    public String toString() {
+        return "ErrorTracePolicy";
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.policies;
+
+import java.util.List;
+
+import com.expedia.www.haystack.client.Span;
+
+/**
+ * Keeps any trace with a span that took at least the threshold.
+ */
+public class LatencyTracePolicy implements TracePolicy {
+    private final long thresholdMicros;
+
+    /**
+     * @param thresholdMicros The duration, in microseconds, at which a span is considered slow
+     */
+    public LatencyTracePolicy(long thresholdMicros) {
+        this.thresholdMicros = thresholdMicros;
+    }
+
+    @Override
+    public boolean keep(List<Span> spans) {
+        for (Span span : spans) {
+            final Long duration = span.getDuration();
+            if (duration != null && duration >= thresholdMicros) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LatencyTracePolicy{thresholdMicros=%s}", thresholdMicros);
+    }
+
+    /**
+     * @return the thresholdMicros
+     */
+    public long getThresholdMicros() {
+        return thresholdMicros;
+    }
+}
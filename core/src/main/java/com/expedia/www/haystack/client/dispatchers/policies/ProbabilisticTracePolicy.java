@@ -0,0 +1,50 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.policies;
+
+import java.util.List;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.SpanContext;
+import com.expedia.www.haystack.client.samplers.ProbabilisticSampler;
+
+/**
+ * Keeps a fixed fraction of traces, chosen by trace id so every process
+ * applying the same rate keeps the same traces.
+ */
+public class ProbabilisticTracePolicy implements TracePolicy {
+    private final ProbabilisticSampler sampler;
+
+    /**
+     * @param rate The fraction of traces to keep, between 0 and 1
+     */
+    public ProbabilisticTracePolicy(double rate) {
+        this.sampler = new ProbabilisticSampler(rate);
+    }
+
+    @Override
+    public boolean keep(List<Span> spans) {
+        final Span first = spans.get(0);
+        final SpanContext context = first.context();
+        return sampler.sample(first.getOperatioName(), context.getTraceIdHigh(), context.getTraceIdLow());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ProbabilisticTracePolicy{rate=%s}", sampler.getRate());
+    }
+}
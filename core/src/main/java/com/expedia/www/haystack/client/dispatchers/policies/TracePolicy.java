@@ -0,0 +1,35 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.policies;
+
+import java.util.List;
+
+import com.expedia.www.haystack.client.Span;
+
+/**
+ * Tail sampling decision for a trace whose spans have been buffered by a
+ * <code>TailSamplingDispatcher</code>.  Called with the dispatcher's
+ * buffer lock held, so implementations should only inspect the spans.
+ */
+public interface TracePolicy {
+
+    /**
+     * @param spans The finished spans seen for the trace, never empty
+     * @return <code>true</code> if the trace should be forwarded
+     */
+    boolean keep(List<Span> spans);
+}
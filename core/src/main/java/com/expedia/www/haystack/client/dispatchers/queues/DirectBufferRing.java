@@ -0,0 +1,266 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.queues;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.expedia.www.haystack.client.dispatchers.queues.RingBufferQueue.PaddedAtomicLong;
+
+/**
+ * Bounded, lock-free ring of fixed size slots carved out of a single
+ * direct <code>ByteBuffer</code>, for queueing encoded spans off the
+ * heap.
+ *
+ * A producer claims a slot, encodes a span straight into it and
+ * publishes the length it wrote; a consumer takes the oldest published
+ * slot, reads it in place and releases it back to the producers.  Slots
+ * are handed over with the same per slot sequence numbers as
+ * {@link RingBufferQueue}, so neither side takes a lock and the only
+ * allocation is the arena itself, made once up front: the memory held
+ * by queued spans is fixed however large the backlog grows.
+ *
+ * A span larger than a slot doesn't fit; its producer abandons the
+ * slot, which consumers skip.  The slot count is rounded up to a power
+ * of two, and at least two.  The buffers returned for a slot are only valid until it is
+ * published or released.
+ */
+public class DirectBufferRing {
+
+    private final int capacity;
+    private final int mask;
+    private final int slotBytes;
+    private final ByteBuffer arena;
+    private final ByteBuffer[] writeViews;
+    private final ByteBuffer[] readViews;
+    private final int[] lengths;
+    private final AtomicLongArray sequences;
+    private final WaitStrategy waitStrategy;
+
+    private final PaddedAtomicLong head = new PaddedAtomicLong();
+    private final PaddedAtomicLong tail = new PaddedAtomicLong();
+
+    public DirectBufferRing(int slots, int slotBytes, WaitStrategy waitStrategy) {
+        if (slots < 1 || slots > (1 << 30)) {
+            throw new IllegalArgumentException(String.format("Invalid slot count: %s", slots));
+        }
+        // a slot taken by a consumer is only told apart from a free one with two or more
+        this.capacity = slots <= 2 ? 2 : Integer.highestOneBit(slots - 1) << 1;
+        if (slotBytes < 1 || (long) capacity * slotBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format("Invalid slot size: %s bytes for %s slots", slotBytes, capacity));
+        }
+
+        this.mask = capacity - 1;
+        this.slotBytes = slotBytes;
+        this.arena = ByteBuffer.allocateDirect(capacity * slotBytes);
+        this.writeViews = new ByteBuffer[capacity];
+        this.readViews = new ByteBuffer[capacity];
+        this.lengths = new int[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            final ByteBuffer view = arena.duplicate();
+            view.position(i * slotBytes);
+            view.limit((i + 1) * slotBytes);
+            writeViews[i] = view.slice();
+            readViews[i] = writeViews[i].asReadOnlyBuffer();
+            sequences.set(i, i);
+        }
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * Claims the next free slot for writing.
+     *
+     * @return the slot's position, or <code>-1</code> if every slot is in use
+     */
+    public long claim() {
+        while (true) {
+            final long position = tail.get();
+            final int index = (int) position & mask;
+            final long available = sequences.get(index) - position;
+            if (available == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+            } else if (available < 0) {
+                // the consumer hasn't freed this slot yet
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * @param position A position returned by {@link #claim()}
+     * @return the claimed slot, empty and positioned at its start
+     */
+    public ByteBuffer writable(long position) {
+        final ByteBuffer slot = writeViews[(int) position & mask];
+        slot.clear();
+        return slot;
+    }
+
+    /**
+     * Hands a written slot to the consumers.
+     *
+     * @param position A position returned by {@link #claim()}
+     * @param length The bytes written from the start of the slot
+     */
+    public void publish(long position, int length) {
+        if (length < 0 || length > slotBytes) {
+            throw new IllegalArgumentException(String.format("Invalid length: %s", length));
+        }
+        complete(position, length);
+    }
+
+    /**
+     * Gives up a claimed slot without writing to it; consumers skip it.
+     *
+     * @param position A position returned by {@link #claim()}
+     */
+    public void abandon(long position) {
+        complete(position, -1);
+    }
+
+    /**
+     * Copies <code>record</code> into the next free slot and publishes it.
+     *
+     * @param record The encoded span
+     * @return <code>true</code> if it was queued, <code>false</code> if the ring is full or it doesn't fit a slot
+     */
+    public boolean offer(byte[] record) {
+        if (record.length > slotBytes) {
+            return false;
+        }
+        final long position = claim();
+        if (position < 0) {
+            return false;
+        }
+        writable(position).put(record);
+        publish(position, record.length);
+        return true;
+    }
+
+    /**
+     * Takes the oldest published slot for reading; it stays out of reach
+     * of the producers until {@link #release(long)}.
+     *
+     * @return the slot's position, or <code>-1</code> if nothing is published
+     */
+    public long poll() {
+        while (true) {
+            final long position = head.get();
+            final int index = (int) position & mask;
+            final long available = sequences.get(index) - (position + 1);
+            if (available == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    if (lengths[index] >= 0) {
+                        return position;
+                    }
+                    // abandoned by its producer
+                    release(position);
+                }
+            } else if (available < 0) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * @param timeout How long to wait for a published slot
+     * @param unit The unit of <code>timeout</code>
+     * @return the slot's position, or <code>-1</code> if nothing was published in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public long poll(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long position;
+        while ((position = poll()) < 0) {
+            if (deadline - System.nanoTime() <= 0) {
+                return -1;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            waitStrategy.idle();
+        }
+        return position;
+    }
+
+    /**
+     * @param position A position returned by {@link #poll()}
+     * @return a read-only view of the slot's record
+     */
+    public ByteBuffer readable(long position) {
+        final int index = (int) position & mask;
+        final ByteBuffer slot = readViews[index];
+        slot.limit(lengths[index]);
+        slot.position(0);
+        return slot;
+    }
+
+    /**
+     * Hands a slot taken by {@link #poll()} back to the producers.
+     *
+     * @param position A position returned by {@link #poll()}
+     */
+    public void release(long position) {
+        sequences.lazySet((int) position & mask, position + capacity);
+    }
+
+    private void complete(long position, int length) {
+        final int index = (int) position & mask;
+        lengths[index] = length;
+        // publishes the slot, and the length written before it, to the consumer
+        sequences.lazySet(index, position + 1);
+    }
+
+    /**
+     * @return the number of claimed or published slots
+     */
+    public int size() {
+        // read the head first so the difference never goes below what was in the ring
+        final long consumed = head.get();
+        final long produced = tail.get();
+        return (int) Math.max(0, Math.min(capacity, produced - consumed));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return the slot count after rounding up
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the largest record a slot holds
+     */
+    public int getSlotBytes() {
+        return slotBytes;
+    }
+
+    /**
+     * @return the off-heap bytes held by the ring
+     */
+    public int getArenaBytes() {
+        return arena.capacity();
+    }
+}
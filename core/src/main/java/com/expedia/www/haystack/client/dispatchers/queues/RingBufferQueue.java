@@ -0,0 +1,253 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.queues;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded, lock-free <code>BlockingQueue</code> over a preallocated ring
+ * of slots.
+ *
+ * Each slot carries a sequence number telling producers and consumers
+ * whose turn it is; claiming a position is a single CAS on the tail (or
+ * head) and publishing is an ordered write of the slot's sequence, so
+ * neither side ever takes a lock.  Built for many request threads
+ * offering spans and one sender draining them, but consumers also claim
+ * with a CAS so several senders may share it.  The head and tail live on
+ * their own cache lines to keep producers and the consumer from false
+ * sharing.
+ *
+ * The blocking operations wait using the configured
+ * <code>WaitStrategy</code> instead of a condition.  The capacity is
+ * rounded up to a power of two.  Iteration returns a weakly consistent
+ * snapshot.
+ */
+public class RingBufferQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    private final int capacity;
+    private final int mask;
+    private final Object[] slots;
+    private final AtomicLongArray sequences;
+    private final WaitStrategy waitStrategy;
+
+    private final PaddedAtomicLong head = new PaddedAtomicLong();
+    private final PaddedAtomicLong tail = new PaddedAtomicLong();
+
+    public RingBufferQueue(int capacity, WaitStrategy waitStrategy) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException(String.format("Invalid capacity: %s", capacity));
+        }
+
+        this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.slots = new Object[this.capacity];
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.waitStrategy = waitStrategy;
+    }
+
+    @Override
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+
+        while (true) {
+            final long position = tail.get();
+            final int index = (int) position & mask;
+            final long available = sequences.get(index) - position;
+            if (available == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots[index] = e;
+                    // publishes the slot to the consumer
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+            } else if (available < 0) {
+                // the consumer hasn't freed this slot yet
+                return false;
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        while (true) {
+            final long position = head.get();
+            final int index = (int) position & mask;
+            final long available = sequences.get(index) - (position + 1);
+            if (available == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    final E e = (E) slots[index];
+                    slots[index] = null;
+                    // hands the slot back to producers one lap later
+                    sequences.lazySet(index, position + capacity);
+                    return e;
+                }
+            } else if (available < 0) {
+                return null;
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        final long position = head.get();
+        final int index = (int) position & mask;
+        if (sequences.get(index) != position + 1) {
+            return null;
+        }
+        return (E) slots[index];
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        while (!offer(e)) {
+            waitOrThrow();
+        }
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!offer(e)) {
+            if (deadline - System.nanoTime() <= 0) {
+                return false;
+            }
+            waitOrThrow();
+        }
+        return true;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        E e;
+        while ((e = poll()) == null) {
+            waitOrThrow();
+        }
+        return e;
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        E e;
+        while ((e = poll()) == null) {
+            if (deadline - System.nanoTime() <= 0) {
+                return null;
+            }
+            waitOrThrow();
+        }
+        return e;
+    }
+
+    private void waitOrThrow() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        waitStrategy.idle();
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        int drained = 0;
+        E e;
+        while (drained < maxElements && (e = poll()) != null) {
+            c.add(e);
+            drained++;
+        }
+        return drained;
+    }
+
+    @Override
+    public int size() {
+        // read the head first so the difference never goes below what was in the queue
+        final long consumed = head.get();
+        final long produced = tail.get();
+        return (int) Math.max(0, Math.min(capacity, produced - consumed));
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<E> iterator() {
+        final List<E> snapshot = new ArrayList<>();
+        final long end = tail.get();
+        for (long position = head.get(); position < end; position++) {
+            final int index = (int) position & mask;
+            if (sequences.get(index) == position + 1) {
+                final E e = (E) slots[index];
+                if (e != null) {
+                    snapshot.add(e);
+                }
+            }
+        }
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+
+    /**
+     * @return the capacity after rounding up to a power of two
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Keeps a hot counter on its own cache line; the unused fields fill
+     * the remainder of a 64 byte line after the value.
+     */
+    @SuppressWarnings("unused")
+    static final class PaddedAtomicLong extends AtomicLong {
+        private static final long serialVersionUID = 1L;
+
+        private volatile long p1, p2, p3, p4, p5, p6, p7;
+
+        long padding() {
+            return p1 + p2 + p3 + p4 + p5 + p6 + p7;
+        }
+    }
+}
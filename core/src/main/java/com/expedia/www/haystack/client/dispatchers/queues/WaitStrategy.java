@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.queues;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a thread waits on a <code>RingBufferQueue</code> that is empty (or
+ * full) before trying again.  Trades CPU for hand-off latency: spinning
+ * reacts fastest but burns a core, parking is the cheapest when idle.
+ */
+public interface WaitStrategy {
+
+    /**
+     * Called each time an attempt found nothing to do.
+     */
+    void idle();
+
+    /**
+     * @return a strategy that retries immediately
+     */
+    static WaitStrategy busySpin() {
+        return () -> { };
+    }
+
+    /**
+     * @return a strategy that gives up the rest of the time slice between attempts
+     */
+    static WaitStrategy yielding() {
+        return Thread::yield;
+    }
+
+    /**
+     * @param parkNanos How long to park between attempts
+     * @return a strategy that parks the thread between attempts
+     */
+    static WaitStrategy parking(long parkNanos) {
+        return () -> LockSupport.parkNanos(parkNanos);
+    }
+
+    /**
+     * @return a strategy that parks for 100 microseconds between attempts
+     */
+    static WaitStrategy parking() {
+        return parking(TimeUnit.MICROSECONDS.toNanos(100));
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.idgenerators;
+
+import java.util.UUID;
+
+/**
+ * Source of the random 128 bit identifiers used for trace and span ids.
+ *
+ * The two halves are requested separately so callers that keep ids as
+ * primitives never need to allocate; implementations must be safe to
+ * call from many threads at once.
+ */
+public interface IdGenerator {
+
+    /**
+     * @return The most significant 64 bits of a new identifier
+     */
+    long nextMostSignificantBits();
+
+    /**
+     * @return The least significant 64 bits of a new identifier
+     */
+    long nextLeastSignificantBits();
+
+    /**
+     * Generates a new identifier as a <code>UUID</code>.
+     *
+     * @return A new random identifier
+     */
+    default UUID generate() {
+        return new UUID(nextMostSignificantBits(), nextLeastSignificantBits());
+    }
+
+    /**
+     * Stamps the version 4 marker into the most significant bits so
+     * generated ids look the same as those from <code>UUID.randomUUID()</code>.
+     *
+     * @param random 64 random bits
+     * @return The bits with the UUID version set
+     */
+    static long versionBits(long random) {
+        return (random & 0xffffffffffff0fffL) | 0x0000000000004000L;
+    }
+
+    /**
+     * Stamps the IETF variant marker into the least significant bits so
+     * generated ids look the same as those from <code>UUID.randomUUID()</code>.
+     *
+     * @param random 64 random bits
+     * @return The bits with the UUID variant set
+     */
+    static long variantBits(long random) {
+        return (random & 0x3fffffffffffffffL) | 0x8000000000000000L;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.idgenerators;
+
+import java.security.SecureRandom;
+
+/**
+ * <code>IdGenerator</code> backed by a shared <code>SecureRandom</code>, the
+ * same source <code>UUID.randomUUID()</code> uses.
+ *
+ * Use this when ids must be unpredictable; it is considerably slower
+ * and contends under many threads.
+ */
+public class SecureRandomIdGenerator implements IdGenerator {
+    private final SecureRandom random;
+
+    public SecureRandomIdGenerator() {
+        this(new SecureRandom());
+    }
+
+    public SecureRandomIdGenerator(SecureRandom random) {
+        this.random = random;
+    }
+
+    @Override
+    public long nextMostSignificantBits() {
+        return IdGenerator.versionBits(random.nextLong());
+    }
+
+    @Override
+    public long nextLeastSignificantBits() {
+        return IdGenerator.variantBits(random.nextLong());
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.idgenerators;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Default <code>IdGenerator</code> backed by <code>ThreadLocalRandom</code>.
+ *
+ * Each thread draws from its own non-blocking random source so many
+ * request threads creating spans never contend with each other.  The
+ * ids are not suitable for anything that needs to be unguessable.
+ */
+public class ThreadLocalRandomIdGenerator implements IdGenerator {
+
+    @Override
+    public long nextMostSignificantBits() {
+        return IdGenerator.versionBits(ThreadLocalRandom.current().nextLong());
+    }
+
+    @Override
+    public long nextLeastSignificantBits() {
+        return IdGenerator.variantBits(ThreadLocalRandom.current().nextLong());
+    }
+}
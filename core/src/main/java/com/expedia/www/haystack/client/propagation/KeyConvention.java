@@ -17,6 +17,7 @@
 package com.expedia.www.haystack.client.propagation;
 
 import java.util.Collection;
+import java.util.Collections;
 
 /**
  * Encapsulates the various key names and prefixes used to propagate a
@@ -80,4 +81,26 @@ public interface KeyConvention {
      * @return The collection of keys used for parent-id
      */
     Collection<String> parentIdKeyAliases();
+
+    /**
+     * Provides the key used to propagate the sampling decision; a
+     * <code>null</code> key disables propagating the decision and
+     * every extracted context is treated as sampled.
+     *
+     * @return The key used to propagate the sampling decision
+     */
+    default String sampledKey() {
+        return null;
+    }
+
+    /**
+     * Provides the key names used to describe the sampling decision in
+     * a carrier.  This list should include the value returned by
+     * <code>sampledKey()</code>.
+     *
+     * @return The collection of keys used for the sampling decision
+     */
+    default Collection<String> sampledKeyAliases() {
+        return Collections.emptyList();
+    }
 }
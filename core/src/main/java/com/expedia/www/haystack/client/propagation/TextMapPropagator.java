@@ -18,17 +18,20 @@ package com.expedia.www.haystack.client.propagation;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.UUID;
 
 import org.apache.commons.lang3.builder.RecursiveToStringStyle;
 import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
 
+import com.expedia.www.haystack.client.Ids;
 import com.expedia.www.haystack.client.SpanContext;
 
 import io.opentracing.propagation.TextMap;
 
 public class TextMapPropagator implements Injector<TextMap>, Extractor<TextMap> {
 
+    private static final String SAMPLED = "1";
+    private static final String NOT_SAMPLED = "0";
+
     private final KeyConvention convention;
     private final TextMapCodex keyCodex;
     private final TextMapCodex valueCodex;
@@ -63,15 +66,29 @@ public class TextMapPropagator implements Injector<TextMap>, Extractor<TextMap>
     }
 
 
+    /**
+     * Callers that predate sampling propagate no decision; everything
+     * they send was recorded so the trace is treated as sampled.
+     */
+    private static boolean isSampled(String value) {
+        if (value == null) {
+            return true;
+        }
+        return !(NOT_SAMPLED.equals(value.trim()) || "false".equalsIgnoreCase(value.trim()));
+    }
+
     private void put(TextMap carrier, Object key, Object value) {
         carrier.put(keyCodex.encode(key), valueCodex.encode(value));
     }
 
     @Override
     public void inject(SpanContext context, TextMap carrier) {
-        put(carrier, convention.traceIdKey(), context.getTraceId());
-        put(carrier, convention.spanIdKey(), context.getSpanId());
-        put(carrier, convention.parentIdKey(), context.getParentId());
+        put(carrier, convention.traceIdKey(), Ids.toString(context.getTraceIdHigh(), context.getTraceIdLow()));
+        put(carrier, convention.spanIdKey(), Ids.toString(context.getSpanIdHigh(), context.getSpanIdLow()));
+        put(carrier, convention.parentIdKey(), Ids.toString(context.getParentIdHigh(), context.getParentIdLow()));
+        if (convention.sampledKey() != null) {
+            put(carrier, convention.sampledKey(), context.isSampled() ? SAMPLED : NOT_SAMPLED);
+        }
 
         for (Map.Entry<String, String> baggage : context.baggageItems()) {
             put(carrier, prefixKey(convention.baggagePrefix(), baggage.getKey()), baggage.getValue());
@@ -83,6 +100,7 @@ public class TextMapPropagator implements Injector<TextMap>, Extractor<TextMap>
         String traceId = null;
         String parentId = null;
         String spanId = null;
+        String sampled = null;
 
         final Map<String,String> baggage = new HashMap<>();
 
@@ -96,6 +114,8 @@ public class TextMapPropagator implements Injector<TextMap>, Extractor<TextMap>
                 parentId = valueCodex.decode(entry.getValue());
             } else if (convention.spanIdKeyAliases().contains(keyCodex.decode(key))) {
                 spanId = valueCodex.decode(entry.getValue());
+            } else if (convention.sampledKeyAliases().contains(keyCodex.decode(key))) {
+                sampled = valueCodex.decode(entry.getValue());
             }
         }
 
@@ -104,9 +124,14 @@ public class TextMapPropagator implements Injector<TextMap>, Extractor<TextMap>
             return null;
         }
 
-        SpanContext context = new SpanContext(UUID.fromString(traceId),
-                                              UUID.fromString(spanId),
-                                              UUID.fromString(parentId));
+        // a missing parent means this is the root of the trace
+        SpanContext context = new SpanContext(Ids.parseMostSignificantBits(traceId),
+                                              Ids.parseLeastSignificantBits(traceId),
+                                              Ids.parseMostSignificantBits(spanId),
+                                              Ids.parseLeastSignificantBits(spanId),
+                                              (parentId == null ? 0l : Ids.parseMostSignificantBits(parentId)),
+                                              (parentId == null ? 0l : Ids.parseLeastSignificantBits(parentId)),
+                                              isSampled(sampled));
         return context.addBaggage(baggage);
     }
 
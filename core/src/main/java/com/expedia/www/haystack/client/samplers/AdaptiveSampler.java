@@ -0,0 +1,222 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.samplers;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.builder.RecursiveToStringStyle;
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+
+import com.expedia.www.haystack.client.Clock;
+import com.expedia.www.haystack.client.SystemClock;
+import com.expedia.www.haystack.client.dispatchers.RemoteDispatcher;
+import com.expedia.www.haystack.client.metrics.Counter;
+import com.expedia.www.haystack.client.metrics.Gauge;
+import com.expedia.www.haystack.client.metrics.Metrics;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.Tag;
+
+/**
+ * Probabilistic sampler whose rate follows the saturation of a
+ * <code>RemoteDispatcher</code>.
+ *
+ * Once per adjustment interval the sampler looks at how full the accept
+ * queue is and whether any spans were rejected since the last look.  Any
+ * rejection, or a queue above the target fill, halves the rate; a queue
+ * below half the target raises it again by a fixed step, up to the
+ * maximum.  Decisions are taken from the trace id exactly like
+ * <code>ProbabilisticSampler</code>, so shedding load drops whole traces
+ * instead of random spans from the tail of the queue.
+ *
+ * The sampler holds the dispatcher at a target saturation rather than
+ * at a target throughput in spans per second: the throughput that can
+ * be sustained is however fast the agent drains the queue, and a fill
+ * target follows it without a figure to configure and keep up to date.
+ * With a byte budget the fill is by count or by bytes, whichever is
+ * fuller.
+ */
+public class AdaptiveSampler implements Sampler {
+
+    private final RemoteDispatcher dispatcher;
+    private final Clock clock;
+    private final double minRate;
+    private final double maxRate;
+    private final double increaseStep;
+    private final double targetFillRatio;
+    private final long adjustIntervalNanos;
+
+    private final AtomicLong nextAdjustNanos;
+    private volatile double rate;
+    private volatile long threshold;
+    private long lastRejectedCount;
+
+    private final Counter decreaseCounter;
+    private final Counter increaseCounter;
+
+    public AdaptiveSampler(Metrics metrics, RemoteDispatcher dispatcher, Clock clock, double minRate, double maxRate,
+                           double increaseStep, double targetFillRatio, long adjustIntervalMillis) {
+        if (minRate < 0.0 || maxRate > 1.0 || minRate > maxRate) {
+            throw new IllegalArgumentException(String.format("Invalid sampling rates: min %s, max %s", minRate, maxRate));
+        }
+
+        this.dispatcher = dispatcher;
+        this.clock = clock;
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.increaseStep = increaseStep;
+        this.targetFillRatio = targetFillRatio;
+        this.adjustIntervalNanos = TimeUnit.MILLISECONDS.toNanos(adjustIntervalMillis);
+
+        this.nextAdjustNanos = new AtomicLong(clock.nanoTime() + adjustIntervalNanos);
+        this.lastRejectedCount = dispatcher.getRejectedCount();
+        setRate(maxRate);
+
+        this.decreaseCounter = Counter.builder("adjust").tag(new Tag("state", "decrease")).register(metrics);
+        this.increaseCounter = Counter.builder("adjust").tag(new Tag("state", "increase")).register(metrics);
+
+        // held in the registry; but we don't need a local reference
+        Gauge.builder("rate", this, AdaptiveSampler::getRate).register(metrics);
+    }
+
+    @Override
+    public String toString() {
+        return new ReflectionToStringBuilder(this, RecursiveToStringStyle.JSON_STYLE)
+            .setExcludeFieldNames("dispatcher", "clock", "nextAdjustNanos")
+            .toString();
+    }
+
+    @Override
+    public boolean sample(String operationName, long traceIdHigh, long traceIdLow) {
+        final long now = clock.nanoTime();
+        final long next = nextAdjustNanos.get();
+        if (now - next >= 0 && nextAdjustNanos.compareAndSet(next, now + adjustIntervalNanos)) {
+            // only the thread winning the CAS adjusts, so no further locking is needed
+            adjust();
+        }
+        return ProbabilisticSampler.sample(traceIdLow, threshold);
+    }
+
+    private void adjust() {
+        final long rejected = dispatcher.getRejectedCount();
+        final boolean rejecting = rejected != lastRejectedCount;
+        lastRejectedCount = rejected;
+
+        final double fill = dispatcher.getQueueFillRatio();
+        final double current = rate;
+        if (rejecting || fill > targetFillRatio) {
+            if (current > minRate) {
+                decreaseCounter.increment();
+                setRate(Math.max(minRate, current / 2));
+            }
+        } else if (fill < targetFillRatio / 2) {
+            if (current < maxRate) {
+                increaseCounter.increment();
+                setRate(Math.min(maxRate, current + increaseStep));
+            }
+        }
+    }
+
+    private void setRate(double rate) {
+        this.threshold = ProbabilisticSampler.threshold(rate);
+        this.rate = rate;
+    }
+
+    /**
+     * @return the current sampling rate
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    public static final class Builder {
+        private Metrics metrics;
+        private RemoteDispatcher dispatcher;
+        private Clock clock;
+        private double minRate;
+        private double maxRate;
+        private double increaseStep;
+        private double targetFillRatio;
+        private long adjustIntervalMillis;
+
+        public Builder(MetricsRegistry registry, RemoteDispatcher dispatcher) {
+            this(new Metrics(registry, Sampler.class.getName(), Arrays.asList(new Tag("type", "adaptive"))), dispatcher);
+        }
+
+        public Builder(Metrics metrics, RemoteDispatcher dispatcher) {
+            this.metrics = metrics;
+            this.dispatcher = dispatcher;
+            this.clock = new SystemClock();
+            this.minRate = 0.001;
+            this.maxRate = 1.0;
+            this.increaseStep = 0.05;
+            this.targetFillRatio = 0.5;
+            this.adjustIntervalMillis = TimeUnit.SECONDS.toMillis(1);
+        }
+
+        public Builder withClock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * @param minRate The rate never to go below, even when the dispatcher keeps rejecting
+         * @return this builder
+         */
+        public Builder withMinRate(double minRate) {
+            this.minRate = minRate;
+            return this;
+        }
+
+        /**
+         * @param maxRate The rate to start at and recover to
+         * @return this builder
+         */
+        public Builder withMaxRate(double maxRate) {
+            this.maxRate = maxRate;
+            return this;
+        }
+
+        /**
+         * @param increaseStep How much the rate recovers each interval the queue is below half the target fill
+         * @return this builder
+         */
+        public Builder withIncreaseStep(double increaseStep) {
+            this.increaseStep = increaseStep;
+            return this;
+        }
+
+        /**
+         * @param targetFillRatio The accept queue fill, between 0 and 1, above which the rate is lowered
+         * @return this builder
+         */
+        public Builder withTargetFillRatio(double targetFillRatio) {
+            this.targetFillRatio = targetFillRatio;
+            return this;
+        }
+
+        public Builder withAdjustIntervalMillis(long adjustIntervalMillis) {
+            this.adjustIntervalMillis = adjustIntervalMillis;
+            return this;
+        }
+
+        public AdaptiveSampler build() {
+            return new AdaptiveSampler(metrics, dispatcher, clock, minRate, maxRate, increaseStep, targetFillRatio, adjustIntervalMillis);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.samplers;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.builder.RecursiveToStringStyle;
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+
+import com.expedia.www.haystack.client.Clock;
+import com.expedia.www.haystack.client.SystemClock;
+import com.expedia.www.haystack.client.metrics.Counter;
+import com.expedia.www.haystack.client.metrics.Gauge;
+import com.expedia.www.haystack.client.metrics.Metrics;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.Tag;
+
+/**
+ * Samples each root operation name separately.
+ *
+ * A trace is recorded when the fallback sampler keeps it and the
+ * operation's own rate limit has room, so a few hot operations can't
+ * crowd out the rest.  Independently, every operation is guaranteed a
+ * minimum number of traces per interval even if the fallback would have
+ * dropped them, so rare operations are always seen.
+ *
+ * Operations are tracked in a table bounded to <code>maxOperations</code>;
+ * once full any new operation name shares a single overflow entry.  The
+ * hot path is a <code>ConcurrentHashMap</code> read and CAS based rate
+ * limiters, so deciding never takes a lock.
+ */
+public class PerOperationSampler implements Sampler {
+
+    private final Sampler fallback;
+    private final Clock clock;
+    private final double maxTracesPerSecond;
+    private final int minTracesPerInterval;
+    private final long intervalMillis;
+    private final int maxOperations;
+
+    private final ConcurrentMap<String, OperationLimits> operations;
+    private final AtomicInteger operationCount;
+    private final OperationLimits overflow;
+
+    private final Counter overflowCounter;
+    private final Counter guaranteedCounter;
+
+    public PerOperationSampler(Metrics metrics, Sampler fallback, Clock clock, double maxTracesPerSecond,
+                               int minTracesPerInterval, long intervalMillis, int maxOperations) {
+        if (maxOperations < 1) {
+            throw new IllegalArgumentException(String.format("Invalid operation limit: %s", maxOperations));
+        }
+
+        this.fallback = fallback;
+        this.clock = clock;
+        this.maxTracesPerSecond = maxTracesPerSecond;
+        this.minTracesPerInterval = minTracesPerInterval;
+        this.intervalMillis = intervalMillis;
+        this.maxOperations = maxOperations;
+
+        this.operations = new ConcurrentHashMap<>();
+        this.operationCount = new AtomicInteger();
+        this.overflow = new OperationLimits();
+
+        this.overflowCounter = Counter.builder("operations").tag(new Tag("state", "overflow")).register(metrics);
+        this.guaranteedCounter = Counter.builder("sample").tag(new Tag("state", "guaranteed")).register(metrics);
+
+        // held in the registry; but we don't need a local reference
+        Gauge.builder("operations", operationCount, AtomicInteger::get).register(metrics);
+    }
+
+    @Override
+    public String toString() {
+        return new ReflectionToStringBuilder(this, RecursiveToStringStyle.JSON_STYLE)
+            .setExcludeFieldNames("clock", "operations", "overflow")
+            .toString();
+    }
+
+    @Override
+    public boolean sample(String operationName, long traceIdHigh, long traceIdLow) {
+        final OperationLimits limits = limitsFor(operationName);
+
+        if (fallback.sample(operationName, traceIdHigh, traceIdLow) && limits.max.tryAcquire()) {
+            // sampled traces count towards the guaranteed minimum
+            limits.tryAcquireMin();
+            return true;
+        }
+        if (limits.tryAcquireMin()) {
+            guaranteedCounter.increment();
+            return true;
+        }
+        return false;
+    }
+
+    private OperationLimits limitsFor(String operationName) {
+        if (operationName == null) {
+            return overflow;
+        }
+        final OperationLimits existing = operations.get(operationName);
+        if (existing != null) {
+            return existing;
+        }
+        return register(operationName);
+    }
+
+    private OperationLimits register(String operationName) {
+        if (operationCount.get() >= maxOperations) {
+            overflowCounter.increment();
+            return overflow;
+        }
+
+        final OperationLimits created = new OperationLimits();
+        final OperationLimits prior = operations.putIfAbsent(operationName, created);
+        if (prior != null) {
+            return prior;
+        }
+        if (operationCount.incrementAndGet() > maxOperations) {
+            // lost the race for the last slot
+            operations.remove(operationName, created);
+            operationCount.decrementAndGet();
+            overflowCounter.increment();
+            return overflow;
+        }
+        return created;
+    }
+
+    /**
+     * @return the number of operation names currently tracked
+     */
+    public int getOperationCount() {
+        return operationCount.get();
+    }
+
+    private final class OperationLimits {
+        private final RateLimiter max;
+        private final RateLimiter min;
+
+        OperationLimits() {
+            this.max = new RateLimiter(clock, maxTracesPerSecond, Math.max(1, (int) Math.ceil(maxTracesPerSecond)));
+            if (minTracesPerInterval > 0) {
+                final double minPerSecond = minTracesPerInterval * (double) TimeUnit.SECONDS.toMillis(1) / intervalMillis;
+                this.min = new RateLimiter(clock, minPerSecond, minTracesPerInterval);
+            } else {
+                this.min = null;
+            }
+        }
+
+        boolean tryAcquireMin() {
+            return min != null && min.tryAcquire();
+        }
+    }
+
+    public static final class Builder {
+        private Metrics metrics;
+        private Sampler fallback;
+        private Clock clock;
+        private double maxTracesPerSecond;
+        private int minTracesPerInterval;
+        private long intervalMillis;
+        private int maxOperations;
+
+        public Builder(MetricsRegistry registry) {
+            this(new Metrics(registry, Sampler.class.getName(), Arrays.asList(new Tag("type", "peroperation"))));
+        }
+
+        public Builder(Metrics metrics) {
+            this.metrics = metrics;
+            this.fallback = new AlwaysSampler();
+            this.clock = new SystemClock();
+            this.maxTracesPerSecond = 10;
+            this.minTracesPerInterval = 1;
+            this.intervalMillis = TimeUnit.MINUTES.toMillis(1);
+            this.maxOperations = 1000;
+        }
+
+        /**
+         * @param fallback The sampler consulted before the per operation rate limit
+         * @return this builder
+         */
+        public Builder withFallback(Sampler fallback) {
+            this.fallback = fallback;
+            return this;
+        }
+
+        public Builder withClock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * @param maxTracesPerSecond The most traces recorded per second for each operation
+         * @return this builder
+         */
+        public Builder withMaxTracesPerSecond(double maxTracesPerSecond) {
+            this.maxTracesPerSecond = maxTracesPerSecond;
+            return this;
+        }
+
+        /**
+         * @param minTracesPerInterval The traces recorded for each operation every interval regardless of the fallback
+         * @param intervalMillis The interval the minimum applies to
+         * @return this builder
+         */
+        public Builder withMinTracesPerInterval(int minTracesPerInterval, long intervalMillis) {
+            this.minTracesPerInterval = minTracesPerInterval;
+            this.intervalMillis = intervalMillis;
+            return this;
+        }
+
+        /**
+         * @param maxOperations The most operation names tracked separately
+         * @return this builder
+         */
+        public Builder withMaxOperations(int maxOperations) {
+            this.maxOperations = maxOperations;
+            return this;
+        }
+
+        public PerOperationSampler build() {
+            return new PerOperationSampler(metrics, fallback, clock, maxTracesPerSecond, minTracesPerInterval, intervalMillis, maxOperations);
+        }
+    }
+}
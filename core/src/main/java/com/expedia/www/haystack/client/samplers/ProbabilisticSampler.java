@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.samplers;
+
+import org.apache.commons.lang3.builder.RecursiveToStringStyle;
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+
+/**
+ * Records a fixed fraction of traces.
+ *
+ * The decision is derived from the trace id rather than a separate
+ * random draw, so any process making the same decision for the same
+ * trace comes to the same answer.  The top two bits of the low half
+ * carry the UUID variant and are ignored.
+ */
+public class ProbabilisticSampler implements Sampler {
+
+    private static final long ID_MASK = 0x3fffffffffffffffL;
+
+    private final double rate;
+    private final long threshold;
+
+    /**
+     * @param rate The fraction of traces to record, between 0 and 1
+     */
+    public ProbabilisticSampler(double rate) {
+        if (rate < 0.0 || rate > 1.0) {
+            throw new IllegalArgumentException("Sampling rate must be between 0 and 1: " + rate);
+        }
+        this.rate = rate;
+        this.threshold = threshold(rate);
+    }
+
+    @Override
+    public boolean sample(String operationName, long traceIdHigh, long traceIdLow) {
+        return sample(traceIdLow, threshold);
+    }
+
+    /**
+     * @param rate The fraction of traces to record, between 0 and 1
+     * @return the threshold trace ids are compared against for the rate
+     */
+    static long threshold(double rate) {
+        return (long) (rate * (ID_MASK + 1.0));
+    }
+
+    static boolean sample(long traceIdLow, long threshold) {
+        return (traceIdLow & ID_MASK) < threshold;
+    }
+
+    @Override
+    public String toString() {
+        return new ReflectionToStringBuilder(this, RecursiveToStringStyle.JSON_STYLE)
+            .toString();
+    }
+
+    /**
+     * @return the rate
+     */
+    public double getRate() {
+        return rate;
+    }
+}
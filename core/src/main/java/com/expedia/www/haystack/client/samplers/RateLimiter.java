@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.samplers;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.expedia.www.haystack.client.Clock;
+
+/**
+ * Lock free rate limiter allowing a steady number of permits per second
+ * with a bounded burst.
+ *
+ * Rather than a token count refilled on a schedule it keeps the single
+ * time at which the bucket would next be empty; a permit is granted when
+ * moving that time forward by one interval keeps it within the burst
+ * window of now.  The whole state is one <code>AtomicLong</code>, so
+ * acquiring is a read, a comparison and a CAS.
+ */
+public class RateLimiter {
+
+    private final Clock clock;
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final AtomicLong emptyAt;
+
+    /**
+     * @param clock The clock to measure elapsed time with
+     * @param permitsPerSecond The steady rate of permits
+     * @param maxBurst The number of permits that may be taken at once after an idle period
+     */
+    public RateLimiter(Clock clock, double permitsPerSecond, int maxBurst) {
+        if (permitsPerSecond <= 0.0) {
+            throw new IllegalArgumentException("Permits per second must be positive: " + permitsPerSecond);
+        }
+        if (maxBurst < 1) {
+            throw new IllegalArgumentException("Max burst must be at least 1: " + maxBurst);
+        }
+        this.clock = clock;
+        this.intervalNanos = Math.max(1l, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.burstNanos = intervalNanos * maxBurst;
+        // start with a full bucket
+        this.emptyAt = new AtomicLong(clock.nanoTime() - burstNanos);
+    }
+
+    /**
+     * @return <code>true</code> if a permit was available and taken
+     */
+    public boolean tryAcquire() {
+        final long now = clock.nanoTime();
+        while (true) {
+            final long current = emptyAt.get();
+            final long next = Math.max(current, now - burstNanos) + intervalNanos;
+            if (next - now > 0) {
+                return false;
+            }
+            if (emptyAt.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.samplers;
+
+import com.expedia.www.haystack.client.Clock;
+import com.expedia.www.haystack.client.SystemClock;
+
+/**
+ * Records at most a fixed number of new traces per second, independent
+ * of how much traffic the service takes.
+ */
+public class RateLimitingSampler implements Sampler {
+
+    private final double tracesPerSecond;
+    private final RateLimiter limiter;
+
+    public RateLimitingSampler(double tracesPerSecond) {
+        this(new SystemClock(), tracesPerSecond);
+    }
+
+    public RateLimitingSampler(Clock clock, double tracesPerSecond) {
+        this.tracesPerSecond = tracesPerSecond;
+        this.limiter = new RateLimiter(clock, tracesPerSecond, Math.max(1, (int) Math.ceil(tracesPerSecond)));
+    }
+
+    @Override
+    public boolean sample(String operationName, long traceIdHigh, long traceIdLow) {
+        return limiter.tryAcquire();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RateLimitingSampler{tracesPerSecond=%s}", tracesPerSecond);
+    }
+
+    /**
+     * @return the tracesPerSecond
+     */
+    public double getTracesPerSecond() {
+        return tracesPerSecond;
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.samplers;
+
+/**
+ * Makes the head based decision on whether a new trace is recorded.
+ *
+ * The decision is only asked for when a trace is started; every span
+ * below the root inherits it through its <code>SpanContext</code>, in
+ * and across processes.  Implementations are called on request threads
+ * and must be safe to call concurrently and cheap.
+ */
+public interface Sampler {
+
+    /**
+     * @param operationName The operation name of the root span
+     * @param traceIdHigh The most significant bits of the new trace id
+     * @param traceIdLow The least significant bits of the new trace id
+     * @return <code>true</code> if the trace should be recorded
+     */
+    boolean sample(String operationName, long traceIdHigh, long traceIdLow);
+}
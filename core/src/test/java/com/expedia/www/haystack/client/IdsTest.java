@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IdsTest {
+
+    @Test
+    public void testToStringMatchesUUID() {
+        for (int i = 0; i < 1000; i++) {
+            UUID id = UUID.randomUUID();
+            Assert.assertEquals(id.toString(), Ids.toString(id.getMostSignificantBits(), id.getLeastSignificantBits()));
+        }
+        Assert.assertEquals(new UUID(0l, 0l).toString(), Ids.toString(0l, 0l));
+        Assert.assertEquals(new UUID(-1l, -1l).toString(), Ids.toString(-1l, -1l));
+    }
+
+    @Test
+    public void testWriteAscii() {
+        UUID id = UUID.randomUUID();
+        byte[] bytes = new byte[Ids.LENGTH + 2];
+        Ids.writeAscii(id.getMostSignificantBits(), id.getLeastSignificantBits(), bytes, 2);
+        Assert.assertEquals(id.toString(), new String(bytes, 2, Ids.LENGTH, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testParseRoundTrip() {
+        for (int i = 0; i < 1000; i++) {
+            UUID id = UUID.randomUUID();
+            Assert.assertEquals(id.getMostSignificantBits(), Ids.parseMostSignificantBits(id.toString()));
+            Assert.assertEquals(id.getLeastSignificantBits(), Ids.parseLeastSignificantBits(id.toString()));
+            Assert.assertEquals(id.getMostSignificantBits(), Ids.parseMostSignificantBits(id.toString().toUpperCase()));
+        }
+    }
+
+    @Test
+    public void testParseNonCanonical() {
+        UUID id = UUID.fromString("1-2-3-4-5");
+        Assert.assertEquals(id.getMostSignificantBits(), Ids.parseMostSignificantBits("1-2-3-4-5"));
+        Assert.assertEquals(id.getLeastSignificantBits(), Ids.parseLeastSignificantBits("1-2-3-4-5"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseInvalid() {
+        Ids.parseMostSignificantBits("zzzzzzzz-zzzz-zzzz-zzzz-zzzzzzzzzzzz");
+    }
+}
@@ -17,14 +17,19 @@
 package com.expedia.www.haystack.client;
 
 import java.util.Map;
+import java.util.UUID;
 
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
 import com.expedia.www.haystack.client.dispatchers.Dispatcher;
+import com.expedia.www.haystack.client.dispatchers.InMemoryDispatcher;
 import com.expedia.www.haystack.client.dispatchers.NoopDispatcher;
+import com.expedia.www.haystack.client.idgenerators.IdGenerator;
+import com.expedia.www.haystack.client.idgenerators.SecureRandomIdGenerator;
 import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.expedia.www.haystack.client.samplers.NeverSampler;
 
 import io.opentracing.References;
 
@@ -82,4 +87,74 @@ public class SpanBuilderTest {
         Assert.assertEquals(1l, tags.get("number-key"));
     }
 
+    @Test
+    public void testWithIdGenerator() {
+        tracer = new Tracer.Builder(new NoopMetricsRegistry(), "TestService", dispatcher)
+            .withIdGenerator(new IdGenerator() {
+                    @Override
+                    public long nextMostSignificantBits() {
+                        return 1l;
+                    }
+
+                    @Override
+                    public long nextLeastSignificantBits() {
+                        return 2l;
+                    }
+                })
+            .build();
+
+        Span parent = tracer.buildSpan("parent").start();
+        Span child = tracer.buildSpan("child").asChildOf(parent).start();
+
+        Assert.assertEquals(new UUID(1l, 2l), parent.context().getTraceId());
+        Assert.assertEquals(new UUID(1l, 2l), parent.context().getSpanId());
+        Assert.assertEquals(new UUID(1l, 2l), child.context().getSpanId());
+    }
+
+    @Test
+    public void testGeneratedIdsAreVersion4() {
+        Span span = tracer.buildSpan("default-generator").start();
+        Assert.assertEquals(4, span.context().getTraceId().version());
+        Assert.assertEquals(2, span.context().getTraceId().variant());
+
+        tracer = new Tracer.Builder(new NoopMetricsRegistry(), "TestService", dispatcher)
+            .withIdGenerator(new SecureRandomIdGenerator())
+            .build();
+        span = tracer.buildSpan("secure-generator").start();
+        Assert.assertEquals(4, span.context().getTraceId().version());
+        Assert.assertEquals(2, span.context().getTraceId().variant());
+    }
+
+    @Test
+    public void testUnsampledSpansAreNotDispatched() {
+        InMemoryDispatcher inMemory = new InMemoryDispatcher.Builder(new NoopMetricsRegistry()).build();
+        tracer = new Tracer.Builder(new NoopMetricsRegistry(), "TestService", inMemory)
+            .withSampler(new NeverSampler())
+            .build();
+
+        Span root = tracer.buildSpan("root").start();
+        Span child = tracer.buildSpan("child").asChildOf(root).start();
+
+        Assert.assertFalse(root.context().isSampled());
+        Assert.assertFalse(child.context().isSampled());
+
+        child.finish();
+        root.finish();
+
+        Assert.assertEquals(0, inMemory.getReceivedSpans().size());
+    }
+
+    @Test
+    public void testChildInheritsSamplingDecision() {
+        tracer = new Tracer.Builder(new NoopMetricsRegistry(), "TestService", dispatcher)
+            .withSampler(new NeverSampler())
+            .build();
+
+        // a sampled upstream decision wins over the local sampler
+        SpanContext upstream = new SpanContext(1l, 2l, 3l, 4l, 0l, 0l, true);
+        Span child = tracer.buildSpan("child").asChildOf(upstream).start();
+
+        Assert.assertTrue(child.context().isSampled());
+    }
+
 }
@@ -19,6 +19,10 @@ package com.expedia.www.haystack.client;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -29,6 +33,7 @@ import com.expedia.www.haystack.client.dispatchers.NoopDispatcher;
 import com.expedia.www.haystack.client.dispatchers.InMemoryDispatcher;
 import com.expedia.www.haystack.client.metrics.MetricsRegistry;
 import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.expedia.www.haystack.client.samplers.NeverSampler;
 
 public class SpanTest {
 
@@ -211,4 +216,62 @@ public class SpanTest {
         Assert.assertEquals(1, dispatcher.getFlushedSpans().size());
         Assert.assertEquals(1, dispatcher.getReceivedSpans().size());
     }
+
+    @Test
+    public void testConcurrentMutation() throws Exception {
+        final int threads = 8;
+        final int tagsPerThread = 1000;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < tagsPerThread; i++) {
+                        span.setTag(thread + "-" + i, i);
+                        span.log("event");
+                    }
+                    return null;
+                });
+        }
+        start.countDown();
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        span.finish();
+
+        Assert.assertEquals(threads * tagsPerThread, span.getTags().size());
+        Assert.assertEquals(threads * tagsPerThread, span.getLogs().size());
+        Assert.assertEquals(0, span.getErrors().size());
+    }
+
+    @Test
+    public void testDurationBeforeFinish() {
+        Span span = tracer.buildSpan("unfinished").withStartTimestamp(1l).start();
+
+        Assert.assertFalse(span.isFinished());
+        Assert.assertNull(span.getEndTime());
+        Assert.assertNull(span.getDuration());
+    }
+
+    @Test
+    public void testNonRecordingSpan() {
+        tracer = new Tracer.Builder(metrics, "TestService", dispatcher)
+            .withSampler(new NeverSampler())
+            .build();
+        Span span = tracer.buildSpan("unsampled").withTag("builder-key", "value").start();
+
+        span.setTag("string-key", "value");
+        span.log("event");
+        span.setBaggageItem("baggage-key", "baggage-value");
+        span.finish();
+        span.finish();
+
+        Assert.assertFalse(span.isRecording());
+        Assert.assertTrue(span.getTags().isEmpty());
+        Assert.assertTrue(span.getLogs().isEmpty());
+        Assert.assertTrue(span.getErrors().isEmpty());
+        Assert.assertEquals("baggage-value", span.getBaggageItem("baggage-key"));
+    }
 }
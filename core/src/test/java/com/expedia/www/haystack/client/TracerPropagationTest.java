@@ -66,10 +66,11 @@ public class TracerPropagationTest {
 
         tracer.inject(context, Format.Builtin.TEXT_MAP, carrier);
 
-        Assert.assertEquals(carrierValues.size(), 4);
+        Assert.assertEquals(carrierValues.size(), 5);
         Assert.assertEquals(carrierValues.get("Trace-ID"), traceId.toString());
         Assert.assertEquals(carrierValues.get("Span-ID"), spanId.toString());
         Assert.assertEquals(carrierValues.get("Parent-ID"), parentId.toString());
+        Assert.assertEquals(carrierValues.get("Sampled"), "1");
         Assert.assertEquals(carrierValues.get("Baggage-TEST"), "TEXT");
 
     }
@@ -87,7 +88,7 @@ public class TracerPropagationTest {
 
         tracer.inject(context, Format.Builtin.HTTP_HEADERS, carrier);
 
-        Assert.assertEquals(carrierValues.size(), 5);
+        Assert.assertEquals(carrierValues.size(), 6);
         Assert.assertEquals(carrierValues.get("Trace-ID"), traceId.toString());
         Assert.assertEquals(carrierValues.get("Span-ID"), spanId.toString());
         Assert.assertEquals(carrierValues.get("Parent-ID"), parentId.toString());
@@ -184,6 +185,34 @@ public class TracerPropagationTest {
         Assert.assertEquals(context.getBaggageItem("!@##*^ %^&&(*"), "TEST");
     }
 
+    @Test
+    public void testSamplingDecisionRoundTrip() {
+        SpanContext context = new SpanContext(1l, 2l, 3l, 4l, 5l, 6l, false);
+
+        Map<String, String> carrierValues = new HashMap<>();
+        tracer.inject(context, Format.Builtin.TEXT_MAP, new TextMapInjectAdapter(carrierValues));
+
+        Assert.assertEquals(carrierValues.get("Sampled"), "0");
+
+        SpanContext extracted = tracer.extract(Format.Builtin.TEXT_MAP, new TextMapExtractAdapter(carrierValues));
+
+        Assert.assertFalse(extracted.isSampled());
+        Assert.assertEquals(extracted, context);
+        Assert.assertTrue(extracted.isRemote());
+        Assert.assertFalse(context.isRemote());
+    }
+
+    @Test
+    public void testExtractWithoutSamplingDecision() {
+        Map<String, String> carrierValues = new HashMap<>();
+        carrierValues.put("Trace-ID", UUID.randomUUID().toString());
+        carrierValues.put("Span-ID", UUID.randomUUID().toString());
+
+        SpanContext context = tracer.extract(Format.Builtin.TEXT_MAP, new TextMapExtractAdapter(carrierValues));
+
+        Assert.assertTrue(context.isSampled());
+    }
+
     @Test(expected=IllegalArgumentException.class)
     public void testExtractInvalidFormat() {
         tracer.extract(new Format<String>() {}, new String());
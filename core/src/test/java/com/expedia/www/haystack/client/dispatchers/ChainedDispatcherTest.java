@@ -0,0 +1,146 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.awaitility.Awaitility;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.Tracer;
+import com.expedia.www.haystack.client.dispatchers.formats.Format;
+import com.expedia.www.haystack.client.dispatchers.formats.SharedFormat;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+
+public class ChainedDispatcherTest {
+    private MetricsRegistry metrics;
+
+    /**
+     * Blocks every dispatch until released.
+     */
+    private static final class StalledDispatcher extends NoopDispatcher {
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void dispatch(Span span) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Before
+    public void setUp() {
+        metrics = new NoopMetricsRegistry();
+    }
+
+    @Test
+    public void testSlowDispatcherDoesNotDelayOthers() throws IOException {
+        final StalledDispatcher stalled = new StalledDispatcher();
+        final InMemoryDispatcher delegate = new InMemoryDispatcher.Builder(metrics).build();
+        final ChainedDispatcher dispatcher = new ChainedDispatcher.Builder(metrics)
+            .withDispatcher(stalled)
+            .withDispatcher(delegate)
+            .withFanOut(100)
+            .withFlushTimeoutMillis(100)
+            .build();
+        final Tracer tracer = new Tracer.Builder(metrics, "fan-out", dispatcher).build();
+
+        for (int i = 0; i < 20; i++) {
+            // would block forever if dispatched on this thread
+            tracer.buildSpan("span-" + i).start().finish();
+        }
+
+        Awaitility.await()
+            .atMost(5, TimeUnit.SECONDS)
+            .until(() -> delegate.getReceivedSpans().size() == 20);
+
+        stalled.release.countDown();
+        dispatcher.close();
+    }
+
+    @Test
+    public void testFlushWaitsForQueuedSpans() throws IOException {
+        final InMemoryDispatcher delegate = new InMemoryDispatcher.Builder(metrics).build();
+        final ChainedDispatcher dispatcher = new ChainedDispatcher.Builder(metrics)
+            .withDispatcher(delegate)
+            .withFanOut(100)
+            .build();
+        final Tracer tracer = new Tracer.Builder(metrics, "fan-out", dispatcher).build();
+
+        for (int i = 0; i < 50; i++) {
+            tracer.buildSpan("span-" + i).start().finish();
+        }
+        dispatcher.flush();
+
+        Assert.assertEquals(50, delegate.getFlushedSpans().size());
+        dispatcher.close();
+    }
+
+    @Test
+    public void testFlushDoesNotWaitForLaterSpans() throws IOException {
+        final InMemoryDispatcher delegate = new InMemoryDispatcher.Builder(metrics).build();
+        final ChainedDispatcher dispatcher = new ChainedDispatcher.Builder(metrics)
+            .withDispatcher(delegate)
+            .withFanOut(10000)
+            .withFlushTimeoutMillis(5000)
+            .build();
+        final Tracer tracer = new Tracer.Builder(metrics, "fan-out", dispatcher).build();
+        final AtomicBoolean producing = new AtomicBoolean(true);
+        final Thread producer = new Thread(() -> {
+                while (producing.get()) {
+                    tracer.buildSpan("busy").start().finish();
+                }
+            });
+
+        tracer.buildSpan("first").start().finish();
+        producer.start();
+        final long start = System.nanoTime();
+        dispatcher.flush();
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        producing.set(false);
+
+        Assert.assertTrue("flush took " + elapsed + "ms", elapsed < 5000);
+        dispatcher.close();
+    }
+
+    @Test
+    public void testSharedFormatFormatsOnce() {
+        final AtomicInteger calls = new AtomicInteger();
+        final Format<String> shared = new SharedFormat<>((span) -> {
+                calls.incrementAndGet();
+                return span.getOperatioName();
+            });
+        final Tracer tracer = new Tracer.Builder(metrics, "fan-out", new NoopDispatcher()).build();
+        final Span span = tracer.buildSpan("shared").start();
+        span.finish();
+
+        Assert.assertEquals("shared", shared.format(span));
+        Assert.assertEquals("shared", shared.format(span));
+        Assert.assertEquals(1, calls.get());
+    }
+}
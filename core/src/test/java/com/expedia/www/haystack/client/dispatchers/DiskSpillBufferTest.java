@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+
+public class DiskSpillBufferTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private MetricsRegistry metrics;
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        metrics = new NoopMetricsRegistry();
+        directory = folder.newFolder();
+    }
+
+    private DiskSpillBuffer open() throws Exception {
+        return new DiskSpillBuffer.Builder(metrics, directory)
+            .withSegmentBytes(128)
+            .withMaxBytes(512)
+            .build();
+    }
+
+    private static List<String> drain(DiskSpillBuffer buffer) {
+        List<String> records = new ArrayList<>();
+        byte[] record;
+        while ((record = buffer.peek()) != null) {
+            records.add(new String(record, StandardCharsets.UTF_8));
+            buffer.commit();
+        }
+        return records;
+    }
+
+    @Test
+    public void testReplaysInOrderAcrossSegments() throws Exception {
+        DiskSpillBuffer buffer = open();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            expected.add("record-" + i);
+            Assert.assertTrue(buffer.append(("record-" + i).getBytes(StandardCharsets.UTF_8)));
+        }
+        Assert.assertTrue(buffer.getSegmentCount() > 1);
+
+        Assert.assertEquals("record-0", new String(buffer.peek(), StandardCharsets.UTF_8));
+        Assert.assertEquals("record-0", new String(buffer.peek(), StandardCharsets.UTF_8));
+        Assert.assertEquals(expected, drain(buffer));
+
+        Assert.assertTrue(buffer.isEmpty());
+        Assert.assertEquals(0, buffer.getBacklogBytes());
+        Assert.assertEquals(1, directory.list().length);
+        buffer.close();
+    }
+
+    @Test
+    public void testRejectsWhenFull() throws Exception {
+        DiskSpillBuffer buffer = open();
+        int appended = 0;
+        while (buffer.append("a record to fill the buffer".getBytes(StandardCharsets.UTF_8))) {
+            appended++;
+        }
+        Assert.assertEquals(4, buffer.getSegmentCount());
+        Assert.assertEquals(appended, buffer.getBacklogRecords());
+        Assert.assertFalse(buffer.append(new byte[200]));
+
+        // reading frees whole segments for new records
+        for (int i = 0; i < appended / 2; i++) {
+            buffer.peek();
+            buffer.commit();
+        }
+        Assert.assertTrue(buffer.append("another".getBytes(StandardCharsets.UTF_8)));
+        buffer.close();
+    }
+
+    @Test
+    public void testRecoversAfterCrash() throws Exception {
+        DiskSpillBuffer crashed = open();
+        for (int i = 0; i < 6; i++) {
+            crashed.append(("record-" + i).getBytes(StandardCharsets.UTF_8));
+        }
+        crashed.peek();
+        crashed.commit();
+        crashed.peek();
+        crashed.commit();
+        // never closed, as if the process died
+
+        DiskSpillBuffer recovered = open();
+        Assert.assertEquals(4, recovered.getBacklogRecords());
+        recovered.append("record-6".getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals(Arrays.asList("record-2", "record-3", "record-4", "record-5", "record-6"), drain(recovered));
+        recovered.close();
+    }
+
+    @Test
+    public void testStopsAtCorruptRecord() throws Exception {
+        DiskSpillBuffer buffer = open();
+        buffer.append("first".getBytes(StandardCharsets.UTF_8));
+        buffer.append("second".getBytes(StandardCharsets.UTF_8));
+        buffer.append("third".getBytes(StandardCharsets.UTF_8));
+        buffer.close();
+
+        File segment = directory.listFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            // flip a byte in the data of the second record
+            final long position = DiskSpillBuffer.HEADER_BYTES + DiskSpillBuffer.RECORD_HEADER_BYTES + "first".length()
+                + DiskSpillBuffer.RECORD_HEADER_BYTES + 1;
+            file.seek(position);
+            file.write('X');
+        }
+
+        DiskSpillBuffer recovered = open();
+        Assert.assertEquals(Arrays.asList("first"), drain(recovered));
+        recovered.close();
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.Tracer;
+import com.expedia.www.haystack.client.dispatchers.clients.Client;
+import com.expedia.www.haystack.client.dispatchers.clients.InMemoryClient;
+import com.expedia.www.haystack.client.dispatchers.formats.Format;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+
+public class EncodedRemoteDispatcherTest {
+    private final Format<byte[]> encoder = (span) -> span.getOperatioName().getBytes(StandardCharsets.UTF_8);
+    private final long flushInterval = TimeUnit.MILLISECONDS.toMillis(250);
+    private final int queueSize = 100;
+
+    private MetricsRegistry metrics;
+    private InMemoryClient client;
+
+    @Before
+    public void setUp() {
+        metrics = new NoopMetricsRegistry();
+        client = new InMemoryClient.Builder(metrics).build();
+    }
+
+    private Set<String> sentOperations() {
+        final Set<String> operations = new HashSet<>();
+        for (byte[] encoded : client.getEncodedSpans()) {
+            operations.add(new String(encoded, StandardCharsets.UTF_8));
+        }
+        return operations;
+    }
+
+    private void dispatchAndClose(EncodedRemoteDispatcher dispatcher, int createdSpans) {
+        final Tracer tracer = new Tracer.Builder(metrics, "encoded-dispatcher", dispatcher).build();
+        for (int i = 0; i < createdSpans; i++) {
+            Span span = tracer.buildSpan("span-" + i).start();
+            span.finish();
+        }
+        dispatcher.close();
+    }
+
+    @Test
+    public void testCloseDrainsTheQueue() {
+        final EncodedRemoteDispatcher dispatcher = new EncodedRemoteDispatcher.Builder(metrics, client)
+            .withEncoder(encoder)
+            .withFlushIntervalMillis(flushInterval)
+            .withBlockingQueueLimit(queueSize)
+            .build();
+
+        dispatchAndClose(dispatcher, queueSize);
+
+        Assert.assertEquals(queueSize, client.getEncodedSpans().size());
+        Assert.assertEquals(queueSize, sentOperations().size());
+        Assert.assertEquals(0, client.getTotalSpans().size());
+        Assert.assertEquals(0, dispatcher.getQueuedBytes());
+    }
+
+    @Test
+    public void testEncodePoolDrainsOnClose() {
+        final EncodedRemoteDispatcher dispatcher = new EncodedRemoteDispatcher.Builder(metrics, client)
+            .withEncoder(encoder)
+            .withEncodeThreads(2, queueSize)
+            .withFlushIntervalMillis(flushInterval)
+            .withBlockingQueueLimit(queueSize)
+            .build();
+
+        dispatchAndClose(dispatcher, queueSize);
+
+        Assert.assertEquals(queueSize, sentOperations().size());
+        Assert.assertEquals(0, dispatcher.getQueuedBytes());
+    }
+
+    @Test
+    public void testWhenClientBlocks() {
+        // client allows zero messages and blocks
+        client = new InMemoryClient.Builder(metrics).withLimit(0).build();
+
+        final EncodedRemoteDispatcher dispatcher = new EncodedRemoteDispatcher.Builder(metrics, client)
+            .withEncoder(encoder)
+            .withFlushIntervalMillis(flushInterval)
+            .withShutdownTimeoutMillis(flushInterval * 2)
+            .withBlockingQueueLimit(queueSize)
+            .withMaxQueueBytes(64)
+            .build();
+
+        dispatchAndClose(dispatcher, queueSize + 20);
+
+        Assert.assertEquals(0, client.getEncodedSpans().size());
+        Assert.assertEquals(0, dispatcher.getQueuedBytes());
+    }
+
+    @Test
+    public void testCloseTimeoutInterruptsBlockedSender() throws InterruptedException {
+        final BlockingClient blocking = new BlockingClient();
+        final EncodedRemoteDispatcher dispatcher = new EncodedRemoteDispatcher.Builder(metrics, blocking)
+            .withEncoder(encoder)
+            .withShutdownTimeoutMillis(100)
+            .withBlockingQueueLimit(queueSize)
+            .build();
+        final Tracer tracer = new Tracer.Builder(metrics, "encoded-dispatcher", dispatcher).build();
+
+        for (int i = 0; i < 5; i++) {
+            tracer.buildSpan("span-" + i).start().finish();
+        }
+        Assert.assertTrue(blocking.entered.await(5, TimeUnit.SECONDS));
+        dispatcher.close();
+
+        // the sender was interrupted out of the client and left the rest of the queue
+        Assert.assertTrue(blocking.interrupted.get());
+        Assert.assertEquals(1, blocking.sent.size());
+    }
+
+    @Test
+    public void testDirectBufferRing() {
+        final EncodedRemoteDispatcher dispatcher = new EncodedRemoteDispatcher.Builder(metrics, client)
+            .withEncoder(encoder)
+            .withFlushIntervalMillis(flushInterval)
+            .withDirectBufferRing(queueSize, 16)
+            .build();
+        final Tracer tracer = new Tracer.Builder(metrics, "encoded-dispatcher", dispatcher).build();
+
+        for (int i = 0; i < queueSize; i++) {
+            Span span = tracer.buildSpan("span-" + i).start();
+            span.finish();
+        }
+        // larger than a slot
+        tracer.buildSpan("a-span-with-a-long-operation-name").start().finish();
+        dispatcher.close();
+
+        Assert.assertEquals(queueSize, client.getEncodedSpans().size());
+        Assert.assertEquals(queueSize, sentOperations().size());
+        Assert.assertFalse(sentOperations().contains("a-span-with-a-long-operation-name"));
+    }
+
+    @Test
+    public void testDispatchAfterClose() {
+        final EncodedRemoteDispatcher dispatcher = new EncodedRemoteDispatcher.Builder(metrics, client)
+            .withEncoder(encoder)
+            .build();
+        final Tracer tracer = new Tracer.Builder(metrics, "encoded-dispatcher", dispatcher).build();
+
+        dispatcher.close();
+        tracer.buildSpan("late").start().finish();
+
+        Assert.assertEquals(0, client.getEncodedSpans().size());
+    }
+
+    private static class BlockingClient implements Client {
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final List<byte[]> sent = Collections.synchronizedList(new ArrayList<>());
+        private final AtomicBoolean interrupted = new AtomicBoolean(false);
+
+        @Override
+        public boolean send(Span span) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean sendEncoded(byte[] span) {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+                Thread.currentThread().interrupt();
+            }
+            sent.add(span);
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+}
@@ -17,21 +17,35 @@
 package com.expedia.www.haystack.client.dispatchers;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.awaitility.Awaitility;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import com.expedia.www.haystack.client.Span;
 import com.expedia.www.haystack.client.Tracer;
+import com.expedia.www.haystack.client.dispatchers.clients.Client;
+import com.expedia.www.haystack.client.dispatchers.clients.ClientException;
 import com.expedia.www.haystack.client.dispatchers.clients.InMemoryClient;
+import com.expedia.www.haystack.client.dispatchers.queues.WaitStrategy;
 import com.expedia.www.haystack.client.metrics.LoggingMetricsRegistry;
 import com.expedia.www.haystack.client.metrics.MetricsRegistry;
 import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
 
 public class RemoteDispatcherTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
     private MetricsRegistry metrics;
     private Dispatcher dispatcher;
     private Tracer tracer;
@@ -106,6 +120,23 @@ public class RemoteDispatcherTest {
         Assert.assertEquals(0, client.getReceivedSpans().size());
     }
 
+    @Test
+    public void testCloseTimeoutInterruptsBlockedSender() throws Exception {
+        BlockingClient blocking = new BlockingClient();
+        dispatcher = new RemoteDispatcher.Builder(metrics, blocking)
+            .withShutdownTimeoutMillis(100)
+            .withBlockingQueueLimit(queueSize)
+            .build();
+        tracer = new Tracer.Builder(metrics, "remote-dispatcher", dispatcher).build();
+
+        fillQueue(blocking, 5);
+        dispatcher.close();
+
+        // the sender was interrupted out of the client and left the rest of the queue
+        Assert.assertTrue(blocking.interrupted.get());
+        Assert.assertEquals(1, blocking.sent.size());
+    }
+
     @Test
     public void testClosedDispatcherRejectsAdditionalSpans() throws IOException {
         Span span = tracer.buildSpan("happy-path").start();
@@ -120,6 +151,73 @@ public class RemoteDispatcherTest {
         Assert.assertEquals(1, client.getFlushedSpans().size());
     }
 
+    @Test
+    public void testBatchedSendDrainsTheQueue() throws IOException {
+        dispatcher = new RemoteDispatcher.Builder(metrics, client)
+            .withFlushIntervalMillis(flushInterval)
+            .withBlockingQueueLimit(queueSize)
+            .withMaxBatchSize(10)
+            .withBatchLingerMillis(flushInterval)
+            .build();
+        tracer = new Tracer.Builder(metrics, "remote-dispatcher", dispatcher).build();
+
+        final int createdSpans = queueSize;
+        for (int i = 0; i < createdSpans; i++) {
+            Span span = tracer.buildSpan("batch-span-" + i).start();
+            dispatcher.dispatch(span);
+        }
+        dispatcher.close();
+
+        Assert.assertEquals(0, client.getReceivedSpans().size());
+        Assert.assertEquals(createdSpans, client.getTotalSpans().size());
+        Assert.assertEquals(createdSpans, client.getFlushedSpans().size());
+    }
+
+    @Test
+    public void testRingBufferQueueDrainsOnClose() throws IOException {
+        dispatcher = new RemoteDispatcher.Builder(metrics, client)
+            .withRingBufferQueue(queueSize, WaitStrategy.parking())
+            .withFlushIntervalMillis(flushInterval)
+            .build();
+        tracer = new Tracer.Builder(metrics, "remote-dispatcher", dispatcher).build();
+
+        for (int i = 0; i < queueSize; i++) {
+            dispatcher.dispatch(tracer.buildSpan("ring-span-" + i).start());
+        }
+        dispatcher.close();
+
+        Assert.assertEquals(queueSize, client.getTotalSpans().size());
+    }
+
+    @Test
+    public void testParallelSendersDrainTheQueue() throws IOException {
+        dispatcher = new RemoteDispatcher.Builder(metrics, client)
+            .withSenderCount(4)
+            .withMaxBatchSize(10)
+            .withBlockingQueueLimit(queueSize)
+            .withFlushIntervalMillis(flushInterval)
+            .build();
+        tracer = new Tracer.Builder(metrics, "remote-dispatcher", dispatcher).build();
+
+        for (int i = 0; i < queueSize; i++) {
+            dispatcher.dispatch(tracer.buildSpan("parallel-span-" + i).start());
+        }
+        dispatcher.close();
+
+        Assert.assertEquals(queueSize, client.getTotalSpans().size());
+        Assert.assertEquals(queueSize, client.getFlushedSpans().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSenderCount() {
+        new RemoteDispatcher.Builder(metrics, client).withSenderCount(0).build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBatchSize() {
+        new RemoteDispatcher.Builder(metrics, client).withMaxBatchSize(0).build();
+    }
+
     @Test
     public void testBuilderDefaults() throws IOException {
         dispatcher = new RemoteDispatcher.Builder(metrics, client).build();
@@ -133,4 +231,310 @@ public class RemoteDispatcherTest {
         Assert.assertEquals(1, client.getTotalSpans().size());
         Assert.assertEquals(1, client.getFlushedSpans().size());
     }
+
+    @Test
+    public void testDropOldestOverflowPolicy() throws Exception {
+        BlockingClient blocking = new BlockingClient();
+        dispatcher = new RemoteDispatcher.Builder(metrics, blocking)
+            .withBlockingQueueLimit(2)
+            .withOverflowPolicy(OverflowPolicy.DROP_OLDEST)
+            .build();
+        tracer = new Tracer.Builder(metrics, "remote-dispatcher", dispatcher).build();
+
+        List<Span> spans = fillQueue(blocking, 4);
+        blocking.release.countDown();
+        dispatcher.close();
+
+        Assert.assertEquals(Arrays.asList(spans.get(0), spans.get(2), spans.get(3)), blocking.sent);
+    }
+
+    @Test
+    public void testPriorityOverflowPolicyKeepsErrors() throws Exception {
+        BlockingClient blocking = new BlockingClient();
+        dispatcher = new RemoteDispatcher.Builder(metrics, blocking)
+            .withBlockingQueueLimit(2)
+            .withOverflowPolicy(OverflowPolicy.PRIORITY)
+            .build();
+        tracer = new Tracer.Builder(metrics, "remote-dispatcher", dispatcher).build();
+
+        List<Span> spans = fillQueue(blocking, 4);
+        Span error = tracer.buildSpan("error").withTag("error", true).start();
+        dispatcher.dispatch(error);
+        blocking.release.countDown();
+        dispatcher.close();
+
+        // the plain overflow span was dropped, the error displaced the oldest
+        Assert.assertEquals(Arrays.asList(spans.get(0), spans.get(2), error), blocking.sent);
+    }
+
+    @Test
+    public void testPriorityOverflowPolicyKeepsQueuedErrorSpans() throws Exception {
+        BlockingClient blocking = new BlockingClient();
+        dispatcher = new RemoteDispatcher.Builder(metrics, blocking)
+            .withBlockingQueueLimit(2)
+            .withOverflowPolicy(OverflowPolicy.PRIORITY)
+            .build();
+        tracer = new Tracer.Builder(metrics, "remote-dispatcher", dispatcher).build();
+
+        List<Span> spans = fillQueue(blocking, 1);
+        Span queuedError = tracer.buildSpan("queued-error").withTag("error", true).start();
+        dispatcher.dispatch(queuedError);
+        Span plain = tracer.buildSpan("plain").start();
+        dispatcher.dispatch(plain);
+        Span error = tracer.buildSpan("error").withTag("error", true).start();
+        dispatcher.dispatch(error);
+        // only error spans are queued now; there is nothing left to displace
+        Span lateError = tracer.buildSpan("late-error").withTag("error", true).start();
+        dispatcher.dispatch(lateError);
+        blocking.release.countDown();
+        dispatcher.close();
+
+        // the error at the head of the queue stayed, the plain span behind it made room
+        Assert.assertEquals(Arrays.asList(spans.get(0), queuedError, error), blocking.sent);
+    }
+
+    @Test
+    public void testBlockOverflowPolicyTimesOut() throws Exception {
+        BlockingClient blocking = new BlockingClient();
+        dispatcher = new RemoteDispatcher.Builder(metrics, blocking)
+            .withBlockingQueueLimit(2)
+            .withOverflowPolicy(OverflowPolicy.BLOCK)
+            .withBlockTimeoutMillis(10)
+            .build();
+        tracer = new Tracer.Builder(metrics, "remote-dispatcher", dispatcher).build();
+
+        List<Span> spans = fillQueue(blocking, 4);
+        blocking.release.countDown();
+        dispatcher.close();
+
+        Assert.assertEquals(spans.subList(0, 3), blocking.sent);
+    }
+
+    @Test
+    public void testByteBudgetLimitsTheQueue() throws Exception {
+        BlockingClient blocking = new BlockingClient();
+        long spanSize = SpanSizeEstimator.estimate(new Tracer.Builder(metrics, "remote-dispatcher", new NoopDispatcher()).build()
+                                                   .buildSpan("overflow-span-0").start());
+        dispatcher = new RemoteDispatcher.Builder(metrics, blocking)
+            .withMaxQueueBytes(spanSize * 2)
+            .build();
+        tracer = new Tracer.Builder(metrics, "remote-dispatcher", dispatcher).build();
+
+        List<Span> spans = fillQueue(blocking, 4);
+        Assert.assertEquals(spanSize * 2, ((RemoteDispatcher) dispatcher).getQueuedBytes());
+
+        blocking.release.countDown();
+        dispatcher.close();
+
+        Assert.assertEquals(spans.subList(0, 3), blocking.sent);
+        Assert.assertEquals(0, ((RemoteDispatcher) dispatcher).getQueuedBytes());
+    }
+
+    @Test
+    public void testByteBudgetReleasesTheReservedSize() throws Exception {
+        BlockingClient blocking = new BlockingClient();
+        RemoteDispatcher remote = new RemoteDispatcher.Builder(metrics, blocking)
+            .withMaxQueueBytes(1024 * 1024)
+            .build();
+        dispatcher = remote;
+        tracer = new Tracer.Builder(metrics, "remote-dispatcher", dispatcher).build();
+
+        List<Span> spans = fillQueue(blocking, 3);
+        // the queued span grows after it was admitted
+        spans.get(1).setTag("late-tag", "a value added after the span was queued");
+
+        blocking.release.countDown();
+        dispatcher.close();
+
+        Assert.assertEquals(3, blocking.sent.size());
+        Assert.assertEquals(0, remote.getQueuedBytes());
+    }
+
+    @Test
+    public void testQueueFillRatioCountsBytes() throws Exception {
+        BlockingClient blocking = new BlockingClient();
+        long spanSize = SpanSizeEstimator.estimate(new Tracer.Builder(metrics, "remote-dispatcher", new NoopDispatcher()).build()
+                                                   .buildSpan("overflow-span-0").start());
+        RemoteDispatcher remote = new RemoteDispatcher.Builder(metrics, blocking)
+            .withBlockingQueueLimit(queueSize)
+            .withMaxQueueBytes(spanSize * 2)
+            .build();
+        dispatcher = remote;
+        tracer = new Tracer.Builder(metrics, "remote-dispatcher", dispatcher).build();
+
+        // two spans fill the byte budget, though not the queue
+        fillQueue(blocking, 3);
+        Assert.assertEquals(1.0, remote.getQueueFillRatio(), 0.0);
+
+        blocking.release.countDown();
+        dispatcher.close();
+    }
+
+    @Test
+    public void testSpanSizeEstimateGrowsWithContent() {
+        Span bare = tracer.buildSpan("estimate").start();
+        Span tagged = tracer.buildSpan("estimate").withTag("key", "a long tag value to be retained").start();
+        tagged.log("event");
+
+        Assert.assertTrue(SpanSizeEstimator.estimate(tagged) > SpanSizeEstimator.estimate(bare));
+    }
+
+    @Test
+    public void testSpillsWhileClientFailsAndReplays() throws Exception {
+        FailingClient failing = new FailingClient();
+        DiskSpillBuffer spill = new DiskSpillBuffer.Builder(metrics, folder.newFolder()).build();
+        dispatcher = new RemoteDispatcher.Builder(metrics, failing)
+            .withFlushIntervalMillis(flushInterval)
+            .withSpillBuffer(spill)
+            .withSpillReplayIntervalMillis(50)
+            .build();
+        tracer = new Tracer.Builder(metrics, "remote-dispatcher", dispatcher).build();
+
+        for (int i = 0; i < 3; i++) {
+            tracer.buildSpan("spilled-span-" + i).start().finish();
+        }
+
+        Awaitility.await()
+            .atMost(5, TimeUnit.SECONDS)
+            .until(() -> spill.getBacklogRecords() == 3);
+
+        failing.failing.set(false);
+
+        Awaitility.await()
+            .atMost(5, TimeUnit.SECONDS)
+            .until(() -> failing.replayed.size() == 3);
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals("spilled-span-" + i, com.expedia.open.tracing.Span.parseFrom(failing.replayed.get(i)).getOperationName());
+        }
+        Assert.assertTrue(spill.isEmpty());
+        dispatcher.close();
+    }
+
+    @Test
+    public void testFailedBatchSpillsOnlyUnsentSpans() throws Exception {
+        PartialClient partial = new PartialClient(2);
+        DiskSpillBuffer spill = new DiskSpillBuffer.Builder(metrics, folder.newFolder()).build();
+        dispatcher = new RemoteDispatcher.Builder(metrics, partial)
+            .withMaxBatchSize(5)
+            .withBatchLingerMillis(TimeUnit.SECONDS.toMillis(1))
+            .withSpillBuffer(spill)
+            .withSpillReplayIntervalMillis(TimeUnit.MINUTES.toMillis(1))
+            .build();
+        tracer = new Tracer.Builder(metrics, "remote-dispatcher", dispatcher).build();
+
+        for (int i = 0; i < 5; i++) {
+            tracer.buildSpan("batched-span-" + i).start().finish();
+        }
+
+        Awaitility.await()
+            .atMost(5, TimeUnit.SECONDS)
+            .until(() -> spill.getBacklogRecords() == 3);
+
+        // the two spans sent ahead of the failure were not spilled as well
+        Assert.assertEquals(2, partial.sent.size());
+        Assert.assertEquals("batched-span-2", com.expedia.open.tracing.Span.parseFrom(spill.peek()).getOperationName());
+        dispatcher.close();
+    }
+
+    /**
+     * Dispatches spans once the sender is stuck on the first, so the
+     * rest land in the queue.
+     */
+    private List<Span> fillQueue(BlockingClient blocking, int count) throws InterruptedException {
+        List<Span> spans = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Span span = tracer.buildSpan("overflow-span-" + i).start();
+            spans.add(span);
+            dispatcher.dispatch(span);
+            if (i == 0) {
+                blocking.entered.await(1, TimeUnit.SECONDS);
+            }
+        }
+        return spans;
+    }
+
+    private static class BlockingClient implements Client {
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final List<Span> sent = Collections.synchronizedList(new ArrayList<>());
+        private final AtomicBoolean interrupted = new AtomicBoolean(false);
+
+        @Override
+        public boolean send(Span span) {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+                Thread.currentThread().interrupt();
+            }
+            sent.add(span);
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+
+    private static class PartialClient implements Client {
+        private final int accepted;
+        private final List<Span> sent = Collections.synchronizedList(new ArrayList<>());
+
+        PartialClient(int accepted) {
+            this.accepted = accepted;
+        }
+
+        @Override
+        public boolean send(Span span) {
+            if (sent.size() >= accepted) {
+                throw new ClientException("agent is full");
+            }
+            sent.add(span);
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+
+    private static class FailingClient implements Client {
+        private final AtomicBoolean failing = new AtomicBoolean(true);
+        private final List<byte[]> replayed = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public boolean send(Span span) {
+            if (failing.get()) {
+                throw new ClientException("agent is down");
+            }
+            return true;
+        }
+
+        @Override
+        public boolean sendEncoded(byte[] span) {
+            if (failing.get()) {
+                throw new ClientException("agent is down");
+            }
+            replayed.add(span);
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
 }
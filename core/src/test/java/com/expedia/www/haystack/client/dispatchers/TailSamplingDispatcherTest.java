@@ -0,0 +1,171 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.awaitility.Awaitility;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.SpanContext;
+import com.expedia.www.haystack.client.Tracer;
+import com.expedia.www.haystack.client.dispatchers.policies.ErrorTracePolicy;
+import com.expedia.www.haystack.client.dispatchers.policies.LatencyTracePolicy;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+
+import io.opentracing.tag.Tags;
+
+public class TailSamplingDispatcherTest {
+    private MetricsRegistry metrics;
+    private InMemoryDispatcher delegate;
+    private TailSamplingDispatcher dispatcher;
+    private Tracer tracer;
+
+    @Before
+    public void setUp() {
+        metrics = new NoopMetricsRegistry();
+        delegate = new InMemoryDispatcher.Builder(metrics).build();
+        dispatcher = new TailSamplingDispatcher.Builder(metrics, delegate)
+            .withPolicy(new ErrorTracePolicy())
+            .withPolicy(new LatencyTracePolicy(1000))
+            .withMaxTraces(2)
+            .build();
+        tracer = new Tracer.Builder(metrics, "tail-sampling", dispatcher).build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        dispatcher.close();
+    }
+
+    @Test
+    public void testKeepsErroredTrace() {
+        Span root = tracer.buildSpan("root").start();
+        Span child = tracer.buildSpan("child").asChildOf(root).start();
+        Tags.ERROR.set(child, true);
+        child.finish();
+
+        Assert.assertEquals(0, delegate.getReceivedSpans().size());
+
+        root.finish();
+
+        Assert.assertEquals(2, delegate.getReceivedSpans().size());
+    }
+
+    @Test
+    public void testKeepsSlowTrace() {
+        Span root = tracer.buildSpan("root").withStartTimestamp(1l).start();
+        root.finish(1001l);
+
+        Assert.assertEquals(1, delegate.getReceivedSpans().size());
+    }
+
+    @Test
+    public void testDropsUninterestingTrace() {
+        Span root = tracer.buildSpan("root").withStartTimestamp(1l).start();
+        Span child = tracer.buildSpan("child").asChildOf(root).withStartTimestamp(1l).start();
+        child.finish(2l);
+        root.finish(2l);
+
+        Assert.assertEquals(0, delegate.getReceivedSpans().size());
+    }
+
+    @Test
+    public void testLateSpanFollowsDecision() {
+        Span root = tracer.buildSpan("root").start();
+        Span child = tracer.buildSpan("child").asChildOf(root).start();
+        Tags.ERROR.set(root, true);
+        root.finish();
+        child.finish();
+
+        Assert.assertEquals(2, delegate.getReceivedSpans().size());
+    }
+
+    @Test
+    public void testBufferLimitDecidesOldestTrace() {
+        Span first = tracer.buildSpan("first").start();
+        Span firstChild = tracer.buildSpan("child").asChildOf(first).start();
+        Tags.ERROR.set(firstChild, true);
+        firstChild.finish();
+
+        for (int i = 0; i < 2; i++) {
+            Span root = tracer.buildSpan("root-" + i).start();
+            tracer.buildSpan("child").asChildOf(root).start().finish();
+        }
+
+        Assert.assertEquals(1, delegate.getReceivedSpans().size());
+        Assert.assertEquals(firstChild, delegate.getReceivedSpans().get(0));
+    }
+
+    @Test
+    public void testLocalRootOfPropagatedTrace() {
+        // the parent lives upstream, so the first span in this process completes the trace here
+        SpanContext upstream = new SpanContext(1l, 2l, 3l, 4l, 0l, 0l, true).asRemote();
+        Span localRoot = tracer.buildSpan("local-root").asChildOf(upstream).start();
+        Span child = tracer.buildSpan("child").asChildOf(localRoot).start();
+        Tags.ERROR.set(child, true);
+        child.finish();
+
+        Assert.assertEquals(0, delegate.getReceivedSpans().size());
+
+        localRoot.finish();
+
+        Assert.assertEquals(2, delegate.getReceivedSpans().size());
+    }
+
+    @Test
+    public void testProvidedExecutorIsLeftRunning() throws IOException {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        TailSamplingDispatcher shared = new TailSamplingDispatcher.Builder(metrics, new NoopDispatcher())
+            .withExecutor(executor)
+            .build();
+
+        shared.close();
+
+        Assert.assertFalse(executor.isShutdown());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testIncompleteTraceIsDecidedAfterWaiting() throws IOException {
+        dispatcher.close();
+        delegate = new InMemoryDispatcher.Builder(metrics).build();
+        dispatcher = new TailSamplingDispatcher.Builder(metrics, delegate)
+            .withPolicy(new ErrorTracePolicy())
+            .withDecisionWaitMillis(10)
+            .withEvictionIntervalMillis(10)
+            .build();
+        tracer = new Tracer.Builder(metrics, "tail-sampling", dispatcher).build();
+
+        Span root = tracer.buildSpan("root").start();
+        Span child = tracer.buildSpan("child").asChildOf(root).start();
+        Tags.ERROR.set(child, true);
+        child.finish();
+
+        Awaitility.await()
+            .atMost(1, TimeUnit.SECONDS)
+            .until(() -> delegate.getReceivedSpans().size() == 1);
+    }
+}
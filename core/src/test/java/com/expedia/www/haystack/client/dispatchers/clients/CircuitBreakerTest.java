@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.clients;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.expedia.www.haystack.client.Clock;
+import com.expedia.www.haystack.client.dispatchers.clients.CircuitBreaker.State;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        Clock clock = mock(Clock.class);
+        when(clock.nanoTime()).thenReturn(0l);
+        CircuitBreaker breaker = new CircuitBreaker(clock, 2, 1000);
+
+        Assert.assertTrue(breaker.allowRequest());
+        Assert.assertFalse(breaker.onFailure());
+        breaker.onSuccess();
+        Assert.assertFalse(breaker.onFailure());
+        Assert.assertTrue(breaker.onFailure());
+
+        Assert.assertEquals(State.OPEN, breaker.getState());
+        Assert.assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void testProbesAfterOpenPeriod() {
+        Clock clock = mock(Clock.class);
+        when(clock.nanoTime()).thenReturn(0l);
+        CircuitBreaker breaker = new CircuitBreaker(clock, 1, 1000);
+        breaker.onFailure();
+
+        when(clock.nanoTime()).thenReturn(TimeUnit.MILLISECONDS.toNanos(1000));
+        Assert.assertTrue(breaker.allowRequest());
+        Assert.assertEquals(State.HALF_OPEN, breaker.getState());
+        // only one probe at a time
+        Assert.assertFalse(breaker.allowRequest());
+
+        // a failed probe opens it for another period
+        Assert.assertTrue(breaker.onFailure());
+        Assert.assertFalse(breaker.allowRequest());
+
+        when(clock.nanoTime()).thenReturn(TimeUnit.MILLISECONDS.toNanos(2000));
+        Assert.assertTrue(breaker.allowRequest());
+        breaker.onSuccess();
+        Assert.assertEquals(State.CLOSED, breaker.getState());
+        Assert.assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void testRetryBackoffIsBounded() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000, 10);
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(policy.backoffMillis(0) <= 100);
+            Assert.assertTrue(policy.backoffMillis(2) <= 400);
+            Assert.assertTrue(policy.backoffMillis(9) <= 1000);
+            Assert.assertTrue(policy.backoffMillis(100) >= 0);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.clients;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.junit.Test;
+
+import com.expedia.www.haystack.client.metrics.Metrics;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+
+public class DictionaryDeflateCodecTest {
+
+    private final byte[] message = "span.kind server http.method GET http.status_code 200 error false span.kind client"
+        .getBytes(StandardCharsets.UTF_8);
+
+    private static byte[] compress(io.grpc.Compressor compressor, byte[] message) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream os = compressor.compress(out)) {
+            os.write(message);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] decompress(io.grpc.Decompressor decompressor, byte[] compressed) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream is = decompressor.decompress(new ByteArrayInputStream(compressed))) {
+            final byte[] buffer = new byte[16];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final DictionaryDeflateCodec codec = new DictionaryDeflateCodec();
+
+        assertArrayEquals(message, decompress(codec, compress(codec, message)));
+    }
+
+    @Test
+    public void testDictionaryBeatsPlainDeflate() throws Exception {
+        final ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        try (OutputStream os = new DeflaterOutputStream(plain, new Deflater(Deflater.DEFAULT_COMPRESSION))) {
+            os.write(message);
+        }
+
+        assertTrue(compress(new DictionaryDeflateCodec(), message).length < plain.size());
+    }
+
+    @Test
+    public void testMismatchedDictionary() throws Exception {
+        final byte[] compressed = compress(new DictionaryDeflateCodec(), message);
+        final DictionaryDeflateCodec other = new DictionaryDeflateCodec(DictionaryDeflateCodec.DEFAULT_ENCODING,
+                                                                        "other".getBytes(StandardCharsets.UTF_8),
+                                                                        Deflater.DEFAULT_COMPRESSION);
+        try {
+            decompress(other, compressed);
+            fail();
+        } catch (IOException e) {
+            // the dictionary doesn't match
+        }
+    }
+
+    @Test
+    public void testMeasuredRatio() throws Exception {
+        final DictionaryDeflateCodec codec = new DictionaryDeflateCodec();
+        final MeasuredCompressor compressor = new MeasuredCompressor(new Metrics(new NoopMetricsRegistry()), codec);
+
+        assertEquals(DictionaryDeflateCodec.DEFAULT_ENCODING, compressor.getMessageEncoding());
+        assertEquals(0d, compressor.getRatio(), 0d);
+
+        final byte[] compressed = compress(compressor, message);
+
+        assertEquals((double) compressed.length / message.length, compressor.getRatio(), 0.0001d);
+        assertArrayEquals(message, decompress(codec, compressed));
+    }
+}
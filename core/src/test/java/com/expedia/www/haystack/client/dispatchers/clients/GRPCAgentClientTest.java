@@ -16,14 +16,25 @@
  */
 package com.expedia.www.haystack.client.dispatchers.clients;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.awaitility.Awaitility;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 
@@ -31,9 +42,15 @@ import com.expedia.open.tracing.agent.api.DispatchResult;
 import com.expedia.open.tracing.agent.api.SpanAgentGrpc;
 import com.expedia.www.haystack.client.Span;
 import com.expedia.www.haystack.client.Tracer;
+import com.expedia.www.haystack.client.dispatchers.DiskSpillBuffer;
 import com.expedia.www.haystack.client.dispatchers.InMemoryDispatcher;
+import com.expedia.www.haystack.client.dispatchers.RemoteDispatcher;
 import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
 
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.stub.ServerCalls;
 import io.grpc.stub.StreamObserver;
 import io.grpc.testing.GrpcServerRule;
 
@@ -42,14 +59,23 @@ public class GRPCAgentClientTest {
     @Rule
     public final GrpcServerRule grpcServerRule = new GrpcServerRule().directExecutor();
 
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
     private final SpanAgentGrpc.SpanAgentImplBase serviceImpl = spy(new SpanAgentGrpc.SpanAgentImplBase() {});
 
+    private NoopMetricsRegistry metrics;
     private GRPCAgentClient client;
     private Tracer tracer;
 
+    // counted by the streaming method, when registered
+    private final AtomicInteger streams = new AtomicInteger();
+    private final AtomicInteger received = new AtomicInteger();
+    private final AtomicInteger acknowledged = new AtomicInteger();
+
     @Before
     public void setup() throws Exception {
-        NoopMetricsRegistry metrics = new NoopMetricsRegistry();
+        metrics = new NoopMetricsRegistry();
         // register the service
         grpcServerRule.getServiceRegistry().addService(serviceImpl);
         // build a client with the in-process channel
@@ -75,4 +101,299 @@ public class GRPCAgentClientTest {
         verify(serviceImpl, times(1)).dispatch(spanCapture.capture(), Matchers.<StreamObserver<DispatchResult>>any());
     }
 
+    @Test
+    public void testCompressedDispatch() throws Exception {
+        final GRPCAgentClient compressingClient = new GRPCAgentClient.Builder(metrics, grpcServerRule.getChannel())
+            .withCompression("gzip", 0)
+            .build();
+        // too small to compress, sent as is
+        final GRPCAgentClient thresholdClient = new GRPCAgentClient.Builder(metrics, grpcServerRule.getChannel())
+            .withCompression("gzip", 1024)
+            .build();
+
+        final Span span = tracer.buildSpan("compressed").start();
+        span.finish();
+
+        compressingClient.send(span);
+        thresholdClient.send(span);
+
+        verify(serviceImpl, times(2)).dispatch(Matchers.<com.expedia.open.tracing.Span>any(), Matchers.<StreamObserver<DispatchResult>>any());
+    }
+
+    /**
+     * Registers a client-streaming method counting the streams opened,
+     * spans received and streams acknowledged.
+     *
+     * @return the full name of the method
+     */
+    private String registerStreamingMethod() {
+        final String serviceName = "haystack.test.SpanAgent";
+        final String methodName = MethodDescriptor.generateFullMethodName(serviceName, "dispatchStream");
+        final MethodDescriptor<com.expedia.open.tracing.Span, DispatchResult> method = SpanAgentGrpc.METHOD_DISPATCH.toBuilder()
+            .setType(MethodDescriptor.MethodType.CLIENT_STREAMING)
+            .setFullMethodName(methodName)
+            .build();
+
+        grpcServerRule.getServiceRegistry().addService(ServerServiceDefinition.builder(serviceName)
+            .addMethod(method, ServerCalls.asyncClientStreamingCall(responseObserver -> {
+                        streams.incrementAndGet();
+                        return new StreamObserver<com.expedia.open.tracing.Span>() {
+                            @Override
+                            public void onNext(com.expedia.open.tracing.Span value) {
+                                received.incrementAndGet();
+                            }
+
+                            @Override
+                            public void onError(Throwable t) {
+                            }
+
+                            @Override
+                            public void onCompleted() {
+                                acknowledged.incrementAndGet();
+                                responseObserver.onNext(DispatchResult.newBuilder().setCode(DispatchResult.ResultCode.SUCCESS).build());
+                                responseObserver.onCompleted();
+                            }
+                        };
+                    }))
+            .build());
+        return methodName;
+    }
+
+    @Test
+    public void testStreamingDispatch() throws Exception {
+        final String methodName = registerStreamingMethod();
+
+        final GRPCAgentClient streamingClient = new GRPCAgentClient.Builder(metrics, grpcServerRule.getChannel())
+            .withStreamingMethodName(methodName)
+            .build();
+
+        final Span first = tracer.buildSpan("first").start();
+        first.finish();
+        final Span second = tracer.buildSpan("second").start();
+        second.finish();
+        final Span third = tracer.buildSpan("third").start();
+        third.finish();
+
+        streamingClient.send(first);
+        streamingClient.send(Arrays.asList(second, third));
+        streamingClient.flush();
+
+        // a new stream is opened after a flush
+        streamingClient.send(first);
+        streamingClient.flush();
+
+        Awaitility.await()
+            .atMost(5, TimeUnit.SECONDS)
+            .until(() -> acknowledged.get() == 2);
+
+        assertEquals(2, streams.get());
+        assertEquals(4, received.get());
+        verify(serviceImpl, times(0)).dispatch(Matchers.<com.expedia.open.tracing.Span>any(), Matchers.<StreamObserver<DispatchResult>>any());
+    }
+
+    @Test
+    public void testStreamRotation() throws Exception {
+        final String methodName = registerStreamingMethod();
+        final GRPCAgentClient streamingClient = new GRPCAgentClient.Builder(metrics, grpcServerRule.getChannel())
+            .withStreamingMethodName(methodName)
+            .withStreamRotation(2, 0)
+            .build();
+
+        final Span span = tracer.buildSpan("rotated").start();
+        span.finish();
+
+        // the first stream is half-closed once it holds two spans
+        streamingClient.send(Arrays.asList(span, span, span));
+        streamingClient.flush();
+
+        Awaitility.await()
+            .atMost(5, TimeUnit.SECONDS)
+            .until(() -> acknowledged.get() == 2);
+
+        assertEquals(2, streams.get());
+        assertEquals(3, received.get());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void respond(Consumer<StreamObserver<DispatchResult>> response) {
+        doAnswer(invocation -> {
+                response.accept((StreamObserver<DispatchResult>) invocation.getArguments()[1]);
+                return null;
+            }).when(serviceImpl).dispatch(Matchers.<com.expedia.open.tracing.Span>any(), Matchers.<StreamObserver<DispatchResult>>any());
+    }
+
+    @Test
+    public void testRetriesRateLimitedSpan() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        respond(responseObserver -> {
+                final DispatchResult.ResultCode code = (calls.incrementAndGet() == 1 ? DispatchResult.ResultCode.RATE_LIMIT_ERROR : DispatchResult.ResultCode.SUCCESS);
+                responseObserver.onNext(DispatchResult.newBuilder().setCode(code).build());
+                responseObserver.onCompleted();
+            });
+
+        final GRPCAgentClient retryingClient = new GRPCAgentClient.Builder(metrics, grpcServerRule.getChannel())
+            .withRetries(3, 1, 10)
+            .build();
+
+        final Span span = tracer.buildSpan("rate-limited").start();
+        span.finish();
+        retryingClient.send(span);
+
+        Awaitility.await()
+            .atMost(5, TimeUnit.SECONDS)
+            .until(() -> calls.get() == 2);
+        retryingClient.close();
+    }
+
+    @Test
+    public void testCloseDivertsPendingRetries() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        respond(responseObserver -> {
+                calls.incrementAndGet();
+                responseObserver.onNext(DispatchResult.newBuilder().setCode(DispatchResult.ResultCode.RATE_LIMIT_ERROR).build());
+                responseObserver.onCompleted();
+            });
+
+        final InMemoryClient fallback = new InMemoryClient.Builder(metrics).build();
+        // the retry is still waiting on its backoff when the client is closed
+        final GRPCAgentClient retryingClient = new GRPCAgentClient.Builder(metrics, grpcServerRule.getChannel())
+            .withRetries(3, TimeUnit.MINUTES.toMillis(1), TimeUnit.MINUTES.toMillis(1))
+            .withFallback(fallback)
+            .build();
+
+        final Span span = tracer.buildSpan("rate-limited").start();
+        span.finish();
+        retryingClient.send(span);
+
+        Awaitility.await()
+            .atMost(5, TimeUnit.SECONDS)
+            .until(() -> calls.get() == 1);
+        retryingClient.close();
+
+        assertEquals(1, fallback.getTotalSpans().size());
+    }
+
+    @Test
+    public void testCircuitBreakerDivertsToFallback() throws Exception {
+        respond(responseObserver -> responseObserver.onError(Status.UNAVAILABLE.asRuntimeException()));
+
+        final InMemoryClient fallback = new InMemoryClient.Builder(metrics).build();
+        final GRPCAgentClient breakingClient = new GRPCAgentClient.Builder(metrics, grpcServerRule.getChannel())
+            .withCircuitBreaker(2, TimeUnit.MINUTES.toMillis(1))
+            .withFallback(fallback)
+            .build();
+
+        for (int i = 0; i < 4; i++) {
+            final Span span = tracer.buildSpan("unavailable-" + i).start();
+            span.finish();
+            breakingClient.send(span);
+
+            final int diverted = i + 1;
+            Awaitility.await()
+                .atMost(5, TimeUnit.SECONDS)
+                .until(() -> fallback.getReceivedSpans().size() == diverted);
+        }
+
+        // the breaker opened after two failures; the rest never reached the agent
+        verify(serviceImpl, times(2)).dispatch(Matchers.<com.expedia.open.tracing.Span>any(), Matchers.<StreamObserver<DispatchResult>>any());
+        breakingClient.close();
+    }
+
+    @Test
+    public void testSpillBacklogSurvivesUnavailableAgent() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        respond(responseObserver -> {
+                calls.incrementAndGet();
+                responseObserver.onError(Status.UNAVAILABLE.asRuntimeException());
+            });
+
+        final File directory = folder.newFolder();
+        final GRPCAgentClient failingClient = new GRPCAgentClient.Builder(metrics, grpcServerRule.getChannel()).build();
+        final RemoteDispatcher dispatcher = new RemoteDispatcher.Builder(metrics, failingClient)
+            .withSpillBuffer(new DiskSpillBuffer.Builder(metrics, directory).build())
+            .withSpillReplayIntervalMillis(50)
+            .build();
+        final Tracer spillingTracer = new Tracer.Builder(metrics, "grpc-agent-tests", dispatcher).build();
+
+        for (int i = 0; i < 3; i++) {
+            spillingTracer.buildSpan("unavailable-" + i).start().finish();
+        }
+
+        // the three sends, then replays the agent keeps failing
+        Awaitility.await()
+            .atMost(5, TimeUnit.SECONDS)
+            .until(() -> calls.get() >= 6);
+        dispatcher.close();
+
+        // nothing the agent failed was committed; the next process finds all of it
+        final DiskSpillBuffer recovered = new DiskSpillBuffer.Builder(metrics, directory).build();
+        assertEquals(3, recovered.getBacklogRecords());
+        assertEquals("unavailable-0", com.expedia.open.tracing.Span.parseFrom(recovered.peek()).getOperationName());
+        recovered.close();
+    }
+
+    @Test
+    public void testInFlightWindowIsFreedByDeadline() throws Exception {
+        // the agent never answers
+        respond(responseObserver -> { });
+
+        final GRPCAgentClient windowedClient = new GRPCAgentClient.Builder(metrics, grpcServerRule.getChannel())
+            .withMaxInFlight(1, 0)
+            .withCallDeadlineMS(100)
+            .build();
+
+        final Span span = tracer.buildSpan("stalled").start();
+        span.finish();
+        windowedClient.send(span);
+
+        try {
+            windowedClient.send(span);
+            fail();
+        } catch (ClientException e) {
+            // the window is full
+        }
+
+        Awaitility.await()
+            .atMost(5, TimeUnit.SECONDS)
+            .until(() -> {
+                    try {
+                        return windowedClient.send(span);
+                    } catch (ClientException e) {
+                        return false;
+                    }
+                });
+        windowedClient.close();
+    }
+
+    @Test
+    public void testFullWindowDoesNotOpenCircuitBreaker() throws Exception {
+        // the agent never answers
+        final AtomicInteger calls = new AtomicInteger();
+        respond(responseObserver -> calls.incrementAndGet());
+
+        final InMemoryClient fallback = new InMemoryClient.Builder(metrics).build();
+        final GRPCAgentClient windowedClient = new GRPCAgentClient.Builder(metrics, grpcServerRule.getChannel())
+            .withMaxInFlight(1, 0)
+            .withCircuitBreaker(2, TimeUnit.MINUTES.toMillis(1))
+            .withFallback(fallback)
+            .build();
+
+        final Span span = tracer.buildSpan("slow").start();
+        span.finish();
+        windowedClient.send(span);
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                windowedClient.send(span);
+                fail();
+            } catch (ClientException e) {
+                // the window is full
+            }
+        }
+
+        // a slow agent is not a failing one; an open breaker would have diverted these
+        assertEquals(1, calls.get());
+        assertEquals(0, fallback.getReceivedSpans().size());
+        windowedClient.close();
+    }
 }
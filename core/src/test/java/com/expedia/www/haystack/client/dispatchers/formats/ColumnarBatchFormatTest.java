@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.formats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.Tracer;
+import com.expedia.www.haystack.client.dispatchers.InMemoryDispatcher;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.google.common.collect.ImmutableMap;
+
+public class ColumnarBatchFormatTest {
+    private Tracer tracer;
+
+    private static void assertRoundTrip(List<Span> spans) throws Exception {
+        final List<com.expedia.open.tracing.Span> decoded = new ColumnarBatchDecoder().decode(new ColumnarBatchFormat().format(spans));
+        assertEquals(spans.size(), decoded.size());
+        for (int i = 0; i < spans.size(); i++) {
+            assertEquals(new ProtoBufFormat().format(spans.get(i)), decoded.get(i));
+        }
+    }
+
+    private Span request(int i) {
+        Span span = tracer.buildSpan("request").withStartTimestamp(1000L + i).start();
+        span.setTag("span.kind", "server");
+        span.setTag("http.method", "GET");
+        span.setTag("http.url", "/v1/resource?id=" + i);
+        span.setTag("http.status_code", 200);
+        span.setTag("error", false);
+        span.log(1001L + i, "handled");
+        span.finish(1010L + i);
+        return span;
+    }
+
+    @Before
+    public void setup() {
+        NoopMetricsRegistry metrics = new NoopMetricsRegistry();
+        tracer = new Tracer.Builder(metrics, "columnar-batch-format-tests", new InMemoryDispatcher.Builder(metrics).build()).build();
+    }
+
+    @Test
+    public void testTagTypes() throws Exception {
+        Span span = tracer.buildSpan("tag-types").withStartTimestamp(1L).start();
+        span.setTag("string", "value1");
+        span.setTag("empty", "");
+        span.setTag("boolean", true);
+        span.setTag("long", (long) 1);
+        span.setTag("negative", -1L);
+        span.setTag("int", 1);
+        span.setTag("double", Double.valueOf(2d));
+        span.setTag("float", Float.parseFloat("2.0000"));
+        span.setTag("binary", new BigDecimal("3.14"));
+        span.finish(3L);
+
+        assertRoundTrip(Collections.singletonList(span));
+    }
+
+    @Test
+    public void testLogsBaggageAndParents() throws Exception {
+        Span parent = tracer.buildSpan("parent").withStartTimestamp(5L).start();
+        parent.setBaggageItem("parent-baggage", "value");
+
+        Span child = tracer.buildSpan("child").asChildOf(parent).withStartTimestamp(2L).start();
+        child.log(5L, "simple-event");
+        child.log(6L, ImmutableMap.<String, Object>of("string", "value1", "long", 1L));
+        child.log(7L, Collections.singletonMap("unicode", "caf\u00e9 \u2603"));
+        child.finish(4L);
+        parent.finish(9L);
+
+        // the base is the child's earlier start, the parent's delta is positive
+        assertRoundTrip(Arrays.asList(parent, child));
+    }
+
+    @Test
+    public void testEmptyAndUnfinished() throws Exception {
+        assertRoundTrip(Collections.<Span>emptyList());
+        assertRoundTrip(Collections.singletonList(tracer.buildSpan("").start()));
+    }
+
+    @Test
+    public void testRepeatedStringsAreWrittenOnce() throws Exception {
+        final List<Span> spans = new ArrayList<>();
+        int separately = 0;
+        for (int i = 0; i < 100; i++) {
+            spans.add(request(i));
+            separately += new DirectProtoBufFormat().format(spans.get(i)).length;
+        }
+
+        final byte[] batch = new ColumnarBatchFormat().format(spans);
+        assertTrue(batch.length * 2 < separately);
+        assertRoundTrip(spans);
+    }
+
+    @Test
+    public void testMalformedBatchesAreRejected() throws Exception {
+        final byte[] batch = new ColumnarBatchFormat().format(Arrays.asList(request(1), request(2)));
+
+        try {
+            new ColumnarBatchDecoder().decode(Arrays.copyOf(batch, batch.length - 1));
+            fail();
+        } catch (IOException e) {
+            // truncated
+        }
+
+        final byte[] unknown = batch.clone();
+        unknown[0] = (byte) (ColumnarBatchFormat.VERSION + 1);
+        try {
+            new ColumnarBatchDecoder().decode(unknown);
+            fail();
+        } catch (IOException e) {
+            // unknown version
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.formats;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.Tracer;
+import com.expedia.www.haystack.client.dispatchers.InMemoryDispatcher;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.google.common.collect.ImmutableMap;
+
+public class DirectProtoBufFormatTest {
+    private Tracer tracer;
+
+    private static void assertSameBytes(Span span) throws Exception {
+        final byte[] expected = new ProtoBufFormat().format(span).toByteArray();
+        final byte[] actual = new DirectProtoBufFormat().format(span);
+        assertArrayEquals(expected, actual);
+        assertEquals(new ProtoBufFormat().format(span), com.expedia.open.tracing.Span.parseFrom(actual));
+    }
+
+    @Before
+    public void setup() {
+        NoopMetricsRegistry metrics = new NoopMetricsRegistry();
+        tracer = new Tracer.Builder(metrics, "direct-protobuf-format-tests", new InMemoryDispatcher.Builder(metrics).build()).build();
+    }
+
+    @Test
+    public void testTagTypes() throws Exception {
+        Span span = tracer.buildSpan("tag-types").withStartTimestamp(1L).start();
+        span.setTag("string", "value1");
+        span.setTag("empty", "");
+        span.setTag("boolean", true);
+        span.setTag("false", false);
+        span.setTag("long", (long) 1);
+        span.setTag("negative", -1L);
+        span.setTag("zero", 0L);
+        span.setTag("int", 1);
+        span.setTag("short", Short.parseShort("1"));
+        span.setTag("double", Double.valueOf(2d));
+        span.setTag("float", Float.parseFloat("2.0000"));
+        span.setTag("binary", new BigDecimal("3.14"));
+        span.finish(3L);
+
+        assertSameBytes(span);
+    }
+
+    @Test
+    public void testLogsAndBaggage() throws Exception {
+        Span parent = tracer.buildSpan("parent").withStartTimestamp(1L).start();
+        parent.setBaggageItem("parent-baggage", "value");
+
+        Span span = tracer.buildSpan("child").asChildOf(parent).withStartTimestamp(2L).start();
+        span.log(5L, "simple-event");
+        span.log(6L, ImmutableMap.<String, Object>builder()
+                 .put("string", "value1")
+                 .put("boolean", true)
+                 .put("long", 1L)
+                 .put("double", Double.valueOf(2d))
+                 .build());
+        span.log(Collections.singletonMap("unicode", "caf\u00e9 \u2603"));
+        span.finish(4L);
+
+        assertSameBytes(span);
+    }
+
+    @Test
+    public void testLogFieldsAreTypedOnce() throws Exception {
+        final AtomicInteger encoded = new AtomicInteger();
+        final TagEncoders counting = new TagEncoders.Builder()
+            .withEncoder(BigDecimal.class, (value) -> {
+                    encoded.incrementAndGet();
+                    return value.toString().getBytes("UTF-8");
+                })
+            .build();
+        final TagEncoders plain = new TagEncoders.Builder()
+            .withEncoder(BigDecimal.class, (value) -> value.toString().getBytes("UTF-8"))
+            .build();
+
+        // more fields than the scratch starts with
+        final Map<String, Object> fields = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            fields.put("field-" + i, new BigDecimal(i));
+        }
+        Span span = tracer.buildSpan("many-fields").withStartTimestamp(1L).start();
+        span.log(2L, fields);
+        span.log(3L, "event");
+        span.finish(4L);
+
+        final byte[] actual = new DirectProtoBufFormat(new EncodedStrings(), counting).format(span);
+        assertArrayEquals(new ProtoBufFormat(plain).format(span).toByteArray(), actual);
+        assertEquals(20, encoded.get());
+    }
+
+    @Test
+    public void testUnfinishedSpan() throws Exception {
+        Span span = tracer.buildSpan("").start();
+
+        assertSameBytes(span);
+    }
+
+    @Test
+    public void testSpanLargerThanBuffer() throws Exception {
+        Span span = tracer.buildSpan("large").start();
+        for (int i = 0; i < 2000; i++) {
+            span.setTag("key-" + i, "value-" + i);
+        }
+        span.finish();
+
+        assertSameBytes(span);
+        // the grown buffer is not kept, the next span still fits
+        assertSameBytes(tracer.buildSpan("small").start());
+    }
+
+    @Test
+    public void testFormatIntoDirectBuffer() throws Exception {
+        Span span = tracer.buildSpan("direct").withTag("key", "value").start();
+        span.finish();
+
+        final byte[] expected = new DirectProtoBufFormat().format(span);
+        final ByteBuffer target = ByteBuffer.allocateDirect(expected.length);
+        assertEquals(expected.length, new DirectProtoBufFormat().format(span, target));
+
+        final byte[] actual = new byte[expected.length];
+        target.flip();
+        target.get(actual);
+        assertArrayEquals(expected, actual);
+
+        // one byte short leaves the target as it was
+        final ByteBuffer small = ByteBuffer.allocateDirect(expected.length - 1);
+        assertEquals(-1, new DirectProtoBufFormat().format(span, small));
+        assertEquals(0, small.position());
+    }
+}
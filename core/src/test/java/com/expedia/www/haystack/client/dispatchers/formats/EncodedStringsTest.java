@@ -0,0 +1,63 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.formats;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class EncodedStringsTest {
+
+    @Test
+    public void testEncodesUtf8() {
+        final EncodedStrings strings = new EncodedStrings();
+        final String value = "caf\u00e9 \u2603";
+
+        assertArrayEquals(value.getBytes(StandardCharsets.UTF_8), strings.encode(value));
+        // cached after the first encode
+        assertSame(strings.encode(value), strings.encode(value));
+    }
+
+    @Test
+    public void testCacheIsBounded() {
+        final EncodedStrings strings = new EncodedStrings(10, 256, Collections.singletonList("pre-encoded"));
+        final byte[] preEncoded = strings.encode("pre-encoded");
+
+        for (int i = 0; i < 1000; i++) {
+            strings.encode("operation-" + i);
+        }
+
+        assertEquals(10, strings.size());
+        // pre-encoded strings are never evicted
+        assertSame(preEncoded, strings.encode("pre-encoded"));
+    }
+
+    @Test
+    public void testLongStringsAreNotCached() {
+        final EncodedStrings strings = new EncodedStrings(10, 4, Collections.<String>emptyList());
+
+        strings.encode("short");
+        strings.encode("tiny");
+
+        assertEquals(1, strings.size());
+    }
+}
@@ -102,6 +102,24 @@ public class ProtBufFormatTest {
         }
     }
 
+    @Test
+    public void testUnencodableTagIsSentAsString() {
+        Object value = new Object() {
+                @Override
+                public String toString() {
+                    return "opaque";
+                }
+            };
+        Span span = tracer.buildSpan("opaque-tag").start();
+        span.log(ImmutableMap.of("opaque", value));
+
+        com.expedia.open.tracing.Span protoSpan = new ProtoBufFormat().format(span);
+        Tag tag = protoSpan.getLogs(0).getFields(0);
+
+        assertEquals(Tag.TagType.STRING, tag.getType());
+        assertEquals("opaque", tag.getVStr());
+    }
+
     @Test
     public void testChildSpanConversion() {
         Span parent = tracer.buildSpan("parent")
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.formats;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TagEncodersTest {
+    private static final class Opaque implements Serializable {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private final TagEncoders encoders = TagEncoders.defaults();
+
+    @Test
+    public void testCommonTypes() {
+        assertArrayEquals("SECONDS".getBytes(StandardCharsets.UTF_8), encoders.encode(TimeUnit.SECONDS));
+        assertArrayEquals("3.14".getBytes(StandardCharsets.UTF_8), encoders.encode(new BigDecimal("3.14")));
+
+        final ByteBuffer buffer = ByteBuffer.wrap(new byte[] {1, 2, 3});
+        buffer.get();
+        assertArrayEquals(new byte[] {2, 3}, encoders.encode(buffer));
+        assertEquals(1, buffer.position());
+    }
+
+    @Test
+    public void testPackedCollections() {
+        // zigzag varints
+        assertArrayEquals(new byte[] {2, 1, 4}, encoders.encode(Arrays.asList(1L, -1, (short) 2)));
+        assertArrayEquals(new byte[] {2, 1, 4}, encoders.encode(new long[] {1, -1, 2}));
+        assertArrayEquals(new byte[] {1, 0}, encoders.encode(Arrays.asList(true, false)));
+        assertArrayEquals(new byte[] {1, 'a', 2, 'b', 'c'}, encoders.encode(Arrays.asList("a", "bc")));
+        // mixed elements can't be packed
+        assertNull(encoders.encode(Arrays.<Object>asList(1L, "a")));
+    }
+
+    @Test
+    public void testJavaSerializationIsOptIn() {
+        assertNull(encoders.encode(new Opaque()));
+        assertNotNull(new TagEncoders.Builder().withJavaSerialization().build().encode(new Opaque()));
+    }
+
+    @Test
+    public void testRegisteredEncoderTakesPrecedence() {
+        final TagEncoders custom = new TagEncoders.Builder()
+            .withEncoder(TimeUnit.class, (value) -> new byte[] {(byte) value.ordinal()})
+            .withEncoder(Opaque.class, (value) -> new byte[] {42})
+            .build();
+
+        assertArrayEquals(new byte[] {(byte) TimeUnit.SECONDS.ordinal()}, custom.encode(TimeUnit.SECONDS));
+        assertArrayEquals(new byte[] {42}, custom.encode(new Opaque()));
+    }
+}
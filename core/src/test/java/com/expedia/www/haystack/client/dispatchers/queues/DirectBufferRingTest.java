@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.queues;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DirectBufferRingTest {
+
+    private static byte[] read(DirectBufferRing ring, long position) {
+        final ByteBuffer slot = ring.readable(position);
+        final byte[] record = new byte[slot.remaining()];
+        slot.get(record);
+        return record;
+    }
+
+    @Test
+    public void testArenaIsAllocatedUpFront() {
+        DirectBufferRing ring = new DirectBufferRing(1000, 512, WaitStrategy.busySpin());
+        Assert.assertEquals(1024, ring.getCapacity());
+        Assert.assertEquals(1024 * 512, ring.getArenaBytes());
+        Assert.assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void testOfferAndPollInOrder() {
+        DirectBufferRing ring = new DirectBufferRing(4, 8, WaitStrategy.busySpin());
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(ring.offer(new byte[] { (byte) i, (byte) i }));
+        }
+        Assert.assertFalse(ring.offer(new byte[] { 4 }));
+        Assert.assertEquals(4, ring.size());
+
+        for (int i = 0; i < 4; i++) {
+            final long position = ring.poll();
+            Assert.assertArrayEquals(new byte[] { (byte) i, (byte) i }, read(ring, position));
+            ring.release(position);
+        }
+        Assert.assertEquals(-1, ring.poll());
+        Assert.assertTrue(ring.isEmpty());
+        // every slot is free again
+        Assert.assertTrue(ring.offer(new byte[] { 5 }));
+    }
+
+    @Test
+    public void testSlotIsHeldUntilReleased() {
+        DirectBufferRing ring = new DirectBufferRing(2, 8, WaitStrategy.busySpin());
+        Assert.assertTrue(ring.offer(new byte[] { 1 }));
+        Assert.assertTrue(ring.offer(new byte[] { 2 }));
+
+        final long position = ring.poll();
+        Assert.assertFalse(ring.offer(new byte[] { 3 }));
+        ring.release(position);
+        Assert.assertTrue(ring.offer(new byte[] { 3 }));
+    }
+
+    @Test
+    public void testAbandonedAndOversizeRecordsAreSkipped() {
+        DirectBufferRing ring = new DirectBufferRing(4, 4, WaitStrategy.busySpin());
+        Assert.assertFalse(ring.offer(new byte[5]));
+
+        final long abandoned = ring.claim();
+        ring.writable(abandoned).put((byte) 9);
+        ring.abandon(abandoned);
+        Assert.assertTrue(ring.offer(new byte[] { 1, 2, 3, 4 }));
+
+        final long position = ring.poll();
+        Assert.assertArrayEquals(new byte[] { 1, 2, 3, 4 }, read(ring, position));
+        ring.release(position);
+        Assert.assertEquals(-1, ring.poll());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException {
+        final DirectBufferRing ring = new DirectBufferRing(64, 8, WaitStrategy.yielding());
+        final int producers = 8;
+        final int perProducer = 10000;
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+
+        for (int p = 0; p < producers; p++) {
+            final long base = p * (long) perProducer;
+            executor.submit(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    final byte[] record = ByteBuffer.allocate(8).putLong(base + i).array();
+                    while (!ring.offer(record)) {
+                        Thread.yield();
+                    }
+                }
+                return null;
+            });
+        }
+
+        long sum = 0;
+        for (int i = 0; i < producers * perProducer; i++) {
+            final long position = ring.poll(5, TimeUnit.SECONDS);
+            Assert.assertTrue(position >= 0);
+            sum += ring.readable(position).getLong();
+            ring.release(position);
+        }
+        executor.shutdown();
+
+        long total = (long) producers * perProducer;
+        Assert.assertEquals(total * (total - 1) / 2, sum);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.queues;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RingBufferQueueTest {
+
+    @Test
+    public void testCapacityIsRoundedUp() {
+        RingBufferQueue<Integer> queue = new RingBufferQueue<>(1000, WaitStrategy.busySpin());
+        Assert.assertEquals(1024, queue.getCapacity());
+        Assert.assertEquals(1024, queue.remainingCapacity());
+    }
+
+    @Test
+    public void testOfferAndPollInOrder() {
+        RingBufferQueue<Integer> queue = new RingBufferQueue<>(4, WaitStrategy.busySpin());
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(queue.offer(i));
+        }
+        Assert.assertFalse(queue.offer(4));
+        Assert.assertEquals(4, queue.size());
+        Assert.assertEquals((Integer) 0, queue.peek());
+
+        List<Integer> drained = new ArrayList<>();
+        Assert.assertEquals(4, queue.drainTo(drained));
+        Assert.assertEquals(4, drained.size());
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals((Integer) i, drained.get(i));
+        }
+        Assert.assertNull(queue.poll());
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testPollTimesOut() throws InterruptedException {
+        RingBufferQueue<Integer> queue = new RingBufferQueue<>(4, WaitStrategy.parking());
+        Assert.assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(queue.offer(1, 10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException {
+        final RingBufferQueue<Long> queue = new RingBufferQueue<>(64, WaitStrategy.yielding());
+        final int producers = 8;
+        final int perProducer = 10000;
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+
+        for (int p = 0; p < producers; p++) {
+            final long base = p * (long) perProducer;
+            executor.submit(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    queue.put(base + i);
+                }
+                return null;
+            });
+        }
+
+        long sum = 0;
+        for (int i = 0; i < producers * perProducer; i++) {
+            Long value = queue.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(value);
+            sum += value;
+        }
+        executor.shutdown();
+
+        long total = (long) producers * perProducer;
+        Assert.assertEquals(total * (total - 1) / 2, sum);
+        Assert.assertTrue(queue.isEmpty());
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.samplers;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.expedia.www.haystack.client.Clock;
+import com.expedia.www.haystack.client.dispatchers.RemoteDispatcher;
+import com.expedia.www.haystack.client.idgenerators.IdGenerator;
+import com.expedia.www.haystack.client.idgenerators.ThreadLocalRandomIdGenerator;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+
+public class SamplerTest {
+
+    @Test
+    public void testConstantSamplers() {
+        Assert.assertTrue(new AlwaysSampler().sample("op", 1l, 2l));
+        Assert.assertFalse(new NeverSampler().sample("op", 1l, 2l));
+    }
+
+    @Test
+    public void testProbabilisticSamplerRate() {
+        IdGenerator generator = new ThreadLocalRandomIdGenerator();
+        ProbabilisticSampler sampler = new ProbabilisticSampler(0.25);
+
+        int sampled = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (sampler.sample("op", generator.nextMostSignificantBits(), generator.nextLeastSignificantBits())) {
+                sampled++;
+            }
+        }
+        Assert.assertEquals(25000, sampled, 1500);
+    }
+
+    @Test
+    public void testProbabilisticSamplerIsConsistentPerTrace() {
+        IdGenerator generator = new ThreadLocalRandomIdGenerator();
+        ProbabilisticSampler sampler = new ProbabilisticSampler(0.5);
+        long high = generator.nextMostSignificantBits();
+        long low = generator.nextLeastSignificantBits();
+
+        Assert.assertEquals(sampler.sample("a", high, low), sampler.sample("b", high, low));
+        Assert.assertTrue(new ProbabilisticSampler(1.0).sample("op", high, low));
+        Assert.assertFalse(new ProbabilisticSampler(0.0).sample("op", high, low));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidProbability() {
+        new ProbabilisticSampler(1.5);
+    }
+
+    @Test
+    public void testRateLimitingSampler() {
+        Clock clock = mock(Clock.class);
+        long now = TimeUnit.SECONDS.toNanos(100);
+        when(clock.nanoTime()).thenReturn(now);
+
+        RateLimitingSampler sampler = new RateLimitingSampler(clock, 2.0);
+
+        Assert.assertTrue(sampler.sample("op", 1l, 1l));
+        Assert.assertTrue(sampler.sample("op", 1l, 2l));
+        Assert.assertFalse(sampler.sample("op", 1l, 3l));
+
+        when(clock.nanoTime()).thenReturn(now + TimeUnit.MILLISECONDS.toNanos(500));
+        Assert.assertTrue(sampler.sample("op", 1l, 4l));
+        Assert.assertFalse(sampler.sample("op", 1l, 5l));
+    }
+
+    @Test
+    public void testAdaptiveSamplerFollowsPressure() {
+        Clock clock = mock(Clock.class);
+        RemoteDispatcher dispatcher = mock(RemoteDispatcher.class);
+        long now = TimeUnit.SECONDS.toNanos(100);
+        when(clock.nanoTime()).thenReturn(now);
+
+        AdaptiveSampler sampler = new AdaptiveSampler.Builder(new NoopMetricsRegistry(), dispatcher)
+            .withClock(clock)
+            .withMinRate(0.1)
+            .withIncreaseStep(0.25)
+            .withAdjustIntervalMillis(1000)
+            .build();
+        Assert.assertEquals(1.0, sampler.getRate(), 0.0);
+
+        // rejections halve the rate
+        when(dispatcher.getRejectedCount()).thenReturn(10l);
+        now += TimeUnit.SECONDS.toNanos(1);
+        when(clock.nanoTime()).thenReturn(now);
+        sampler.sample("op", 1l, 1l);
+        Assert.assertEquals(0.5, sampler.getRate(), 0.0);
+
+        // no further adjustment within the interval
+        when(dispatcher.getRejectedCount()).thenReturn(20l);
+        sampler.sample("op", 1l, 1l);
+        Assert.assertEquals(0.5, sampler.getRate(), 0.0);
+
+        // a full queue keeps halving, down to the minimum
+        when(dispatcher.getQueueFillRatio()).thenReturn(0.9);
+        for (int i = 0; i < 5; i++) {
+            now += TimeUnit.SECONDS.toNanos(1);
+            when(clock.nanoTime()).thenReturn(now);
+            sampler.sample("op", 1l, 1l);
+        }
+        Assert.assertEquals(0.1, sampler.getRate(), 0.0);
+
+        // and recovers once the pressure is gone
+        when(dispatcher.getQueueFillRatio()).thenReturn(0.0);
+        for (int i = 0; i < 5; i++) {
+            now += TimeUnit.SECONDS.toNanos(1);
+            when(clock.nanoTime()).thenReturn(now);
+            sampler.sample("op", 1l, 1l);
+        }
+        Assert.assertEquals(1.0, sampler.getRate(), 0.0);
+    }
+
+    @Test
+    public void testPerOperationSampler() {
+        Clock clock = mock(Clock.class);
+        long now = TimeUnit.SECONDS.toNanos(100);
+        when(clock.nanoTime()).thenReturn(now);
+
+        PerOperationSampler sampler = new PerOperationSampler.Builder(new NoopMetricsRegistry())
+            .withClock(clock)
+            .withFallback(new AlwaysSampler())
+            .withMaxTracesPerSecond(2)
+            .withMinTracesPerInterval(0, 1000)
+            .build();
+
+        // each operation has its own budget
+        Assert.assertTrue(sampler.sample("hot", 1l, 1l));
+        Assert.assertTrue(sampler.sample("hot", 1l, 2l));
+        Assert.assertFalse(sampler.sample("hot", 1l, 3l));
+        Assert.assertTrue(sampler.sample("rare", 1l, 4l));
+        Assert.assertEquals(2, sampler.getOperationCount());
+    }
+
+    @Test
+    public void testPerOperationGuaranteedMinimum() {
+        Clock clock = mock(Clock.class);
+        long now = TimeUnit.SECONDS.toNanos(100);
+        when(clock.nanoTime()).thenReturn(now);
+
+        PerOperationSampler sampler = new PerOperationSampler.Builder(new NoopMetricsRegistry())
+            .withClock(clock)
+            .withFallback(new NeverSampler())
+            .withMinTracesPerInterval(1, TimeUnit.MINUTES.toMillis(1))
+            .build();
+
+        Assert.assertTrue(sampler.sample("rare", 1l, 1l));
+        Assert.assertFalse(sampler.sample("rare", 1l, 2l));
+
+        when(clock.nanoTime()).thenReturn(now + TimeUnit.MINUTES.toNanos(1));
+        Assert.assertTrue(sampler.sample("rare", 1l, 3l));
+    }
+
+    @Test
+    public void testPerOperationTableIsBounded() {
+        PerOperationSampler sampler = new PerOperationSampler.Builder(new NoopMetricsRegistry())
+            .withMaxOperations(10)
+            .build();
+
+        for (int i = 0; i < 100; i++) {
+            sampler.sample("operation-" + i, 1l, i);
+        }
+        Assert.assertEquals(10, sampler.getOperationCount());
+    }
+}
@@ -16,7 +16,10 @@
  */
 package com.expedia.haystack.dropwizard.configuration;
 
+import java.util.concurrent.TimeUnit;
+
 import javax.annotation.Nullable;
+import javax.validation.Valid;
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
@@ -25,7 +28,9 @@ import org.hibernate.validator.constraints.NotEmpty;
 
 import com.expedia.open.tracing.Span;
 import com.expedia.www.haystack.client.dispatchers.clients.Client;
+import com.expedia.www.haystack.client.dispatchers.clients.DictionaryDeflateCodec;
 import com.expedia.www.haystack.client.dispatchers.clients.GRPCAgentClient;
+import com.expedia.www.haystack.client.dispatchers.formats.DirectProtoBufFormat;
 import com.expedia.www.haystack.client.dispatchers.formats.Format;
 import com.expedia.www.haystack.client.metrics.MetricsRegistry;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -75,6 +80,78 @@ import io.dropwizard.setup.Environment;
  * </tr>
  *
  * <tr>
+ *  <td>streamingMethod</td>
+ *  <td>None</td>
+ *  <td>Full name of a client-streaming agent method; when set spans are streamed instead of sent one call at a time</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>maxRetries</td>
+ *  <td>0</td>
+ *  <td>Retries for a span the agent failed or rate limited, with a jittered exponential backoff</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>initialBackoffMS</td>
+ *  <td>100</td>
+ *  <td>The largest wait before the first retry</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>maxBackoffMS</td>
+ *  <td>10000</td>
+ *  <td>The largest wait before any retry</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>circuitBreakerFailureThreshold</td>
+ *  <td>None</td>
+ *  <td>Consecutive failures after which spans are diverted to the fallback instead of sent</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>circuitBreakerOpenMS</td>
+ *  <td>30000</td>
+ *  <td>How long the circuit breaker stays open before probing the agent again</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>fallback</td>
+ *  <td>None</td>
+ *  <td>A client to divert spans to; without one they are dropped</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>maxInFlight</td>
+ *  <td>None</td>
+ *  <td>The most calls awaiting a result from the agent; sends beyond it wait, then fail</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>inFlightTimeoutMS</td>
+ *  <td>0</td>
+ *  <td>How long a send waits for room in the in-flight window</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>callDeadlineMS</td>
+ *  <td>None</td>
+ *  <td>How long a single call to the agent may take before it fails</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>compression</td>
+ *  <td>None</td>
+ *  <td>The message encoding to compress spans with: <code>gzip</code>, or <code>haystack-deflate-v1</code> for a deflate primed with common span strings, which the agent must support</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>minCompressBytes</td>
+ *  <td>0</td>
+ *  <td>Encoded spans smaller than this are sent uncompressed</td>
+ * </tr>
+ *
+ * <tr>
  *   <td colspan="3">See {@link BaseClientFactory} for more options, if any.</td>
  * </tr>
  *
@@ -103,14 +180,65 @@ public class AgentClientFactory extends BaseClientFactory {
     @Nullable
     private Boolean keepAliveWithoutCalls;
 
+    @Nullable
+    private String streamingMethod;
+
+    @Nullable
+    @Min(0)
+    private Integer maxRetries;
+
+    @Nullable
+    @Min(1)
+    private Long initialBackoffMS;
+
+    @Nullable
+    @Min(1)
+    private Long maxBackoffMS;
+
+    @Nullable
+    @Min(1)
+    private Integer circuitBreakerFailureThreshold;
+
+    @Nullable
+    @Min(1)
+    private Long circuitBreakerOpenMS;
+
+    @Valid
+    @Nullable
+    private ClientFactory fallback;
+
+    @Nullable
+    @Min(1)
+    private Integer maxInFlight;
+
+    @Nullable
+    @Min(0)
+    private Long inFlightTimeoutMS;
+
+    @Nullable
+    @Min(1)
+    private Long callDeadlineMS;
+
+    @Nullable
+    private String compression;
+
+    @Nullable
+    @Min(0)
+    private Integer minCompressBytes;
+
     public AgentClientFactory() {
-        setFormat(new ProtoBufFormatFactory());
+        setFormat(new DirectProtoBufFormatFactory());
     }
 
     @Override
     public Client build(Environment environment, MetricsRegistry metrics) {
         GRPCAgentClient.Builder grpcBuilder = new GRPCAgentClient.Builder(metrics, host, port);
-        grpcBuilder.withFormat((Format<Span>) getFormat().build(environment));
+        final Format<?> format = getFormat().build(environment);
+        if (format instanceof DirectProtoBufFormat) {
+            grpcBuilder.withEncoder((DirectProtoBufFormat) format);
+        } else {
+            grpcBuilder.withFormat((Format<Span>) format);
+        }
 
         if (keepAliveTimeMS != null) {
             grpcBuilder.withKeepAliveTimeMS(keepAliveTimeMS);
@@ -121,6 +249,35 @@ public class AgentClientFactory extends BaseClientFactory {
         if (keepAliveWithoutCalls != null) {
             grpcBuilder.withKeepAliveWithoutCalls(keepAliveWithoutCalls);
         }
+        if (streamingMethod != null) {
+            grpcBuilder.withStreamingMethodName(streamingMethod);
+        }
+        if (maxRetries != null) {
+            grpcBuilder.withRetries(maxRetries,
+                                    initialBackoffMS != null ? initialBackoffMS : 100,
+                                    maxBackoffMS != null ? maxBackoffMS : TimeUnit.SECONDS.toMillis(10));
+        }
+        if (circuitBreakerFailureThreshold != null) {
+            grpcBuilder.withCircuitBreaker(circuitBreakerFailureThreshold,
+                                           circuitBreakerOpenMS != null ? circuitBreakerOpenMS : TimeUnit.SECONDS.toMillis(30));
+        }
+        if (fallback != null) {
+            grpcBuilder.withFallback(fallback.build(environment, metrics));
+        }
+        if (maxInFlight != null) {
+            grpcBuilder.withMaxInFlight(maxInFlight, inFlightTimeoutMS != null ? inFlightTimeoutMS : 0);
+        }
+        if (callDeadlineMS != null) {
+            grpcBuilder.withCallDeadlineMS(callDeadlineMS);
+        }
+        if (compression != null) {
+            final int minBytes = (minCompressBytes != null ? minCompressBytes : 0);
+            if (DictionaryDeflateCodec.DEFAULT_ENCODING.equals(compression)) {
+                grpcBuilder.withCompressor(new DictionaryDeflateCodec(), minBytes);
+            } else {
+                grpcBuilder.withCompression(compression, minBytes);
+            }
+        }
 
         return grpcBuilder.build();
     }
@@ -205,4 +362,196 @@ public class AgentClientFactory extends BaseClientFactory {
         this.keepAliveWithoutCalls = keepAliveWithoutCalls;
     }
 
+    /**
+     * @return the streamingMethod
+     */
+    @JsonProperty
+    public String getStreamingMethod() {
+        return streamingMethod;
+    }
+
+    /**
+     * @param streamingMethod the streamingMethod to set
+     */
+    @JsonProperty
+    public void setStreamingMethod(String streamingMethod) {
+        this.streamingMethod = streamingMethod;
+    }
+
+    /**
+     * @return the maxRetries
+     */
+    @JsonProperty
+    public Integer getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @param maxRetries the maxRetries to set
+     */
+    @JsonProperty
+    public void setMaxRetries(Integer maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * @return the initialBackoffMS
+     */
+    @JsonProperty
+    public Long getInitialBackoffMS() {
+        return initialBackoffMS;
+    }
+
+    /**
+     * @param initialBackoffMS the initialBackoffMS to set
+     */
+    @JsonProperty
+    public void setInitialBackoffMS(Long initialBackoffMS) {
+        this.initialBackoffMS = initialBackoffMS;
+    }
+
+    /**
+     * @return the maxBackoffMS
+     */
+    @JsonProperty
+    public Long getMaxBackoffMS() {
+        return maxBackoffMS;
+    }
+
+    /**
+     * @param maxBackoffMS the maxBackoffMS to set
+     */
+    @JsonProperty
+    public void setMaxBackoffMS(Long maxBackoffMS) {
+        this.maxBackoffMS = maxBackoffMS;
+    }
+
+    /**
+     * @return the circuitBreakerFailureThreshold
+     */
+    @JsonProperty
+    public Integer getCircuitBreakerFailureThreshold() {
+        return circuitBreakerFailureThreshold;
+    }
+
+    /**
+     * @param circuitBreakerFailureThreshold the circuitBreakerFailureThreshold to set
+     */
+    @JsonProperty
+    public void setCircuitBreakerFailureThreshold(Integer circuitBreakerFailureThreshold) {
+        this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+    }
+
+    /**
+     * @return the circuitBreakerOpenMS
+     */
+    @JsonProperty
+    public Long getCircuitBreakerOpenMS() {
+        return circuitBreakerOpenMS;
+    }
+
+    /**
+     * @param circuitBreakerOpenMS the circuitBreakerOpenMS to set
+     */
+    @JsonProperty
+    public void setCircuitBreakerOpenMS(Long circuitBreakerOpenMS) {
+        this.circuitBreakerOpenMS = circuitBreakerOpenMS;
+    }
+
+    /**
+     * @return the fallback
+     */
+    @JsonProperty
+    public ClientFactory getFallback() {
+        return fallback;
+    }
+
+    /**
+     * @param fallback the fallback to set
+     */
+    @JsonProperty
+    public void setFallback(ClientFactory fallback) {
+        this.fallback = fallback;
+    }
+
+    /**
+     * @return the maxInFlight
+     */
+    @JsonProperty
+    public Integer getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * @param maxInFlight the maxInFlight to set
+     */
+    @JsonProperty
+    public void setMaxInFlight(Integer maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * @return the inFlightTimeoutMS
+     */
+    @JsonProperty
+    public Long getInFlightTimeoutMS() {
+        return inFlightTimeoutMS;
+    }
+
+    /**
+     * @param inFlightTimeoutMS the inFlightTimeoutMS to set
+     */
+    @JsonProperty
+    public void setInFlightTimeoutMS(Long inFlightTimeoutMS) {
+        this.inFlightTimeoutMS = inFlightTimeoutMS;
+    }
+
+    /**
+     * @return the callDeadlineMS
+     */
+    @JsonProperty
+    public Long getCallDeadlineMS() {
+        return callDeadlineMS;
+    }
+
+    /**
+     * @param callDeadlineMS the callDeadlineMS to set
+     */
+    @JsonProperty
+    public void setCallDeadlineMS(Long callDeadlineMS) {
+        this.callDeadlineMS = callDeadlineMS;
+    }
+
+    /**
+     * @return the compression
+     */
+    @JsonProperty
+    public String getCompression() {
+        return compression;
+    }
+
+    /**
+     * @param compression the compression to set
+     */
+    @JsonProperty
+    public void setCompression(String compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * @return the minCompressBytes
+     */
+    @JsonProperty
+    public Integer getMinCompressBytes() {
+        return minCompressBytes;
+    }
+
+    /**
+     * @param minCompressBytes the minCompressBytes to set
+     */
+    @JsonProperty
+    public void setMinCompressBytes(Integer minCompressBytes) {
+        this.minCompressBytes = minCompressBytes;
+    }
+
 }
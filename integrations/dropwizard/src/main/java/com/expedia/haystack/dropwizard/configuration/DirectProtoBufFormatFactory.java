@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.Min;
+
+import com.expedia.www.haystack.client.dispatchers.formats.DirectProtoBufFormat;
+import com.expedia.www.haystack.client.dispatchers.formats.EncodedStrings;
+import com.expedia.www.haystack.client.dispatchers.formats.Format;
+import com.expedia.www.haystack.client.dispatchers.formats.TagEncoders;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+
+import io.dropwizard.setup.Environment;
+
+/**
+ * A factory for {@link DirectProtoBufFormat}.
+ *
+ * <code>maxCachedStrings</code> and <code>maxCachedStringLength</code>
+ * bound the cache of encoded service names, operation names and keys;
+ * <code>preEncodedStrings</code> are encoded up front, in addition to
+ * {@link EncodedStrings#COMMON_KEYS}, and never evicted.
+ * <code>javaSerialization</code> enables Java serialization of tag
+ * values no {@link TagEncoders} default handles; it is off by default.
+ */
+@JsonTypeName("protobuf-direct")
+public class DirectProtoBufFormatFactory implements FormatFactory {
+
+    @Nullable
+    @Min(0)
+    private Integer maxCachedStrings;
+
+    @Nullable
+    @Min(0)
+    private Integer maxCachedStringLength;
+
+    @Nullable
+    private List<String> preEncodedStrings;
+
+    @Nullable
+    private Boolean javaSerialization;
+
+    @Override
+    public Format<?> build(Environment environment) {
+        final List<String> preEncoded = new ArrayList<>(EncodedStrings.COMMON_KEYS);
+        if (preEncodedStrings != null) {
+            preEncoded.addAll(preEncodedStrings);
+        }
+        return new DirectProtoBufFormat(new EncodedStrings(
+                (maxCachedStrings != null ? maxCachedStrings : EncodedStrings.DEFAULT_MAX_ENTRIES),
+                (maxCachedStringLength != null ? maxCachedStringLength : EncodedStrings.DEFAULT_MAX_LENGTH),
+                preEncoded),
+            tagEncoders());
+    }
+
+    private TagEncoders tagEncoders() {
+        final TagEncoders.Builder builder = new TagEncoders.Builder();
+        if (Boolean.TRUE.equals(javaSerialization)) {
+            builder.withJavaSerialization();
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the maxCachedStrings
+     */
+    @JsonProperty
+    public Integer getMaxCachedStrings() {
+        return maxCachedStrings;
+    }
+
+    /**
+     * @param maxCachedStrings the maxCachedStrings to set
+     */
+    @JsonProperty
+    public void setMaxCachedStrings(Integer maxCachedStrings) {
+        this.maxCachedStrings = maxCachedStrings;
+    }
+
+    /**
+     * @return the maxCachedStringLength
+     */
+    @JsonProperty
+    public Integer getMaxCachedStringLength() {
+        return maxCachedStringLength;
+    }
+
+    /**
+     * @param maxCachedStringLength the maxCachedStringLength to set
+     */
+    @JsonProperty
+    public void setMaxCachedStringLength(Integer maxCachedStringLength) {
+        this.maxCachedStringLength = maxCachedStringLength;
+    }
+
+    /**
+     * @return the preEncodedStrings
+     */
+    @JsonProperty
+    public List<String> getPreEncodedStrings() {
+        return preEncodedStrings;
+    }
+
+    /**
+     * @param preEncodedStrings the preEncodedStrings to set
+     */
+    @JsonProperty
+    public void setPreEncodedStrings(List<String> preEncodedStrings) {
+        this.preEncodedStrings = preEncodedStrings;
+    }
+
+    /**
+     * @return the javaSerialization
+     */
+    @JsonProperty
+    public Boolean getJavaSerialization() {
+        return javaSerialization;
+    }
+
+    /**
+     * @param javaSerialization the javaSerialization to set
+     */
+    @JsonProperty
+    public void setJavaSerialization(Boolean javaSerialization) {
+        this.javaSerialization = javaSerialization;
+    }
+}
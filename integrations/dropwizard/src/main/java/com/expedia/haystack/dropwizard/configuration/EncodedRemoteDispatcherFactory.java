@@ -0,0 +1,349 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.configuration;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import com.expedia.www.haystack.client.dispatchers.DiskSpillBuffer;
+import com.expedia.www.haystack.client.dispatchers.Dispatcher;
+import com.expedia.www.haystack.client.dispatchers.EncodedRemoteDispatcher;
+import com.expedia.www.haystack.client.dispatchers.formats.DirectProtoBufFormat;
+import com.expedia.www.haystack.client.dispatchers.formats.Format;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+
+import io.dropwizard.setup.Environment;
+
+@JsonTypeName("remote-encoded")
+public class EncodedRemoteDispatcherFactory implements DispatcherFactory {
+    private static final int DEFAULT_ENCODE_QUEUE_SIZE = 1000;
+    private static final int DEFAULT_DIRECT_BUFFER_SLOT_BYTES = 16 * 1024;
+
+    @Valid
+    @NotNull
+    private ClientFactory client;
+
+    @Valid
+    @NotNull
+    private FormatFactory format;
+
+    @Nullable
+    @Min(1)
+    private Integer maxQueueSize;
+
+    @Nullable
+    @Min(0)
+    private Long maxQueueBytes;
+
+    @Nullable
+    @Min(0)
+    private Integer encodeThreads;
+
+    @Nullable
+    @Min(1)
+    private Integer encodeQueueSize;
+
+    @Nullable
+    @Min(1)
+    private Long flushIntervalMs;
+
+    @Nullable
+    @Min(1)
+    private Long shutdownTimoutMs;
+
+    @Nullable
+    @Min(1)
+    private Integer directBufferSlots;
+
+    @Nullable
+    @Min(1)
+    private Integer directBufferSlotBytes;
+
+    @Nullable
+    private String spillDirectory;
+
+    @Nullable
+    @Min(1024)
+    private Integer spillSegmentBytes;
+
+    @Nullable
+    @Min(1024)
+    private Long spillMaxBytes;
+
+    public EncodedRemoteDispatcherFactory() {
+        setFormat(new DirectProtoBufFormatFactory());
+    }
+
+    @Override
+    public Dispatcher build(Environment environment, MetricsRegistry metrics) {
+        EncodedRemoteDispatcher.Builder builder = new EncodedRemoteDispatcher.Builder(metrics, client.build(environment, metrics));
+        final Format<?> encoder = format.build(environment);
+        if (!(encoder instanceof DirectProtoBufFormat)) {
+            throw new IllegalStateException(String.format("Format %s does not encode spans to bytes", encoder));
+        }
+        builder.withEncoder((DirectProtoBufFormat) encoder);
+        if (maxQueueSize != null) {
+            builder.withBlockingQueueLimit(maxQueueSize);
+        }
+        if (maxQueueBytes != null) {
+            builder.withMaxQueueBytes(maxQueueBytes);
+        }
+        if (encodeThreads != null) {
+            builder.withEncodeThreads(encodeThreads, encodeQueueSize != null ? encodeQueueSize : DEFAULT_ENCODE_QUEUE_SIZE);
+        }
+        if (directBufferSlots != null) {
+            builder.withDirectBufferRing(directBufferSlots, directBufferSlotBytes != null ? directBufferSlotBytes : DEFAULT_DIRECT_BUFFER_SLOT_BYTES);
+        }
+        if (flushIntervalMs != null) {
+            builder.withFlushIntervalMillis(flushIntervalMs);
+        }
+        if (shutdownTimoutMs != null) {
+            builder.withShutdownTimeoutMillis(shutdownTimoutMs);
+        }
+        if (spillDirectory != null) {
+            DiskSpillBuffer.Builder spill = new DiskSpillBuffer.Builder(metrics, new File(spillDirectory));
+            if (spillSegmentBytes != null) {
+                spill.withSegmentBytes(spillSegmentBytes);
+            }
+            if (spillMaxBytes != null) {
+                spill.withMaxBytes(spillMaxBytes);
+            }
+            try {
+                builder.withSpillBuffer(spill.build());
+            } catch (IOException e) {
+                throw new IllegalStateException(String.format("Unable to open the spill directory %s", spillDirectory), e);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the client
+     */
+    @JsonProperty
+    public ClientFactory getClient() {
+        return client;
+    }
+
+    /**
+     * @param client the client to set
+     */
+    @JsonProperty
+    public void setClient(ClientFactory client) {
+        this.client = client;
+    }
+
+    /**
+     * @return the format
+     */
+    @JsonProperty
+    public FormatFactory getFormat() {
+        return format;
+    }
+
+    /**
+     * @param format the format to set
+     */
+    @JsonProperty
+    public void setFormat(FormatFactory format) {
+        this.format = format;
+    }
+
+    /**
+     * @return the maxQueueSize
+     */
+    @JsonProperty
+    public Integer getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    /**
+     * @param maxQueueSize the maxQueueSize to set
+     */
+    @JsonProperty
+    public void setMaxQueueSize(Integer maxQueueSize) {
+        this.maxQueueSize = maxQueueSize;
+    }
+
+    /**
+     * @return the maxQueueBytes
+     */
+    @JsonProperty
+    public Long getMaxQueueBytes() {
+        return maxQueueBytes;
+    }
+
+    /**
+     * @param maxQueueBytes the maxQueueBytes to set
+     */
+    @JsonProperty
+    public void setMaxQueueBytes(Long maxQueueBytes) {
+        this.maxQueueBytes = maxQueueBytes;
+    }
+
+    /**
+     * @return the encodeThreads
+     */
+    @JsonProperty
+    public Integer getEncodeThreads() {
+        return encodeThreads;
+    }
+
+    /**
+     * @param encodeThreads the encodeThreads to set
+     */
+    @JsonProperty
+    public void setEncodeThreads(Integer encodeThreads) {
+        this.encodeThreads = encodeThreads;
+    }
+
+    /**
+     * @return the encodeQueueSize
+     */
+    @JsonProperty
+    public Integer getEncodeQueueSize() {
+        return encodeQueueSize;
+    }
+
+    /**
+     * @param encodeQueueSize the encodeQueueSize to set
+     */
+    @JsonProperty
+    public void setEncodeQueueSize(Integer encodeQueueSize) {
+        this.encodeQueueSize = encodeQueueSize;
+    }
+
+    /**
+     * @return the flushIntervalMs
+     */
+    @JsonProperty
+    public Long getFlushIntervalMs() {
+        return flushIntervalMs;
+    }
+
+    /**
+     * @param flushIntervalMs the flushIntervalMs to set
+     */
+    @JsonProperty
+    public void setFlushIntervalMs(Long flushIntervalMs) {
+        this.flushIntervalMs = flushIntervalMs;
+    }
+
+    /**
+     * @return the shutdownTimoutMs
+     */
+    @JsonProperty
+    public Long getShutdownTimoutMs() {
+        return shutdownTimoutMs;
+    }
+
+    /**
+     * @param shutdownTimoutMs the shutdownTimoutMs to set
+     */
+    @JsonProperty
+    public void setShutdownTimoutMs(Long shutdownTimoutMs) {
+        this.shutdownTimoutMs = shutdownTimoutMs;
+    }
+
+    /**
+     * @return the directBufferSlots
+     */
+    @JsonProperty
+    public Integer getDirectBufferSlots() {
+        return directBufferSlots;
+    }
+
+    /**
+     * @param directBufferSlots the directBufferSlots to set
+     */
+    @JsonProperty
+    public void setDirectBufferSlots(Integer directBufferSlots) {
+        this.directBufferSlots = directBufferSlots;
+    }
+
+    /**
+     * @return the directBufferSlotBytes
+     */
+    @JsonProperty
+    public Integer getDirectBufferSlotBytes() {
+        return directBufferSlotBytes;
+    }
+
+    /**
+     * @param directBufferSlotBytes the directBufferSlotBytes to set
+     */
+    @JsonProperty
+    public void setDirectBufferSlotBytes(Integer directBufferSlotBytes) {
+        this.directBufferSlotBytes = directBufferSlotBytes;
+    }
+
+    /**
+     * @return the spillDirectory
+     */
+    @JsonProperty
+    public String getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * @param spillDirectory the spillDirectory to set
+     */
+    @JsonProperty
+    public void setSpillDirectory(String spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * @return the spillSegmentBytes
+     */
+    @JsonProperty
+    public Integer getSpillSegmentBytes() {
+        return spillSegmentBytes;
+    }
+
+    /**
+     * @param spillSegmentBytes the spillSegmentBytes to set
+     */
+    @JsonProperty
+    public void setSpillSegmentBytes(Integer spillSegmentBytes) {
+        this.spillSegmentBytes = spillSegmentBytes;
+    }
+
+    /**
+     * @return the spillMaxBytes
+     */
+    @JsonProperty
+    public Long getSpillMaxBytes() {
+        return spillMaxBytes;
+    }
+
+    /**
+     * @param spillMaxBytes the spillMaxBytes to set
+     */
+    @JsonProperty
+    public void setSpillMaxBytes(Long spillMaxBytes) {
+        this.spillMaxBytes = spillMaxBytes;
+    }
+
+}
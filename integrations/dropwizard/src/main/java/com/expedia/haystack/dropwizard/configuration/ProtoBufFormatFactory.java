@@ -16,17 +16,55 @@
  */
 package com.expedia.haystack.dropwizard.configuration;
 
+import javax.annotation.Nullable;
+
 import com.expedia.www.haystack.client.dispatchers.formats.Format;
 import com.expedia.www.haystack.client.dispatchers.formats.ProtoBufFormat;
+import com.expedia.www.haystack.client.dispatchers.formats.TagEncoders;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeName;
 
 import io.dropwizard.setup.Environment;
 
+/**
+ * A factory for {@link ProtoBufFormat}.
+ *
+ * <code>javaSerialization</code> enables Java serialization of tag
+ * values no {@link TagEncoders} default handles; it is off by default.
+ */
 @JsonTypeName("protobuf")
 public class ProtoBufFormatFactory implements FormatFactory {
+
+    @Nullable
+    private Boolean javaSerialization;
+
     @Override
     public Format<?> build(Environment environment) {
-        return new ProtoBufFormat();
+        return new ProtoBufFormat(tagEncoders());
+    }
+
+    private TagEncoders tagEncoders() {
+        final TagEncoders.Builder builder = new TagEncoders.Builder();
+        if (Boolean.TRUE.equals(javaSerialization)) {
+            builder.withJavaSerialization();
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the javaSerialization
+     */
+    @JsonProperty
+    public Boolean getJavaSerialization() {
+        return javaSerialization;
+    }
+
+    /**
+     * @param javaSerialization the javaSerialization to set
+     */
+    @JsonProperty
+    public void setJavaSerialization(Boolean javaSerialization) {
+        this.javaSerialization = javaSerialization;
     }
 }
 
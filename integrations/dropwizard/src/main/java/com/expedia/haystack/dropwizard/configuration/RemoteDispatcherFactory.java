@@ -16,13 +16,19 @@
  */
 package com.expedia.haystack.dropwizard.configuration;
 
+import java.io.File;
+import java.io.IOException;
+
 import javax.annotation.Nullable;
 import javax.validation.Valid;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
+import com.expedia.www.haystack.client.dispatchers.DiskSpillBuffer;
 import com.expedia.www.haystack.client.dispatchers.Dispatcher;
+import com.expedia.www.haystack.client.dispatchers.OverflowPolicy;
 import com.expedia.www.haystack.client.dispatchers.RemoteDispatcher;
+import com.expedia.www.haystack.client.dispatchers.queues.WaitStrategy;
 import com.expedia.www.haystack.client.metrics.MetricsRegistry;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeName;
@@ -31,6 +37,23 @@ import io.dropwizard.setup.Environment;
 
 @JsonTypeName("remote")
 public class RemoteDispatcherFactory implements DispatcherFactory {
+    private static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    public enum QueueWaitStrategy {
+        SPIN, YIELD, PARK;
+
+        WaitStrategy build() {
+            switch (this) {
+            case SPIN:
+                return WaitStrategy.busySpin();
+            case YIELD:
+                return WaitStrategy.yielding();
+            default:
+                return WaitStrategy.parking();
+            }
+        }
+    }
+
     @Valid
     @NotNull
     private ClientFactory client;
@@ -39,6 +62,9 @@ public class RemoteDispatcherFactory implements DispatcherFactory {
     @Min(1)
     private Integer maxQueueSize;
 
+    @Nullable
+    private QueueWaitStrategy queueWaitStrategy;
+
     @Nullable
     @Min(1)
     private Integer threadCount;
@@ -51,10 +77,46 @@ public class RemoteDispatcherFactory implements DispatcherFactory {
     @Min(1)
     private Long shutdownTimoutMs;
 
+    @Nullable
+    @Min(1)
+    private Integer maxBatchSize;
+
+    @Nullable
+    @Min(0)
+    private Long batchLingerMs;
+
+    @Nullable
+    @Min(1)
+    private Integer senderCount;
+
+    @Nullable
+    private OverflowPolicy overflowPolicy;
+
+    @Nullable
+    @Min(0)
+    private Long blockTimeoutMs;
+
+    @Nullable
+    @Min(0)
+    private Long maxQueueBytes;
+
+    @Nullable
+    private String spillDirectory;
+
+    @Nullable
+    @Min(1024)
+    private Integer spillSegmentBytes;
+
+    @Nullable
+    @Min(1024)
+    private Long spillMaxBytes;
+
     @Override
     public Dispatcher build(Environment environment, MetricsRegistry metrics) {
         RemoteDispatcher.Builder builder = new RemoteDispatcher.Builder(metrics, client.build(environment, metrics));
-        if (maxQueueSize != null) {
+        if (queueWaitStrategy != null) {
+            builder.withRingBufferQueue(maxQueueSize != null ? maxQueueSize : DEFAULT_QUEUE_SIZE, queueWaitStrategy.build());
+        } else if (maxQueueSize != null) {
             builder.withBlockingQueueLimit(maxQueueSize);
         }
         if (threadCount != null) {
@@ -66,6 +128,38 @@ public class RemoteDispatcherFactory implements DispatcherFactory {
         if (shutdownTimoutMs != null) {
             builder.withShutdownTimeoutMillis(shutdownTimoutMs);
         }
+        if (maxBatchSize != null) {
+            builder.withMaxBatchSize(maxBatchSize);
+        }
+        if (batchLingerMs != null) {
+            builder.withBatchLingerMillis(batchLingerMs);
+        }
+        if (senderCount != null) {
+            builder.withSenderCount(senderCount);
+        }
+        if (overflowPolicy != null) {
+            builder.withOverflowPolicy(overflowPolicy);
+        }
+        if (blockTimeoutMs != null) {
+            builder.withBlockTimeoutMillis(blockTimeoutMs);
+        }
+        if (maxQueueBytes != null) {
+            builder.withMaxQueueBytes(maxQueueBytes);
+        }
+        if (spillDirectory != null) {
+            DiskSpillBuffer.Builder spill = new DiskSpillBuffer.Builder(metrics, new File(spillDirectory));
+            if (spillSegmentBytes != null) {
+                spill.withSegmentBytes(spillSegmentBytes);
+            }
+            if (spillMaxBytes != null) {
+                spill.withMaxBytes(spillMaxBytes);
+            }
+            try {
+                builder.withSpillBuffer(spill.build());
+            } catch (IOException e) {
+                throw new IllegalStateException(String.format("Unable to open the spill directory %s", spillDirectory), e);
+            }
+        }
         return builder.build();
     }
 
@@ -101,6 +195,22 @@ public class RemoteDispatcherFactory implements DispatcherFactory {
         this.maxQueueSize = maxQueueSize;
     }
 
+    /**
+     * @return the queueWaitStrategy
+     */
+    @JsonProperty
+    public QueueWaitStrategy getQueueWaitStrategy() {
+        return queueWaitStrategy;
+    }
+
+    /**
+     * @param queueWaitStrategy the queueWaitStrategy to set
+     */
+    @JsonProperty
+    public void setQueueWaitStrategy(QueueWaitStrategy queueWaitStrategy) {
+        this.queueWaitStrategy = queueWaitStrategy;
+    }
+
     /**
      * @return the threadCount
      */
@@ -149,4 +259,148 @@ public class RemoteDispatcherFactory implements DispatcherFactory {
         this.shutdownTimoutMs = shutdownTimoutMs;
     }
 
+    /**
+     * @return the maxBatchSize
+     */
+    @JsonProperty
+    public Integer getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @param maxBatchSize the maxBatchSize to set
+     */
+    @JsonProperty
+    public void setMaxBatchSize(Integer maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * @return the batchLingerMs
+     */
+    @JsonProperty
+    public Long getBatchLingerMs() {
+        return batchLingerMs;
+    }
+
+    /**
+     * @param batchLingerMs the batchLingerMs to set
+     */
+    @JsonProperty
+    public void setBatchLingerMs(Long batchLingerMs) {
+        this.batchLingerMs = batchLingerMs;
+    }
+
+    /**
+     * @return the senderCount
+     */
+    @JsonProperty
+    public Integer getSenderCount() {
+        return senderCount;
+    }
+
+    /**
+     * @param senderCount the senderCount to set
+     */
+    @JsonProperty
+    public void setSenderCount(Integer senderCount) {
+        this.senderCount = senderCount;
+    }
+
+    /**
+     * @return the overflowPolicy
+     */
+    @JsonProperty
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @param overflowPolicy the overflowPolicy to set
+     */
+    @JsonProperty
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * @return the blockTimeoutMs
+     */
+    @JsonProperty
+    public Long getBlockTimeoutMs() {
+        return blockTimeoutMs;
+    }
+
+    /**
+     * @param blockTimeoutMs the blockTimeoutMs to set
+     */
+    @JsonProperty
+    public void setBlockTimeoutMs(Long blockTimeoutMs) {
+        this.blockTimeoutMs = blockTimeoutMs;
+    }
+
+    /**
+     * @return the maxQueueBytes
+     */
+    @JsonProperty
+    public Long getMaxQueueBytes() {
+        return maxQueueBytes;
+    }
+
+    /**
+     * @param maxQueueBytes the maxQueueBytes to set
+     */
+    @JsonProperty
+    public void setMaxQueueBytes(Long maxQueueBytes) {
+        this.maxQueueBytes = maxQueueBytes;
+    }
+
+    /**
+     * @return the spillDirectory
+     */
+    @JsonProperty
+    public String getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * @param spillDirectory the spillDirectory to set
+     */
+    @JsonProperty
+    public void setSpillDirectory(String spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * @return the spillSegmentBytes
+     */
+    @JsonProperty
+    public Integer getSpillSegmentBytes() {
+        return spillSegmentBytes;
+    }
+
+    /**
+     * @param spillSegmentBytes the spillSegmentBytes to set
+     */
+    @JsonProperty
+    public void setSpillSegmentBytes(Integer spillSegmentBytes) {
+        this.spillSegmentBytes = spillSegmentBytes;
+    }
+
+    /**
+     * @return the spillMaxBytes
+     */
+    @JsonProperty
+    public Long getSpillMaxBytes() {
+        return spillMaxBytes;
+    }
+
+    /**
+     * @param spillMaxBytes the spillMaxBytes to set
+     */
+    @JsonProperty
+    public void setSpillMaxBytes(Long spillMaxBytes) {
+        this.spillMaxBytes = spillMaxBytes;
+    }
+
 }
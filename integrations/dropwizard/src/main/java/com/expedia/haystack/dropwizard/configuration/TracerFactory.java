@@ -18,7 +18,9 @@ package com.expedia.haystack.dropwizard.configuration;
 
 import java.util.List;
 
+import javax.annotation.Nullable;
 import javax.validation.Valid;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 import org.hibernate.validator.constraints.NotEmpty;
@@ -53,6 +55,10 @@ public class TracerFactory {
     @NotEmpty
     private List<DispatcherFactory> dispatchers = ImmutableList.of(new RemoteDispatcherFactory());
 
+    @Nullable
+    @Min(1)
+    private Integer fanOutQueueSize;
+
     public io.opentracing.Tracer build(Environment environment) {
         if (!enabled) {
             return NoopTracerFactory.create();
@@ -62,10 +68,13 @@ public class TracerFactory {
 
         Dispatcher dispatcher;
         if (dispatchers.size() > 1) {
-            ChainedDispatcher.Builder builder = new ChainedDispatcher.Builder();
+            ChainedDispatcher.Builder builder = new ChainedDispatcher.Builder(registry);
             for (DispatcherFactory factory : dispatchers) {
                 builder.withDispatcher(factory.build(environment, registry));
             }
+            if (fanOutQueueSize != null) {
+                builder.withFanOut(fanOutQueueSize);
+            }
             dispatcher = builder.build();
         } else {
             dispatcher = dispatchers.get(0).build(environment, registry);
@@ -80,6 +89,7 @@ public class TracerFactory {
         return MoreObjects.toStringHelper(this)
             .add("serviceName", serviceName)
             .add("dispatchers", dispatchers)
+            .add("fanOutQueueSize", fanOutQueueSize)
             .toString();
     }
 
@@ -122,4 +132,14 @@ public class TracerFactory {
     public void setDispatchers(List<DispatcherFactory> dispatchers) {
         this.dispatchers = dispatchers;
     }
+
+    @JsonProperty
+    public Integer getFanOutQueueSize() {
+        return fanOutQueueSize;
+    }
+
+    @JsonProperty
+    public void setFanOutQueueSize(Integer fanOutQueueSize) {
+        this.fanOutQueueSize = fanOutQueueSize;
+    }
 }
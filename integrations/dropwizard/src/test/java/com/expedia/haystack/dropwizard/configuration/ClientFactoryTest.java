@@ -38,6 +38,8 @@ public class ClientFactoryTest extends BaseFactoryTest<ClientFactory> {
     public void testBuildAgent() throws Exception {
         AgentClientFactory agent = (AgentClientFactory) testFactory(factory, "yaml/client/agent.yml", AgentClientFactory.class);
         assertThat(agent.getPort()).isBetween(1, 65535);
+        assertThat(agent.getCompression()).isEqualTo("gzip");
+        assertThat(agent.getMinCompressBytes()).isEqualTo(256);
         assertThat(agent.getFormat()).isNotNull();
     }
 
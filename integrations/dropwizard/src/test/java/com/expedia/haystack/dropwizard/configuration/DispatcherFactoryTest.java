@@ -31,7 +31,8 @@ public class DispatcherFactoryTest extends BaseFactoryTest<DispatcherFactory> {
         // Make sure the types we specified in META-INF gets picked up
         isDiscoverable(ImmutableList.of(RemoteDispatcherFactory.class,
                                         LoggerDispatcherFactory.class,
-                                        RemoteDispatcherFactory.class));
+                                        RemoteDispatcherFactory.class,
+                                        EncodedRemoteDispatcherFactory.class));
     }
 
     @Test
@@ -39,6 +40,11 @@ public class DispatcherFactoryTest extends BaseFactoryTest<DispatcherFactory> {
         RemoteDispatcherFactory agent = (RemoteDispatcherFactory) testFactory(factory, "yaml/dispatcher/remote.yml", RemoteDispatcherFactory.class);
     }
 
+    @Test
+    public void testBuildEncodedRemote() throws Exception {
+        testFactory(factory, "yaml/dispatcher/remote-encoded.yml", EncodedRemoteDispatcherFactory.class);
+    }
+
     @Test
     public void testBuildLogger() throws Exception {
         testFactory(factory, "yaml/dispatcher/logger.yml", LoggerDispatcherFactory.class);
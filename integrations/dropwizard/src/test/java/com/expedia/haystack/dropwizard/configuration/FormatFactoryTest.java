@@ -29,7 +29,7 @@ public class FormatFactoryTest extends BaseFactoryTest<FormatFactory> {
     @Test
     public void isDiscoverable() throws Exception {
         // Make sure the types we specified in META-INF gets picked up
-        isDiscoverable(ImmutableList.of(StringFormatFactory.class, ProtoBufFormatFactory.class));
+        isDiscoverable(ImmutableList.of(StringFormatFactory.class, ProtoBufFormatFactory.class, DirectProtoBufFormatFactory.class));
     }
 
     @Test
@@ -42,4 +42,9 @@ public class FormatFactoryTest extends BaseFactoryTest<FormatFactory> {
         testFactory(factory, "yaml/format/protobuf.yml", ProtoBufFormatFactory.class);
     }
 
+    @Test
+    public void testBuildDirectProtobufFormat() throws Exception {
+        testFactory(factory, "yaml/format/protobuf-direct.yml", DirectProtoBufFormatFactory.class);
+    }
+
 }